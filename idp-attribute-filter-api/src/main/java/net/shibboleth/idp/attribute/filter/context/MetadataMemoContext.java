@@ -0,0 +1,161 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.attribute.filter.context;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.Unmodifiable;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.messaging.context.BaseContext;
+import org.opensaml.saml.ext.saml2mdattr.EntityAttributes;
+import org.opensaml.saml.metadata.EntityGroupName;
+import org.opensaml.saml.saml2.core.Attribute;
+import org.opensaml.saml.saml2.metadata.AttributeConsumingService;
+import org.opensaml.saml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.RequestedAttribute;
+
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ListMultimap;
+
+/**
+ * A context, a child of {@link AttributeFilterContext}, which memoizes views of metadata extracted by matchers and
+ * policy rules, so that each is extracted once per filtering operation however many policies consult it.
+ * 
+ * <p>Views are keyed by the identity of the metadata object they are extracted from.</p>
+ * 
+ * <p>
+ * This should be considered a private API limited to plugin implementations.
+ * </p>
+ */
+@NotThreadSafe
+public final class MetadataMemoContext extends BaseContext {
+
+    /** Entity attributes by entity. */
+    @Nonnull private final Map<EntityDescriptor,ListMultimap<String,Attribute>> entityAttributes;
+
+    /** Group names by entity. */
+    @Nonnull private final Map<EntityDescriptor,Set<String>> entityGroups;
+
+    /** Requested attributes by service. */
+    @Nonnull private final Map<AttributeConsumingService,ListMultimap<String,RequestedAttribute>> requestedAttributes;
+
+    /** Constructor. */
+    public MetadataMemoContext() {
+        entityAttributes = new IdentityHashMap<>();
+        entityGroups = new IdentityHashMap<>();
+        requestedAttributes = new IdentityHashMap<>();
+    }
+
+    /**
+     * Get the attributes in an entity's EntityAttributes extension, indexed by name.
+     * 
+     * <p>Only the first EntityAttributes extension is considered.</p>
+     * 
+     * @param entity the entity
+     * 
+     * @return the entity attributes, in document order
+     */
+    @Nonnull @NonnullElements @Unmodifiable public ListMultimap<String,Attribute> getEntityAttributes(
+            @Nonnull final EntityDescriptor entity) {
+        ListMultimap<String,Attribute> attributes = entityAttributes.get(entity);
+        if (attributes == null) {
+            attributes = ImmutableListMultimap.of();
+            if (entity.getExtensions() != null) {
+                final List<XMLObject> extensions =
+                        entity.getExtensions().getUnknownXMLObjects(EntityAttributes.DEFAULT_ELEMENT_NAME);
+                if (!extensions.isEmpty()) {
+                    final ImmutableListMultimap.Builder<String,Attribute> builder = ImmutableListMultimap.builder();
+                    for (final Attribute attribute : ((EntityAttributes) extensions.get(0)).getAttributes()) {
+                        if (attribute.getName() != null) {
+                            builder.put(attribute.getName(), attribute);
+                        }
+                    }
+                    attributes = builder.build();
+                }
+            }
+            entityAttributes.put(entity, attributes);
+        }
+        return attributes;
+    }
+
+    /**
+     * Get the names of the groups an entity belongs to, as attached by a metadata resolver or given by its
+     * enclosing EntitiesDescriptor elements.
+     * 
+     * @param entity the entity
+     * 
+     * @return the group names
+     */
+    @Nonnull @NonnullElements @Unmodifiable public Set<String> getEntityGroups(
+            @Nonnull final EntityDescriptor entity) {
+        Set<String> groups = entityGroups.get(entity);
+        if (groups == null) {
+            final Set<String> names = new HashSet<>();
+            for (final EntityGroupName group : entity.getObjectMetadata().get(EntityGroupName.class)) {
+                names.add(group.getName());
+            }
+            XMLObject parent = entity.getParent();
+            while (parent instanceof EntitiesDescriptor) {
+                final String name = ((EntitiesDescriptor) parent).getName();
+                if (name != null) {
+                    names.add(name);
+                }
+                parent = parent.getParent();
+            }
+            groups = names.isEmpty() ? Collections.<String>emptySet() : ImmutableSet.copyOf(names);
+            entityGroups.put(entity, groups);
+        }
+        return groups;
+    }
+
+    /**
+     * Get the attributes requested by a service, indexed by name.
+     * 
+     * @param service the service
+     * 
+     * @return the requested attributes, in document order
+     */
+    @Nonnull @NonnullElements @Unmodifiable public ListMultimap<String,RequestedAttribute> getRequestedAttributes(
+            @Nonnull final AttributeConsumingService service) {
+        ListMultimap<String,RequestedAttribute> attributes = requestedAttributes.get(service);
+        if (attributes == null) {
+            final ImmutableListMultimap.Builder<String,RequestedAttribute> builder = ImmutableListMultimap.builder();
+            for (final RequestedAttribute attribute : service.getRequestAttributes()) {
+                if (attribute.getName() != null) {
+                    builder.put(attribute.getName(), attribute);
+                }
+            }
+            attributes = builder.build();
+            requestedAttributes.put(service, attributes);
+        }
+        return attributes;
+    }
+
+}
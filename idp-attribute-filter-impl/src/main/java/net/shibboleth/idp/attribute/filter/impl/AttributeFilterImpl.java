@@ -33,7 +33,9 @@ import net.shibboleth.idp.attribute.filter.AttributeFilterException;
 import net.shibboleth.idp.attribute.filter.AttributeFilterPolicy;
 import net.shibboleth.idp.attribute.filter.context.AttributeFilterContext;
 import net.shibboleth.idp.attribute.filter.context.AttributeFilterWorkContext;
+import net.shibboleth.idp.attribute.filter.context.MetadataMemoContext;
 import net.shibboleth.idp.profile.context.RelyingPartyContext;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.annotation.constraint.NullableElements;
@@ -65,6 +67,9 @@ public class AttributeFilterImpl extends AbstractServiceableComponent<AttributeF
     /** Filter policies used by this engine. */
     private final List<AttributeFilterPolicy> filterPolicies;
 
+    /** Index of the filter policies, built at initialization. */
+    @NonnullAfterInit private AttributeFilterPolicyIndex policyIndex;
+
     /** Log prefix. */
     private String logPrefix;
 
@@ -125,7 +130,9 @@ public class AttributeFilterImpl extends AbstractServiceableComponent<AttributeF
             log.debug("{} Beginning process of filtering the following {} attributes: {}", new Object[] {getLogPrefix(),
                     prefilteredAttributes.size(), prefilteredAttributes.keySet(),});
     
-            final List<AttributeFilterPolicy> policies = getFilterPolicies();
+            final List<AttributeFilterPolicy> policies = policyIndex.getCandidates(filterContext);
+            log.trace("{} Evaluating {} of {} filter policies", getLogPrefix(), policies.size(),
+                    filterPolicies.size());
             for (final AttributeFilterPolicy policy : policies) {
                 policy.apply(filterContext);
             }
@@ -144,6 +151,8 @@ public class AttributeFilterImpl extends AbstractServiceableComponent<AttributeF
                 }
             }
         } finally {
+            // Metadata lookups memoized by the policies apply to this request only.
+            filterContext.removeSubcontext(MetadataMemoContext.class);
             if (timerStarted) {
                 stopTimer(filterContext);
             }
@@ -197,6 +206,9 @@ public class AttributeFilterImpl extends AbstractServiceableComponent<AttributeF
     @Override protected void doInitialize() throws ComponentInitializationException {
         super.doInitialize();
         logPrefix = null;
+        policyIndex = new AttributeFilterPolicyIndex(filterPolicies);
+        log.debug("{} Indexed {} filter policies, {} of which are evaluated for every request", getLogPrefix(),
+                filterPolicies.size(), policyIndex.getUnindexedCount());
     }
 
     /**
@@ -0,0 +1,293 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.attribute.filter.impl;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import net.shibboleth.idp.attribute.filter.AttributeFilterPolicy;
+import net.shibboleth.idp.attribute.filter.PolicyRequirementRule;
+import net.shibboleth.idp.attribute.filter.context.AttributeFilterContext;
+import net.shibboleth.idp.attribute.filter.context.MetadataMemoContext;
+import net.shibboleth.idp.attribute.filter.policyrule.filtercontext.impl.AttributeIssuerPolicyRule;
+import net.shibboleth.idp.attribute.filter.policyrule.filtercontext.impl.AttributeRequesterPolicyRule;
+import net.shibboleth.idp.attribute.filter.policyrule.impl.AbstractStringPolicyRule;
+import net.shibboleth.idp.attribute.filter.policyrule.logic.impl.AndPolicyRule;
+import net.shibboleth.idp.attribute.filter.policyrule.logic.impl.OrPolicyRule;
+import net.shibboleth.idp.attribute.filter.policyrule.saml.impl.AttributeRequesterInEntityGroupPolicyRule;
+import net.shibboleth.idp.attribute.filter.policyrule.saml.impl.RegistrationAuthorityPolicyRule;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.Unmodifiable;
+
+import org.opensaml.saml.common.messaging.context.SAMLMetadataContext;
+import org.opensaml.saml.ext.saml2mdrpi.RegistrationInfo;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Index of {@link AttributeFilterPolicy} objects by the deterministic parts of their {@link PolicyRequirementRule}.
+ * 
+ * <p>Each policy is analyzed once, at construction, for a set of keys (requester or issuer name, entity group,
+ * registration authority) at least one of which a request must carry for the policy's requirement rule to
+ * return {@link PolicyRequirementRule.Tristate#TRUE}. A request then only needs to evaluate the policies indexed
+ * under its own keys, plus those policies whose rules can't be analyzed (scripts, regular expressions, negation
+ * and so on), which are always candidates.</p>
+ * 
+ * <p>The index only ever narrows the set of policies to evaluate; candidates still have their rules evaluated
+ * in full, so the outcome of filtering is unchanged. Candidates are returned in their original order.</p>
+ */
+@ThreadSafe
+public class AttributeFilterPolicyIndex {
+
+    /** Key prefix for the attribute requester. */
+    @Nonnull private static final String REQUESTER = "requester:";
+
+    /** Key prefix for the attribute issuer. */
+    @Nonnull private static final String ISSUER = "issuer:";
+
+    /** Key prefix for an entity group of the requester. */
+    @Nonnull private static final String GROUP = "group:";
+
+    /** Key prefix for the registration authority of the requester. */
+    @Nonnull private static final String AUTHORITY = "authority:";
+
+    /** The policies, in their original order. */
+    @Nonnull @NonnullElements private final List<AttributeFilterPolicy> policies;
+
+    /** Policies that are candidates for every request. */
+    @Nonnull private final BitSet unindexed;
+
+    /** Policies that are candidates for requests carrying a given key. */
+    @Nonnull private final Map<String,BitSet> index;
+
+    /** Whether any policy is indexed by entity group, requiring metadata to compute a request's keys. */
+    private final boolean groupsIndexed;
+
+    /** Whether any policy is indexed by registration authority, requiring metadata to compute a request's keys. */
+    private final boolean authoritiesIndexed;
+
+    /**
+     * Constructor.
+     * 
+     * @param filterPolicies the policies to index, which must be fully configured
+     */
+    public AttributeFilterPolicyIndex(@Nonnull @NonnullElements final List<AttributeFilterPolicy> filterPolicies) {
+        policies = ImmutableList.copyOf(filterPolicies);
+        unindexed = new BitSet(policies.size());
+        index = new HashMap<>();
+
+        boolean groups = false;
+        boolean authorities = false;
+        for (int i = 0; i < policies.size(); i++) {
+            final Set<String> keys = analyze(policies.get(i).getPolicyRequirementRule());
+            if (keys == null) {
+                unindexed.set(i);
+                continue;
+            }
+            for (final String key : keys) {
+                BitSet bits = index.get(key);
+                if (bits == null) {
+                    bits = new BitSet(policies.size());
+                    index.put(key, bits);
+                }
+                bits.set(i);
+                groups |= key.startsWith(GROUP);
+                authorities |= key.startsWith(AUTHORITY);
+            }
+        }
+        groupsIndexed = groups;
+        authoritiesIndexed = authorities;
+    }
+
+    /**
+     * Get the number of policies that are candidates for every request.
+     * 
+     * @return number of unindexed policies
+     */
+    public int getUnindexedCount() {
+        return unindexed.cardinality();
+    }
+
+    /**
+     * Get the policies that may apply to a request, in their original order.
+     * 
+     * @param filterContext the request
+     * 
+     * @return the candidate policies
+     */
+    @Nonnull @NonnullElements @Unmodifiable public List<AttributeFilterPolicy> getCandidates(
+            @Nonnull final AttributeFilterContext filterContext) {
+        if (index.isEmpty()) {
+            return policies;
+        }
+
+        final BitSet candidates = (BitSet) unindexed.clone();
+        if (filterContext.getAttributeRecipientID() != null) {
+            addCandidates(candidates, foldedKey(REQUESTER, filterContext.getAttributeRecipientID()));
+        }
+        if (filterContext.getAttributeIssuerID() != null) {
+            addCandidates(candidates, foldedKey(ISSUER, filterContext.getAttributeIssuerID()));
+        }
+
+        if (groupsIndexed || authoritiesIndexed) {
+            final SAMLMetadataContext metadataContext = filterContext.getRequesterMetadataContext();
+            final EntityDescriptor entity = metadataContext != null ? metadataContext.getEntityDescriptor() : null;
+            if (entity != null) {
+                if (groupsIndexed) {
+                    final MetadataMemoContext memo = filterContext.getSubcontext(MetadataMemoContext.class, true);
+                    for (final String group : memo.getEntityGroups(entity)) {
+                        addCandidates(candidates, GROUP + group);
+                    }
+                }
+                if (authoritiesIndexed) {
+                    final RegistrationInfo info = RegistrationAuthorityPolicyRule.findRegistrationInfo(entity);
+                    if (info != null && info.getRegistrationAuthority() != null) {
+                        addCandidates(candidates, AUTHORITY + info.getRegistrationAuthority());
+                    }
+                }
+            }
+        }
+
+        final ImmutableList.Builder<AttributeFilterPolicy> builder = ImmutableList.builder();
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            builder.add(policies.get(i));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Add the policies indexed under a key to a candidate set.
+     * 
+     * @param candidates the candidate set
+     * @param key the key
+     */
+    private void addCandidates(@Nonnull final BitSet candidates, @Nonnull final String key) {
+        final BitSet bits = index.get(key);
+        if (bits != null) {
+            candidates.or(bits);
+        }
+    }
+
+// Checkstyle: CyclomaticComplexity|ReturnCount OFF
+    /**
+     * Compute the keys a request must carry at least one of for a rule to be true.
+     * 
+     * @param rule the rule to analyze
+     * 
+     * @return the keys, or null if the rule can't be analyzed and must always be evaluated
+     */
+    @Nullable private static Set<String> analyze(@Nonnull final PolicyRequirementRule rule) {
+        if (rule == PolicyRequirementRule.MATCHES_NONE || rule == PolicyRequirementRule.REQUIREMENT_RULE_FAILS) {
+            return Collections.emptySet();
+        } else if (rule instanceof AttributeRequesterPolicyRule) {
+            return stringKeys(REQUESTER, (AbstractStringPolicyRule) rule);
+        } else if (rule instanceof AttributeIssuerPolicyRule) {
+            return stringKeys(ISSUER, (AbstractStringPolicyRule) rule);
+        } else if (rule instanceof AttributeRequesterInEntityGroupPolicyRule) {
+            final AttributeRequesterInEntityGroupPolicyRule groupRule =
+                    (AttributeRequesterInEntityGroupPolicyRule) rule;
+            if (groupRule.isCheckAffiliations()) {
+                return null;
+            } else if (groupRule.getEntityGroup() == null) {
+                return Collections.emptySet();
+            }
+            return Collections.singleton(GROUP + groupRule.getEntityGroup());
+        } else if (rule instanceof RegistrationAuthorityPolicyRule) {
+            final RegistrationAuthorityPolicyRule authorityRule = (RegistrationAuthorityPolicyRule) rule;
+            if (authorityRule.isMatchIfMetadataSilent()) {
+                return null;
+            }
+            final Set<String> keys = new HashSet<>();
+            for (final String issuer : authorityRule.getIssuers()) {
+                keys.add(AUTHORITY + issuer);
+            }
+            return keys;
+        } else if (rule instanceof OrPolicyRule && ((OrPolicyRule) rule).getComposedRules() != null) {
+            // True only if some subsidiary is, so any of their keys will do.
+            final Set<String> keys = new HashSet<>();
+            for (final PolicyRequirementRule subsidiary : ((OrPolicyRule) rule).getComposedRules()) {
+                final Set<String> subsidiaryKeys = analyze(subsidiary);
+                if (subsidiaryKeys == null) {
+                    return null;
+                }
+                keys.addAll(subsidiaryKeys);
+            }
+            return keys;
+        } else if (rule instanceof AndPolicyRule && ((AndPolicyRule) rule).getComposedRules() != null) {
+            // True only if every subsidiary is, so the keys of any one of them will do; take the fewest.
+            Set<String> keys = null;
+            for (final PolicyRequirementRule subsidiary : ((AndPolicyRule) rule).getComposedRules()) {
+                final Set<String> subsidiaryKeys = analyze(subsidiary);
+                if (subsidiaryKeys != null && (keys == null || subsidiaryKeys.size() < keys.size())) {
+                    keys = subsidiaryKeys;
+                }
+            }
+            return keys;
+        }
+        return null;
+    }
+// Checkstyle: CyclomaticComplexity|ReturnCount ON
+
+    /**
+     * Compute the keys for a string comparison rule.
+     * 
+     * @param prefix key prefix
+     * @param rule the rule
+     * 
+     * @return the keys, or null if the rule can't be analyzed
+     */
+    @Nullable private static Set<String> stringKeys(@Nonnull final String prefix,
+            @Nonnull final AbstractStringPolicyRule rule) {
+        if (rule.getMatchString() == null) {
+            return null;
+        }
+        return Collections.singleton(foldedKey(prefix, rule.getMatchString()));
+    }
+
+    /**
+     * Build a key from a requester or issuer name.
+     * 
+     * <p>Names are case-folded so that one key serves both case-sensitive and
+     * case-insensitive rules; a case-sensitive rule indexed this way may just be evaluated needlessly.
+     * The folding is the character-wise one {@link String#equalsIgnoreCase(String)} uses, so names it
+     * considers equal always share a key.</p>
+     * 
+     * @param prefix key prefix
+     * @param value key value
+     * 
+     * @return the key
+     */
+    @Nonnull private static String foldedKey(@Nonnull final String prefix, @Nonnull final String value) {
+        final StringBuilder builder = new StringBuilder(prefix.length() + value.length()).append(prefix);
+        for (int i = 0; i < value.length(); i++) {
+            builder.append(Character.toLowerCase(Character.toUpperCase(value.charAt(i))));
+        }
+        return builder.toString();
+    }
+
+}
@@ -31,6 +31,7 @@ import net.shibboleth.idp.attribute.IdPAttributeValue;
 import net.shibboleth.idp.attribute.StringAttributeValue;
 import net.shibboleth.idp.attribute.filter.Matcher;
 import net.shibboleth.idp.attribute.filter.context.AttributeFilterContext;
+import net.shibboleth.idp.attribute.filter.context.MetadataMemoContext;
 import net.shibboleth.idp.saml.attribute.encoding.SAML1AttributeEncoder;
 import net.shibboleth.idp.saml.attribute.encoding.SAML2AttributeEncoder;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
@@ -56,6 +57,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ListMultimap;
 
 
 /**
@@ -185,16 +187,19 @@ public class AttributeInMetadataMatcher extends AbstractIdentifiableInitializabl
             }
         }
     
+        final ListMultimap<String,RequestedAttribute> requested =
+                filterContext.getSubcontext(MetadataMemoContext.class, true).getRequestedAttributes(service);
+
         RequestedAttribute requestedAttribute = null;
         if (attributeName != null) {
             // Look for a RequestedAttribute explicitly identified by config.
             log.debug("Looking for RequestedAttribute {} (NameFormat {}) in descriptor", attributeName,
                     attributeNameFormat);
-            requestedAttribute = findInMetadata(service, attributeName, attributeNameFormat);
+            requestedAttribute = findInMetadata(requested, attributeName, attributeNameFormat);
         } else {
             final Set<AttributeEncoder<?>> encoders = attribute.getEncoders();
             for (final AttributeEncoder<?> encoder : encoders) {
-                requestedAttribute = findInMetadata(service, encoder);
+                requestedAttribute = findInMetadata(requested, encoder);
                 if (requestedAttribute != null) {
                     break;
                 }
@@ -247,13 +252,13 @@ public class AttributeInMetadataMatcher extends AbstractIdentifiableInitializabl
      * Locates a {@link RequestedAttribute} object in metadata that matches the eventual "to be encoded" name
      * represented by the encoder.
      * 
-     * @param service the metadata descriptor to search
+     * @param requested the requested attributes to search, indexed by name
      * @param encoder the attribute encoder to base the search on
      * 
      * @return a matching RequestedAttribute, or null
      */
-    @Nullable private RequestedAttribute findInMetadata(@Nonnull final AttributeConsumingService service,
-            @Nonnull final AttributeEncoder encoder) {
+    @Nullable private RequestedAttribute findInMetadata(
+            @Nonnull final ListMultimap<String,RequestedAttribute> requested, @Nonnull final AttributeEncoder encoder) {
         String name = null;
         String qualifier = null;
         if (encoder instanceof SAML2AttributeEncoder) {
@@ -264,29 +269,27 @@ public class AttributeInMetadataMatcher extends AbstractIdentifiableInitializabl
             qualifier = ((SAML1AttributeEncoder) encoder).getNamespace();
         }
         
-        return findInMetadata(service, name, qualifier);
+        return name != null ? findInMetadata(requested, name, qualifier) : null;
     }
     
     /**
      * Locates a RequestedAttribute object in metadata that matches a specific Attribute Name
      * and NameFormat.
      * 
-     * @param service the metadata descriptor to search
+     * @param requested the requested attributes to search, indexed by name
      * @param name Attribute Name to match
      * @param nameFormat Attribute NameFormat to match
      * @return a matching RequestedAttribute, or null
      */
-    @Nullable private RequestedAttribute findInMetadata(@Nonnull final AttributeConsumingService service,
-            @Nonnull final String name, @Nullable final String nameFormat) {
+    @Nullable private RequestedAttribute findInMetadata(
+            @Nonnull final ListMultimap<String,RequestedAttribute> requested, @Nonnull final String name,
+            @Nullable final String nameFormat) {
         
-        final List<RequestedAttribute> requested = service.getRequestAttributes();
-        for (final RequestedAttribute attr : requested) {
-            if (attr.getName().equals(name)) {
-                final String format = attr.getNameFormat();
-                if (nameFormat == null || format == null || format.equals(Attribute.UNSPECIFIED)
-                        || nameFormat.equals(format)) {
-                    return attr;
-                }
+        for (final RequestedAttribute attr : requested.get(name)) {
+            final String format = attr.getNameFormat();
+            if (nameFormat == null || format == null || format.equals(Attribute.UNSPECIFIED)
+                    || nameFormat.equals(format)) {
+                return attr;
             }
         }
         return null;
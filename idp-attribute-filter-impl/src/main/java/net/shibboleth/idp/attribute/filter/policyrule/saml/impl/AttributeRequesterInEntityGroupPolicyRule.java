@@ -23,6 +23,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import net.shibboleth.idp.attribute.filter.context.AttributeFilterContext;
+import net.shibboleth.idp.attribute.filter.context.MetadataMemoContext;
 import net.shibboleth.idp.attribute.filter.policyrule.impl.AbstractPolicyRule;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.logic.Constraint;
@@ -69,6 +70,16 @@ public class AttributeRequesterInEntityGroupPolicyRule extends AbstractPolicyRul
         entityGroup = StringSupport.trimOrNull(group);
     }
     
+    /**
+     * Get whether to check a supplied {@link MetadataResolver} for membership in an AffiliationDescriptor
+     * as a form of group policy.
+     * 
+     * @return whether to check for affiliation membership
+     */
+    public boolean isCheckAffiliations() {
+        return checkAffiliations;
+    }
+
     /**
      * Set whether to check a supplied {@link MetadataResolver} for membership in an AffiliationDescriptor
      * as a form of group policy.
@@ -119,11 +130,18 @@ public class AttributeRequesterInEntityGroupPolicyRule extends AbstractPolicyRul
             return Tristate.FALSE;
         }
 
-        final Predicate<EntityDescriptor> predicate =
-                new EntityGroupNamePredicate(Collections.singleton(entityGroup),
-                        checkAffiliations ? input.getMetadataResolver() : null);
-        
         final EntityDescriptor entity = getEntityMetadata(input);
+        if (!checkAffiliations) {
+            // Group membership without affiliations depends only on the entity, so is memoized for the request.
+            if (entity == null) {
+                return Tristate.FALSE;
+            }
+            final MetadataMemoContext memo = input.getSubcontext(MetadataMemoContext.class, true);
+            return memo.getEntityGroups(entity).contains(entityGroup) ? Tristate.TRUE : Tristate.FALSE;
+        }
+
+        final Predicate<EntityDescriptor> predicate =
+                new EntityGroupNamePredicate(Collections.singleton(entityGroup), input.getMetadataResolver());
         return predicate.apply(entity) ? Tristate.TRUE : Tristate.FALSE;
     }
 
@@ -121,18 +121,27 @@ public class RegistrationAuthorityPolicyRule extends AbstractPolicyRule {
             return null;
         }
 
-        Extensions extensions = spEntity.getExtensions();
-        if (null != extensions) {
-            for (final XMLObject object : extensions.getUnknownXMLObjects(RegistrationInfo.DEFAULT_ELEMENT_NAME)) {
-                if (object instanceof RegistrationInfo) {
-                    return (RegistrationInfo) object;
-                }
-            }
+        final RegistrationInfo info = findRegistrationInfo(spEntity);
+        if (info == null) {
+            log.debug("{} Filtering on registration, but no RegistrationInfo available", getLogPrefix());
         }
-        
-        EntitiesDescriptor group = (EntitiesDescriptor) spEntity.getParent();
-        while (null != group) {
-            extensions = group.getExtensions();
+        return info;
+    }
+
+    /**
+     * Look for the {@link RegistrationInfo} for an entity, in its own extensions or those of the nearest enclosing
+     * group that has one.
+     * 
+     * @param entity the entity's metadata
+     * 
+     * @return the registration info, or null
+     */
+    @Nullable public static RegistrationInfo findRegistrationInfo(@Nonnull final EntityDescriptor entity) {
+        XMLObject descriptor = entity;
+        while (descriptor != null) {
+            final Extensions extensions = descriptor instanceof EntityDescriptor
+                    ? ((EntityDescriptor) descriptor).getExtensions()
+                    : ((EntitiesDescriptor) descriptor).getExtensions();
             if (null != extensions) {
                 for (final XMLObject object : extensions.getUnknownXMLObjects(RegistrationInfo.DEFAULT_ELEMENT_NAME)) {
                     if (object instanceof RegistrationInfo) {
@@ -140,10 +149,8 @@ public class RegistrationAuthorityPolicyRule extends AbstractPolicyRule {
                     }
                 }
             }
-            group = (EntitiesDescriptor) group.getParent();
+            descriptor = descriptor.getParent() instanceof EntitiesDescriptor ? descriptor.getParent() : null;
         }
-
-        log.debug("{} Filtering on registration, but no RegistrationInfo available", getLogPrefix());
         return null;
     }
 
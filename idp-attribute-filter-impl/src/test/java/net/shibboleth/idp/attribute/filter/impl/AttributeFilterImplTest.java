@@ -22,6 +22,9 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
 import net.shibboleth.idp.attribute.IdPAttribute;
 import net.shibboleth.idp.attribute.IdPAttributeValue;
 import net.shibboleth.idp.attribute.StringAttributeValue;
@@ -33,6 +36,7 @@ import net.shibboleth.idp.attribute.filter.MockMatcher;
 import net.shibboleth.idp.attribute.filter.MockPolicyRequirementRule;
 import net.shibboleth.idp.attribute.filter.PolicyRequirementRule;
 import net.shibboleth.idp.attribute.filter.context.AttributeFilterContext;
+import net.shibboleth.idp.attribute.filter.context.MetadataMemoContext;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.logic.ConstraintViolationException;
@@ -148,6 +152,43 @@ public class AttributeFilterImplTest {
         Assert.assertTrue(result.contains(new StringAttributeValue("two")));
     }
 
+    @Test public void testMetadataMemoRemoved() throws Exception {
+        final PolicyRequirementRule memoizingRule = new PolicyRequirementRule() {
+
+            @Override public Tristate matches(@Nonnull final AttributeFilterContext filterContext) {
+                Assert.assertNotNull(filterContext.getSubcontext(MetadataMemoContext.class, true));
+                return Tristate.TRUE;
+            }
+
+            @Override @Nullable public String getId() {
+                return "memoizingRule";
+            }
+        };
+
+        final AttributeRule attribute1Policy = new AttributeRule();
+        attribute1Policy.setId("attribute1Policy");
+        attribute1Policy.setAttributeId("attribute1");
+        attribute1Policy.setMatcher(Matcher.MATCHES_ALL);
+        attribute1Policy.setIsDenyRule(false);
+
+        final AttributeFilterPolicy policy = new AttributeFilterPolicy("attribute1Policy", memoizingRule,
+                Collections.singletonList(attribute1Policy));
+
+        final AttributeFilterContext filterContext = new AttributeFilterContext();
+        final IdPAttribute attribute1 = new IdPAttribute("attribute1");
+        attribute1.setValues(Collections.singletonList(new StringAttributeValue("one")));
+        filterContext.getPrefilteredIdPAttributes().put(attribute1.getId(), attribute1);
+
+        final AttributeFilterImpl filter = new AttributeFilterImpl("engine", Collections.singletonList(policy));
+        attribute1Policy.initialize();
+        policy.initialize();
+        ComponentSupport.initialize(filter);
+
+        filter.filterAttributes(filterContext);
+        Assert.assertEquals(filterContext.getFilteredIdPAttributes().size(), 1);
+        Assert.assertNull(filterContext.getSubcontext(MetadataMemoContext.class));
+    }
+
     @Test public void testAllMatcher() throws Exception {
 
         AttributeRule attribute1Policy = new AttributeRule();
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.attribute.filter.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.shibboleth.idp.attribute.filter.AttributeFilterPolicy;
+import net.shibboleth.idp.attribute.filter.PolicyRequirementRule;
+import net.shibboleth.idp.attribute.filter.context.AttributeFilterContext;
+import net.shibboleth.idp.attribute.filter.policyrule.filtercontext.impl.AttributeRequesterPolicyRule;
+import net.shibboleth.idp.attribute.filter.policyrule.filtercontext.impl.AttributeRequesterRegexpPolicyRule;
+import net.shibboleth.idp.attribute.filter.policyrule.logic.impl.AndPolicyRule;
+import net.shibboleth.idp.attribute.filter.policyrule.logic.impl.OrPolicyRule;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/** Unit test for {@link AttributeFilterPolicyIndex}. */
+public class AttributeFilterPolicyIndexTest {
+
+    private PolicyRequirementRule requester(final String name, final boolean ignoreCase)
+            throws ComponentInitializationException {
+        final AttributeRequesterPolicyRule rule = new AttributeRequesterPolicyRule();
+        rule.setId("requester");
+        rule.setMatchString(name);
+        rule.setIgnoreCase(ignoreCase);
+        rule.initialize();
+        return rule;
+    }
+
+    private AttributeFilterPolicy policy(final String id, final PolicyRequirementRule rule)
+            throws ComponentInitializationException {
+        final AttributeFilterPolicy policy = new AttributeFilterPolicy(id, rule, null);
+        policy.initialize();
+        return policy;
+    }
+
+    private List<String> candidates(final AttributeFilterPolicyIndex index, final String requester) {
+        final AttributeFilterContext filterContext = new AttributeFilterContext();
+        filterContext.setAttributeRecipientID(requester);
+        final List<String> ids = new ArrayList<>();
+        for (final AttributeFilterPolicy policy : index.getCandidates(filterContext)) {
+            ids.add(policy.getId());
+        }
+        return ids;
+    }
+
+    @Test public void requesterIndex() throws Exception {
+        final AttributeRequesterRegexpPolicyRule regex = new AttributeRequesterRegexpPolicyRule();
+        regex.setId("regex");
+        regex.setRegularExpression("^https://.*\\.example\\.org$");
+        regex.initialize();
+
+        final OrPolicyRule or = new OrPolicyRule();
+        or.setId("or");
+        or.setSubsidiaries(Arrays.asList(requester("https://sp2.example.org", false),
+                requester("https://sp3.example.org", false)));
+        or.initialize();
+
+        final AndPolicyRule and = new AndPolicyRule();
+        and.setId("and");
+        and.setSubsidiaries(Arrays.asList(regex, requester("https://sp3.example.org", false)));
+        and.initialize();
+
+        final AttributeFilterPolicyIndex index = new AttributeFilterPolicyIndex(Arrays.asList(
+                policy("all", PolicyRequirementRule.MATCHES_ALL),
+                policy("sp1", requester("https://SP1.example.org", true)),
+                policy("none", PolicyRequirementRule.MATCHES_NONE),
+                policy("or", or),
+                policy("regex", regex),
+                policy("and", and)));
+
+        Assert.assertEquals(index.getUnindexedCount(), 2);
+        Assert.assertEquals(candidates(index, "https://sp1.example.org"), Arrays.asList("all", "sp1", "regex"));
+        Assert.assertEquals(candidates(index, "https://sp2.example.org"), Arrays.asList("all", "or", "regex"));
+        Assert.assertEquals(candidates(index, "https://sp3.example.org"),
+                Arrays.asList("all", "or", "regex", "and"));
+        Assert.assertEquals(candidates(index, "https://sp4.example.org"), Arrays.asList("all", "regex"));
+        Assert.assertEquals(candidates(index, null), Arrays.asList("all", "regex"));
+    }
+
+    @Test public void unanalyzableOr() throws Exception {
+        final AttributeRequesterRegexpPolicyRule regex = new AttributeRequesterRegexpPolicyRule();
+        regex.setId("regex");
+        regex.setRegularExpression("^https://.*\\.example\\.org$");
+        regex.initialize();
+
+        final OrPolicyRule or = new OrPolicyRule();
+        or.setId("or");
+        or.setSubsidiaries(Arrays.asList(requester("https://sp1.example.org", false), regex));
+        or.initialize();
+
+        final AttributeFilterPolicyIndex index =
+                new AttributeFilterPolicyIndex(Collections.singletonList(policy("or", or)));
+        Assert.assertEquals(index.getUnindexedCount(), 1);
+        Assert.assertEquals(candidates(index, "https://sp2.example.org"), Collections.singletonList("or"));
+    }
+
+}
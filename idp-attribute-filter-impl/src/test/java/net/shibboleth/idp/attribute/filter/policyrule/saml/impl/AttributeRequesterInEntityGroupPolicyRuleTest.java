@@ -18,6 +18,8 @@
 package net.shibboleth.idp.attribute.filter.policyrule.saml.impl;
 
 import net.shibboleth.idp.attribute.filter.PolicyRequirementRule.Tristate;
+import net.shibboleth.idp.attribute.filter.context.AttributeFilterContext;
+import net.shibboleth.idp.attribute.filter.context.MetadataMemoContext;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 
 import org.testng.Assert;
@@ -47,6 +49,18 @@ public class AttributeRequesterInEntityGroupPolicyRuleTest extends BaseMetadataT
         Assert.assertEquals(matcher.matches(metadataContext(jiraEntity, "Principal")), Tristate.FALSE);
     }
 
+    @Test public void memoized() throws ComponentInitializationException {
+        final AttributeFilterContext context = metadataContext(jiraEntity, "Principal");
+
+        Assert.assertEquals(getMatcher("http://shibboleth.net").matches(context), Tristate.TRUE);
+        final MetadataMemoContext memo = context.getSubcontext(MetadataMemoContext.class);
+        Assert.assertNotNull(memo);
+        Assert.assertSame(memo.getEntityGroups(jiraEntity), memo.getEntityGroups(jiraEntity));
+        Assert.assertTrue(memo.getEntityGroups(jiraEntity).contains("http://shibboleth.net"));
+
+        Assert.assertEquals(getMatcher("urn:otherstuff").matches(context), Tristate.FALSE);
+    }
+
     @Test public void getter() throws ComponentInitializationException {
         Assert.assertEquals(getMatcher("http://shibboleth.net").getEntityGroup(), "http://shibboleth.net");
     }
@@ -18,6 +18,7 @@
 package net.shibboleth.idp.attribute.resolver.dc.http.impl;
 
 import java.io.IOException;
+import java.net.URI;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -160,6 +161,15 @@ public abstract class AbstractHTTPSearchBuilder extends AbstractInitializableCom
             public String toString() {
                 return request.getRequestLine().getUri();
             }
+
+            /** {@inheritDoc} */
+            @Nullable public String getEndpoint() {
+                final URI uri = request.getURI();
+                if (uri.getHost() == null) {
+                    return null;
+                }
+                return uri.getPort() != -1 ? uri.getHost() + ':' + uri.getPort() : uri.getHost();
+            }
             
             /** {@inheritDoc} */
             @Nonnull public Map<String,IdPAttribute> execute(@Nonnull final HttpClient client,
@@ -23,27 +23,49 @@ package net.shibboleth.idp.attribute.resolver.dc.http.impl;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import org.apache.http.client.HttpClient;
+import org.opensaml.core.metrics.MetricsSupport;
 import org.opensaml.security.httpclient.HttpClientSecurityParameters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.Timer;
+
 import net.shibboleth.idp.attribute.IdPAttribute;
 import net.shibboleth.idp.attribute.resolver.ResolutionException;
 import net.shibboleth.idp.attribute.resolver.dc.ValidationException;
 import net.shibboleth.idp.attribute.resolver.dc.Validator;
 import net.shibboleth.idp.attribute.resolver.dc.impl.AbstractSearchDataConnector;
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
 
 /**
  * This class implements a {@link net.shibboleth.idp.attribute.resolver.DataConnector}
  * that obtains data from an HTTP service.
+ * 
+ * <p>Requests are timed and counted per endpoint (host and port). If {@link #setMaxConcurrentRequests(int)} is set,
+ * the number of requests in progress to any one endpoint is bounded, so that a slow service cannot tie up every
+ * thread of a parallel resolver or every connection in a shared client's pool.</p>
  */
 public class HTTPDataConnector extends AbstractSearchDataConnector<HTTPSearch,HTTPResponseMappingStrategy> {
     
@@ -55,9 +77,24 @@ public class HTTPDataConnector extends AbstractSearchDataConnector<HTTPSearch,HT
     
     /** HTTP client security parameters. */
     @Nullable private HttpClientSecurityParameters httpClientSecurityParameters;
+
+    /** Maximum number of requests in progress to any one endpoint, or 0 for no limit. */
+    @NonNegative private int maxConcurrentRequests;
+
+    /** How long to wait for an endpoint that is at its limit. */
+    @Duration @Positive private long concurrencyTimeout;
+
+    /** Base name for metrics. */
+    @Nonnull @NotEmpty private String metricName;
+
+    /** Per-endpoint state, keyed by endpoint. */
+    @Nonnull private final ConcurrentMap<String,Endpoint> endpoints;
     
     /** Constructor. */
     public HTTPDataConnector() {
+        concurrencyTimeout = 60000;
+        metricName = "net.shibboleth.idp.attribute.resolver.dc.http";
+        endpoints = new ConcurrentHashMap<>();
         setValidator(new Validator() {
             public void validate() throws ValidationException {
             }
@@ -87,6 +124,61 @@ public class HTTPDataConnector extends AbstractSearchDataConnector<HTTPSearch,HT
 
         httpClientSecurityParameters = params;
     }
+
+    /**
+     * Get the maximum number of requests in progress to any one endpoint.
+     * 
+     * @return maximum concurrent requests per endpoint, or 0 for no limit
+     */
+    @NonNegative public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    /**
+     * Set the maximum number of requests in progress to any one endpoint.
+     * 
+     * @param max maximum concurrent requests per endpoint, or 0 for no limit
+     */
+    public void setMaxConcurrentRequests(@NonNegative final int max) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+
+        maxConcurrentRequests = Constraint.isGreaterThanOrEqual(0, max,
+                "Maximum concurrent requests must be greater than or equal to 0");
+    }
+
+    /**
+     * Get how long to wait for an endpoint that is at its limit before failing the request.
+     * 
+     * @return time to wait in milliseconds
+     */
+    @Duration @Positive public long getConcurrencyTimeout() {
+        return concurrencyTimeout;
+    }
+
+    /**
+     * Set how long to wait for an endpoint that is at its limit before failing the request.
+     * 
+     * @param timeout time to wait in milliseconds
+     */
+    @Duration public void setConcurrencyTimeout(@Duration @Positive final long timeout) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+
+        concurrencyTimeout = Constraint.isGreaterThan(0, timeout, "Concurrency timeout must be greater than 0");
+    }
+
+    /**
+     * Set the base name to use for metrics reported.
+     * 
+     * @param name root for name of metrics
+     */
+    public void setMetricName(@Nonnull @NotEmpty final String name) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+
+        metricName = Constraint.isNotNull(StringSupport.trimOrNull(name), "Metric name cannot be null or empty");
+    }
     
     /** {@inheritDoc} */
     public void doInitialize() throws ComponentInitializationException {
@@ -97,11 +189,49 @@ public class HTTPDataConnector extends AbstractSearchDataConnector<HTTPSearch,HT
         }
     }
 
+    /** {@inheritDoc} */
+    @Override protected void doDestroy() {
+        // The metrics stay registered: a reloaded connector with the same id shares their names.
+        endpoints.clear();
+
+        super.doDestroy();
+    }
+
     /** {@inheritDoc} */
     @Override
     @Nullable protected Map<String,IdPAttribute> retrieveAttributes(@Nonnull final HTTPSearch executable)
             throws ResolutionException {
 
+        final String name = executable.getEndpoint();
+        if (name == null) {
+            return executeSearch(executable);
+        }
+
+        final Endpoint endpoint = endpoints.computeIfAbsent(name, Endpoint::new);
+        endpoint.acquire();
+        final Timer.Context timer = endpoint.latency.time();
+        try {
+            return executeSearch(executable);
+        } catch (final ResolutionException e) {
+            endpoint.failures.inc();
+            throw e;
+        } finally {
+            timer.stop();
+            endpoint.release();
+        }
+    }
+
+    /**
+     * Execute the request and map its response.
+     * 
+     * @param executable the request to execute
+     * 
+     * @return the resulting attributes
+     * @throws ResolutionException if the request fails
+     */
+    @Nullable private Map<String,IdPAttribute> executeSearch(@Nonnull final HTTPSearch executable)
+            throws ResolutionException {
+
         try {
             return getMappingStrategy().map(
                     executable.execute(httpClient, httpClientSecurityParameters, getMappingStrategy()));
@@ -109,5 +239,89 @@ public class HTTPDataConnector extends AbstractSearchDataConnector<HTTPSearch,HT
             throw new ResolutionException(getLogPrefix() + " HTTP request failed", e);
         }
     }
+
+    /** Concurrency limit and metrics for a single endpoint. */
+    private final class Endpoint {
+
+        /** Endpoint name. */
+        @Nonnull @NotEmpty private final String name;
+
+        /** Available request slots, if limited. */
+        @Nullable private final Semaphore permits;
+
+        /** Requests in progress. */
+        @Nonnull private final AtomicInteger inFlight;
+
+        /** Request latency. */
+        @Nonnull private final Timer latency;
+
+        /** Failed requests. */
+        @Nonnull private final Counter failures;
+
+        /** Requests refused because the endpoint was at its limit. */
+        @Nonnull private final Counter rejections;
+
+        /**
+         * Constructor.
+         * 
+         * @param endpoint endpoint name
+         */
+        private Endpoint(@Nonnull @NotEmpty final String endpoint) {
+            name = endpoint;
+            permits = maxConcurrentRequests > 0 ? new Semaphore(maxConcurrentRequests) : null;
+            inFlight = new AtomicInteger();
+
+            final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+            latency = registry.timer(MetricRegistry.name(metricName, getId(), name, "latency"));
+            failures = registry.counter(MetricRegistry.name(metricName, getId(), name, "failures"));
+            rejections = registry.counter(MetricRegistry.name(metricName, getId(), name, "rejections"));
+
+            final String inFlightName = MetricRegistry.name(metricName, getId(), name, "inFlight");
+            registry.remove(inFlightName);
+            registry.register(inFlightName, (Gauge<Integer>) inFlight::get);
+
+            if (maxConcurrentRequests > 0) {
+                final String saturationName = MetricRegistry.name(metricName, getId(), name, "saturation");
+                registry.remove(saturationName);
+                registry.register(saturationName, new RatioGauge() {
+                    protected Ratio getRatio() {
+                        return Ratio.of(inFlight.get(), maxConcurrentRequests);
+                    }
+                });
+            }
+        }
+
+        /**
+         * Claim a request slot, waiting if the endpoint is at its limit.
+         * 
+         * @throws ResolutionException if no slot becomes available in time
+         */
+        private void acquire() throws ResolutionException {
+            if (permits != null) {
+                final boolean acquired;
+                try {
+                    acquired = permits.tryAcquire(concurrencyTimeout, TimeUnit.MILLISECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ResolutionException(getLogPrefix() + " Interrupted waiting for endpoint " + name, e);
+                }
+                if (!acquired) {
+                    rejections.inc();
+                    log.warn("{} Endpoint {} still has {} requests in progress after {}ms, giving up",
+                            getLogPrefix(), name, maxConcurrentRequests, concurrencyTimeout);
+                    throw new ResolutionException(getLogPrefix() + " Too many concurrent requests to " + name);
+                }
+            }
+            inFlight.incrementAndGet();
+        }
+
+        /** Release a request slot. */
+        private void release() {
+            inFlight.decrementAndGet();
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
         
 }
\ No newline at end of file
@@ -45,5 +45,16 @@ public interface HTTPSearch extends ExecutableSearch {
     @Nonnull Map<String,IdPAttribute> execute(@Nonnull final HttpClient client,
             @Nullable final HttpClientSecurityParameters securityParameters,
             @Nonnull final HTTPResponseMappingStrategy mappingStrategy) throws IOException;
+
+    /**
+     * Get the endpoint, typically the host and port, that the request is directed to.
+     * 
+     * <p>This is used to apply per-endpoint concurrency limits and to report per-endpoint metrics.</p>
+     * 
+     * @return the endpoint, or null if not known
+     */
+    @Nullable default String getEndpoint() {
+        return null;
+    }
     
 }
\ No newline at end of file
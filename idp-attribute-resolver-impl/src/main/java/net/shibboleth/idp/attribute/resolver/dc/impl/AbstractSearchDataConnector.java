@@ -17,9 +17,18 @@
 
 package net.shibboleth.idp.attribute.resolver.dc.impl;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -33,20 +42,31 @@ import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolverWorkContext;
 import net.shibboleth.idp.attribute.resolver.dc.MappingStrategy;
 import net.shibboleth.idp.attribute.resolver.dc.Validator;
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 
+import org.opensaml.profile.context.ProfileRequestContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Predicate;
 import com.google.common.cache.Cache;
+import com.google.common.collect.ForwardingMap;
 
 /**
  * A {@link net.shibboleth.idp.attribute.resolver.DataConnector} containing functionality common to data connectors that
  * retrieve attribute data by searching a data source.
  * 
+ * <p>When results are cached, concurrent misses for the same cache key share a single search. If
+ * {@link #setRefreshAfter(long)} is set, a cached result older than that continues to be served while it is refreshed
+ * in the background, for as long as the results cache itself retains it. The fetch time is stored with the cached
+ * result, so it shares the cache entry's size bound and lifetime.</p>
+ * 
  * @param <T1> type of executable search
  * @param <T2> type of mapping strategy
  */
@@ -68,6 +88,20 @@ public abstract class AbstractSearchDataConnector<T1 extends ExecutableSearch,T2
     /** Query result cache. */
     @Nullable private Cache<String,Map<String,IdPAttribute>> resultsCache;
 
+    /** Age after which a cached result is refreshed in the background. */
+    @Duration @NonNegative private long refreshAfter;
+
+    /** Executor for background refreshes. */
+    @Nullable private Executor refreshExecutor;
+
+    /** Searches in progress, keyed by result cache key. */
+    @Nonnull private final ConcurrentMap<String,CompletableFuture<Map<String,IdPAttribute>>> pendingSearches =
+            new ConcurrentHashMap<>();
+
+    /** Results retrieved by {@link #resolveAll(List)} for the batch being resolved on this thread. */
+    @Nonnull private final ThreadLocal<Map<AttributeResolutionContext,BatchResult>> batchResults =
+            new ThreadLocal<>();
+
     /**
      * Gets the builder used to create executable searches.
      * 
@@ -155,6 +189,49 @@ public abstract class AbstractSearchDataConnector<T1 extends ExecutableSearch,T2
         resultsCache = cache;
     }
 
+    /**
+     * Gets the age after which a cached result is refreshed in the background.
+     * 
+     * @return refresh age in milliseconds, or 0 if results are never refreshed early
+     */
+    @Duration @NonNegative public long getRefreshAfter() {
+        return refreshAfter;
+    }
+
+    /**
+     * Sets the age after which a cached result is refreshed in the background. The stale result continues to be
+     * served until the refresh completes, so this should be shorter than the lifetime of the results cache.
+     * 
+     * @param age refresh age in milliseconds, or 0 to disable
+     */
+    @Duration public void setRefreshAfter(@Duration @NonNegative final long age) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+
+        refreshAfter = Constraint.isGreaterThanOrEqual(0, age, "Refresh age must be greater than or equal to 0");
+    }
+
+    /**
+     * Gets the executor used for background refreshes.
+     * 
+     * @return executor for background refreshes
+     */
+    @Nullable public Executor getRefreshExecutor() {
+        return refreshExecutor;
+    }
+
+    /**
+     * Sets the executor used for background refreshes, required if {@link #setRefreshAfter(long)} is set.
+     * 
+     * @param executor executor for background refreshes
+     */
+    public void setRefreshExecutor(@Nullable final Executor executor) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+
+        refreshExecutor = executor;
+    }
+
     /**
      * Attempts to retrieve attributes from the data source.
      * 
@@ -173,6 +250,13 @@ public abstract class AbstractSearchDataConnector<T1 extends ExecutableSearch,T2
             @Nonnull final AttributeResolverWorkContext workContext) throws ResolutionException {
         ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
 
+        final Map<AttributeResolutionContext,BatchResult> batch = batchResults.get();
+        final BatchResult batchResult = batch != null ? batch.get(resolutionContext) : null;
+        if (batchResult != null) {
+            log.trace("{} Using result retrieved for the batch", getLogPrefix());
+            return batchResult.get();
+        }
+
         final Map<String, List<IdPAttributeValue<?>>> dependsAttributes =
                 PluginDependencySupport.getAllAttributeValues(workContext, getDependencies());
         final T1 executable = searchBuilder.build(resolutionContext, dependsAttributes);
@@ -184,10 +268,10 @@ public abstract class AbstractSearchDataConnector<T1 extends ExecutableSearch,T2
                 log.trace("{} Cache found, resolved attributes {} using cache {}", new Object[] {getLogPrefix(),
                         resolvedAttributes, resultsCache,});
                 if (resolvedAttributes == null) {
-                    resolvedAttributes = retrieveAttributes(executable);
+                    resolvedAttributes = retrieveAndCacheAttributes(cacheKey, executable);
                     log.trace("{} Resolved attributes {}", getLogPrefix(), resolvedAttributes);
-                    resultsCache.put(cacheKey, resolvedAttributes != null ? resolvedAttributes
-                            : Collections.<String,IdPAttribute>emptyMap());
+                } else if (isDueForRefresh(resolvedAttributes)) {
+                    scheduleRefresh(cacheKey, executable);
                 }
             } else {
                 log.trace("No cache key returned, will not check for cached results");
@@ -202,6 +286,216 @@ public abstract class AbstractSearchDataConnector<T1 extends ExecutableSearch,T2
         return resolvedAttributes;
     }
 
+    /**
+     * Retrieve attributes from the data source for a batch of searches.
+     * 
+     * <p>The default implementation runs each search in turn. Subclasses may override this to run the searches
+     * more efficiently together.</p>
+     * 
+     * @param executables the searches to run
+     * 
+     * @return the attributes for each search, in the same order, with null entries where nothing was found
+     * 
+     * @throws ResolutionException thrown if there is a problem retrieving data from the data source
+     */
+    @Nonnull protected List<Map<String,IdPAttribute>> retrieveAllAttributes(
+            @Nonnull @NonnullElements final List<T1> executables) throws ResolutionException {
+        final List<Map<String,IdPAttribute>> results = new ArrayList<>(executables.size());
+        for (final T1 executable : executables) {
+            results.add(retrieveAttributes(executable));
+        }
+        return results;
+    }
+
+// Checkstyle: CyclomaticComplexity|MethodLength OFF
+    /**
+     * Resolve a batch of resolution contexts, for bulk uses such as pre-loading the results cache.
+     * 
+     * <p>The searches the batch needs are run together by {@link #retrieveAllAttributes(List)}, skipping contexts
+     * whose result is already cached and sharing a single search between contexts with the same result cache key.
+     * Each context is then resolved by {@link #resolve(AttributeResolutionContext)}, which picks up the result
+     * retrieved for it, so the activation condition, timing, failure recording and exception handling are those of
+     * a single resolution.</p>
+     * 
+     * <p>As with the attribute resolver, nothing is searched while the connector is waiting to retry after a
+     * failure.</p>
+     * 
+     * @param resolutionContexts the contexts to resolve
+     * 
+     * @return the attributes for each context, in the same order, with null entries where nothing was resolved
+     * 
+     * @throws ResolutionException thrown if the connector is waiting to retry after a failure, or if resolving a
+     *  context fails and {@link #isPropagateResolutionExceptions()} is set
+     */
+    @Nonnull public List<Map<String,IdPAttribute>> resolveAll(
+            @Nonnull @NonnullElements final List<AttributeResolutionContext> resolutionContexts)
+                    throws ResolutionException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+        Constraint.isNotNull(resolutionContexts, "Resolution contexts cannot be null");
+
+        if (System.currentTimeMillis() < getLastFail() + getNoRetryDelay()) {
+            throw new ResolutionException(getLogPrefix() + " Failed recently and is waiting to retry");
+        }
+
+        final Map<AttributeResolutionContext,BatchResult> batch = new IdentityHashMap<>();
+        final List<T1> executables = new ArrayList<>();
+        final List<String> cacheKeys = new ArrayList<>();
+        final List<BatchResult> searchResults = new ArrayList<>();
+        final Map<String,BatchResult> resultsByKey = new HashMap<>();
+        final Predicate<ProfileRequestContext> condition = getActivationCondition();
+
+        for (final AttributeResolutionContext resolutionContext : resolutionContexts) {
+            final AttributeResolverWorkContext workContext =
+                    resolutionContext.getSubcontext(AttributeResolverWorkContext.class);
+            if (workContext == null
+                    || condition != null && !condition.apply(getProfileContextStrategy().apply(resolutionContext))) {
+                // Left to resolve() to reject or skip.
+                continue;
+            }
+
+            final T1 executable = searchBuilder.build(resolutionContext,
+                    PluginDependencySupport.getAllAttributeValues(workContext, getDependencies()));
+            final String cacheKey = resultsCache != null && resolutionContext.getAllowCachedResults()
+                    ? executable.getResultCacheKey() : null;
+            if (cacheKey != null) {
+                if (resultsCache.getIfPresent(cacheKey) != null) {
+                    continue;
+                }
+                final BatchResult sharing = resultsByKey.get(cacheKey);
+                if (sharing != null) {
+                    batch.put(resolutionContext, sharing);
+                    continue;
+                }
+            }
+
+            final BatchResult result = new BatchResult();
+            executables.add(executable);
+            cacheKeys.add(cacheKey);
+            searchResults.add(result);
+            batch.put(resolutionContext, result);
+            if (cacheKey != null) {
+                resultsByKey.put(cacheKey, result);
+            }
+        }
+
+        if (!executables.isEmpty()) {
+            log.debug("{} Running {} searches for a batch of {} contexts", getLogPrefix(), executables.size(),
+                    resolutionContexts.size());
+            try {
+                final List<Map<String,IdPAttribute>> retrieved = retrieveAllAttributes(executables);
+                for (int i = 0; i < executables.size(); i++) {
+                    final Map<String,IdPAttribute> attributes = retrieved.get(i);
+                    if (cacheKeys.get(i) != null) {
+                        resultsCache.put(cacheKeys.get(i), new CachedResults(attributes));
+                    }
+                    searchResults.get(i).attributes = attributes;
+                }
+            } catch (final ResolutionException e) {
+                for (final BatchResult result : searchResults) {
+                    result.failure = e;
+                }
+            }
+        }
+
+        final List<Map<String,IdPAttribute>> results = new ArrayList<>(resolutionContexts.size());
+        batchResults.set(batch);
+        try {
+            for (final AttributeResolutionContext resolutionContext : resolutionContexts) {
+                results.add(resolve(resolutionContext));
+            }
+        } finally {
+            batchResults.remove();
+        }
+        return results;
+    }
+// Checkstyle: CyclomaticComplexity|MethodLength ON
+
+    /**
+     * Retrieve attributes from the data source and cache them, sharing the search with any other thread retrieving
+     * the same result at the same time.
+     * 
+     * @param cacheKey the result cache key of the search
+     * @param executable used to retrieve data from the data source
+     * 
+     * @return attributes
+     * 
+     * @throws ResolutionException thrown if there is a problem retrieving data from the data source
+     */
+    @Nullable private Map<String,IdPAttribute> retrieveAndCacheAttributes(@Nonnull final String cacheKey,
+            @Nonnull final T1 executable) throws ResolutionException {
+        final CompletableFuture<Map<String,IdPAttribute>> search = new CompletableFuture<>();
+        final CompletableFuture<Map<String,IdPAttribute>> pending = pendingSearches.putIfAbsent(cacheKey, search);
+        if (pending != null) {
+            log.trace("{} Waiting for search already in progress for the same key", getLogPrefix());
+            try {
+                return pending.join();
+            } catch (final CompletionException e) {
+                if (e.getCause() instanceof ResolutionException) {
+                    throw (ResolutionException) e.getCause();
+                } else if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new ResolutionException(e);
+            }
+        }
+
+        try {
+            final long start = System.nanoTime();
+            final Map<String,IdPAttribute> attributes = retrieveAttributes(executable);
+            if (resultsCache instanceof SharedResultsCache.Namespace) {
+                ((SharedResultsCache.Namespace) resultsCache).recordLoadTime(System.nanoTime() - start);
+            }
+            resultsCache.put(cacheKey, new CachedResults(attributes));
+            search.complete(attributes);
+            return attributes;
+        } catch (final ResolutionException | RuntimeException e) {
+            search.completeExceptionally(e);
+            throw e;
+        } finally {
+            pendingSearches.remove(cacheKey, search);
+        }
+    }
+
+    /**
+     * Get whether a cached result is old enough to be refreshed in the background.
+     * 
+     * <p>Results not cached by this class carry no fetch time and are never refreshed.</p>
+     * 
+     * @param cached the cached result
+     * 
+     * @return whether to refresh it
+     */
+    private boolean isDueForRefresh(@Nonnull final Map<String,IdPAttribute> cached) {
+        return refreshAfter > 0 && cached instanceof CachedResults
+                && System.currentTimeMillis() - ((CachedResults) cached).getFetchTime() >= refreshAfter;
+    }
+
+    /**
+     * Refresh a cached result in the background, unless a search for it is already in progress.
+     * 
+     * @param cacheKey the result cache key of the search
+     * @param executable used to retrieve data from the data source
+     */
+    private void scheduleRefresh(@Nonnull final String cacheKey, @Nonnull final T1 executable) {
+        if (pendingSearches.containsKey(cacheKey)) {
+            return;
+        }
+
+        log.trace("{} Cached result is due for refresh, serving it while refreshing", getLogPrefix());
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    retrieveAndCacheAttributes(cacheKey, executable);
+                } catch (final ResolutionException | RuntimeException e) {
+                    log.warn("{} Background refresh of cached result failed", getLogPrefix(), e);
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            log.debug("{} Background refresh rejected by executor", getLogPrefix());
+        }
+    }
+
     /** {@inheritDoc} */
     @Override protected void doInitialize() throws ComponentInitializationException {
         super.doInitialize();
@@ -215,6 +509,72 @@ public abstract class AbstractSearchDataConnector<T1 extends ExecutableSearch,T2
         if (mappingStrategy == null) {
             throw new ComponentInitializationException(getLogPrefix() + " No mapping strategy was configured");
         }
+        if (resultsCache != null && refreshAfter > 0) {
+            if (refreshExecutor == null) {
+                throw new ComponentInitializationException(getLogPrefix()
+                        + " Background refresh of cached results requires an executor");
+            }
+        }
+    }
+
+    /** The outcome of a search run by {@link #resolveAll(List)}. */
+    private static final class BatchResult {
+
+        /** The attributes retrieved. */
+        @Nullable private Map<String,IdPAttribute> attributes;
+
+        /** The failure, if the search failed. */
+        @Nullable private ResolutionException failure;
+
+        /**
+         * Get the attributes retrieved.
+         * 
+         * @return the attributes, or null if none were found
+         * 
+         * @throws ResolutionException if the search failed
+         */
+        @Nullable public Map<String,IdPAttribute> get() throws ResolutionException {
+            if (failure != null) {
+                throw failure;
+            }
+            return attributes;
+        }
+    }
+
+    /**
+     * A cached result, which records when it was fetched so that its age goes wherever the cache entry goes.
+     */
+    private static final class CachedResults extends ForwardingMap<String,IdPAttribute> {
+
+        /** The attributes. */
+        @Nonnull private final Map<String,IdPAttribute> attributes;
+
+        /** When the attributes were fetched, in milliseconds since the epoch. */
+        private final long fetchTime;
+
+        /**
+         * Constructor.
+         * 
+         * @param fetched the attributes fetched, or null if nothing was found
+         */
+        CachedResults(@Nullable final Map<String,IdPAttribute> fetched) {
+            attributes = fetched != null ? fetched : Collections.<String,IdPAttribute>emptyMap();
+            fetchTime = System.currentTimeMillis();
+        }
+
+        /**
+         * Get when the attributes were fetched.
+         * 
+         * @return milliseconds since the epoch
+         */
+        long getFetchTime() {
+            return fetchTime;
+        }
+
+        /** {@inheritDoc} */
+        @Override @Nonnull protected Map<String,IdPAttribute> delegate() {
+            return attributes;
+        }
     }
     
 }
\ No newline at end of file
@@ -0,0 +1,426 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.attribute.resolver.dc.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.opensaml.core.metrics.MetricsSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.Timer;
+import com.google.common.cache.AbstractCache;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+import net.shibboleth.idp.attribute.ByteAttributeValue;
+import net.shibboleth.idp.attribute.IdPAttribute;
+import net.shibboleth.idp.attribute.IdPAttributeValue;
+import net.shibboleth.idp.attribute.StringAttributeValue;
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+
+/**
+ * A results cache shared by any number of data connectors, bounded by an estimate of the memory it occupies.
+ *
+ * <p>Each connector obtains its own view of the cache from {@link #getNamespace(String, long, boolean)}, with its own
+ * time to live, and injects it as an ordinary results cache (e.g. via &lt;ResultCacheBean&gt;). Hits, misses,
+ * evictions and load times are reported to the {@link MetricRegistry} for each namespace.</p>
+ */
+@ThreadSafe
+public class SharedResultsCache extends AbstractInitializableComponent {
+
+    /** Default prefix for metrics. */
+    @Nonnull @NotEmpty public static final String DEFAULT_METRIC_NAME = "net.shibboleth.idp.attribute.resolver.cache";
+
+    /** Default bound on the estimated size of the cache (64MB). */
+    public static final long DEFAULT_MAX_WEIGHT = 64 * 1024 * 1024;
+
+    /** Estimated overhead of a cache entry or attribute, in bytes. */
+    private static final int OBJECT_OVERHEAD = 48;
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(SharedResultsCache.class);
+
+    /** Bound on the estimated size of the cache in bytes. */
+    @Positive private long maximumWeight;
+
+    /** Base name of metrics. */
+    @Nonnull @NotEmpty private String metricName;
+
+    /** The namespaces handed out so far. */
+    @Nonnull private final ConcurrentMap<String,Namespace> namespaces;
+
+    /** The underlying cache. */
+    @NonnullAfterInit private Cache<NamespacedKey,Entry> cache;
+
+    /** Constructor. */
+    public SharedResultsCache() {
+        maximumWeight = DEFAULT_MAX_WEIGHT;
+        metricName = DEFAULT_METRIC_NAME;
+        namespaces = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Get the bound on the estimated size of the cache in bytes.
+     *
+     * @return maximum weight
+     */
+    @Positive public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * Set the bound on the estimated size of the cache in bytes.
+     *
+     * @param weight maximum weight
+     */
+    public void setMaximumWeight(@Positive final long weight) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        maximumWeight = Constraint.isGreaterThan(0, weight, "Maximum weight must be greater than 0");
+    }
+
+    /**
+     * Get the base name to use for metrics reported.
+     *
+     * @return root for name of metrics
+     */
+    @Nonnull @NotEmpty public String getMetricName() {
+        return metricName;
+    }
+
+    /**
+     * Set the base name to use for metrics reported.
+     *
+     * @param name root for name of metrics
+     */
+    public void setMetricName(@Nonnull @NotEmpty final String name) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        metricName = Constraint.isNotNull(StringSupport.trimOrNull(name), "Metric name cannot be null or empty");
+    }
+
+    /** {@inheritDoc} */
+    @Override protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher(new Weigher<NamespacedKey,Entry>() {
+                    public int weigh(final NamespacedKey key, final Entry value) {
+                        return value.getWeight();
+                    }
+                })
+                .removalListener(new RemovalListener<NamespacedKey,Entry>() {
+                    public void onRemoval(final RemovalNotification<NamespacedKey,Entry> notification) {
+                        if (notification.wasEvicted()) {
+                            final Namespace namespace = namespaces.get(notification.getKey().getNamespace());
+                            if (namespace != null) {
+                                namespace.evictions.inc();
+                            }
+                        }
+                    }
+                })
+                .build();
+    }
+
+    /** {@inheritDoc} */
+    @Override protected void doDestroy() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+        super.doDestroy();
+    }
+
+    /**
+     * Get the view of the cache for a namespace, typically the ID of a data connector.
+     *
+     * <p>Asking again for the same namespace (as happens when the resolver is reloaded) returns a new view
+     * with the new settings, sharing the entries and metrics of the old one.</p>
+     *
+     * @param name the namespace
+     * @param timeToLive how long entries live, in milliseconds
+     * @param resetOnAccess whether the time to live restarts whenever an entry is read
+     *
+     * @return the view of the cache
+     */
+    @Nonnull public Cache<String,Map<String,IdPAttribute>> getNamespace(@Nonnull @NotEmpty final String name,
+            @Duration @Positive final long timeToLive, final boolean resetOnAccess) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+
+        final String trimmed = Constraint.isNotNull(StringSupport.trimOrNull(name), "Namespace cannot be null");
+        Constraint.isGreaterThan(0, timeToLive, "Time to live must be greater than 0");
+
+        final Namespace namespace = new Namespace(trimmed, timeToLive, resetOnAccess);
+        namespaces.put(trimmed, namespace);
+        log.debug("Results cache namespace '{}' registered with time to live of {}ms", trimmed, timeToLive);
+        return namespace;
+    }
+
+    /**
+     * Estimate the memory occupied by a cache entry.
+     *
+     * @param key the key of the entry
+     * @param value the attributes in the entry
+     *
+     * @return the estimated size in bytes
+     */
+    @NonNegative protected int estimateWeight(@Nonnull final String key,
+            @Nonnull final Map<String,IdPAttribute> value) {
+        long weight = OBJECT_OVERHEAD + 2L * key.length();
+        for (final IdPAttribute attribute : value.values()) {
+            weight += OBJECT_OVERHEAD + 2L * attribute.getId().length();
+            for (final IdPAttributeValue<?> attributeValue : attribute.getValues()) {
+                if (attributeValue instanceof StringAttributeValue) {
+                    weight += OBJECT_OVERHEAD + 2L * ((StringAttributeValue) attributeValue).getValue().length();
+                } else if (attributeValue instanceof ByteAttributeValue) {
+                    weight += OBJECT_OVERHEAD + ((ByteAttributeValue) attributeValue).getValue().length;
+                } else {
+                    weight += 2 * OBJECT_OVERHEAD;
+                }
+            }
+        }
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+
+    /** Key of an entry in the underlying cache. */
+    private static final class NamespacedKey {
+
+        /** The namespace. */
+        @Nonnull private final String namespace;
+
+        /** The key within the namespace. */
+        @Nonnull private final String key;
+
+        /**
+         * Constructor.
+         *
+         * @param ns the namespace
+         * @param k the key within the namespace
+         */
+        NamespacedKey(@Nonnull final String ns, @Nonnull final String k) {
+            namespace = ns;
+            key = k;
+        }
+
+        /**
+         * Get the namespace.
+         *
+         * @return the namespace
+         */
+        @Nonnull String getNamespace() {
+            return namespace;
+        }
+
+        /** {@inheritDoc} */
+        @Override public int hashCode() {
+            return 31 * namespace.hashCode() + key.hashCode();
+        }
+
+        /** {@inheritDoc} */
+        @Override public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            } else if (obj instanceof NamespacedKey) {
+                return namespace.equals(((NamespacedKey) obj).namespace) && key.equals(((NamespacedKey) obj).key);
+            }
+            return false;
+        }
+    }
+
+    /** Value of an entry in the underlying cache. */
+    private static final class Entry {
+
+        /** The cached attributes. */
+        @Nonnull private final Map<String,IdPAttribute> value;
+
+        /** Estimated size of the entry. */
+        private final int weight;
+
+        /** When the entry expires. */
+        private volatile long expiration;
+
+        /**
+         * Constructor.
+         *
+         * @param attributes the cached attributes
+         * @param entryWeight estimated size of the entry
+         * @param expires when the entry expires
+         */
+        Entry(@Nonnull final Map<String,IdPAttribute> attributes, final int entryWeight, final long expires) {
+            value = attributes;
+            weight = entryWeight;
+            expiration = expires;
+        }
+
+        /**
+         * Get the estimated size of the entry.
+         *
+         * @return the weight
+         */
+        int getWeight() {
+            return weight;
+        }
+    }
+
+    /** The view of the cache for a single namespace. */
+    public final class Namespace extends AbstractCache<String,Map<String,IdPAttribute>> {
+
+        /** The namespace. */
+        @Nonnull @NotEmpty private final String name;
+
+        /** How long entries live. */
+        private final long timeToLive;
+
+        /** Whether the time to live restarts whenever an entry is read. */
+        private final boolean expireAfterAccess;
+
+        /** Hit count. */
+        @Nonnull private final Counter hits;
+
+        /** Miss count. */
+        @Nonnull private final Counter misses;
+
+        /** Eviction count. */
+        @Nonnull private final Counter evictions;
+
+        /** Time taken to load entries. */
+        @Nonnull private final Timer loads;
+
+        /**
+         * Constructor.
+         *
+         * @param namespace the namespace
+         * @param ttl how long entries live
+         * @param resetOnAccess whether the time to live restarts whenever an entry is read
+         */
+        private Namespace(@Nonnull @NotEmpty final String namespace, final long ttl, final boolean resetOnAccess) {
+            name = namespace;
+            timeToLive = ttl;
+            expireAfterAccess = resetOnAccess;
+
+            final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+            hits = registry.counter(MetricRegistry.name(metricName, name, "hits"));
+            misses = registry.counter(MetricRegistry.name(metricName, name, "misses"));
+            evictions = registry.counter(MetricRegistry.name(metricName, name, "evictions"));
+            loads = registry.timer(MetricRegistry.name(metricName, name, "loads"));
+
+            final String ratioName = MetricRegistry.name(metricName, name, "hitRatio");
+            registry.remove(ratioName);
+            registry.register(ratioName, new RatioGauge() {
+                protected Ratio getRatio() {
+                    return Ratio.of(hits.getCount(), hits.getCount() + misses.getCount());
+                }
+            });
+        }
+
+        /**
+         * Record the time taken to load an entry for this namespace from the underlying data source.
+         *
+         * @param nanos the elapsed time in nanoseconds
+         */
+        public void recordLoadTime(final long nanos) {
+            loads.update(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        /** {@inheritDoc} */
+        @Override @Nullable public Map<String,IdPAttribute> getIfPresent(final Object key) {
+            if (!(key instanceof String)) {
+                return null;
+            }
+
+            final NamespacedKey namespacedKey = new NamespacedKey(name, (String) key);
+            final Entry entry = cache.getIfPresent(namespacedKey);
+            if (entry == null) {
+                misses.inc();
+                return null;
+            }
+
+            final long now = System.currentTimeMillis();
+            if (now >= entry.expiration) {
+                cache.asMap().remove(namespacedKey, entry);
+                misses.inc();
+                return null;
+            }
+
+            if (expireAfterAccess) {
+                entry.expiration = now + timeToLive;
+            }
+            hits.inc();
+            return entry.value;
+        }
+
+        /** {@inheritDoc} */
+        @Override public void put(final String key, final Map<String,IdPAttribute> value) {
+            Constraint.isNotNull(key, "Key cannot be null");
+            Constraint.isNotNull(value, "Value cannot be null");
+
+            cache.put(new NamespacedKey(name, key),
+                    new Entry(value, estimateWeight(key, value), System.currentTimeMillis() + timeToLive));
+        }
+
+        /** {@inheritDoc} */
+        @Override public void invalidate(final Object key) {
+            if (key instanceof String) {
+                cache.invalidate(new NamespacedKey(name, (String) key));
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override public void invalidateAll() {
+            cache.asMap().keySet().removeIf(k -> name.equals(k.getNamespace()));
+        }
+
+        /** {@inheritDoc} */
+        @Override public long size() {
+            return cache.asMap().keySet().stream().filter(k -> name.equals(k.getNamespace())).count();
+        }
+
+        /** {@inheritDoc} */
+        @Override public void cleanUp() {
+            final long now = System.currentTimeMillis();
+            cache.asMap().entrySet().removeIf(e -> name.equals(e.getKey().getNamespace())
+                    && now >= e.getValue().expiration);
+            cache.cleanUp();
+        }
+    }
+
+}
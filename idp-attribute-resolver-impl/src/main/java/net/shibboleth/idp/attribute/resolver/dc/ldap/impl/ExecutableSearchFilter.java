@@ -19,10 +19,13 @@ package net.shibboleth.idp.attribute.resolver.dc.ldap.impl;
 
 import javax.annotation.Nonnull;
 
+import org.ldaptive.Connection;
 import org.ldaptive.ConnectionFactory;
 import org.ldaptive.LdapException;
 import org.ldaptive.SearchExecutor;
 import org.ldaptive.SearchFilter;
+import org.ldaptive.SearchOperation;
+import org.ldaptive.SearchRequest;
 import org.ldaptive.SearchResult;
 
 import net.shibboleth.idp.attribute.resolver.dc.impl.ExecutableSearch;
@@ -43,6 +46,25 @@ public interface ExecutableSearchFilter extends ExecutableSearch {
     @Nonnull SearchResult execute(@Nonnull SearchExecutor executor, @Nonnull ConnectionFactory factory)
             throws LdapException;
 
+    /**
+     * Performs an LDAP search over an already open connection and returns the results.
+     * 
+     * <p>This allows a batch of searches to share a single connection.</p>
+     * 
+     * @param executor configured to perform searches
+     * @param connection open connection to search over
+     * 
+     * @return the result of this search filter
+     * 
+     * @throws LdapException thrown if there is an error performing the search
+     */
+    @Nonnull default SearchResult execute(@Nonnull final SearchExecutor executor,
+            @Nonnull final Connection connection) throws LdapException {
+        final SearchRequest request = SearchRequest.newSearchRequest(executor);
+        request.setSearchFilter(getSearchFilter());
+        return new SearchOperation(connection).execute(request).getResult();
+    }
+
     /**
      * Returns the search filter associated with this executable search filter.
      *
@@ -17,6 +17,8 @@
 
 package net.shibboleth.idp.attribute.resolver.dc.ldap.impl;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import javax.annotation.Nonnull;
@@ -48,6 +50,9 @@ import org.slf4j.LoggerFactory;
 /**
  * A {@link net.shibboleth.idp.attribute.resolver.DataConnector} that queries an LDAP in order to retrieve attribute
  * data.
+ * 
+ * <p>When a batch of contexts is resolved via {@link #resolveAll(List)}, the searches are run one after another over
+ * a single connection rather than taking a connection from the factory for each.</p>
  */
 public class LDAPDataConnector extends AbstractSearchDataConnector<ExecutableSearchFilter,SearchResultMappingStrategy> {
 
@@ -213,4 +218,38 @@ public class LDAPDataConnector extends AbstractSearchDataConnector<ExecutableSea
         }
     }
 
-}
\ No newline at end of file
+    /** {@inheritDoc} */
+    @Override @Nonnull protected List<Map<String,IdPAttribute>> retrieveAllAttributes(
+            @Nonnull final List<ExecutableSearchFilter> filters) throws ResolutionException {
+
+        if (filters.size() < 2) {
+            return super.retrieveAllAttributes(filters);
+        }
+
+        final List<Map<String,IdPAttribute>> results = new ArrayList<>(filters.size());
+        Connection conn = null;
+        try {
+            conn = connectionFactory.getConnection();
+            if (!conn.isOpen()) {
+                conn.open();
+            }
+            for (final ExecutableSearchFilter filter : filters) {
+                final SearchResult result = filter.execute(searchExecutor, conn);
+                log.trace("{} Search returned {}", getLogPrefix(), result);
+                results.add(getMappingStrategy().map(result));
+            }
+            return results;
+        } catch (final LdapException e) {
+            throw new ResolutionException(getLogPrefix() + " Unable to execute LDAP search", e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (final Exception e) {
+                    log.debug("{} Error closing LDAP connection", getLogPrefix(), e);
+                }
+            }
+        }
+    }
+
+}
@@ -18,6 +18,7 @@
 package net.shibboleth.idp.attribute.resolver.dc.rdbms.impl;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -31,8 +32,11 @@ import net.shibboleth.idp.attribute.IdPAttributeValue;
 import net.shibboleth.idp.attribute.resolver.ResolutionException;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
 import net.shibboleth.idp.attribute.resolver.dc.impl.ExecutableSearchBuilder;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
 
 /**
  * Basis of statement builder. The derived classes just have to provide the per request sql string.
@@ -43,6 +47,9 @@ public abstract class AbstractExecutableStatementBuilder extends AbstractInitial
     /** Query timeout. */
     private int queryTimeout = 5000;
 
+    /** Number of rows to fetch from the database at a time, or 0 for the driver default. */
+    @NonNegative private int fetchSize;
+
     /**
      * Gets the timeout of the SQL query.
      * 
@@ -62,6 +69,25 @@ public abstract class AbstractExecutableStatementBuilder extends AbstractInitial
         queryTimeout = timeout;
     }
 
+    /**
+     * Gets the number of rows to fetch from the database at a time.
+     * 
+     * @return fetch size, or 0 for the driver default
+     */
+    @NonNegative public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Sets the number of rows to fetch from the database at a time.
+     * 
+     * @param size fetch size, or 0 for the driver default
+     */
+    public void setFetchSize(@NonNegative final int size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        fetchSize = Constraint.isGreaterThanOrEqual(0, size, "Fetch size must be greater than or equal to 0");
+    }
+
     /**
      * Method to return the query SQL.
      * 
@@ -90,6 +116,9 @@ public abstract class AbstractExecutableStatementBuilder extends AbstractInitial
             @Nonnull public ResultSet execute(@Nonnull final Connection connection) throws SQLException {
                 final Statement stmt = connection.createStatement();
                 stmt.setQueryTimeout(queryTimeout);
+                if (fetchSize > 0) {
+                    stmt.setFetchSize(fetchSize);
+                }
                 return stmt.executeQuery(query);
             }
 
@@ -100,4 +129,55 @@ public abstract class AbstractExecutableStatementBuilder extends AbstractInitial
         };
     }
 
+    /**
+     * Creates an executable statement that runs the supplied SQL as a {@link PreparedStatement} with bind variables.
+     * 
+     * <p>As the SQL text does not vary with the values bound, the database only needs to parse it once, and a
+     * connection pool that caches prepared statements can reuse them.</p>
+     * 
+     * @param query the SQL, with a '?' placeholder for each parameter
+     * @param parameters the values to bind, in order
+     * 
+     * @return executable statement
+     */
+    // Checkstyle: AnonInnerLength OFF
+    @Nonnull protected ExecutableStatement build(@Nonnull final String query,
+            @Nonnull @NonnullElements final List<Object> parameters) {
+
+        final StringBuilder cacheKey = new StringBuilder(query);
+        for (final Object parameter : parameters) {
+            cacheKey.append('\u0000').append(parameter);
+        }
+        final String resultCacheKey = cacheKey.toString();
+
+        return new ExecutableStatement() {
+
+            /** {@inheritDoc} */
+            @Nullable public String getResultCacheKey() {
+                return resultCacheKey;
+            }
+
+            /** {@inheritDoc} */
+            @Nonnull public ResultSet execute(@Nonnull final Connection connection) throws SQLException {
+                final PreparedStatement stmt = connection.prepareStatement(query);
+                stmt.setQueryTimeout(queryTimeout);
+                if (fetchSize > 0) {
+                    stmt.setFetchSize(fetchSize);
+                }
+                for (int i = 0; i < parameters.size(); i++) {
+                    stmt.setObject(i + 1, parameters.get(i));
+                }
+                // Closing the result set hands the statement back to any pool statement cache.
+                stmt.closeOnCompletion();
+                return stmt.executeQuery();
+            }
+
+            /** {@inheritDoc} */
+            public String toString() {
+                return query + ' ' + parameters;
+            }
+        };
+    }
+    // Checkstyle: AnonInnerLength ON
+
 }
\ No newline at end of file
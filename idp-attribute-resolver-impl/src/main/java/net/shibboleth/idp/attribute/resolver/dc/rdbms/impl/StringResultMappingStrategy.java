@@ -21,8 +21,8 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -66,10 +66,23 @@ public class StringResultMappingStrategy extends AbstractMappingStrategy<ResultS
             }
 
             final ResultSetMetaData resultMetadata = results.getMetaData();
+            final int columnCount = resultMetadata.getColumnCount();
 
-            final Map<String, IdPAttribute> attributes = new HashMap<>(resultMetadata.getColumnCount());
-
+            // Resolve each column's attribute ID once, rather than per row.
+            final String[] columnIds = new String[columnCount + 1];
             final Map<String, String> aliases = getResultRenamingMap();
+            for (int i = 1; i <= columnCount; i++) {
+                final String originalId = resultMetadata.getColumnName(i);
+                final String effectiveId = aliases.containsKey(originalId) ? aliases.get(originalId) : originalId;
+                if (log.isDebugEnabled()) {
+                    if (!effectiveId.equals(originalId)) {
+                        log.debug("Remapping column {} to {}", originalId, effectiveId);
+                    }
+                }
+                columnIds[i] = effectiveId;
+            }
+
+            final Map<String, List<IdPAttributeValue<?>>> valuesById = new LinkedHashMap<>(columnCount);
 
             int rowCount = 0;
             do {
@@ -77,38 +90,27 @@ public class StringResultMappingStrategy extends AbstractMappingStrategy<ResultS
                 if (rowCount > 1 && isMultipleResultsAnError()) {
                     throw new MultipleResultAnErrorResolutionException("Multiple rows returned from query");
                 }
-                for (int i = 1; i <= resultMetadata.getColumnCount(); i++) {
-
-                    final String originalId = resultMetadata.getColumnName(i);
-                    final String effectiveId = aliases.containsKey(originalId) ? aliases.get(originalId) : originalId;
-                    if (log.isDebugEnabled()) {
-                        if (!effectiveId.equals(originalId)) {
-                            log.debug("Remapping column {} to {}", originalId, effectiveId);
-                        }
-                    }
-
-                    IdPAttribute attribute = attributes.get(effectiveId);
-                    if (attribute == null) {
-                        attribute = new IdPAttribute(effectiveId);
-                        attributes.put(effectiveId, attribute);
-                    }
-
-                    if (attribute.getValues().isEmpty()) {
-                        attribute.setValues(
-                            Collections.singletonList(StringAttributeValue.valueOf(results.getString(i))));
-                    } else {
-                        final List<IdPAttributeValue<?>> values = new ArrayList<>(attribute.getValues());
-                        values.add(StringAttributeValue.valueOf(results.getString(i)));
-                        attribute.setValues(values);
+                for (int i = 1; i <= columnCount; i++) {
+                    List<IdPAttributeValue<?>> values = valuesById.get(columnIds[i]);
+                    if (values == null) {
+                        values = new ArrayList<>(1);
+                        valuesById.put(columnIds[i], values);
                     }
+                    values.add(StringAttributeValue.valueOf(results.getString(i)));
                 }
             } while (results.next());
 
-            if (attributes.isEmpty()) {
+            if (valuesById.isEmpty()) {
                 return null;
-            } else {
-                return attributes;
             }
+
+            final Map<String, IdPAttribute> attributes = new HashMap<>(valuesById.size());
+            for (final Map.Entry<String, List<IdPAttributeValue<?>>> entry : valuesById.entrySet()) {
+                final IdPAttribute attribute = new IdPAttribute(entry.getKey());
+                attribute.setValues(entry.getValue());
+                attributes.put(entry.getKey(), attribute);
+            }
+            return attributes;
         } catch (final SQLException e) {
             throw new ResolutionException("Error reading data from result set", e);
         }
@@ -18,6 +18,7 @@
 package net.shibboleth.idp.attribute.resolver.dc.rdbms.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -49,6 +50,10 @@ import edu.internet2.middleware.shibboleth.common.attribute.provider.V2SAMLProfi
  * An {@link net.shibboleth.idp.attribute.resolver.dc.impl.ExecutableSearchBuilder} that generates the SQL statement to
  * be executed by evaluating a {@link Template} against the currently resolved attributes within a
  * {@link AttributeResolutionContext}.
+ * 
+ * <p>In {@link #setParameterized(boolean)} mode, each value the template inserts becomes a bind variable of a
+ * {@link java.sql.PreparedStatement} instead of being escaped into the SQL text, so the template must not quote
+ * them. A multi-valued insertion becomes a comma-separated list of bind variables, for use with IN.</p>
  */
 public class TemplatedExecutableStatementBuilder extends AbstractExecutableStatementBuilder {
 
@@ -70,6 +75,9 @@ public class TemplatedExecutableStatementBuilder extends AbstractExecutableState
     /** Do we need to make ourself V2 Compatible? */
     private boolean v2Compatibility;
 
+    /** Whether to bind inserted values as statement parameters. */
+    private boolean parameterized;
+
     /**
      * Gets the template to be evaluated.
      * 
@@ -157,6 +165,26 @@ public class TemplatedExecutableStatementBuilder extends AbstractExecutableState
         v2Compatibility = compat;
     }
 
+    /**
+     * Are inserted values bound as statement parameters?
+     * 
+     * @return whether inserted values are bound as statement parameters
+     */
+    public boolean isParameterized() {
+        return parameterized;
+    }
+
+    /**
+     * Set whether inserted values are bound as statement parameters rather than escaped into the SQL text.
+     * 
+     * @param flag whether to bind inserted values as statement parameters
+     */
+    public void setParameterized(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        parameterized = flag;
+    }
+
     /**
      * Invokes {@link Template#merge(org.apache.velocity.context.Context)} on the supplied context.
      * 
@@ -170,11 +198,36 @@ public class TemplatedExecutableStatementBuilder extends AbstractExecutableState
         return result;
     }
 
+    /** {@inheritDoc} */
+    @Override public ExecutableStatement build(@Nonnull final AttributeResolutionContext resolutionContext,
+            @Nonnull final Map<String, List<IdPAttributeValue<?>>> dependencyAttributes) throws ResolutionException {
+        if (!parameterized) {
+            return super.build(resolutionContext, dependencyAttributes);
+        }
+
+        final BindingReferenceInsertionEventHandler binder = new BindingReferenceInsertionEventHandler();
+        final String query = evaluate(createContext(resolutionContext, dependencyAttributes), binder);
+        return build(query, binder.getParameters());
+    }
+
     /**
      * Apply the context to the template. {@inheritDoc}
      */
     @Override protected String getSQLQuery(@Nonnull final AttributeResolutionContext resolutionContext,
             @Nonnull final Map<String, List<IdPAttributeValue<?>>> dependencyAttributes) throws ResolutionException {
+        return evaluate(createContext(resolutionContext, dependencyAttributes), eventHandler);
+    }
+
+    /**
+     * Create the context to evaluate the template against.
+     * 
+     * @param resolutionContext the context of the resolution
+     * @param dependencyAttributes made available to the template
+     * 
+     * @return the template context
+     */
+    @Nonnull private VelocityContext createContext(@Nonnull final AttributeResolutionContext resolutionContext,
+            @Nullable final Map<String, List<IdPAttributeValue<?>>> dependencyAttributes) {
         final VelocityContext context = new VelocityContext();
         log.trace("Creating search filter using attribute resolution context {}", resolutionContext);
         context.put("resolutionContext", resolutionContext);
@@ -197,9 +250,23 @@ public class TemplatedExecutableStatementBuilder extends AbstractExecutableState
             }
         }
 
-        if (eventHandler != null) {
+        return context;
+    }
+
+    /**
+     * Evaluate the template against a context, with an optional handler for inserted values.
+     * 
+     * @param context the template context
+     * @param handler handler for inserted values
+     * 
+     * @return the SQL
+     * @throws ResolutionException if the template cannot be evaluated
+     */
+    @Nonnull private String evaluate(@Nonnull final VelocityContext context,
+            @Nullable final ReferenceInsertionEventHandler handler) throws ResolutionException {
+        if (handler != null) {
             final EventCartridge cartridge = new EventCartridge();
-            cartridge.addEventHandler(eventHandler);
+            cartridge.addEventHandler(handler);
             cartridge.attachToContext(context);
         }
 
@@ -266,4 +333,53 @@ public class TemplatedExecutableStatementBuilder extends AbstractExecutableState
             return value;
         }
     }
-}
\ No newline at end of file
+
+    /** Replaces values added to the template context with bind variables, collecting the values to bind. */
+    protected static class BindingReferenceInsertionEventHandler implements ReferenceInsertionEventHandler {
+
+        /** The values to bind, in order. */
+        @Nonnull private final List<Object> parameters = new ArrayList<>();
+
+        /**
+         * Get the values to bind, in the order of their bind variables.
+         * 
+         * @return the values to bind
+         */
+        @Nonnull public List<Object> getParameters() {
+            return parameters;
+        }
+
+        @Override
+        public Object referenceInsert(final String reference, final Object value) {
+            if (value == null) {
+                return null;
+            } else if (value instanceof Object[]) {
+                return bindAll(Arrays.asList((Object[]) value));
+            } else if (value instanceof Collection<?>) {
+                return bindAll((Collection<?>) value);
+            } else {
+                parameters.add(value);
+                return "?";
+            }
+        }
+
+        /**
+         * Bind each of a number of values.
+         * 
+         * @param values the values to bind
+         * 
+         * @return a comma-separated list of bind variables
+         */
+        @Nonnull private String bindAll(@Nonnull final Collection<?> values) {
+            final StringBuilder placeholders = new StringBuilder();
+            for (final Object o : values) {
+                if (placeholders.length() > 0) {
+                    placeholders.append(", ");
+                }
+                placeholders.append('?');
+                parameters.add(o);
+            }
+            return placeholders.toString();
+        }
+    }
+}
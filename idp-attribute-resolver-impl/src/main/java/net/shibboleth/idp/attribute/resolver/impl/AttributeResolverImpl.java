@@ -17,13 +17,20 @@
 
 package net.shibboleth.idp.attribute.resolver.impl;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -37,7 +44,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 
 import net.shibboleth.ext.spring.service.AbstractServiceableComponent;
 import net.shibboleth.idp.attribute.EmptyAttributeValue;
@@ -50,6 +61,7 @@ import net.shibboleth.idp.attribute.resolver.DataConnectorEx;
 import net.shibboleth.idp.attribute.resolver.LegacyPrincipalDecoder;
 import net.shibboleth.idp.attribute.resolver.ResolutionException;
 import net.shibboleth.idp.attribute.resolver.ResolvedAttributeDefinition;
+import net.shibboleth.idp.attribute.resolver.ResolvedDataConnector;
 import net.shibboleth.idp.attribute.resolver.ResolverAttributeDefinitionDependency;
 import net.shibboleth.idp.attribute.resolver.ResolverDataConnectorDependency;
 import net.shibboleth.idp.attribute.resolver.ResolverPlugin;
@@ -78,11 +90,19 @@ import net.shibboleth.utilities.java.support.logic.Constraint;
  * {@link net.shibboleth.utilities.java.support.resolver.Criterion}s. <br>
  * The implementation also implements {@link LegacyPrincipalDecoder} in support of the deprecated
  * &lt;PrincipalConnector&gt;
+ * 
+ * <p>If an {@link Executor} is supplied, data connectors are resolved in parallel, each being run as soon as the
+ * plugins it depends on have been resolved. A connector run on the executor sees a private copy of the
+ * {@link AttributeResolutionContext}; attribute definitions, failover and the recording of results all stay on the
+ * calling thread. The {@link ProfileRequestContext} is shared, so plugins must only read it.</p>
  * */
 @ThreadSafe
 public class AttributeResolverImpl extends AbstractServiceableComponent<AttributeResolver> implements
         AttributeResolver, LegacyPrincipalDecoder {
 
+    /** Maximum number of plans cached for specific sets of requested attributes. */
+    private static final long PLAN_CACHE_SIZE = 500;
+
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(AttributeResolverImpl.class);
 
@@ -103,6 +123,18 @@ public class AttributeResolverImpl extends AbstractServiceableComponent<Attribut
     
     /** Strategy to get the {@link ProfileRequestContext}. */
     @Nonnull private Function<AttributeResolutionContext,ProfileRequestContext> profileContextStrategy;
+    
+    /** Optional executor used to resolve independent plugins in parallel. */
+    @Nullable private Executor executor;
+
+    /** Dependency graph nodes for the attribute definitions, built at initialization. */
+    @NonnullAfterInit private Map<String, PluginNode> attributeDefinitionNodes;
+
+    /** Plan used when no specific attributes are requested. */
+    @NonnullAfterInit private ResolutionPlan defaultPlan;
+
+    /** Plans for specific sets of requested attributes. */
+    @NonnullAfterInit private Cache<Set<String>, ResolutionPlan> planCache;
 
     /** Constructor. */
     public AttributeResolverImpl() {
@@ -221,6 +253,28 @@ public class AttributeResolverImpl extends AbstractServiceableComponent<Attribut
         profileContextStrategy = Constraint.isNotNull(strategy, "ProfileRequestContext lookup strategy cannot be null");
     }
     
+    /**
+     * Get the executor used to resolve independent plugins in parallel.
+     * 
+     * @return the executor, or null if resolution is serial
+     */
+    @Nullable public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Set an executor with which to resolve independent plugins in parallel.
+     * 
+     * <p>If unset, plugins are resolved one after another on the calling thread.</p>
+     * 
+     * @param exec the executor to use
+     */
+    public void setExecutor(@Nullable final Executor exec) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        executor = exec;
+    }
+    
     /**
      * Resolves the attribute for the given request. Note, if attributes are requested,
      * {@link AttributeResolutionContext#getRequestedIdPAttributeNames()}, the resolver will <strong>not</strong> fail
@@ -248,15 +302,18 @@ public class AttributeResolverImpl extends AbstractServiceableComponent<Attribut
                 return;
             }
     
-            final Collection<String> attributeIds = getToBeResolvedAttributeIds(resolutionContext);
-            log.debug("{} Attempting to resolve the following attribute definitions {}", logPrefix, attributeIds);
+            final ResolutionPlan plan = getResolutionPlan(resolutionContext);
+            log.debug("{} Attempting to resolve the following attribute definitions {}", logPrefix,
+                    plan.getAttributeIds());
     
             // Create work context to hold intermediate results.
             final AttributeResolverWorkContext workContext =
                     resolutionContext.getSubcontext(AttributeResolverWorkContext.class, true);
     
-            for (final String attributeId : attributeIds) {
-                resolveAttributeDefinition(attributeId, resolutionContext);
+            if (executor != null) {
+                executePlanInParallel(plan, resolutionContext, workContext);
+            } else {
+                executePlan(plan, resolutionContext, workContext);
             }
     
             log.debug("{} Finalizing resolved attributes", logPrefix);
@@ -297,6 +354,335 @@ public class AttributeResolverImpl extends AbstractServiceableComponent<Attribut
 
     }
 
+    /**
+     * Get the plan for resolving the attributes requested by a resolution context, building and caching it if
+     * necessary.
+     * 
+     * @param resolutionContext current resolution context
+     * 
+     * @return the plan
+     */
+    @Nonnull private ResolutionPlan getResolutionPlan(@Nonnull final AttributeResolutionContext resolutionContext) {
+        final Collection<String> requested = resolutionContext.getRequestedIdPAttributeNames();
+        if (requested.isEmpty()) {
+            return defaultPlan;
+        }
+
+        final Set<String> key = ImmutableSet.copyOf(requested);
+        ResolutionPlan plan = planCache.getIfPresent(key);
+        if (plan == null) {
+            plan = buildResolutionPlan(getToBeResolvedAttributeIds(resolutionContext));
+            planCache.put(key, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Build the plan for resolving a collection of attribute definitions, that is to say a flattened list of the
+     * definitions and everything they depend on, ordered so that every plugin follows its dependencies.
+     * 
+     * @param attributeIds IDs of the attribute definitions to resolve
+     * 
+     * @return the plan
+     */
+    @Nonnull private ResolutionPlan buildResolutionPlan(
+            @Nonnull @NonnullElements final Collection<String> attributeIds) {
+        final Map<PluginNode, Integer> indexes = new HashMap<>();
+        final List<PluginNode> steps = new ArrayList<>();
+        for (final String attributeId : attributeIds) {
+            final PluginNode node = attributeDefinitionNodes.get(attributeId);
+            if (node == null) {
+                log.debug("{} No attribute definition was registered with ID '{}', nothing to do", logPrefix,
+                        attributeId);
+            } else {
+                addToPlan(node, indexes, steps);
+            }
+        }
+
+        final int[][] dependencyIndexes = new int[steps.size()][];
+        for (int i = 0; i < dependencyIndexes.length; i++) {
+            final List<PluginNode> dependencies = steps.get(i).getDependencies();
+            dependencyIndexes[i] = new int[dependencies.size()];
+            for (int j = 0; j < dependencies.size(); j++) {
+                dependencyIndexes[i][j] = indexes.get(dependencies.get(j));
+            }
+        }
+
+        return new ResolutionPlan(attributeIds, steps.toArray(new PluginNode[steps.size()]), dependencyIndexes);
+    }
+
+    /**
+     * Add a plugin to a plan, after everything it depends on.
+     * 
+     * @param node the graph node for the plugin
+     * @param indexes the position in the plan of each plugin added so far
+     * @param steps the plan so far
+     */
+    private void addToPlan(@Nonnull final PluginNode node,
+            @Nonnull @NonnullElements final Map<PluginNode, Integer> indexes,
+            @Nonnull @NonnullElements final List<PluginNode> steps) {
+        if (indexes.containsKey(node)) {
+            return;
+        }
+        for (final PluginNode dependency : node.getDependencies()) {
+            addToPlan(dependency, indexes, steps);
+        }
+        indexes.put(node, steps.size());
+        steps.add(node);
+    }
+
+    /**
+     * Resolve every plugin in a plan, in order, on the calling thread.
+     * 
+     * @param plan the plan to execute
+     * @param resolutionContext resolution context that we are working in
+     * @param workContext work context holding the intermediate results
+     * 
+     * @throws ResolutionException if unable to resolve a plugin
+     */
+    private void executePlan(@Nonnull final ResolutionPlan plan,
+            @Nonnull final AttributeResolutionContext resolutionContext,
+            @Nonnull final AttributeResolverWorkContext workContext) throws ResolutionException {
+        for (final PluginNode step : plan.getSteps()) {
+            resolvePlannedPlugin(step, resolutionContext, workContext);
+        }
+    }
+
+    /**
+     * Resolve every plugin in a plan, running data connectors on the configured {@link Executor}.
+     * 
+     * <p>The calling thread coordinates: each data connector whose dependencies have been resolved is handed to the
+     * executor with a {@link WorkerResolutionContext}, and its outcome is passed back to be recorded here. Attribute
+     * definitions, failover and connectors waiting to retry after a failure are resolved on the calling thread. The
+     * {@link MetricContext} is detached from the {@link ProfileRequestContext} for the duration and timed here, so
+     * the plugins' own timers never touch it concurrently.</p>
+     * 
+     * @param plan the plan to execute
+     * @param resolutionContext resolution context that we are working in
+     * @param workContext work context holding the intermediate results
+     * 
+     * @throws ResolutionException if unable to resolve a plugin
+     */
+    // Checkstyle: CyclomaticComplexity OFF
+    private void executePlanInParallel(@Nonnull final ResolutionPlan plan,
+            @Nonnull final AttributeResolutionContext resolutionContext,
+            @Nonnull final AttributeResolverWorkContext workContext) throws ResolutionException {
+        final PluginNode[] steps = plan.getSteps();
+
+        // Number of dependencies each step still waits for, and the steps waiting on each step.
+        final int[] waitingFor = new int[steps.length];
+        final List<List<Integer>> dependents = new ArrayList<>(steps.length);
+        final Deque<Integer> ready = new ArrayDeque<>();
+        for (int i = 0; i < steps.length; i++) {
+            dependents.add(new ArrayList<Integer>(2));
+        }
+        for (int i = 0; i < steps.length; i++) {
+            final int[] dependencyIndexes = plan.getDependencyIndexes(i);
+            waitingFor[i] = dependencyIndexes.length;
+            for (final int dependency : dependencyIndexes) {
+                dependents.get(dependency).add(i);
+            }
+            if (dependencyIndexes.length == 0) {
+                ready.add(i);
+            }
+        }
+
+        final ProfileRequestContext profileRequestContext = profileContextStrategy.apply(resolutionContext);
+        final MetricContext metricContext =
+                profileRequestContext != null ? profileRequestContext.getSubcontext(MetricContext.class) : null;
+        if (metricContext != null) {
+            profileRequestContext.removeSubcontext(metricContext);
+        }
+
+        final BlockingQueue<ConnectorResult> results = new LinkedBlockingQueue<>();
+        int outstanding = 0;
+        try {
+            int finished = 0;
+            while (finished < steps.length) {
+                while (!ready.isEmpty()) {
+                    final int index = ready.poll();
+                    final PluginNode step = steps[index];
+                    if (metricContext != null) {
+                        metricContext.start(step.getPlugin().getId());
+                    }
+                    if (isDispatchable(step, workContext)) {
+                        dispatch(index, (DataConnector) step.getPlugin(), resolutionContext, workContext, results);
+                        outstanding++;
+                    } else {
+                        try {
+                            resolvePlannedPlugin(step, resolutionContext, workContext);
+                        } finally {
+                            if (metricContext != null) {
+                                metricContext.stop(step.getPlugin().getId());
+                            }
+                        }
+                        finished++;
+                        release(index, waitingFor, dependents, ready);
+                    }
+                }
+
+                if (finished < steps.length) {
+                    final ConnectorResult result = takeResult(results);
+                    outstanding--;
+                    if (metricContext != null) {
+                        metricContext.stop(result.getConnector().getId());
+                    }
+                    completeDataConnector(result, resolutionContext, workContext);
+                    finished++;
+                    release(result.getStep(), waitingFor, dependents, ready);
+                }
+            }
+        } finally {
+            // After a failure, let the remaining connectors finish before the contexts are touched again.
+            while (outstanding > 0 && !Thread.currentThread().isInterrupted()) {
+                try {
+                    takeResult(results);
+                } catch (final ResolutionException e) {
+                    break;
+                }
+                outstanding--;
+            }
+            if (metricContext != null) {
+                profileRequestContext.addSubcontext(metricContext);
+            }
+        }
+    }
+    // Checkstyle: CyclomaticComplexity ON
+
+    /**
+     * Get whether a step of a plan should be run on the {@link Executor}, that is to say it is a data connector which
+     * has not already been resolved as a failover and is not waiting to retry after a failure.
+     * 
+     * @param step the graph node for the plugin
+     * @param workContext work context holding the intermediate results
+     * 
+     * @return whether to run the step on the executor
+     */
+    private boolean isDispatchable(@Nonnull final PluginNode step,
+            @Nonnull final AttributeResolverWorkContext workContext) {
+        return step.isDataConnector()
+                && !workContext.getResolvedDataConnectors().containsKey(step.getPlugin().getId())
+                && !isWaitingToRetry((DataConnector) step.getPlugin(), System.currentTimeMillis());
+    }
+
+    /**
+     * Run a data connector on the {@link Executor} against a private copy of the resolution context.
+     * 
+     * @param index position of the connector in the plan
+     * @param connector the data connector
+     * @param resolutionContext resolution context that we are working in
+     * @param workContext work context holding the intermediate results
+     * @param results queue to which the outcome is delivered
+     * 
+     * @throws ResolutionException if the copy of the resolution context cannot be built
+     */
+    private void dispatch(final int index, @Nonnull final DataConnector connector,
+            @Nonnull final AttributeResolutionContext resolutionContext,
+            @Nonnull final AttributeResolverWorkContext workContext,
+            @Nonnull final BlockingQueue<ConnectorResult> results) throws ResolutionException {
+        final WorkerResolutionContext workerContext = new WorkerResolutionContext(resolutionContext, workContext);
+        final ConnectorResult result = new ConnectorResult(index, connector);
+        log.debug("{} Resolving data connector {} in parallel", logPrefix, connector.getId());
+        executor.execute(() -> {
+            try {
+                result.setAttributes(connector.resolve(workerContext));
+            } catch (final ResolutionException | RuntimeException e) {
+                result.setFailure(e);
+            } finally {
+                results.add(result);
+            }
+        });
+    }
+
+    /**
+     * Wait for the next data connector run on the {@link Executor} to finish.
+     * 
+     * @param results queue to which outcomes are delivered
+     * 
+     * @return the outcome
+     * 
+     * @throws ResolutionException if interrupted while waiting
+     */
+    @Nonnull private ConnectorResult takeResult(@Nonnull final BlockingQueue<ConnectorResult> results)
+            throws ResolutionException {
+        try {
+            return results.take();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResolutionException(logPrefix + " Interrupted while waiting for data connectors", e);
+        }
+    }
+
+    /**
+     * Record the outcome of a data connector run on the {@link Executor}, invoking any failover connector as
+     * required.
+     * 
+     * @param result the outcome
+     * @param resolutionContext resolution context that we are working in
+     * @param workContext work context holding the intermediate results
+     * 
+     * @throws ResolutionException if the connector failed and there is no failover
+     */
+    private void completeDataConnector(@Nonnull final ConnectorResult result,
+            @Nonnull final AttributeResolutionContext resolutionContext,
+            @Nonnull final AttributeResolverWorkContext workContext) throws ResolutionException {
+        final DataConnector connector = result.getConnector();
+        if (workContext.getResolvedDataConnectors().containsKey(connector.getId())) {
+            log.debug("{} Data connector '{}' was resolved as a failover meanwhile, discarding its result", logPrefix,
+                    connector.getId());
+            return;
+        }
+
+        final Exception failure = result.getFailure();
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure != null) {
+            failover(connector, (ResolutionException) failure, resolutionContext, workContext);
+        } else {
+            recordDataConnectorResult(connector, result.getAttributes(), workContext);
+        }
+    }
+
+    /**
+     * Note that a step of a plan has been resolved, making ready any step that was only waiting for it.
+     * 
+     * @param index position of the step in the plan
+     * @param waitingFor number of dependencies each step still waits for
+     * @param dependents the steps waiting on each step
+     * @param ready steps ready to be resolved
+     */
+    private static void release(final int index, @Nonnull final int[] waitingFor,
+            @Nonnull @NonnullElements final List<List<Integer>> dependents,
+            @Nonnull @NonnullElements final Deque<Integer> ready) {
+        for (final Integer dependent : dependents.get(index)) {
+            if (--waitingFor[dependent] == 0) {
+                ready.add(dependent);
+            }
+        }
+    }
+
+    /**
+     * Resolve a single plugin from a plan, whose dependencies have already been resolved.
+     * 
+     * @param step the graph node for the plugin
+     * @param resolutionContext resolution context that we are working in
+     * @param workContext work context holding the intermediate results
+     * 
+     * @throws ResolutionException if unable to resolve the plugin
+     */
+    private void resolvePlannedPlugin(@Nonnull final PluginNode step,
+            @Nonnull final AttributeResolutionContext resolutionContext,
+            @Nonnull final AttributeResolverWorkContext workContext) throws ResolutionException {
+        if (step.isDataConnector()) {
+            // A failover may already have dealt with this one.
+            if (!workContext.getResolvedDataConnectors().containsKey(step.getPlugin().getId())) {
+                doResolveDataConnector((DataConnector) step.getPlugin(), resolutionContext, workContext);
+            }
+        } else if (!workContext.getResolvedIdPAttributeDefinitions().containsKey(step.getPlugin().getId())) {
+            doResolveAttributeDefinition((AttributeDefinition) step.getPlugin(), resolutionContext, workContext);
+        }
+    }
+
     /**
      * Resolve the {@link AttributeDefinition} which has the specified ID.
      * 
@@ -330,6 +716,25 @@ public class AttributeResolverImpl extends AbstractServiceableComponent<Attribut
 
         resolveDependencies(definition, resolutionContext);
 
+        doResolveAttributeDefinition(definition, resolutionContext, workContext);
+    }
+    // CheckStyle: ReturnCount ON
+
+    /**
+     * Resolve an {@link AttributeDefinition} whose dependencies have been resolved, recording the result in the
+     * {@link AttributeResolverWorkContext}.
+     * 
+     * @param definition the attribute definition to resolve
+     * @param resolutionContext resolution context that we are working in
+     * @param workContext work context holding the intermediate results
+     * 
+     * @throws ResolutionException if unable to resolve the attribute definition
+     */
+    private void doResolveAttributeDefinition(@Nonnull final AttributeDefinition definition,
+            @Nonnull final AttributeResolutionContext resolutionContext,
+            @Nonnull final AttributeResolverWorkContext workContext) throws ResolutionException {
+        final String attributeId = definition.getId();
+
         log.trace("{} Resolving attribute definition {}", logPrefix, attributeId);
         final IdPAttribute resolvedAttribute = definition.resolve(resolutionContext);
 
@@ -342,7 +747,6 @@ public class AttributeResolverImpl extends AbstractServiceableComponent<Attribut
 
         workContext.recordAttributeDefinitionResolution(definition, resolvedAttribute);
     }
-    // CheckStyle: ReturnCount ON
 
     /**
      * Resolve the {@link DataConnector} which has the specified ID.
@@ -361,7 +765,6 @@ public class AttributeResolverImpl extends AbstractServiceableComponent<Attribut
         Constraint.isNotNull(resolutionContext, "Attribute resolution context cannot be null");
         final AttributeResolverWorkContext workContext =
                 resolutionContext.getSubcontext(AttributeResolverWorkContext.class, false);
-        final long resolveTime = System.currentTimeMillis();
 
         if (workContext.getResolvedDataConnectors().containsKey(connectorId)) {
             log.trace("{} Data connector '{}' was already resolved, nothing to do", logPrefix, connectorId);
@@ -374,53 +777,117 @@ public class AttributeResolverImpl extends AbstractServiceableComponent<Attribut
             return;
         }
 
-        if (connector instanceof DataConnectorEx) {
-            final DataConnectorEx connectorEx = (DataConnectorEx) connector;
-            if (resolveTime < connectorEx.getLastFail() + connectorEx.getNoRetryDelay()) {
-                log.debug("{} Data connector '{}' failed to resolve previously.  Still waiting", logPrefix, 
-                        connectorId);
-                final String failoverDataConnectorId = connector.getFailoverDataConnectorId();
-                if (null != failoverDataConnectorId) {
-                    log.debug("{} Data connector '{}' invoking failover data connector '{}'", logPrefix, connectorId,
-                            failoverDataConnectorId);
-                    resolveDataConnector(failoverDataConnectorId, resolutionContext);
-                    workContext.recordFailoverResolution(connector, dataConnectors.get(failoverDataConnectorId));
-                    return;
-                } else {
-                    throw new ResolutionException("Previous resolve failed");
-                }
-            }
+        resolveDependencies(connector, resolutionContext);
+
+        doResolveDataConnector(connector, resolutionContext, workContext);
+    }
+    // CheckStyle: ReturnCount ON
+
+    /**
+     * Resolve a {@link DataConnector} whose dependencies have been resolved, invoking any failover connector as
+     * required and recording the result in the {@link AttributeResolverWorkContext}.
+     * 
+     * @param connector the data connector to resolve
+     * @param resolutionContext resolution context that we are working in
+     * @param workContext work context holding the intermediate results
+     * 
+     * @throws ResolutionException if unable to resolve the data connector
+     */
+    private void doResolveDataConnector(@Nonnull final DataConnector connector,
+            @Nonnull final AttributeResolutionContext resolutionContext,
+            @Nonnull final AttributeResolverWorkContext workContext) throws ResolutionException {
+        final String connectorId = connector.getId();
+
+        if (isWaitingToRetry(connector, System.currentTimeMillis())) {
+            log.debug("{} Data connector '{}' failed to resolve previously.  Still waiting", logPrefix, connectorId);
+            failover(connector, null, resolutionContext, workContext);
+            return;
         }
 
-        resolveDependencies(connector, resolutionContext);
         final Map<String, IdPAttribute> resolvedAttributes;
         try {
             log.debug("{} Resolving data connector {}", logPrefix, connectorId);
             resolvedAttributes = connector.resolve(resolutionContext);
         } catch (final ResolutionException e) {
-            final String failoverDataConnectorId = connector.getFailoverDataConnectorId();
-            if (null != failoverDataConnectorId) {
-                log.debug("{} Data connector '{}' failed to resolve, invoking failover data"
-                        + " connector '{}'.  Reason for failure:", logPrefix, connectorId, failoverDataConnectorId, e);
-                resolveDataConnector(failoverDataConnectorId, resolutionContext);
-                workContext.recordFailoverResolution(connector, dataConnectors.get(failoverDataConnectorId));
-                return;
-            } else {
-                // Pass it on. Do not look at propagateException because this is handled in the
-                // connector code logic.
-                throw e;
+            failover(connector, e, resolutionContext, workContext);
+            return;
+        }
+
+        recordDataConnectorResult(connector, resolvedAttributes, workContext);
+    }
+
+    /**
+     * Get whether a data connector failed recently enough that it should not be tried again yet.
+     * 
+     * @param connector the data connector
+     * @param now the current time
+     * 
+     * @return whether the connector is waiting to retry
+     */
+    private boolean isWaitingToRetry(@Nonnull final DataConnector connector, final long now) {
+        if (connector instanceof DataConnectorEx) {
+            final DataConnectorEx connectorEx = (DataConnectorEx) connector;
+            return now < connectorEx.getLastFail() + connectorEx.getNoRetryDelay();
+        }
+        return false;
+    }
+
+    /**
+     * Resolve the failover connector of a data connector that has failed, or is waiting to retry, recording its
+     * result against the failed connector.
+     * 
+     * @param connector the data connector which failed
+     * @param cause the failure, or null if the connector was not tried
+     * @param resolutionContext resolution context that we are working in
+     * @param workContext work context holding the intermediate results
+     * 
+     * @throws ResolutionException if there is no failover connector, or it fails too
+     */
+    private void failover(@Nonnull final DataConnector connector, @Nullable final ResolutionException cause,
+            @Nonnull final AttributeResolutionContext resolutionContext,
+            @Nonnull final AttributeResolverWorkContext workContext) throws ResolutionException {
+        final String failoverDataConnectorId = connector.getFailoverDataConnectorId();
+        if (null == failoverDataConnectorId) {
+            if (cause == null) {
+                throw new ResolutionException("Previous resolve failed");
             }
+            // Pass it on. Do not look at propagateException because this is handled in the
+            // connector code logic.
+            throw cause;
         }
 
+        if (cause != null) {
+            log.debug("{} Data connector '{}' failed to resolve, invoking failover data"
+                    + " connector '{}'.  Reason for failure:", logPrefix, connector.getId(), failoverDataConnectorId,
+                    cause);
+        } else {
+            log.debug("{} Data connector '{}' invoking failover data connector '{}'", logPrefix, connector.getId(),
+                    failoverDataConnectorId);
+        }
+        resolveDataConnector(failoverDataConnectorId, resolutionContext);
+        workContext.recordFailoverResolution(connector, dataConnectors.get(failoverDataConnectorId));
+    }
+
+    /**
+     * Record the attributes produced by a data connector in the {@link AttributeResolverWorkContext}.
+     * 
+     * @param connector the data connector
+     * @param resolvedAttributes the attributes it produced
+     * @param workContext work context holding the intermediate results
+     * 
+     * @throws ResolutionException if the connector's resolution has already been recorded
+     */
+    private void recordDataConnectorResult(@Nonnull final DataConnector connector,
+            @Nullable final Map<String, IdPAttribute> resolvedAttributes,
+            @Nonnull final AttributeResolverWorkContext workContext) throws ResolutionException {
         if (null != resolvedAttributes) {
-            log.debug("{} Data connector '{}' resolved the following attributes: {}", logPrefix, connectorId,
+            log.debug("{} Data connector '{}' resolved the following attributes: {}", logPrefix, connector.getId(),
                     resolvedAttributes.keySet());
         } else {
-            log.debug("{} Data connector '{}' produced no attributes", logPrefix, connectorId);
+            log.debug("{} Data connector '{}' produced no attributes", logPrefix, connector.getId());
         }
         workContext.recordDataConnectorResolution(connector, resolvedAttributes);
     }
-    // CheckStyle: ReturnCount ON
 
     /**
      * Resolves all the dependencies for a given plugin.
@@ -565,6 +1032,69 @@ public class AttributeResolverImpl extends AbstractServiceableComponent<Attribut
             log.debug("{} Checking if attribute definition '{}' has a circular dependency", logPrefix, plugin.getId());
             checkPlugInDependencies(plugin.getId(), plugin, dependencyVerifiedPlugins);
         }
+
+        // The graph is known to be acyclic and complete at this point.
+        final Map<String, PluginNode> nodes = new HashMap<>(attributeDefinitions.size() + dataConnectors.size());
+        for (final DataConnector plugin : dataConnectors.values()) {
+            buildPluginNode(plugin, true, nodes);
+        }
+        for (final AttributeDefinition plugin : attributeDefinitions.values()) {
+            buildPluginNode(plugin, false, nodes);
+        }
+        final Map<String, PluginNode> definitionNodes = new HashMap<>(attributeDefinitions.size());
+        for (final String id : attributeDefinitions.keySet()) {
+            definitionNodes.put(id, nodes.get(PluginNode.ATTRIBUTE_DEFINITION_PREFIX + id));
+        }
+        attributeDefinitionNodes = ImmutableMap.copyOf(definitionNodes);
+
+        // Plans depend only on the configuration, so a reload (which builds a new resolver) discards them.
+        defaultPlan = buildResolutionPlan(attributeDefinitions.keySet());
+        planCache = CacheBuilder.newBuilder().maximumSize(PLAN_CACHE_SIZE).build();
+    }
+
+    /** {@inheritDoc} */
+    @Override protected void doDestroy() {
+        if (planCache != null) {
+            planCache.invalidateAll();
+        }
+        super.doDestroy();
+    }
+
+    /**
+     * Build (or find) the dependency graph node for a plugin, building the nodes for its dependencies first.
+     * 
+     * @param plugin the plugin
+     * @param isConnector whether the plugin is a data connector
+     * @param nodes the nodes built so far, keyed by {@link PluginNode#getKey()}
+     * 
+     * @return the node for the plugin
+     */
+    @Nonnull private PluginNode buildPluginNode(@Nonnull final ResolverPlugin<?> plugin, final boolean isConnector,
+            @Nonnull @NonnullElements final Map<String, PluginNode> nodes) {
+        final String key = (isConnector ? PluginNode.DATA_CONNECTOR_PREFIX : PluginNode.ATTRIBUTE_DEFINITION_PREFIX)
+                + plugin.getId();
+        final PluginNode existing = nodes.get(key);
+        if (existing != null) {
+            return existing;
+        }
+
+        final List<PluginNode> dependencies = new ArrayList<>(plugin.getDependencies().size());
+        for (final ResolverPluginDependency dependency : plugin.getDependencies()) {
+            final String pluginId = dependency.getDependencyPluginId();
+            if (dependency instanceof ResolverAttributeDefinitionDependency) {
+                dependencies.add(buildPluginNode(attributeDefinitions.get(pluginId), false, nodes));
+            } else if (dependency instanceof ResolverDataConnectorDependency) {
+                dependencies.add(buildPluginNode(dataConnectors.get(pluginId), true, nodes));
+            } else if (attributeDefinitions.containsKey(pluginId)) {
+                dependencies.add(buildPluginNode(attributeDefinitions.get(pluginId), false, nodes));
+            } else {
+                dependencies.add(buildPluginNode(dataConnectors.get(pluginId), true, nodes));
+            }
+        }
+
+        final PluginNode node = new PluginNode(key, plugin, isConnector, dependencies);
+        nodes.put(key, node);
+        return node;
     }
 
     /**
@@ -669,4 +1199,276 @@ public class AttributeResolverImpl extends AbstractServiceableComponent<Attribut
         }
     }
     
-}
\ No newline at end of file
+    /**
+     * A node in the plugin dependency graph.
+     */
+    private static final class PluginNode {
+
+        /** Key prefix for attribute definitions. */
+        @Nonnull @NotEmpty static final String ATTRIBUTE_DEFINITION_PREFIX = "AD:";
+
+        /** Key prefix for data connectors. */
+        @Nonnull @NotEmpty static final String DATA_CONNECTOR_PREFIX = "DC:";
+
+        /** Key distinguishing attribute definitions from data connectors with the same ID. */
+        @Nonnull @NotEmpty private final String key;
+
+        /** The plugin. */
+        @Nonnull private final ResolverPlugin<?> plugin;
+
+        /** Whether the plugin is a data connector. */
+        private final boolean dataConnector;
+
+        /** The nodes this node depends on. */
+        @Nonnull @NonnullElements private final List<PluginNode> dependencies;
+
+        /**
+         * Constructor.
+         * 
+         * @param nodeKey the key of the node
+         * @param resolverPlugin the plugin
+         * @param isConnector whether the plugin is a data connector
+         * @param nodeDependencies the nodes this node depends on
+         */
+        PluginNode(@Nonnull @NotEmpty final String nodeKey, @Nonnull final ResolverPlugin<?> resolverPlugin,
+                final boolean isConnector, @Nonnull @NonnullElements final List<PluginNode> nodeDependencies) {
+            key = nodeKey;
+            plugin = resolverPlugin;
+            dataConnector = isConnector;
+            dependencies = ImmutableList.copyOf(nodeDependencies);
+        }
+
+        /**
+         * Get the key of the node.
+         * 
+         * @return the key
+         */
+        @Nonnull @NotEmpty String getKey() {
+            return key;
+        }
+
+        /**
+         * Get the plugin.
+         * 
+         * @return the plugin
+         */
+        @Nonnull ResolverPlugin<?> getPlugin() {
+            return plugin;
+        }
+
+        /**
+         * Get whether the plugin is a data connector.
+         * 
+         * @return whether the plugin is a data connector
+         */
+        boolean isDataConnector() {
+            return dataConnector;
+        }
+
+        /**
+         * Get the nodes this node depends on.
+         * 
+         * @return the dependencies
+         */
+        @Nonnull @NonnullElements @Unmodifiable List<PluginNode> getDependencies() {
+            return dependencies;
+        }
+    }
+
+    /**
+     * A precompiled, flattened list of the plugins needed to resolve a set of attribute definitions.
+     */
+    private static final class ResolutionPlan {
+
+        /** The attribute definitions the plan resolves. */
+        @Nonnull @NonnullElements private final Collection<String> attributeIds;
+
+        /** The plugins to resolve, each following its dependencies. */
+        @Nonnull @NonnullElements private final PluginNode[] steps;
+
+        /** For each step, the positions of its dependencies in {@link #steps}. */
+        @Nonnull private final int[][] dependencyIndexes;
+
+        /**
+         * Constructor.
+         * 
+         * @param ids the attribute definitions the plan resolves
+         * @param planSteps the plugins to resolve, each following its dependencies
+         * @param indexes for each step, the positions of its dependencies
+         */
+        ResolutionPlan(@Nonnull @NonnullElements final Collection<String> ids,
+                @Nonnull @NonnullElements final PluginNode[] planSteps, @Nonnull final int[][] indexes) {
+            attributeIds = ImmutableList.copyOf(ids);
+            steps = planSteps;
+            dependencyIndexes = indexes;
+        }
+
+        /**
+         * Get the attribute definitions the plan resolves.
+         * 
+         * @return the attribute definition IDs
+         */
+        @Nonnull @NonnullElements @Unmodifiable Collection<String> getAttributeIds() {
+            return attributeIds;
+        }
+
+        /**
+         * Get the plugins to resolve, each following its dependencies. The array must not be modified.
+         * 
+         * @return the steps of the plan
+         */
+        @Nonnull @NonnullElements PluginNode[] getSteps() {
+            return steps;
+        }
+
+        /**
+         * Get the positions in {@link #getSteps()} of the dependencies of a step. The array must not be modified.
+         * 
+         * @param step position of the step
+         * 
+         * @return the positions of its dependencies
+         */
+        @Nonnull int[] getDependencyIndexes(final int step) {
+            return dependencyIndexes[step];
+        }
+    }
+
+    /**
+     * The outcome of a data connector run on the {@link Executor}, handed back to the calling thread.
+     */
+    private static final class ConnectorResult {
+
+        /** Position of the connector in the plan. */
+        private final int step;
+
+        /** The data connector. */
+        @Nonnull private final DataConnector connector;
+
+        /** The attributes produced. */
+        @Nullable private Map<String, IdPAttribute> attributes;
+
+        /** The failure, which stands until the connector returns. */
+        @Nullable private Exception failure;
+
+        /**
+         * Constructor.
+         * 
+         * @param index position of the connector in the plan
+         * @param dataConnector the data connector
+         */
+        ConnectorResult(final int index, @Nonnull final DataConnector dataConnector) {
+            step = index;
+            connector = dataConnector;
+            failure = new ResolutionException("Data connector '" + dataConnector.getId() + "' did not complete");
+        }
+
+        /**
+         * Get the position of the connector in the plan.
+         * 
+         * @return the position
+         */
+        int getStep() {
+            return step;
+        }
+
+        /**
+         * Get the data connector.
+         * 
+         * @return the connector
+         */
+        @Nonnull DataConnector getConnector() {
+            return connector;
+        }
+
+        /**
+         * Get the attributes produced.
+         * 
+         * @return the attributes
+         */
+        @Nullable Map<String, IdPAttribute> getAttributes() {
+            return attributes;
+        }
+
+        /**
+         * Record that the connector returned.
+         * 
+         * @param resolved the attributes produced
+         */
+        void setAttributes(@Nullable final Map<String, IdPAttribute> resolved) {
+            attributes = resolved;
+            failure = null;
+        }
+
+        /**
+         * Get the failure, if any.
+         * 
+         * @return a {@link ResolutionException} or {@link RuntimeException}, or null if the connector returned
+         */
+        @Nullable Exception getFailure() {
+            return failure;
+        }
+
+        /**
+         * Record that the connector failed.
+         * 
+         * @param e the failure
+         */
+        void setFailure(@Nonnull final Exception e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * A private copy of an {@link AttributeResolutionContext} against which a data connector is resolved on another
+     * thread.
+     * 
+     * <p>It carries the request properties and a snapshot of the results recorded so far, so nothing the connector
+     * does to it is seen by the calling thread. It is not attached to the context tree, but reports the original
+     * context's parent as its own so that activation conditions and lookup strategies still find the
+     * {@link ProfileRequestContext}.</p>
+     */
+    private static final class WorkerResolutionContext extends AttributeResolutionContext {
+
+        /** Parent of the original context. */
+        @Nullable private final BaseContext originalParent;
+
+        /**
+         * Constructor.
+         * 
+         * @param original the context to copy
+         * @param originalWorkContext its work context
+         * 
+         * @throws ResolutionException if the results cannot be copied
+         */
+        WorkerResolutionContext(@Nonnull final AttributeResolutionContext original,
+                @Nonnull final AttributeResolverWorkContext originalWorkContext) throws ResolutionException {
+            originalParent = original.getParent();
+            setPrincipal(original.getPrincipal());
+            setPrincipalAuthenticationMethod(original.getPrincipalAuthenticationMethod());
+            setAttributeIssuerID(original.getAttributeIssuerID());
+            setAttributeRecipientID(original.getAttributeRecipientID());
+            setAttributeRecipientGroupID(original.getAttributeRecipientGroupID());
+            setAllowCachedResults(original.getAllowCachedResults());
+            setResolutionLabel(original.getResolutionLabel());
+            setRequestedIdPAttributeNames(original.getRequestedIdPAttributeNames());
+
+            final AttributeResolverWorkContext workContext =
+                    getSubcontext(AttributeResolverWorkContext.class, true);
+            for (final ResolvedAttributeDefinition resolved
+                    : originalWorkContext.getResolvedIdPAttributeDefinitions().values()) {
+                workContext.recordAttributeDefinitionResolution(resolved.getResolvedDefinition(),
+                        resolved.getResolvedAttribute());
+            }
+            for (final ResolvedDataConnector resolved : originalWorkContext.getResolvedDataConnectors().values()) {
+                workContext.recordDataConnectorResolution(resolved.getResolvedConnector(),
+                        resolved.getResolvedAttributes());
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override @Nullable public BaseContext getParent() {
+            return originalParent;
+        }
+    }
+
+}
@@ -19,11 +19,20 @@ package net.shibboleth.idp.attribute.resolver.dc.http.impl;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.script.ScriptException;
 
 import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.opensaml.security.httpclient.HttpClientSecurityParameters;
 import org.opensaml.security.httpclient.impl.SecurityEnhancedHttpClientSupport;
@@ -34,8 +43,10 @@ import org.testng.annotations.Test;
 
 import net.shibboleth.ext.spring.resource.ResourceHelper;
 import net.shibboleth.idp.attribute.IdPAttribute;
+import net.shibboleth.idp.attribute.IdPAttributeValue;
 import net.shibboleth.idp.attribute.resolver.ResolutionException;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
+import net.shibboleth.idp.attribute.resolver.dc.impl.ExecutableSearchBuilder;
 import net.shibboleth.idp.attribute.resolver.dc.impl.TestCache;
 import net.shibboleth.idp.saml.impl.TestSources;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
@@ -338,4 +349,64 @@ public class HTTPDataConnectorTest {
         Assert.assertTrue(cache.size() == 0);
     }
     
-}
\ No newline at end of file
+    @Test public void concurrencyLimit() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        connector.setExecutableSearchBuilder(new ExecutableSearchBuilder<HTTPSearch>() {
+            @Nonnull public HTTPSearch build(@Nonnull final AttributeResolutionContext resolutionContext,
+                    @Nonnull final Map<String,List<IdPAttributeValue<?>>> dependencyAttributes) {
+                return new HTTPSearch() {
+                    @Nullable public String getResultCacheKey() {
+                        return null;
+                    }
+
+                    @Nullable public String getEndpoint() {
+                        return "localhost:8443";
+                    }
+
+                    @Nonnull public Map<String,IdPAttribute> execute(@Nonnull final HttpClient client,
+                            @Nullable final HttpClientSecurityParameters securityParameters,
+                            @Nonnull final HTTPResponseMappingStrategy mappingStrategy) throws IOException {
+                        started.countDown();
+                        try {
+                            gate.await(5, TimeUnit.SECONDS);
+                        } catch (final InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                        return Collections.emptyMap();
+                    }
+                };
+            }
+        });
+        connector.setMappingStrategy(ScriptedResponseMappingStrategy.inlineScript("1"));
+        connector.setMaxConcurrentRequests(1);
+        connector.setConcurrencyTimeout(100);
+        connector.initialize();
+
+        final AttributeResolutionContext context =
+                TestSources.createResolutionContext(TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID,
+                        TestSources.SP_ENTITY_ID);
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Map<String,IdPAttribute>> first = executor.submit(() -> connector.resolve(context));
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+            try {
+                connector.resolve(context);
+                Assert.fail("Request should have been refused");
+            } catch (final ResolutionException e) {
+                // expected
+            }
+            gate.countDown();
+            first.get(5, TimeUnit.SECONDS);
+
+            // The slot is free again.
+            connector.resolve(context);
+        } finally {
+            gate.countDown();
+            executor.shutdownNow();
+            connector.destroy();
+        }
+    }
+    
+}
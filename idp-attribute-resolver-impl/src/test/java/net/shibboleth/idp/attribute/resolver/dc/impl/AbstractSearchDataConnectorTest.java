@@ -0,0 +1,264 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.attribute.resolver.dc.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Predicates;
+import com.google.common.cache.CacheBuilder;
+
+import net.shibboleth.idp.attribute.IdPAttribute;
+import net.shibboleth.idp.attribute.IdPAttributeValue;
+import net.shibboleth.idp.attribute.StringAttributeValue;
+import net.shibboleth.idp.attribute.resolver.ResolutionException;
+import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
+import net.shibboleth.idp.attribute.resolver.dc.MappingStrategy;
+import net.shibboleth.idp.attribute.resolver.dc.ValidationException;
+import net.shibboleth.idp.attribute.resolver.dc.Validator;
+import net.shibboleth.idp.saml.impl.TestSources;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+/** Tests for the result caching and batching behaviour of {@link AbstractSearchDataConnector}. */
+public class AbstractSearchDataConnectorTest {
+
+    private ExecutorService executor;
+
+    @BeforeMethod public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterMethod public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private CountingConnector newConnector() {
+        final CountingConnector connector = new CountingConnector();
+        connector.setId("counting");
+        connector.setExecutableSearchBuilder(new ExecutableSearchBuilder<ExecutableSearch>() {
+            @Nonnull public ExecutableSearch build(@Nonnull final AttributeResolutionContext resolutionContext,
+                    @Nonnull final Map<String, List<IdPAttributeValue<?>>> dependencyAttributes) {
+                final String key = resolutionContext.getPrincipal();
+                return new ExecutableSearch() {
+                    public String getResultCacheKey() {
+                        return key;
+                    }
+                };
+            }
+        });
+        connector.setValidator(new Validator() {
+            public void validate() throws ValidationException {
+            }
+        });
+        connector.setMappingStrategy(new MappingStrategy<Object>() {
+            public Map<String, IdPAttribute> map(@Nonnull final Object results) {
+                return null;
+            }
+        });
+        connector.setResultsCache(CacheBuilder.newBuilder().<String, Map<String, IdPAttribute>> build());
+        return connector;
+    }
+
+    @Test public void concurrentMissesShareSearch() throws Exception {
+        final CountingConnector connector = newConnector();
+        connector.gate = new CountDownLatch(1);
+        connector.initialize();
+
+        final Future<?> first = executor.submit(() -> resolve(connector));
+        final Future<?> second = executor.submit(() -> resolve(connector));
+        Thread.sleep(200);
+        connector.gate.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+
+        Assert.assertEquals(connector.searches.get(), 1);
+    }
+
+    @Test public void staleResultRefreshedInBackground() throws Exception {
+        final CountingConnector connector = newConnector();
+        connector.setRefreshAfter(50);
+        connector.setRefreshExecutor(executor);
+        connector.initialize();
+
+        Assert.assertNotNull(resolve(connector));
+        Assert.assertEquals(connector.searches.get(), 1);
+
+        // Still fresh.
+        Assert.assertNotNull(resolve(connector));
+        Assert.assertEquals(connector.searches.get(), 1);
+
+        Thread.sleep(100);
+
+        // Stale, served from cache while refreshed.
+        Assert.assertNotNull(resolve(connector));
+        for (int i = 0; i < 50 && connector.searches.get() < 2; i++) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(connector.searches.get(), 2);
+    }
+
+    @Test public void freshnessKeptForEveryCachedResult() throws Exception {
+        final CountingConnector connector = newConnector();
+        final AtomicInteger refreshes = new AtomicInteger();
+        connector.setRefreshAfter(60000);
+        connector.setRefreshExecutor(task -> refreshes.incrementAndGet());
+        connector.initialize();
+
+        // More keys than the former fixed-size freshness tracker held.
+        final int keys = 10050;
+        for (int i = 0; i < keys; i++) {
+            Assert.assertNotNull(resolve(connector, "user" + i));
+        }
+        for (int i = 0; i < keys; i++) {
+            Assert.assertNotNull(resolve(connector, "user" + i));
+        }
+
+        Assert.assertEquals(connector.searches.get(), keys);
+        Assert.assertEquals(refreshes.get(), 0);
+    }
+
+    @Test public void resolveAllSharesSearches() throws Exception {
+        final CountingConnector connector = newConnector();
+        connector.initialize();
+
+        final List<Map<String, IdPAttribute>> results =
+                connector.resolveAll(Arrays.asList(context("alice"), context("bob"), context("alice")));
+        Assert.assertEquals(results.size(), 3);
+        Assert.assertNotNull(results.get(0));
+        Assert.assertNotNull(results.get(1));
+        Assert.assertSame(results.get(2), results.get(0));
+        Assert.assertEquals(connector.searches.get(), 2);
+        Assert.assertEquals(connector.batches.get(), 1);
+
+        // Now served from the cache.
+        Assert.assertNotNull(connector.resolveAll(Collections.singletonList(context("bob"))).get(0));
+        Assert.assertEquals(connector.searches.get(), 2);
+    }
+
+    @Test public void resolveAllHonorsActivationCondition() throws Exception {
+        final CountingConnector connector = newConnector();
+        connector.setActivationCondition(Predicates.<ProfileRequestContext>alwaysFalse());
+        connector.initialize();
+
+        final List<Map<String, IdPAttribute>> results =
+                connector.resolveAll(Arrays.asList(context("alice"), context("bob")));
+        Assert.assertNull(results.get(0));
+        Assert.assertNull(results.get(1));
+        Assert.assertEquals(connector.searches.get(), 0);
+    }
+
+    @Test public void resolveAllRecordsFailure() throws Exception {
+        final CountingConnector connector = newConnector();
+        connector.failing = true;
+        connector.setPropagateResolutionExceptions(false);
+        connector.setNoRetryDelay(60000);
+        connector.initialize();
+
+        final List<Map<String, IdPAttribute>> results =
+                connector.resolveAll(Arrays.asList(context("alice"), context("bob")));
+        Assert.assertNull(results.get(0));
+        Assert.assertNull(results.get(1));
+        Assert.assertTrue(connector.getLastFail() > 0);
+        Assert.assertEquals(connector.searches.get(), 1);
+
+        try {
+            connector.resolveAll(Collections.singletonList(context("carol")));
+            Assert.fail("Connector waiting to retry should not search");
+        } catch (final ResolutionException e) {
+            Assert.assertEquals(connector.searches.get(), 1);
+        }
+    }
+
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void refreshWithoutExecutor() throws ComponentInitializationException {
+        final CountingConnector connector = newConnector();
+        connector.setRefreshAfter(50);
+        connector.initialize();
+    }
+
+    private Map<String, IdPAttribute> resolve(final CountingConnector connector) {
+        return resolve(connector, TestSources.PRINCIPAL_ID);
+    }
+
+    private Map<String, IdPAttribute> resolve(final CountingConnector connector, final String principal) {
+        try {
+            return connector.resolve(context(principal));
+        } catch (final ResolutionException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private AttributeResolutionContext context(final String principal) {
+        return TestSources.createResolutionContext(principal, TestSources.IDP_ENTITY_ID, TestSources.SP_ENTITY_ID);
+    }
+
+    /** Connector that counts its searches and can be held up. */
+    private static class CountingConnector extends AbstractSearchDataConnector<ExecutableSearch, MappingStrategy> {
+
+        private final AtomicInteger searches = new AtomicInteger();
+
+        private final AtomicInteger batches = new AtomicInteger();
+
+        private volatile CountDownLatch gate;
+
+        private volatile boolean failing;
+
+        /** {@inheritDoc} */
+        @Override protected List<Map<String, IdPAttribute>> retrieveAllAttributes(
+                final List<ExecutableSearch> executables) throws ResolutionException {
+            batches.incrementAndGet();
+            return super.retrieveAllAttributes(executables);
+        }
+
+        /** {@inheritDoc} */
+        @Override protected Map<String, IdPAttribute> retrieveAttributes(final ExecutableSearch executable)
+                throws ResolutionException {
+            searches.incrementAndGet();
+            if (failing) {
+                throw new ResolutionException("Search failed");
+            }
+            if (gate != null) {
+                try {
+                    gate.await(5, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    throw new ResolutionException(e);
+                }
+            }
+            final IdPAttribute attribute = new IdPAttribute("attr");
+            attribute.setValues(Collections.singletonList(new StringAttributeValue("value")));
+            return Collections.singletonMap("attr", attribute);
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.attribute.resolver.dc.impl;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.cache.Cache;
+
+import net.shibboleth.idp.attribute.IdPAttribute;
+import net.shibboleth.idp.attribute.StringAttributeValue;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+/** Tests for {@link SharedResultsCache}. */
+public class SharedResultsCacheTest {
+
+    private SharedResultsCache sharedCache;
+
+    @BeforeMethod public void setUp() throws ComponentInitializationException {
+        sharedCache = new SharedResultsCache();
+        sharedCache.setMaximumWeight(4096);
+        sharedCache.initialize();
+    }
+
+    @AfterMethod public void tearDown() {
+        sharedCache.destroy();
+    }
+
+    private Map<String, IdPAttribute> attributes(final String value) {
+        final IdPAttribute attribute = new IdPAttribute("attr");
+        attribute.setValues(Collections.singletonList(new StringAttributeValue(value)));
+        return Collections.singletonMap("attr", attribute);
+    }
+
+    @Test public void namespaces() {
+        final Cache<String, Map<String, IdPAttribute>> ns1 = sharedCache.getNamespace("ns1", 60000, false);
+        final Cache<String, Map<String, IdPAttribute>> ns2 = sharedCache.getNamespace("ns2", 60000, false);
+
+        final Map<String, IdPAttribute> value1 = attributes("one");
+        final Map<String, IdPAttribute> value2 = attributes("two");
+        ns1.put("key", value1);
+        ns2.put("key", value2);
+
+        Assert.assertSame(ns1.getIfPresent("key"), value1);
+        Assert.assertSame(ns2.getIfPresent("key"), value2);
+        Assert.assertEquals(ns1.size(), 1);
+
+        ns1.invalidateAll();
+        Assert.assertNull(ns1.getIfPresent("key"));
+        Assert.assertSame(ns2.getIfPresent("key"), value2);
+    }
+
+    @Test public void expiration() throws InterruptedException {
+        final Cache<String, Map<String, IdPAttribute>> ns = sharedCache.getNamespace("ns", 50, false);
+        ns.put("key", attributes("one"));
+        Assert.assertNotNull(ns.getIfPresent("key"));
+
+        Thread.sleep(100);
+        Assert.assertNull(ns.getIfPresent("key"));
+        Assert.assertEquals(ns.size(), 0);
+    }
+
+    @Test public void weightBound() {
+        final Cache<String, Map<String, IdPAttribute>> ns = sharedCache.getNamespace("ns", 60000, false);
+        for (int i = 0; i < 100; i++) {
+            ns.put("key" + i, attributes("value" + i));
+        }
+        Assert.assertTrue(ns.size() < 100);
+        Assert.assertNotNull(ns.getIfPresent("key99"));
+    }
+
+}
@@ -487,6 +487,33 @@ public class LDAPDataConnectorTest {
         Assert.assertEquals(cache.iterator().next(), optional);
     }
     
+    @Test public void resolveAll() throws ComponentInitializationException, ResolutionException {
+        final LDAPDataConnector connector = createLdapDataConnector(null, null);
+        final TestCache cache = new TestCache();
+        connector.setResultsCache(cache);
+        connector.initialize();
+
+        final List<AttributeResolutionContext> contexts = new ArrayList<>();
+        contexts.add(TestSources.createResolutionContext(TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID,
+                TestSources.SP_ENTITY_ID));
+        contexts.add(TestSources.createResolutionContext("PAUL_THE_PRINCIPAL", TestSources.IDP_ENTITY_ID,
+                TestSources.SP_ENTITY_ID));
+        contexts.add(TestSources.createResolutionContext(TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID,
+                TestSources.SP_ENTITY_ID));
+
+        final List<Map<String, IdPAttribute>> results = connector.resolveAll(contexts);
+        Assert.assertEquals(results.size(), 3);
+        Assert.assertEquals(cache.size(), 2);
+        Assert.assertEquals(results.get(0).get("uid").getValues().get(0),
+                new StringAttributeValue(TestSources.PRINCIPAL_ID));
+        Assert.assertEquals(results.get(1).get("uid").getValues().get(0),
+                new StringAttributeValue("PAUL_THE_PRINCIPAL"));
+        Assert.assertSame(results.get(2), results.get(0));
+
+        // Now served from the cache.
+        Assert.assertEquals(connector.resolveAll(contexts.subList(0, 1)).get(0), results.get(0));
+    }
+
     /** See IDP-1077. */
     @Test public void resolveWithCacheCollison() throws ComponentInitializationException, ResolutionException {
         final LDAPDataConnector connector = createLdapDataConnector(null, null);
@@ -232,6 +232,31 @@ public class RDBMSDataConnectorTest {
         Assert.assertEquals(query, "SELECT userid FROM people WHERE userid='McHale''s Navy'");
     }
 
+    @Test public void resolveParameterized() throws ComponentInitializationException, ResolutionException {
+        final TemplatedExecutableStatementBuilder builder = new TemplatedExecutableStatementBuilder();
+        builder.setTemplateText("SELECT userid, name FROM people WHERE userid=${resolutionContext.principal}");
+        builder.setVelocityEngine(VelocityEngine.newVelocityEngine());
+        builder.setParameterized(true);
+        builder.setFetchSize(10);
+        builder.initialize();
+
+        final AttributeResolutionContext context =
+                TestSources.createResolutionContext("McHale's Navy", TestSources.IDP_ENTITY_ID,
+                        TestSources.SP_ENTITY_ID);
+        final ExecutableStatement statement = builder.build(context, new HashMap<String, List<IdPAttributeValue<?>>>());
+        Assert.assertEquals(statement.toString(), "SELECT userid, name FROM people WHERE userid=? [McHale's Navy]");
+
+        final RDBMSDataConnector connector = createUserRdbmsDataConnector(builder, null);
+        connector.initialize();
+
+        final Map<String, IdPAttribute> attrs = connector.resolve(
+                TestSources.createResolutionContext(TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID,
+                        TestSources.SP_ENTITY_ID));
+        Assert.assertEquals(attrs.size(), 2);
+        Assert.assertEquals(attrs.get("NAME").getValues().iterator().next(),
+                new StringAttributeValue("Peter Principal"));
+    }
+
     @Test public void resolve() throws ComponentInitializationException, ResolutionException {
         final RDBMSDataConnector connector = createUserRdbmsDataConnector(null, null);
         connector.initialize();
@@ -24,10 +24,14 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import org.opensaml.profile.context.ProfileRequestContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.Assert;
@@ -39,6 +43,7 @@ import net.shibboleth.idp.attribute.IdPAttribute;
 import net.shibboleth.idp.attribute.IdPAttributeValue;
 import net.shibboleth.idp.attribute.StringAttributeValue;
 import net.shibboleth.idp.attribute.resolver.AbstractAttributeDefinition;
+import net.shibboleth.idp.attribute.resolver.AbstractDataConnector;
 import net.shibboleth.idp.attribute.resolver.AttributeDefinition;
 import net.shibboleth.idp.attribute.resolver.AttributeResolver;
 import net.shibboleth.idp.attribute.resolver.DataConnector;
@@ -51,6 +56,7 @@ import net.shibboleth.idp.attribute.resolver.ResolverDataConnectorDependency;
 import net.shibboleth.idp.attribute.resolver.ResolverPluginDependency;
 import net.shibboleth.idp.attribute.resolver.ad.impl.SimpleAttributeDefinition;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
+import net.shibboleth.idp.attribute.resolver.context.AttributeResolverWorkContext;
 import net.shibboleth.idp.authn.context.SubjectCanonicalizationContext;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.annotation.constraint.NullableElements;
@@ -191,6 +197,45 @@ public class AttributeResolverImplTest {
         Assert.assertTrue(context.getResolvedIdPAttributes().isEmpty());
     }
 
+    /** Test that repeated requests for the same and different attributes reuse plans correctly. */
+    @Test public void resolveWithCachedPlans() throws Exception {
+        final IdPAttribute attribute1 = new IdPAttribute("ad1");
+        attribute1.setValues(Collections.singletonList(new StringAttributeValue("value1")));
+        final IdPAttribute attribute2 = new IdPAttribute("ad2");
+        attribute2.setValues(Collections.singletonList(new StringAttributeValue("value2")));
+
+        final MockDataConnector dc1 = new MockDataConnector("dc1", (Map) null);
+        dc1.initialize();
+        final MockAttributeDefinition ad1 = new MockAttributeDefinition("ad1", attribute1);
+        ad1.setDependencies(
+                Collections.singleton((ResolverPluginDependency) new ResolverDataConnectorDependency("dc1")));
+        ad1.initialize();
+        final MockAttributeDefinition ad2 = new MockAttributeDefinition("ad2", attribute2);
+        ad2.initialize();
+
+        final AttributeResolverImpl resolver = newAttributeResolverImpl("foo",
+                Arrays.asList((AttributeDefinition) ad1, ad2), Collections.singleton((DataConnector) dc1));
+        resolver.initialize();
+
+        for (int i = 0; i < 2; i++) {
+            AttributeResolutionContext context = new AttributeResolutionContext();
+            context.setRequestedIdPAttributeNames(Collections.singleton("ad1"));
+            resolver.resolveAttributes(context);
+            Assert.assertEquals(context.getResolvedIdPAttributes().size(), 1);
+            Assert.assertEquals(context.getResolvedIdPAttributes().get("ad1"), attribute1);
+
+            context = new AttributeResolutionContext();
+            context.setRequestedIdPAttributeNames(Arrays.asList("ad2", "ad2"));
+            resolver.resolveAttributes(context);
+            Assert.assertEquals(context.getResolvedIdPAttributes().size(), 1);
+            Assert.assertEquals(context.getResolvedIdPAttributes().get("ad2"), attribute2);
+
+            context = new AttributeResolutionContext();
+            resolver.resolveAttributes(context);
+            Assert.assertEquals(context.getResolvedIdPAttributes().size(), 2);
+        }
+    }
+
     /** Test that a simple resolve returns the expected results. */
     @Test public void resolveFails() throws Exception {
         log.debug("Log Resolve fails");
@@ -324,6 +369,165 @@ public class AttributeResolverImplTest {
         Assert.assertEquals(context.getResolvedIdPAttributes().get("test").getValues().size(), 2);
     }
 
+    @Test public void resolveWithDependenciesInParallel() throws Exception {
+        final IdPAttribute attr = new IdPAttribute("test");
+        attr.setValues(Arrays.asList(new StringAttributeValue("a"), new StringAttributeValue("b")));
+
+        final MockDataConnector dc1 = new MockDataConnector("dc1", Collections.singletonMap("test", attr));
+        dc1.initialize();
+        final MockDataConnector dc2 = new MockDataConnector("dc2", (Map) null);
+        dc2.initialize();
+
+        final ResolverDataConnectorDependency dep1 = new ResolverDataConnectorDependency("dc1");
+        dep1.setAllAttributes(true);
+        final MockAttributeDefinition ad1 = new MockAttributeDefinition("ad1", attr);
+        ad1.setDependencies(Collections.singleton((ResolverPluginDependency) dep1));
+        ad1.initialize();
+
+        final MockAttributeDefinition ad2 = new MockAttributeDefinition("ad2", new IdPAttribute("other"));
+        ad2.setDependencies(
+                Collections.singleton((ResolverPluginDependency) new ResolverDataConnectorDependency("dc2")));
+        ad2.initialize();
+
+        final ResolverPluginDependency dep2 = new ResolverAttributeDefinitionDependency("ad1");
+        final ResolverPluginDependency dep3 = new ResolverAttributeDefinitionDependency("ad2");
+        final MockAttributeDefinition ad0 = new MockAttributeDefinition("ad0", attr);
+        ad0.setDependencies(new HashSet<>(Arrays.asList(dep2, dep3)));
+        ad0.initialize();
+
+        final LazySet<DataConnector> connectors = new LazySet<>();
+        connectors.add(dc1);
+        connectors.add(dc2);
+
+        final LazySet<AttributeDefinition> definitions = new LazySet<>();
+        definitions.add(ad0);
+        definitions.add(ad1);
+        definitions.add(ad2);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final AttributeResolverImpl resolver = newAttributeResolverImpl("foo", definitions, connectors);
+            resolver.setExecutor(executor);
+            resolver.initialize();
+
+            for (int i = 0; i < 10; i++) {
+                final AttributeResolutionContext context = new AttributeResolutionContext();
+                resolver.resolveAttributes(context);
+
+                Assert.assertEquals(context.getResolvedIdPAttributes().size(), 1);
+                Assert.assertEquals(context.getResolvedIdPAttributes().get("test").getValues().size(), 2);
+                Assert.assertNull(context.getSubcontext(AttributeResolverWorkContext.class));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test public void resolveFailsInParallel() throws Exception {
+        final MockDataConnector dc1 = new MockDataConnector("dc1", new HashMap<String, IdPAttribute>());
+        dc1.setFailure(true);
+        dc1.initialize();
+
+        final MockAttributeDefinition ad1 = new MockAttributeDefinition("ad1", new IdPAttribute("test"));
+        ad1.setDependencies(
+                Collections.singleton((ResolverPluginDependency) new ResolverDataConnectorDependency("dc1")));
+        ad1.initialize();
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final AttributeResolverImpl resolver = newAttributeResolverImpl("foo",
+                    Collections.singleton((AttributeDefinition) ad1), Collections.singleton((DataConnector) dc1));
+            resolver.setExecutor(executor);
+            resolver.initialize();
+
+            resolver.resolveAttributes(new AttributeResolutionContext());
+            Assert.fail();
+        } catch (final ResolutionException e) {
+            // OK
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test public void parallelConnectorsUsePrivateContext() throws Exception {
+        final IdPAttribute attr = new IdPAttribute("test");
+        attr.setValues(Collections.singletonList(new StringAttributeValue("a")));
+
+        final Map<String, AttributeResolutionContext> seen = new ConcurrentHashMap<>();
+        final AbstractDataConnector dc1 = new AbstractDataConnector() {
+            @Override @Nullable protected Map<String, IdPAttribute> doDataConnectorResolve(
+                    @Nonnull final AttributeResolutionContext resolutionContext,
+                    @Nonnull final AttributeResolverWorkContext workContext) throws ResolutionException {
+                seen.put(getId(), resolutionContext);
+                return Collections.singletonMap("test", attr);
+            }
+        };
+        dc1.setId("dc1");
+        dc1.initialize();
+
+        final ResolverDataConnectorDependency dependency = new ResolverDataConnectorDependency("dc1");
+        dependency.setAllAttributes(true);
+        final SimpleAttributeDefinition ad1 = new SimpleAttributeDefinition();
+        ad1.setId("test");
+        ad1.setDependencies(Collections.singleton((ResolverPluginDependency) dependency));
+        ad1.initialize();
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final AttributeResolverImpl resolver = newAttributeResolverImpl("foo",
+                    Collections.singleton((AttributeDefinition) ad1), Collections.singleton((DataConnector) dc1));
+            resolver.setExecutor(executor);
+            resolver.initialize();
+
+            final ProfileRequestContext prc = new ProfileRequestContext();
+            final AttributeResolutionContext context = prc.getSubcontext(AttributeResolutionContext.class, true);
+            context.setPrincipal("jdoe");
+            resolver.resolveAttributes(context);
+
+            Assert.assertEquals(context.getResolvedIdPAttributes().get("test").getValues(), attr.getValues());
+            final AttributeResolutionContext connectorContext = seen.get("dc1");
+            Assert.assertNotSame(connectorContext, context);
+            Assert.assertSame(connectorContext.getParent(), prc);
+            Assert.assertEquals(connectorContext.getPrincipal(), "jdoe");
+            Assert.assertSame(prc.getSubcontext(AttributeResolutionContext.class), context);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test public void failoverInParallel() throws Exception {
+        final IdPAttribute attr = new IdPAttribute("test");
+        attr.setValues(Collections.singletonList(new StringAttributeValue("a")));
+
+        final MockDataConnector dc1 = new MockDataConnector("dc1", new HashMap<String, IdPAttribute>());
+        dc1.setFailure(true);
+        dc1.setFailoverDataConnectorId("dc2");
+        dc1.initialize();
+        final MockDataConnector dc2 = new MockDataConnector("dc2", Collections.singletonMap("test", attr));
+        dc2.initialize();
+
+        final ResolverDataConnectorDependency dependency = new ResolverDataConnectorDependency("dc1");
+        dependency.setAllAttributes(true);
+        final SimpleAttributeDefinition ad1 = new SimpleAttributeDefinition();
+        ad1.setId("test");
+        ad1.setDependencies(Collections.singleton((ResolverPluginDependency) dependency));
+        ad1.initialize();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final AttributeResolverImpl resolver = newAttributeResolverImpl("foo",
+                    Collections.singleton((AttributeDefinition) ad1), Arrays.asList((DataConnector) dc1, dc2));
+            resolver.setExecutor(executor);
+            resolver.initialize();
+
+            final AttributeResolutionContext context = new AttributeResolutionContext();
+            resolver.resolveAttributes(context);
+            Assert.assertEquals(context.getResolvedIdPAttributes().get("test").getValues(), attr.getValues());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     /**
      * Test that resolve w/ dependencies returns the expected results.
      * 
@@ -35,6 +35,7 @@ import net.shibboleth.idp.profile.spring.factory.BasicX509CredentialFactoryBean;
 import net.shibboleth.idp.profile.spring.factory.StaticExplicitKeyFactoryBean;
 import net.shibboleth.idp.profile.spring.factory.StaticPKIXFactoryBean;
 import net.shibboleth.idp.profile.spring.relyingparty.metadata.ScriptTypeBeanParser;
+import net.shibboleth.utilities.java.support.annotation.Duration;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.shibboleth.utilities.java.support.primitive.StringSupport;
@@ -91,6 +92,21 @@ public class HTTPDataConnectorParser extends AbstractDataConnectorParser {
             builder.addPropertyReference("httpClientSecurityParameters", securityParams);
         }
 
+        final String maxConcurrentRequests =
+                StringSupport.trimOrNull(config.getAttributeNS(null, "maxConcurrentRequests"));
+        if (maxConcurrentRequests != null) {
+            builder.addPropertyValue("maxConcurrentRequests", maxConcurrentRequests);
+        }
+
+        final String concurrencyTimeout = StringSupport.trimOrNull(config.getAttributeNS(null, "concurrencyTimeout"));
+        if (concurrencyTimeout != null) {
+            final BeanDefinitionBuilder duration =
+                    BeanDefinitionBuilder.rootBeanDefinition(V2Parser.class, "buildDuration");
+            duration.addConstructorArgValue(concurrencyTimeout);
+            duration.addConstructorArgValue(1);
+            builder.addPropertyValue("concurrencyTimeout", duration.getBeanDefinition());
+        }
+
         final String searchBuilderID = v2Parser.getBeanSearchBuilderID();
         if (searchBuilderID != null) {
             builder.addPropertyReference("executableSearchBuilder", searchBuilderID);
@@ -127,6 +143,7 @@ public class HTTPDataConnectorParser extends AbstractDataConnectorParser {
            builder.addPropertyReference("resultsCache", resultCacheBeanID);
         } else {
             builder.addPropertyValue("resultsCache", v2Parser.createCache(parserContext));
+            CacheConfigParser.addRefreshProperties(config, builder);
         }
 
         builder.setInitMethodName("initialize");
@@ -468,6 +485,19 @@ public class HTTPDataConnectorParser extends AbstractDataConnectorParser {
         @Nonnull @NotEmpty private String getLogPrefix() {
             return logPrefix;
         }
+
+        /**
+         * Converts the supplied duration to milliseconds and divides it by the divisor. Useful for modifying durations
+         * while resolving property replacement.
+         * 
+         * @param duration the duration (which may have gone through spring translation from iso to long)
+         * @param divisor to modify the duration with
+         * 
+         * @return result of the division
+         */
+        @Duration public static long buildDuration(@Duration final long duration, final long divisor) {
+            return duration / divisor;
+        }
     }
     
 }
\ No newline at end of file
@@ -72,6 +72,9 @@ public class CacheConfigParser {
      * we do not own the implemented class */
     private static final long DEFAULT_TTL_MS = 4 * 60 * 60 * 1000;
     
+    /** Executor used for background refreshes of cached results. */
+    @Nonnull public static final String REFRESH_EXECUTOR_BEAN = "shibboleth.AttributeResolverExecutor";
+
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(CacheConfigParser.class);
 
@@ -215,6 +218,41 @@ public class CacheConfigParser {
                     .build();
     }
     
+    /**
+     * Factory method to leverage spring property replacement functionality.
+     * 
+     * @param refreshAfter duration string
+     * 
+     * @return the duration in milliseconds
+     */
+    public static long buildRefreshAfter(@Nonnull final String refreshAfter) {
+        return DOMTypeSupport.durationToLong(refreshAfter);
+    }
+
+    /**
+     * Add the background refresh settings of a v2 &lt;ResultCache&gt; element, if any, to a data connector.
+     * 
+     * @param config the data connector element
+     * @param builder the data connector bean definition
+     */
+    public static void addRefreshProperties(@Nonnull final Element config,
+            @Nonnull final BeanDefinitionBuilder builder) {
+        final List<Element> cacheElements = ElementSupport.getChildElements(config, RESULT_CACHE_RESOLVER);
+        if (cacheElements.isEmpty()) {
+            return;
+        }
+
+        final String refreshAfter =
+                AttributeSupport.getAttributeValue(cacheElements.get(0), new QName("refreshAfter"));
+        if (refreshAfter != null) {
+            final BeanDefinitionBuilder duration =
+                    BeanDefinitionBuilder.rootBeanDefinition(CacheConfigParser.class, "buildRefreshAfter");
+            duration.addConstructorArgValue(refreshAfter);
+            builder.addPropertyValue("refreshAfter", duration.getBeanDefinition());
+            builder.addPropertyReference("refreshExecutor", REFRESH_EXECUTOR_BEAN);
+        }
+    }
+
     /**
      * Get the bean ID of an externally defined result cache.
      * 
@@ -226,6 +226,7 @@ public class LDAPDataConnectorParser extends AbstractWarningDataConnectorParser
             builder.addPropertyReference("resultsCache", resultCacheBeanID);
         } else {
             builder.addPropertyValue("resultsCache", v2Parser.createCache(parserContext));
+            CacheConfigParser.addRefreshProperties(config, builder);
         }
 
         builder.setInitMethodName("initialize");
@@ -134,6 +134,7 @@ public class RDBMSDataConnectorParser extends AbstractWarningDataConnectorParser
            builder.addPropertyReference("resultsCache", resultCacheBeanID);
         } else {
             builder.addPropertyValue("resultsCache", v2Parser.createCache(parserContext));
+            CacheConfigParser.addRefreshProperties(config, builder);
         }
 
         builder.setInitMethodName("initialize");
@@ -231,6 +232,16 @@ public class RDBMSDataConnectorParser extends AbstractWarningDataConnectorParser
                 templateBuilder.addPropertyValue("queryTimeout", duration.getBeanDefinition());
             }
 
+            final String fetchSize = AttributeSupport.getAttributeValue(configElement, new QName("fetchSize"));
+            if (fetchSize != null) {
+                templateBuilder.addPropertyValue("fetchSize", fetchSize);
+            }
+
+            final String parameterized = AttributeSupport.getAttributeValue(configElement, new QName("parameterized"));
+            if (parameterized != null) {
+                templateBuilder.addPropertyValue("parameterized", parameterized);
+            }
+
             final List<Element> queryTemplates = ElementSupport.getChildElements(configElement, 
                             new QName(DataConnectorNamespaceHandler.NAMESPACE, "QueryTemplate"));
             queryTemplates.addAll(ElementSupport.getChildElements(configElement, 
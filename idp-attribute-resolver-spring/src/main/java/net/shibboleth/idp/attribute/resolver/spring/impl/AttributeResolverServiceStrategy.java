@@ -18,6 +18,7 @@
 package net.shibboleth.idp.attribute.resolver.spring.impl;
 
 import java.util.Collection;
+import java.util.concurrent.Executor;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -53,6 +54,9 @@ public class AttributeResolverServiceStrategy extends AbstractIdentifiableInitia
     /** Whether to strip null attribute values. */
     private boolean stripNulls;
     
+    /** Optional executor for parallel resolution. */
+    @Nullable private Executor executor;
+    
     /** Do we strip nulls from attribute values.
     * @return Returns whether to strip nulls from attribute values
     */
@@ -68,6 +72,15 @@ public class AttributeResolverServiceStrategy extends AbstractIdentifiableInitia
        stripNulls = doStripNulls;
    }
 
+    /**
+     * Set the executor with which the resolver will resolve independent plugins in parallel.
+     * 
+     * @param exec executor, or null for serial resolution
+     */
+    public void setExecutor(@Nullable final Executor exec) {
+        executor = exec;
+    }
+
     /** {@inheritDoc} */
     @Override @Nullable public ServiceableComponent<AttributeResolver> apply(
             @Nullable final ApplicationContext appContext) {
@@ -90,6 +103,7 @@ public class AttributeResolverServiceStrategy extends AbstractIdentifiableInitia
         resolver.setPrincipalDecoder(pcc);
         resolver.setId(getId());
         resolver.setStripNulls(isStripNulls());
+        resolver.setExecutor(executor);
         resolver.setApplicationContext(appContext);
 
         try {
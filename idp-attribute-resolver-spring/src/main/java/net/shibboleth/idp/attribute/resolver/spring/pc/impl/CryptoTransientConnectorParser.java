@@ -17,6 +17,8 @@
 
 package net.shibboleth.idp.attribute.resolver.spring.pc.impl;
 
+import java.util.Set;
+
 import javax.annotation.Nonnull;
 import javax.xml.namespace.QName;
 
@@ -29,6 +31,8 @@ import org.springframework.beans.factory.support.BeanDefinitionBuilder;
 import org.springframework.beans.factory.xml.ParserContext;
 import org.w3c.dom.Element;
 
+import com.google.common.collect.ImmutableSet;
+
 /**
  * Parser for CryptoTransient Principal Connector<br/>
  * &lt;PrincipalConnector xsi:type="pc:CryptoTransient"&gt;.
@@ -39,6 +43,13 @@ public class CryptoTransientConnectorParser extends AbstractPrincipalConnectorPa
     @Nonnull public static final QName TYPE_NAME =
             new QName(PrincipalConnectorNamespaceHandler.NAMESPACE, "CryptoTransient");
 
+    /** Name of the system data sealer's key strategy, used for compact identifiers by default. */
+    @Nonnull public static final String DEFAULT_KEY_STRATEGY = "shibboleth.DataSealerKeyStrategy";
+
+    /** Names of the system data sealer, whose key strategy is {@link #DEFAULT_KEY_STRATEGY}. */
+    @Nonnull private static final Set<String> SYSTEM_DATA_SEALERS =
+            ImmutableSet.of("shibboleth.DataSealer", "shibboleth.TransientIDDataSealer");
+
     /** {@inheritDoc} */
     @Override protected void addSAMLDecoders(@Nonnull final Element config, @Nonnull final ParserContext parserContext,
             @Nonnull final BeanDefinitionBuilder builder) {
@@ -47,6 +58,12 @@ public class CryptoTransientConnectorParser extends AbstractPrincipalConnectorPa
         if (dataSealer == null) {
             throw new BeanCreationException("dataSealerRef attribute is required");
         }
+
+        // Compact identifiers are sealed with the key strategy directly, as the c14n decoders are.
+        String keyStrategy = StringSupport.trimOrNull(config.getAttributeNS(null, "keyStrategyRef"));
+        if (keyStrategy == null && SYSTEM_DATA_SEALERS.contains(dataSealer)) {
+            keyStrategy = DEFAULT_KEY_STRATEGY;
+        }
         
         // NameID
         BeanDefinitionBuilder subBuilder =
@@ -55,6 +72,9 @@ public class CryptoTransientConnectorParser extends AbstractPrincipalConnectorPa
         subBuilder.setDestroyMethodName("destroy");
         
         subBuilder.addPropertyReference("dataSealer", dataSealer);
+        if (keyStrategy != null) {
+            subBuilder.addPropertyReference("keyStrategy", keyStrategy);
+        }
         final String id = StringSupport.trimOrNull(config.getAttributeNS(null, "id"));
         subBuilder.addPropertyValue("id", id);
 
@@ -66,6 +86,9 @@ public class CryptoTransientConnectorParser extends AbstractPrincipalConnectorPa
         subBuilder.setDestroyMethodName("destroy");
         
         subBuilder.addPropertyReference("dataSealer", dataSealer);
+        if (keyStrategy != null) {
+            subBuilder.addPropertyReference("keyStrategy", keyStrategy);
+        }
         subBuilder.addPropertyValue("id", id);
         builder.addPropertyValue("nameIdentifierDecoder", subBuilder.getBeanDefinition());
     }
@@ -173,6 +173,21 @@ public class HTTPDataConnectorParserTest {
         Assert.assertTrue(attrs == null || attrs.isEmpty());
     }
 
+    @Test public void v2Concurrency() throws Exception {
+        
+        final MockPropertySource propSource = singletonPropertySource("serviceURL", TEST_URL);
+        propSource.setProperty("maxRequests", "5");
+        propSource.setProperty("concurrencyTimeout", "PT5S");
+        
+        final HTTPDataConnector connector =
+                getDataConnector(propSource,
+                        "net/shibboleth/idp/attribute/resolver/spring/dc/http/http-attribute-resolver-v2-concurrency.xml");
+        Assert.assertNotNull(connector);
+        
+        Assert.assertEquals(connector.getMaxConcurrentRequests(), 5);
+        Assert.assertEquals(connector.getConcurrencyTimeout(), 5000);
+    }
+
     @Test public void v2Certificate() throws Exception {
         
         final MockPropertySource propSource = singletonPropertySource("serviceURL", TEST_URL);
@@ -17,9 +17,19 @@
 
 package net.shibboleth.idp.attribute.resolver.spring.pc;
 
+import net.shibboleth.ext.spring.resource.ResourceHelper;
 import net.shibboleth.idp.attribute.resolver.spring.BaseAttributeDefinitionParserTest;
+import net.shibboleth.idp.authn.context.SubjectCanonicalizationContext;
 import net.shibboleth.idp.saml.attribute.principalconnector.impl.PrincipalConnector;
+import net.shibboleth.idp.saml.nameid.impl.CryptoTransientIdGenerationStrategy;
+import net.shibboleth.utilities.java.support.security.BasicKeystoreKeyStrategy;
+import net.shibboleth.utilities.java.support.security.DataSealer;
 
+import org.opensaml.saml.saml1.core.NameIdentifier;
+import org.opensaml.saml.saml1.core.impl.NameIdentifierBuilder;
+import org.opensaml.saml.saml2.core.NameID;
+import org.opensaml.saml.saml2.core.impl.NameIDBuilder;
+import org.springframework.core.io.ClassPathResource;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -34,4 +44,44 @@ public class CryptoTransientTest extends BaseAttributeDefinitionParserTest {
         Assert.assertEquals(connector.getFormat(), "https://example.org/sealer");
     }
 
+    @Test public void compact() throws Exception {
+        final PrincipalConnector connector = getPrincipalConnector("crypto.xml", "sealer.xml");
+
+        final BasicKeystoreKeyStrategy kstrategy = new BasicKeystoreKeyStrategy();
+        kstrategy.setKeystoreResource(ResourceHelper.of(
+                new ClassPathResource("/net/shibboleth/idp/attribute/resolver/spring/ad/SealerKeyStore.jks")));
+        kstrategy.setKeyVersionResource(ResourceHelper.of(
+                new ClassPathResource("/net/shibboleth/idp/attribute/resolver/spring/ad/SealerKeyStore.kver")));
+        kstrategy.setKeystorePassword("kpassword");
+        kstrategy.setKeyPassword("password");
+        kstrategy.initialize();
+
+        final DataSealer sealer = new DataSealer();
+        sealer.setKeyStrategy(kstrategy);
+        sealer.initialize();
+
+        final CryptoTransientIdGenerationStrategy strategy = new CryptoTransientIdGenerationStrategy();
+        strategy.setId("strategy");
+        strategy.setDataSealer(sealer);
+        strategy.setKeyStrategy(kstrategy);
+        strategy.setCompact(true);
+        strategy.initialize();
+
+        final String ct = strategy.generate("https://sp.example.org", "jdoe");
+        Assert.assertTrue(ct.startsWith("~"));
+
+        final SubjectCanonicalizationContext c14nContext = new SubjectCanonicalizationContext();
+        c14nContext.setRequesterId("https://sp.example.org");
+
+        final NameID nameID = new NameIDBuilder().buildObject();
+        nameID.setFormat("https://example.org/sealer");
+        nameID.setValue(ct);
+        Assert.assertEquals(connector.getNameIDDecoder().decode(c14nContext, nameID), "jdoe");
+
+        final NameIdentifier nameIdentifier = new NameIdentifierBuilder().buildObject();
+        nameIdentifier.setFormat("https://example.org/sealer");
+        nameIdentifier.setValue(ct);
+        Assert.assertEquals(connector.getNameIdentifierDecoder().decode(c14nContext, nameIdentifier), "jdoe");
+    }
+
 }
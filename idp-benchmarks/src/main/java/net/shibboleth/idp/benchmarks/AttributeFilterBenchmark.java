@@ -0,0 +1,101 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.benchmarks;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opensaml.saml.common.messaging.context.SAMLMetadataContext;
+
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+
+import net.shibboleth.idp.attribute.IdPAttribute;
+import net.shibboleth.idp.attribute.filter.AttributeFilter;
+import net.shibboleth.idp.attribute.filter.AttributeFilterException;
+import net.shibboleth.idp.attribute.filter.context.AttributeFilterContext;
+import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
+
+/**
+ * Benchmark of {@link AttributeFilter#filterAttributes(AttributeFilterContext)} applying the example filter policy
+ * to the output of the example resolver configuration, with the example SP metadata.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AttributeFilterBenchmark {
+
+    /** The filter under test. */
+    private AttributeFilter filter;
+
+    /** Resolved attributes to filter. */
+    private Collection<IdPAttribute> attributes;
+
+    /** Metadata lookup for the example SP. */
+    private Function<AttributeFilterContext,SAMLMetadataContext> metadataLookup;
+
+    /**
+     * Build the filter and the input.
+     * 
+     * @throws Exception if the fixtures fail to load
+     */
+    @Setup public void setUp() throws Exception {
+        BenchmarkSupport.initializeOpenSAML();
+        filter = BenchmarkSupport.buildAttributeFilter();
+
+        final AttributeResolutionContext resolutionContext = BenchmarkSupport.buildResolutionContext(null);
+        BenchmarkSupport.buildAttributeResolver().resolveAttributes(resolutionContext);
+        attributes = resolutionContext.getResolvedIdPAttributes().values();
+
+        metadataLookup = Functions.constant(
+                BenchmarkSupport.buildMetadataContext(BenchmarkSupport.loadEntityDescriptor()));
+    }
+
+    /**
+     * Filter the resolved attributes for the example SP.
+     * 
+     * @return the filtered attributes
+     * 
+     * @throws AttributeFilterException if filtering fails
+     */
+    @Benchmark public Map<String,IdPAttribute> filter() throws AttributeFilterException {
+        final AttributeFilterContext filterContext = new AttributeFilterContext();
+        filterContext.setPrincipal(BenchmarkSupport.PRINCIPAL);
+        filterContext.setAttributeIssuerID(BenchmarkSupport.IDP_ENTITY_ID);
+        filterContext.setAttributeRecipientID(BenchmarkSupport.SP_ENTITY_ID);
+        filterContext.setRequesterMetadataContextLookupStrategy(metadataLookup);
+        filterContext.setPrefilteredIdPAttributes(attributes);
+        filter.filterAttributes(filterContext);
+        return filterContext.getFilteredIdPAttributes();
+    }
+
+}
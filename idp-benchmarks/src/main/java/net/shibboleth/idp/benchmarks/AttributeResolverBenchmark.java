@@ -0,0 +1,77 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.shibboleth.idp.attribute.IdPAttribute;
+import net.shibboleth.idp.attribute.resolver.AttributeResolver;
+import net.shibboleth.idp.attribute.resolver.ResolutionException;
+import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
+
+/**
+ * Benchmark of {@link AttributeResolver#resolveAttributes(AttributeResolutionContext)} against the example
+ * resolver configuration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AttributeResolverBenchmark {
+
+    /** The resolver under test. */
+    private AttributeResolver resolver;
+
+    /**
+     * Build the resolver.
+     * 
+     * @throws Exception if the fixture fails to load
+     */
+    @Setup public void setUp() throws Exception {
+        BenchmarkSupport.initializeOpenSAML();
+        resolver = BenchmarkSupport.buildAttributeResolver();
+    }
+
+    /**
+     * Resolve all attributes for the example principal and SP.
+     * 
+     * @return the resolved attributes
+     * 
+     * @throws ResolutionException if resolution fails
+     */
+    @Benchmark public Map<String,IdPAttribute> resolve() throws ResolutionException {
+        final AttributeResolutionContext resolutionContext = BenchmarkSupport.buildResolutionContext(null);
+        resolver.resolveAttributes(resolutionContext);
+        return resolutionContext.getResolvedIdPAttributes();
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.base.Function;
+
+import net.shibboleth.idp.attribute.IdPAttributeValue;
+import net.shibboleth.idp.attribute.StringAttributeValue;
+import net.shibboleth.idp.consent.logic.impl.AttributeValuesHashFunction;
+import net.shibboleth.idp.consent.logic.impl.CachingAttributeValuesHashFunction;
+
+/**
+ * Benchmark of {@link AttributeValuesHashFunction} against {@link CachingAttributeValuesHashFunction} for
+ * attributes of varying size, as hashed on each SSO when consent compares values.
+ * 
+ * <p>The values are rebuilt for every invocation, as they would be by a fresh attribute resolution.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class AttributeValuesHashBenchmark {
+
+    /** Number of values in the attribute. */
+    @Param({"1", "20", "500"}) private int valueCount;
+
+    /** Current implementation. */
+    private Function<Collection<IdPAttributeValue<?>>, String> serializingFunction;
+
+    /** Implementation with cached per-value digests. */
+    private Function<Collection<IdPAttributeValue<?>>, String> cachingFunction;
+
+    /** Set up the functions. */
+    @Setup public void setUp() {
+        serializingFunction = new AttributeValuesHashFunction();
+        cachingFunction = new CachingAttributeValuesHashFunction();
+    }
+
+    /**
+     * Hash with the current implementation.
+     * 
+     * @return the hash
+     */
+    @Benchmark public String serializing() {
+        return serializingFunction.apply(newValues());
+    }
+
+    /**
+     * Hash with cached per-value digests.
+     * 
+     * @return the hash
+     */
+    @Benchmark public String caching() {
+        return cachingFunction.apply(newValues());
+    }
+
+    /**
+     * Build group membership style values.
+     * 
+     * @return the values
+     */
+    private List<IdPAttributeValue<?>> newValues() {
+        final List<IdPAttributeValue<?>> values = new ArrayList<>(valueCount);
+        for (int i = 0; i < valueCount; i++) {
+            values.add(new StringAttributeValue("cn=group" + i + ",ou=groups,dc=example,dc=org"));
+        }
+        return values;
+    }
+
+}
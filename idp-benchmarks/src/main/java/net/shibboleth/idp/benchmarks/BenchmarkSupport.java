@@ -0,0 +1,184 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.opensaml.core.config.InitializationException;
+import org.opensaml.core.config.InitializationService;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.opensaml.saml.common.messaging.context.SAMLMetadataContext;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.springframework.context.support.GenericApplicationContext;
+
+import net.shibboleth.ext.spring.config.IdentifiableBeanPostProcessor;
+import net.shibboleth.ext.spring.util.SchemaTypeAwareXMLBeanDefinitionReader;
+import net.shibboleth.idp.attribute.filter.AttributeFilter;
+import net.shibboleth.idp.attribute.filter.spring.impl.AttributeFilterServiceStrategy;
+import net.shibboleth.idp.attribute.resolver.AttributeResolver;
+import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
+import net.shibboleth.idp.attribute.resolver.spring.impl.AttributeResolverServiceStrategy;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.xml.XMLParserException;
+
+/**
+ * Fixture loading shared by the benchmarks.
+ * 
+ * <p>The fixtures are copied from the example configuration in idp-conf at build time, under
+ * {@link #FIXTURES}.</p>
+ */
+public final class BenchmarkSupport {
+
+    /** Classpath location of the idp-conf fixtures. */
+    @Nonnull @NotEmpty public static final String FIXTURES = "/fixtures/";
+
+    /** Entity ID of the IdP. */
+    @Nonnull @NotEmpty public static final String IDP_ENTITY_ID = "https://idp.example.org";
+
+    /** Entity ID of the example SP, as used by the example metadata and filter policy. */
+    @Nonnull @NotEmpty public static final String SP_ENTITY_ID = "https://sp.example.org";
+
+    /** Principal name used for resolution. */
+    @Nonnull @NotEmpty public static final String PRINCIPAL = "jdoe";
+
+    /** Beans the resolver and filter configurations expect from the global configuration. */
+    @Nonnull @NotEmpty private static final String BEANS =
+            "classpath:/net/shibboleth/idp/benchmarks/benchmark-beans.xml";
+
+    /** Constructor. */
+    private BenchmarkSupport() {
+        
+    }
+
+    /**
+     * Initialize OpenSAML.
+     * 
+     * @throws InitializationException if initialization fails
+     */
+    public static void initializeOpenSAML() throws InitializationException {
+        InitializationService.initialize();
+    }
+
+    /**
+     * Build an attribute resolver from the example resolver configuration.
+     * 
+     * @return an initialized resolver
+     * 
+     * @throws ComponentInitializationException if the service strategy fails to initialize
+     */
+    @Nonnull public static AttributeResolver buildAttributeResolver() throws ComponentInitializationException {
+        final AttributeResolverServiceStrategy strategy = new AttributeResolverServiceStrategy();
+        strategy.setId("ShibbolethAttributeResolver");
+        strategy.initialize();
+        return strategy.apply(loadContext("classpath:" + FIXTURES + "conf/attribute-resolver.xml")).getComponent();
+    }
+
+    /**
+     * Build an attribute filter from the example filter policy.
+     * 
+     * @return an initialized filter
+     * 
+     * @throws ComponentInitializationException if the service strategy fails to initialize
+     */
+    @Nonnull public static AttributeFilter buildAttributeFilter() throws ComponentInitializationException {
+        final AttributeFilterServiceStrategy strategy = new AttributeFilterServiceStrategy();
+        strategy.setId("ShibbolethAttributeFilter");
+        strategy.initialize();
+        return strategy.apply(loadContext("classpath:" + FIXTURES + "conf/attribute-filter.xml")).getComponent();
+    }
+
+    /**
+     * Parse the example SP metadata.
+     * 
+     * <p>OpenSAML must have been initialized.</p>
+     * 
+     * @return the SP's entity descriptor
+     * 
+     * @throws IOException if the fixture cannot be read or parsed
+     */
+    @Nonnull public static EntityDescriptor loadEntityDescriptor() throws IOException {
+        try (final InputStream is = BenchmarkSupport.class.getResourceAsStream(
+                FIXTURES + "metadata/example-metadata.xml")) {
+            return (EntityDescriptor) XMLObjectSupport.unmarshallFromInputStream(
+                    XMLObjectProviderRegistrySupport.getParserPool(), is);
+        } catch (final XMLParserException | UnmarshallingException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Build a metadata context for the example SP.
+     * 
+     * @param entity the SP's entity descriptor
+     * 
+     * @return the metadata context
+     */
+    @Nonnull public static SAMLMetadataContext buildMetadataContext(@Nonnull final EntityDescriptor entity) {
+        final SAMLMetadataContext mdCtx = new SAMLMetadataContext();
+        mdCtx.setEntityDescriptor(entity);
+        mdCtx.setRoleDescriptor(entity.getSPSSODescriptor(SAMLConstants.SAML20P_NS));
+        return mdCtx;
+    }
+
+    /**
+     * Build a resolution context for the example principal and SP, as the SSO flow would.
+     * 
+     * @param parent the profile request context, or null to create one
+     * 
+     * @return the resolution context
+     */
+    @Nonnull public static AttributeResolutionContext buildResolutionContext(
+            @Nullable final ProfileRequestContext parent) {
+        final ProfileRequestContext prc = parent != null ? parent : new ProfileRequestContext<Object,Object>();
+        final AttributeResolutionContext resolutionContext =
+                prc.getSubcontext(AttributeResolutionContext.class, true);
+        resolutionContext.setPrincipal(PRINCIPAL);
+        resolutionContext.setAttributeIssuerID(IDP_ENTITY_ID);
+        resolutionContext.setAttributeRecipientID(SP_ENTITY_ID);
+        return resolutionContext;
+    }
+
+    /**
+     * Load a service configuration together with the supporting beans.
+     * 
+     * @param resource the configuration to load
+     * 
+     * @return the refreshed context
+     */
+    @Nonnull private static GenericApplicationContext loadContext(@Nonnull @NotEmpty final String resource) {
+        final GenericApplicationContext context = new GenericApplicationContext();
+        context.getBeanFactory().addBeanPostProcessor(new IdentifiableBeanPostProcessor());
+        context.setDisplayName("ApplicationContext: " + resource);
+
+        final SchemaTypeAwareXMLBeanDefinitionReader beanDefinitionReader =
+                new SchemaTypeAwareXMLBeanDefinitionReader(context);
+        beanDefinitionReader.loadBeanDefinitions(BEANS, resource);
+        context.refresh();
+        return context;
+    }
+
+}
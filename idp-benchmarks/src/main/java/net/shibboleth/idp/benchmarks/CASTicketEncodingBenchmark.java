@@ -0,0 +1,156 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.apache.commons.codec.binary.Base32;
+import org.joda.time.Instant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opensaml.storage.impl.MemoryStorageService;
+
+import net.shibboleth.idp.cas.ticket.ServiceTicket;
+import net.shibboleth.idp.cas.ticket.TicketState;
+import net.shibboleth.idp.cas.ticket.impl.EncodingTicketService;
+import net.shibboleth.idp.cas.ticket.serialization.impl.ServiceTicketSerializer;
+import net.shibboleth.utilities.java.support.security.DataSealer;
+
+/**
+ * Benchmark of {@link EncodingTicketService} service ticket encoding and decoding, comparing the
+ * {@link DataSealer} sealed {@link ServiceTicketSerializer} format with the compact binary format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class CASTicketEncodingBenchmark {
+
+    /** Service URL. */
+    private static final String SERVICE = "https://app.example.org/cas/login?target=%2Fhome";
+
+    /** Ticket state. */
+    private TicketState state;
+
+    /** Ticket expiration. */
+    private Instant expiry;
+
+    /** Service producing sealed tickets. */
+    private EncodingTicketService sealedService;
+
+    /** Service producing compact tickets. */
+    private EncodingTicketService compactService;
+
+    /** A sealed ticket ID. */
+    private String sealedId;
+
+    /** A compact ticket ID. */
+    private String compactId;
+
+    /**
+     * Build the services, configured as the shipped configuration does, around a single generated key.
+     * 
+     * @throws Exception if initialization fails
+     */
+    @Setup public void setUp() throws Exception {
+        final InMemoryKeyStrategy keyStrategy = new InMemoryKeyStrategy();
+        final Base32 codec = new Base32(0, null, false, (byte) '-');
+        final DataSealer sealer = new DataSealer();
+        sealer.setKeyStrategy(keyStrategy);
+        sealer.setEncoder(codec);
+        sealer.setDecoder(codec);
+        sealer.initialize();
+
+        final MemoryStorageService storageService = new MemoryStorageService();
+        storageService.setId("storage");
+        storageService.initialize();
+
+        sealedService = new EncodingTicketService(storageService, sealer);
+        compactService = new EncodingTicketService(storageService, sealer);
+        compactService.setKeyStrategy(keyStrategy);
+        compactService.setCompact(true);
+
+        state = new TicketState("_4d5e7c0b1a2f3e4d5c6b7a8f9e0d1c2b", BenchmarkSupport.PRINCIPAL, Instant.now(),
+                "authn/Password");
+        expiry = Instant.now().plus(TimeUnit.HOURS.toMillis(1));
+        sealedId = encode(sealedService).getId();
+        compactId = encode(compactService).getId();
+    }
+
+    /**
+     * Encode a ticket in the sealed format.
+     * 
+     * @return the ticket
+     */
+    @Benchmark public ServiceTicket sealedEncode() {
+        return encode(sealedService);
+    }
+
+    /**
+     * Encode a ticket in the compact format.
+     * 
+     * @return the ticket
+     */
+    @Benchmark public ServiceTicket compactEncode() {
+        return encode(compactService);
+    }
+
+    /**
+     * Decode a ticket in the sealed format.
+     * 
+     * @return the ticket
+     */
+    @Benchmark public ServiceTicket sealedDecode() {
+        return sealedService.removeServiceTicket(sealedId);
+    }
+
+    /**
+     * Decode a ticket in the compact format.
+     * 
+     * @return the ticket
+     */
+    @Benchmark public ServiceTicket compactDecode() {
+        return compactService.removeServiceTicket(compactId);
+    }
+
+    /**
+     * Encode a ticket.
+     * 
+     * @param service ticket service
+     * 
+     * @return the ticket
+     */
+    @Nonnull private ServiceTicket encode(@Nonnull final EncodingTicketService service) {
+        return service.createServiceTicket("ST-unused", expiry, SERVICE, state, false);
+    }
+
+}
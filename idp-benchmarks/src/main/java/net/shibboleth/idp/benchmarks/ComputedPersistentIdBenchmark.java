@@ -0,0 +1,101 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.benchmarks;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opensaml.saml.common.SAMLException;
+
+import net.shibboleth.idp.saml.nameid.impl.ComputedPersistentIdGenerationStrategy;
+import net.shibboleth.utilities.java.support.codec.Base64Support;
+
+/**
+ * Benchmark of {@link ComputedPersistentIdGenerationStrategy}, against a baseline that performs the same
+ * computation with a JCE provider lookup per call as the strategy formerly did.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class ComputedPersistentIdBenchmark {
+
+    /** Salt, of the minimum size. */
+    private static final byte[] SALT = "0123456789abcdef".getBytes();
+
+    /** Source attribute value. */
+    private static final String SOURCE_ID = "jdoe@example.org";
+
+    /** The strategy under test. */
+    private ComputedPersistentIdGenerationStrategy strategy;
+
+    /**
+     * Build the strategy.
+     * 
+     * @throws Exception if initialization fails
+     */
+    @Setup public void setUp() throws Exception {
+        strategy = new ComputedPersistentIdGenerationStrategy();
+        strategy.setSalt(SALT);
+        strategy.initialize();
+    }
+
+    /**
+     * Generate an ID with the strategy.
+     * 
+     * @return the ID
+     * 
+     * @throws SAMLException if generation fails
+     */
+    @Benchmark public String generate() throws SAMLException {
+        return strategy.generate(BenchmarkSupport.IDP_ENTITY_ID, BenchmarkSupport.SP_ENTITY_ID,
+                BenchmarkSupport.PRINCIPAL, SOURCE_ID);
+    }
+
+    /**
+     * Compute the same ID with a provider lookup per call.
+     * 
+     * @return the ID
+     * 
+     * @throws NoSuchAlgorithmException if the digest is unavailable
+     */
+    @Benchmark public String baseline() throws NoSuchAlgorithmException {
+        final MessageDigest md = MessageDigest.getInstance(strategy.getAlgorithm());
+        md.update(BenchmarkSupport.SP_ENTITY_ID.getBytes());
+        md.update((byte) '!');
+        md.update(SOURCE_ID.getBytes());
+        md.update((byte) '!');
+        return Base64Support.encode(md.digest(SALT), Base64Support.UNCHUNKED);
+    }
+
+}
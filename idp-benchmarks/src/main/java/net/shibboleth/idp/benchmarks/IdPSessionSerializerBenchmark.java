@@ -0,0 +1,161 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opensaml.storage.impl.MemoryStorageService;
+
+import net.shibboleth.idp.authn.AuthenticationResult;
+import net.shibboleth.idp.authn.principal.UsernamePrincipal;
+import net.shibboleth.idp.session.BasicSPSession;
+import net.shibboleth.idp.session.SPSessionSerializerRegistry;
+import net.shibboleth.idp.session.impl.StorageBackedIdPSession;
+import net.shibboleth.idp.session.impl.StorageBackedIdPSessionSerializer;
+import net.shibboleth.idp.session.impl.StorageBackedSessionManager;
+import net.shibboleth.utilities.java.support.net.CookieManager;
+import net.shibboleth.utilities.java.support.net.ThreadLocalHttpServletRequestProxy;
+import net.shibboleth.utilities.java.support.net.ThreadLocalHttpServletResponseProxy;
+import net.shibboleth.utilities.java.support.security.SecureRandomIdentifierGenerationStrategy;
+
+/**
+ * Benchmark of the {@link StorageBackedIdPSessionSerializer} round trip for a session shaped like one after SSO
+ * to a couple of SPs: an address binding, one authentication result and two SP sessions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdPSessionSerializerBenchmark {
+
+    /** Session ID, which is also the storage context. */
+    private static final String SESSION_ID = "_0123456789abcdef0123456789abcdef";
+
+    /** Storage backing the session manager. */
+    private MemoryStorageService storageService;
+
+    /** The serializer under test. */
+    private StorageBackedIdPSessionSerializer serializer;
+
+    /** Session to serialize. */
+    private StorageBackedIdPSession session;
+
+    /** Serialized form of {@link #session}. */
+    private String serialized;
+
+    /** Record expiration. */
+    private long expiration;
+
+    /**
+     * Build the session manager, serializer and session.
+     * 
+     * @throws Exception if initialization fails
+     */
+    @Setup public void setUp() throws Exception {
+        storageService = new MemoryStorageService();
+        storageService.setId("BenchmarkStorageService");
+        storageService.setCleanupInterval(0);
+        storageService.initialize();
+
+        final CookieManager cookieManager = new CookieManager();
+        cookieManager.setHttpServletRequest(new ThreadLocalHttpServletRequestProxy());
+        cookieManager.setHttpServletResponse(new ThreadLocalHttpServletResponseProxy());
+        cookieManager.initialize();
+
+        final StorageBackedSessionManager manager = new StorageBackedSessionManager();
+        manager.setStorageService(storageService);
+        manager.setIDGenerator(new SecureRandomIdentifierGenerationStrategy());
+        manager.setHttpServletRequest(new ThreadLocalHttpServletRequestProxy());
+        manager.setHttpServletResponse(new ThreadLocalHttpServletResponseProxy());
+        manager.setCookieManager(cookieManager);
+        manager.setId("BenchmarkSessionManager");
+        manager.setTrackSPSessions(true);
+        manager.setSPSessionSerializerRegistry(new SPSessionSerializerRegistry());
+        manager.initialize();
+
+        serializer = new StorageBackedIdPSessionSerializer(manager, null);
+        serializer.initialize();
+
+        final long now = System.currentTimeMillis();
+        expiration = now + 60 * 60 * 1000;
+
+        session = new StorageBackedIdPSession(manager, SESSION_ID, BenchmarkSupport.PRINCIPAL, now);
+        session.doBindToAddress("192.168.1.1");
+        session.doAddAuthenticationResult(
+                new AuthenticationResult("authn/Password", new UsernamePrincipal(BenchmarkSupport.PRINCIPAL)));
+        session.doAddSPSession(new BasicSPSession(BenchmarkSupport.SP_ENTITY_ID, now, expiration));
+        session.doAddSPSession(new BasicSPSession("https://another.example.org/shibboleth", now, expiration));
+
+        serialized = serializer.serialize(session);
+    }
+
+    /** Release the storage service. */
+    @TearDown public void tearDown() {
+        storageService.destroy();
+    }
+
+    /**
+     * Serialize the session.
+     * 
+     * @return the serialized session
+     * 
+     * @throws IOException if serialization fails
+     */
+    @Benchmark public String serialize() throws IOException {
+        return serializer.serialize(session);
+    }
+
+    /**
+     * Deserialize the session.
+     * 
+     * @return the deserialized session
+     * 
+     * @throws IOException if deserialization fails
+     */
+    @Benchmark public StorageBackedIdPSession deserialize() throws IOException {
+        return serializer.deserialize(1, SESSION_ID, StorageBackedSessionManager.SESSION_MASTER_KEY, serialized,
+                expiration);
+    }
+
+    /**
+     * Serialize and then deserialize the session, as a storage write followed by a read would.
+     * 
+     * @return the deserialized session
+     * 
+     * @throws IOException if either step fails
+     */
+    @Benchmark public StorageBackedIdPSession roundTrip() throws IOException {
+        return serializer.deserialize(1, SESSION_ID, StorageBackedSessionManager.SESSION_MASTER_KEY,
+                serializer.serialize(session), expiration);
+    }
+
+}
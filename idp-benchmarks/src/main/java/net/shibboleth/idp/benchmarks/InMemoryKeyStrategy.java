@@ -0,0 +1,63 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.benchmarks;
+
+import java.security.KeyException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.annotation.Nonnull;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+import net.shibboleth.utilities.java.support.collection.Pair;
+import net.shibboleth.utilities.java.support.security.DataSealerKeyStrategy;
+
+/** Key strategy holding a single generated AES key in memory. */
+public final class InMemoryKeyStrategy implements DataSealerKeyStrategy {
+
+    /** Key alias. */
+    @Nonnull private static final String ALIAS = "secret1";
+
+    /** The key. */
+    @Nonnull private final SecretKey key;
+
+    /**
+     * Constructor.
+     * 
+     * @throws NoSuchAlgorithmException if AES is unavailable
+     */
+    public InMemoryKeyStrategy() throws NoSuchAlgorithmException {
+        final KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(128);
+        key = generator.generateKey();
+    }
+
+    /** {@inheritDoc} */
+    @Nonnull public Pair<String,SecretKey> getDefaultKey() throws KeyException {
+        return new Pair<>(ALIAS, key);
+    }
+
+    /** {@inheritDoc} */
+    @Nonnull public SecretKey getKey(@Nonnull final String name) throws KeyException {
+        if (!ALIAS.equals(name)) {
+            throw new KeyException("Key not found: " + name);
+        }
+        return key;
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.benchmarks;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.opensaml.saml.common.SAMLObject;
+import org.opensaml.saml.common.binding.BindingDescriptor;
+import org.opensaml.saml.common.binding.impl.DefaultEndpointResolver;
+import org.opensaml.saml.common.messaging.context.SAMLEndpointContext;
+import org.opensaml.saml.common.messaging.context.SAMLMetadataContext;
+import org.opensaml.saml.common.messaging.context.SAMLPeerEntityContext;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.saml2.core.AuthnRequest;
+import org.opensaml.saml.saml2.metadata.AssertionConsumerService;
+import org.opensaml.saml.saml2.metadata.Endpoint;
+
+import net.shibboleth.idp.profile.context.RelyingPartyContext;
+import net.shibboleth.idp.saml.profile.impl.PopulateBindingAndEndpointContexts;
+import net.shibboleth.idp.saml.saml2.profile.config.BrowserSSOProfileConfiguration;
+
+/**
+ * Benchmark of {@link PopulateBindingAndEndpointContexts} resolving the assertion consumer service requested by an
+ * {@link AuthnRequest} against the example SP metadata.
+ * 
+ * <p>The action keeps per-execution state in fields, so each benchmark thread gets its own instance.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PopulateBindingAndEndpointContextsBenchmark {
+
+    /** ACS location requested, matching one of the example metadata's HTTP-POST endpoints. */
+    private static final String ACS_LOCATION = "https://localhost:8443/sp/SAML2/POST/ACS";
+
+    /** The action under test. */
+    private PopulateBindingAndEndpointContexts action;
+
+    /** Context tree the action runs against. */
+    private ProfileRequestContext<SAMLObject,SAMLObject> profileRequestContext;
+
+    /** Where the action records the resolved endpoint. */
+    private SAMLEndpointContext endpointContext;
+
+    /**
+     * Build the action and the context tree for an incoming SSO request.
+     * 
+     * @throws Exception if initialization fails
+     */
+    @Setup public void setUp() throws Exception {
+        BenchmarkSupport.initializeOpenSAML();
+
+        final AuthnRequest request = (AuthnRequest) XMLObjectSupport.buildXMLObject(AuthnRequest.DEFAULT_ELEMENT_NAME);
+        request.setAssertionConsumerServiceURL(ACS_LOCATION);
+        request.setProtocolBinding(SAMLConstants.SAML2_POST_BINDING_URI);
+
+        profileRequestContext = new ProfileRequestContext<>();
+        final MessageContext<SAMLObject> inbound = new MessageContext<>();
+        inbound.setMessage(request);
+        profileRequestContext.setInboundMessageContext(inbound);
+        profileRequestContext.setOutboundMessageContext(new MessageContext<SAMLObject>());
+
+        final SAMLPeerEntityContext peerContext =
+                profileRequestContext.getOutboundMessageContext().getSubcontext(SAMLPeerEntityContext.class, true);
+        final SAMLMetadataContext mdContext =
+                BenchmarkSupport.buildMetadataContext(BenchmarkSupport.loadEntityDescriptor());
+        peerContext.addSubcontext(mdContext);
+        endpointContext = peerContext.getSubcontext(SAMLEndpointContext.class, true);
+
+        final RelyingPartyContext rpContext = profileRequestContext.getSubcontext(RelyingPartyContext.class, true);
+        rpContext.setRelyingPartyId(BenchmarkSupport.SP_ENTITY_ID);
+        rpContext.setRelyingPartyIdContextTree(peerContext);
+        rpContext.setVerified(true);
+        rpContext.setProfileConfig(new BrowserSSOProfileConfiguration());
+
+        final BindingDescriptor binding = new BindingDescriptor();
+        binding.setId(SAMLConstants.SAML2_POST_BINDING_URI);
+        binding.initialize();
+
+        action = new PopulateBindingAndEndpointContexts();
+        action.setEndpointResolver(new DefaultEndpointResolver());
+        action.setEndpointType(AssertionConsumerService.DEFAULT_ELEMENT_NAME);
+        action.setBindings(Collections.singletonList(binding));
+        action.initialize();
+    }
+
+    /**
+     * Run the action.
+     * 
+     * @return the resolved endpoint
+     */
+    @Benchmark public Endpoint populate() {
+        action.execute(profileRequestContext);
+        return endpointContext.getEndpoint();
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opensaml.saml.saml2.core.Attribute;
+
+import net.shibboleth.idp.attribute.AttributeEncoder;
+import net.shibboleth.idp.attribute.AttributeEncodingException;
+import net.shibboleth.idp.attribute.IdPAttribute;
+import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
+import net.shibboleth.idp.saml.attribute.encoding.SAML2AttributeEncoder;
+
+/**
+ * Benchmark of SAML 2 attribute encoding, applying every SAML 2 encoder attached by the example resolver
+ * configuration to the attributes it resolves.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SAML2AttributeEncodingBenchmark {
+
+    /** Attributes to encode, paired by position with {@link #encoders}. */
+    private List<IdPAttribute> attributes;
+
+    /** Encoders to apply. */
+    private List<SAML2AttributeEncoder<?>> encoders;
+
+    /**
+     * Resolve the attributes and collect their SAML 2 encoders.
+     * 
+     * @throws Exception if the fixture fails to load
+     */
+    @Setup public void setUp() throws Exception {
+        BenchmarkSupport.initializeOpenSAML();
+
+        final AttributeResolutionContext resolutionContext = BenchmarkSupport.buildResolutionContext(null);
+        BenchmarkSupport.buildAttributeResolver().resolveAttributes(resolutionContext);
+
+        attributes = new ArrayList<>();
+        encoders = new ArrayList<>();
+        for (final IdPAttribute attribute : resolutionContext.getResolvedIdPAttributes().values()) {
+            for (final AttributeEncoder<?> encoder : attribute.getEncoders()) {
+                if (encoder instanceof SAML2AttributeEncoder) {
+                    attributes.add(attribute);
+                    encoders.add((SAML2AttributeEncoder<?>) encoder);
+                }
+            }
+        }
+    }
+
+    /**
+     * Encode the resolved attributes.
+     * 
+     * @return the encoded attributes
+     * 
+     * @throws AttributeEncodingException if encoding fails
+     */
+    @Benchmark public List<Attribute> encode() throws AttributeEncodingException {
+        final List<Attribute> encoded = new ArrayList<>(encoders.size());
+        for (int i = 0; i < encoders.size(); i++) {
+            encoded.add(encoders.get(i).encode(attributes.get(i)));
+        }
+        return encoded;
+    }
+
+}
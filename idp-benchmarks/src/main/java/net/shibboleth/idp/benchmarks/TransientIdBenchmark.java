@@ -0,0 +1,123 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opensaml.saml.common.SAMLException;
+
+import net.shibboleth.idp.saml.nameid.impl.CryptoTransientIdGenerationStrategy;
+import net.shibboleth.utilities.java.support.security.DataSealer;
+import net.shibboleth.utilities.java.support.security.DataSealerKeyStrategy;
+
+/**
+ * Benchmark of {@link CryptoTransientIdGenerationStrategy}, comparing the {@link DataSealer} format with the
+ * compact format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class TransientIdBenchmark {
+
+    /** Strategy producing sealed IDs. */
+    private CryptoTransientIdGenerationStrategy sealedStrategy;
+
+    /** Strategy producing compact IDs. */
+    private CryptoTransientIdGenerationStrategy compactStrategy;
+
+    /**
+     * Build the strategies around a single generated key.
+     * 
+     * @throws Exception if initialization fails
+     */
+    @Setup public void setUp() throws Exception {
+        final InMemoryKeyStrategy keyStrategy = new InMemoryKeyStrategy();
+
+        final DataSealer sealer = new DataSealer();
+        sealer.setKeyStrategy(keyStrategy);
+        sealer.initialize();
+
+        sealedStrategy = newStrategy("sealed", sealer, keyStrategy, false);
+        compactStrategy = newStrategy("compact", sealer, keyStrategy, true);
+    }
+
+    /**
+     * Generate an ID in the sealed format.
+     * 
+     * @return the ID
+     * 
+     * @throws SAMLException if generation fails
+     */
+    @Benchmark public String sealed() throws SAMLException {
+        return sealedStrategy.generate(BenchmarkSupport.SP_ENTITY_ID, BenchmarkSupport.PRINCIPAL);
+    }
+
+    /**
+     * Generate an ID in the compact format.
+     * 
+     * @return the ID
+     * 
+     * @throws SAMLException if generation fails
+     */
+    @Benchmark public String compact() throws SAMLException {
+        return compactStrategy.generate(BenchmarkSupport.SP_ENTITY_ID, BenchmarkSupport.PRINCIPAL);
+    }
+
+    /**
+     * Build a strategy.
+     * 
+     * @param id component ID
+     * @param sealer data sealer
+     * @param keyStrategy key strategy
+     * @param compact whether to produce compact IDs
+     * 
+     * @return the strategy
+     * 
+     * @throws Exception if initialization fails
+     */
+    @Nonnull private static CryptoTransientIdGenerationStrategy newStrategy(@Nonnull final String id,
+            @Nonnull final DataSealer sealer, @Nonnull final DataSealerKeyStrategy keyStrategy, final boolean compact)
+                    throws Exception {
+        final CryptoTransientIdGenerationStrategy strategy = new CryptoTransientIdGenerationStrategy();
+        strategy.setId(id);
+        strategy.setDataSealer(sealer);
+        strategy.setKeyStrategy(keyStrategy);
+        strategy.setCompact(compact);
+        strategy.setIdLifetime(TimeUnit.HOURS.toMillis(1));
+        strategy.initialize();
+        return strategy;
+    }
+
+}
@@ -17,8 +17,10 @@
 
 package net.shibboleth.idp.cas.service;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.LinkedHashMap;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -27,16 +29,25 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import net.shibboleth.ext.spring.service.AbstractServiceableComponent;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.component.IdentifiableComponent;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 /**
  * Service registry that evaluates a candidate service URL against one or more defined services, where each
  * definition contains a service URL regular expression pattern.
  *
+ * <p>Definitions are evaluated in order and the first match wins. To avoid evaluating every pattern on each
+ * lookup, patterns that are plain literals are indexed by exact value, and patterns that begin with a literal
+ * prefix are indexed in a prefix tree, so only those definitions that can possibly match a URL, and those
+ * that cannot be indexed, are evaluated. The result of each lookup is cached by service URL.</p>
+ *
  * <p>NOTE: This class will become an implementation component in the next major software version.</p>
  *
  * @author Marvin S. Addison
@@ -44,32 +55,53 @@ import org.slf4j.LoggerFactory;
 public class PatternServiceRegistry extends AbstractServiceableComponent<ServiceRegistry>
         implements IdentifiableComponent, ServiceRegistry {
 
+    /** Cached result for a URL that matches no definition. */
+    private static final int NO_MATCH = -1;
+
+    /** Characters that are special at the top level of a pattern. */
+    private static final String METACHARACTERS = "\\^$.|?*+()[]{}";
+
     /** Class logger. */
     private final Logger log = LoggerFactory.getLogger(PatternServiceRegistry.class);
 
-    /** Map of service definitions to compiled patterns. */
+    /** Maximum number of cached lookup results. */
+    @NonNegative
+    private long lookupCacheSize = 10000;
+
+    /** Current definitions with their indexes and lookup cache, replaced as a whole on any change. */
     @Nonnull
-    @NonnullElements
-    private Map<ServiceDefinition, Pattern> definitions = Collections.emptyMap();
+    private volatile Index index = new Index(Collections.<ServiceDefinition>emptyList(), lookupCacheSize);
 
     @Override
     public void setId(@Nonnull final String componentId) {
         super.setId(componentId);
     }
 
+    /**
+     * Sets the maximum number of lookup results to cache, or 0 to disable caching.
+     *
+     * <p>Defaults to 10000.</p>
+     *
+     * @param size maximum number of cached results
+     */
+    public synchronized void setLookupCacheSize(@NonNegative final long size) {
+        lookupCacheSize = Constraint.isGreaterThanOrEqual(0, size, "Lookup cache size must be non-negative");
+        index = new Index(index.definitions, lookupCacheSize);
+    }
+
     /**
      * Sets the list of service definitions that back the registry.
      * 
      * @param serviceDefinitions List of service definitions, each of which defines a match pattern to evaluate a
      *            candidate service URL.
      */
-    public void setDefinitions(@Nonnull @NonnullElements final List<ServiceDefinition> serviceDefinitions) {
+    public synchronized void setDefinitions(
+            @Nonnull @NonnullElements final List<ServiceDefinition> serviceDefinitions) {
         Constraint.noNullItems(serviceDefinitions, "Definitions cannot be null or contain null items");
-        // Preserve order of services in map
-        definitions = new LinkedHashMap<>(serviceDefinitions.size());
-        for (final ServiceDefinition definition : serviceDefinitions) {
-            definitions.put(definition, Pattern.compile(definition.getId()));
-        }
+        final Index newIndex = new Index(new ArrayList<>(serviceDefinitions), lookupCacheSize);
+        index = newIndex;
+        log.debug("Indexed {} service definitions, {} exact, {} evaluated for every lookup",
+                newIndex.definitions.size(), newIndex.exactIndex.size(), newIndex.residual.cardinality());
     }
 
     @Nonnull
@@ -82,14 +114,247 @@ public class PatternServiceRegistry extends AbstractServiceableComponent<Service
     @Nullable
     public Service lookup(@Nonnull final String serviceURL) {
         Constraint.isNotNull(serviceURL, "Service URL cannot be null");
-        for (final ServiceDefinition def : definitions.keySet()) {
-            log.debug("Evaluating whether {} matches {}", serviceURL, def);
-            if (definitions.get(def).matcher(serviceURL).matches()) {
-                log.debug("Found match");
-                return new Service(serviceURL, def.getGroup(), def.isAuthorizedToProxy(),
-                        def.isSingleLogoutParticipant());
+        final Index current = index;
+        Integer match = current.lookupCache != null ? current.lookupCache.getIfPresent(serviceURL) : null;
+        if (match == null) {
+            match = current.find(serviceURL);
+            if (current.lookupCache != null) {
+                current.lookupCache.put(serviceURL, match);
+            }
+        }
+        if (match == NO_MATCH) {
+            return null;
+        }
+        final ServiceDefinition def = current.definitions.get(match);
+        return new Service(serviceURL, def.getGroup(), def.isAuthorizedToProxy(), def.isSingleLogoutParticipant());
+    }
+
+    /**
+     * Extract the literal text that every match of a pattern must begin with.
+     *
+     * <p>The scan is conservative: it stops at the first construct that is not a plain or escaped literal
+     * character, and yields nothing if the pattern contains a top-level alternation.</p>
+     *
+     * @param regex pattern
+     * @param literal receives the literal prefix
+     *
+     * @return true iff the whole pattern is a literal, so it matches only the prefix itself
+     */
+    // Checkstyle: CyclomaticComplexity|ReturnCount OFF
+    static boolean literalPrefix(@Nonnull final String regex, @Nonnull final StringBuilder literal) {
+        if (hasTopLevelAlternation(regex)) {
+            return false;
+        }
+        int i = regex.startsWith("^") ? 1 : 0;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            final int lengthBefore = literal.length();
+            if (c == '\\') {
+                if (i + 1 >= regex.length()) {
+                    return false;
+                }
+                final char next = regex.charAt(i + 1);
+                if (next == 'Q') {
+                    final int end = regex.indexOf("\\E", i + 2);
+                    literal.append(regex, i + 2, end < 0 ? regex.length() : end);
+                    i = end < 0 ? regex.length() : end + 2;
+                    // A quantifier after a quoted block applies only to its last character.
+                    if (i < regex.length() && "?*{+".indexOf(regex.charAt(i)) >= 0) {
+                        literal.setLength(Math.max(lengthBefore, literal.length() - 1));
+                        return false;
+                    }
+                    continue;
+                } else if (Character.isLetterOrDigit(next)) {
+                    return false;
+                }
+                literal.append(next);
+                i += 2;
+            } else if (METACHARACTERS.indexOf(c) >= 0) {
+                return c == '$' && i == regex.length() - 1;
+            } else {
+                literal.append(c);
+                i++;
+            }
+            if (i < regex.length()) {
+                final char q = regex.charAt(i);
+                if (q == '?' || q == '*' || q == '{') {
+                    literal.setLength(lengthBefore);
+                    return false;
+                } else if (q == '+') {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    // Checkstyle: CyclomaticComplexity|ReturnCount ON
+
+    /**
+     * Get whether a pattern contains an alternation outside any group or character class.
+     *
+     * @param regex pattern
+     *
+     * @return true iff there is a top-level alternation
+     */
+    private static boolean hasTopLevelAlternation(@Nonnull final String regex) {
+        int depth = 0;
+        int classDepth = 0;
+        boolean quoted = false;
+        for (int i = 0; i < regex.length(); i++) {
+            final char c = regex.charAt(i);
+            if (quoted) {
+                if (c == '\\' && i + 1 < regex.length() && regex.charAt(i + 1) == 'E') {
+                    quoted = false;
+                    i++;
+                }
+            } else if (c == '\\') {
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == 'Q') {
+                    quoted = true;
+                }
+                i++;
+            } else if (c == '[') {
+                classDepth++;
+            } else if (classDepth > 0) {
+                if (c == ']') {
+                    classDepth--;
+                }
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Immutable snapshot of the definitions, their indexes and the cache of lookups against them, so that a lookup
+     * never sees a mix of old and new definitions.
+     */
+    private final class Index {
+
+        /** Service definitions, in order. */
+        @Nonnull @NonnullElements private final List<ServiceDefinition> definitions;
+
+        /** Compiled patterns, parallel to the definitions. */
+        @Nonnull @NonnullElements private final List<Pattern> patterns;
+
+        /** Index of the first definition whose pattern is exactly a given literal URL. */
+        @Nonnull private final Map<String, Integer> exactIndex;
+
+        /** Prefix tree of definitions keyed by literal pattern prefix. */
+        @Nonnull private final PrefixNode prefixIndex;
+
+        /** Definitions that must always be evaluated. */
+        @Nonnull private final BitSet residual;
+
+        /** Cache of lookup results, mapping service URL to the index of the matching definition. */
+        @Nullable private final Cache<String, Integer> lookupCache;
+
+        /**
+         * Constructor.
+         *
+         * @param serviceDefinitions service definitions, in order
+         * @param cacheSize maximum number of cached lookup results, or 0 for none
+         */
+        Index(@Nonnull @NonnullElements final List<ServiceDefinition> serviceDefinitions,
+                @NonNegative final long cacheSize) {
+            definitions = serviceDefinitions;
+            patterns = new ArrayList<>(definitions.size());
+            exactIndex = new HashMap<>();
+            prefixIndex = new PrefixNode();
+            residual = new BitSet(definitions.size());
+            for (int i = 0; i < definitions.size(); i++) {
+                final String regex = definitions.get(i).getId();
+                patterns.add(Pattern.compile(regex));
+                final StringBuilder literal = new StringBuilder();
+                if (literalPrefix(regex, literal)) {
+                    exactIndex.putIfAbsent(literal.toString(), i);
+                } else if (literal.length() > 0) {
+                    prefixIndex.add(literal, i);
+                } else {
+                    residual.set(i);
+                }
+            }
+            lookupCache = cacheSize > 0 ? CacheBuilder.newBuilder().maximumSize(cacheSize).<String, Integer>build()
+                    : null;
+        }
+
+        /**
+         * Find the first definition matching a service URL.
+         *
+         * @param serviceURL service URL
+         *
+         * @return index of the matching definition, or {@link #NO_MATCH}
+         */
+        int find(@Nonnull final String serviceURL) {
+            final Integer exact = exactIndex.get(serviceURL);
+            final int limit = exact != null ? exact : definitions.size();
+            final BitSet candidates = (BitSet) residual.clone();
+            prefixIndex.collect(serviceURL, candidates);
+            for (int i = candidates.nextSetBit(0); i >= 0 && i < limit; i = candidates.nextSetBit(i + 1)) {
+                log.debug("Evaluating whether {} matches {}", serviceURL, definitions.get(i));
+                if (patterns.get(i).matcher(serviceURL).matches()) {
+                    log.debug("Found match");
+                    return i;
+                }
+            }
+            if (exact != null) {
+                log.debug("Found exact match {}", definitions.get(exact));
+                return exact;
+            }
+            return NO_MATCH;
+        }
+    }
+
+    /** Node of the prefix tree. */
+    private static final class PrefixNode {
+
+        /** Child nodes by next character. */
+        @Nullable private Map<Character, PrefixNode> children;
+
+        /** Definitions whose literal prefix ends at this node. */
+        @Nullable private BitSet terminal;
+
+        /**
+         * Add a definition.
+         *
+         * @param prefix literal prefix
+         * @param index index of the definition
+         */
+        void add(@Nonnull final CharSequence prefix, final int index) {
+            PrefixNode node = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                if (node.children == null) {
+                    node.children = new HashMap<>();
+                }
+                node = node.children.computeIfAbsent(prefix.charAt(i), k -> new PrefixNode());
+            }
+            if (node.terminal == null) {
+                node.terminal = new BitSet();
+            }
+            node.terminal.set(index);
+        }
+
+        /**
+         * Collect the definitions whose literal prefix is a prefix of a URL.
+         *
+         * @param url service URL
+         * @param into receives the definition indexes
+         */
+        void collect(@Nonnull final String url, @Nonnull final BitSet into) {
+            PrefixNode node = this;
+            for (int i = 0; node != null; i++) {
+                if (node.terminal != null) {
+                    into.or(node.terminal);
+                }
+                if (i == url.length() || node.children == null) {
+                    return;
+                }
+                node = node.children.get(url.charAt(i));
             }
         }
-        return null;
     }
 }
@@ -18,6 +18,7 @@
 package net.shibboleth.idp.cas.ticket;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.joda.time.Instant;
 
@@ -45,4 +46,36 @@ public interface TicketServiceEx extends TicketService {
             @Nonnull String service,
             @Nonnull TicketState state,
             boolean renew);
+
+    /**
+     * Removes the service ticket with the given identifier, such that of any number of concurrent calls for the
+     * same ticket at most one returns it.
+     *
+     * <p>The default implementation delegates to {@link #removeServiceTicket(String)}, which is only as strict as
+     * the implementation of that method.</p>
+     *
+     * @param id Identifier of ticket to consume.
+     *
+     * @return Consumed ticket or null if not found or already consumed.
+     */
+    @Nullable
+    default ServiceTicket consumeServiceTicket(@Nonnull final String id) {
+        return removeServiceTicket(id);
+    }
+
+    /**
+     * Removes the proxy ticket with the given identifier, such that of any number of concurrent calls for the
+     * same ticket at most one returns it.
+     *
+     * <p>The default implementation delegates to {@link #removeProxyTicket(String)}, which is only as strict as
+     * the implementation of that method.</p>
+     *
+     * @param id Identifier of ticket to consume.
+     *
+     * @return Consumed ticket or null if not found or already consumed.
+     */
+    @Nullable
+    default ProxyTicket consumeProxyTicket(@Nonnull final String id) {
+        return removeProxyTicket(id);
+    }
 }
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.cas.service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * Unit test for {@link PatternServiceRegistry}.
+ */
+public class PatternServiceRegistryTest {
+
+    private static ServiceDefinition definition(final String regex, final String group) {
+        final ServiceDefinition definition = new ServiceDefinition(regex);
+        definition.setGroup(group);
+        return definition;
+    }
+
+    private static PatternServiceRegistry newRegistry(final long cacheSize) {
+        final PatternServiceRegistry registry = new PatternServiceRegistry();
+        registry.setLookupCacheSize(cacheSize);
+        registry.setDefinitions(Arrays.asList(
+                definition("https://app\\.example\\.org/admin/.*", "admin"),
+                definition("^https://exact\\.example\\.org/login$", "exact"),
+                definition("https://([A-Za-z0-9_-]+\\.)*example\\.org(:\\d+)?/special/.*", "wildcard"),
+                definition("https://app\\.example\\.org/.*", "app"),
+                definition("https://exact\\.example\\.org/login", "shadowed"),
+                definition("https://other\\.example\\.net/.*|https://alt\\.example\\.net/.*", "alternation"),
+                definition("\\Qhttps://quoted.example.org/\\E.*", "quoted")));
+        return registry;
+    }
+
+    @DataProvider(name = "lookups")
+    public Object[][] lookups() {
+        return new Object[][] {
+                {"https://app.example.org/admin/home", "admin"},
+                {"https://app.example.org/special/x", "wildcard"},
+                {"https://app.example.org/home", "app"},
+                {"https://exact.example.org/login", "exact"},
+                {"https://exact.example.org/login2", null},
+                {"https://alt.example.net/", "alternation"},
+                {"https://quoted.example.org/a", "quoted"},
+                {"https://quotedXexample.org/a", null},
+                {"http://app.example.org/home", null},
+        };
+    }
+
+    @Test(dataProvider = "lookups")
+    public void testLookup(final String url, final String group) {
+        for (final long cacheSize : new long[] {0, 100}) {
+            final PatternServiceRegistry registry = newRegistry(cacheSize);
+            for (int i = 0; i < 2; i++) {
+                final Service service = registry.lookup(url);
+                if (group == null) {
+                    assertNull(service);
+                } else {
+                    assertNotNull(service);
+                    assertEquals(service.getName(), url);
+                    assertEquals(service.getGroup(), group);
+                }
+            }
+        }
+    }
+
+    @DataProvider(name = "ordering")
+    public Object[][] ordering() {
+        final ServiceDefinition d1 = new ServiceDefinition("https://([A-Za-z0-9_-]+\\.)*example\\.org(:\\d+)?/.*");
+        d1.setGroup("example.org-plus-subdomains");
+        d1.setAuthorizedToProxy(false);
+        final ServiceDefinition d2 = new ServiceDefinition("https://trusted\\.example\\.org/.*");
+        d2.setGroup("trusted-service");
+        d2.setAuthorizedToProxy(true);
+        return new Object[][] {
+                {Arrays.asList(d1, d2), "example.org-plus-subdomains", false},
+                {Arrays.asList(d2, d1), "trusted-service", true},
+        };
+    }
+
+    @Test(dataProvider = "ordering")
+    public void testFirstMatchWins(final List<ServiceDefinition> definitions, final String group,
+            final boolean proxy) {
+        final PatternServiceRegistry registry = new PatternServiceRegistry();
+        registry.setDefinitions(definitions);
+        final Service service = registry.lookup("https://trusted.example.org/landing");
+        assertEquals(service.getGroup(), group);
+        assertEquals(service.isAuthorizedToProxy(), proxy);
+        assertNull(registry.lookup("https://service.untrusted.org/landing"));
+    }
+
+    @Test
+    public void testSettersInAnyOrder() {
+        final PatternServiceRegistry registry = new PatternServiceRegistry();
+        registry.setDefinitions(Collections.singletonList(definition("https://a\\.example\\.org/.*", "a")));
+        registry.setLookupCacheSize(100);
+        assertEquals(registry.lookup("https://a.example.org/x").getGroup(), "a");
+
+        // Replacing the definitions discards cached results.
+        registry.setDefinitions(Collections.singletonList(definition("https://a\\.example\\.org/.*", "b")));
+        assertEquals(registry.lookup("https://a.example.org/x").getGroup(), "b");
+
+        registry.setLookupCacheSize(0);
+        assertEquals(registry.lookup("https://a.example.org/x").getGroup(), "b");
+    }
+
+    @Test
+    public void testLookupDuringReload() throws Exception {
+        final List<ServiceDefinition> small =
+                Collections.singletonList(definition("https://a\\.example\\.org/.*", "a"));
+        final List<ServiceDefinition> large = Arrays.asList(
+                definition("https://b\\.example\\.org/.*", "b"),
+                definition("https://c\\.example\\.org/.*", "c"),
+                definition("https://exact\\.example\\.org/", "exact"));
+        final PatternServiceRegistry registry = new PatternServiceRegistry();
+        registry.setDefinitions(large);
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<?> reloads = executor.submit(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    registry.setDefinitions(i % 2 == 0 ? small : large);
+                }
+            });
+            while (!reloads.isDone()) {
+                // Each lookup sees either the old or the new definitions as a whole.
+                final Service service = registry.lookup("https://exact.example.org/");
+                if (service != null) {
+                    assertEquals(service.getGroup(), "exact");
+                }
+            }
+            reloads.get();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testLiteralPrefix() {
+        final StringBuilder literal = new StringBuilder();
+        assertFalse(PatternServiceRegistry.literalPrefix("https://a\\.org/b?c", literal));
+        assertEquals(literal.toString(), "https://a.org/");
+
+        literal.setLength(0);
+        assertTrue(PatternServiceRegistry.literalPrefix("^https://a\\.org/b$", literal));
+        assertEquals(literal.toString(), "https://a.org/b");
+
+        literal.setLength(0);
+        assertFalse(PatternServiceRegistry.literalPrefix("https://a\\.org|https://b\\.org", literal));
+        assertEquals(literal.toString(), "");
+    }
+}
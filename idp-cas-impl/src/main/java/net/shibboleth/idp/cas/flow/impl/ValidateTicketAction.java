@@ -91,9 +91,9 @@ public class ValidateTicketAction extends AbstractCASProtocolAction<TicketValida
             final String ticketId = request.getTicket();
             log.debug("Attempting to validate {}", ticketId);
             if (ticketId.startsWith(LoginConfiguration.DEFAULT_TICKET_PREFIX)) {
-                ticket = ticketServiceEx.removeServiceTicket(request.getTicket());
+                ticket = ticketServiceEx.consumeServiceTicket(ticketId);
             } else if (ticketId.startsWith(ProxyConfiguration.DEFAULT_TICKET_PREFIX)) {
-                ticket = ticketServiceEx.removeProxyTicket(ticketId);
+                ticket = ticketServiceEx.consumeProxyTicket(ticketId);
             } else {
                 return ProtocolError.InvalidTicketFormat.event(this);
             }
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.cas.session.impl;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Function;
+import com.google.common.xml.XmlEscapers;
+import net.shibboleth.idp.session.SPSession;
+import net.shibboleth.idp.session.context.LogoutPropagationContext.Result;
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Propagates logout to a CAS service over the back-channel, by POSTing the same <code>logoutRequest</code>
+ * parameter that the front-channel logout view submits from the browser directly to the service URL.
+ *
+ * <p>Sessions other than {@link CASSPSession} are not handled and produce a null result. A 2xx response from the
+ * service is a success; any other response, I/O error or timeout is a failure.</p>
+ *
+ * <p>The request runs on a separate executor while the calling thread waits for it, so that the request is aborted
+ * if the caller is interrupted, as when a propagation attempt is abandoned, or the timeout passes.</p>
+ */
+public class CASBackChannelLogoutStrategy implements Function<SPSession, Result> {
+
+    /** Name of the form parameter carrying the logout message. */
+    private static final String LOGOUT_REQUEST_PARAMETER = "logoutRequest";
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(CASBackChannelLogoutStrategy.class);
+
+    /** HTTP client used to contact services. */
+    @Nonnull
+    private final HttpClient httpClient;
+
+    /** Executor on which requests run. */
+    @Nonnull
+    private final ExecutorService executorService;
+
+    /** Time in milliseconds to allow for a request, including connecting. */
+    @Duration
+    @Positive
+    private long timeout = 5000;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param client HTTP client used to contact services.
+     * @param executor Executor on which requests run.
+     */
+    public CASBackChannelLogoutStrategy(@Nonnull final HttpClient client, @Nonnull final ExecutorService executor) {
+        httpClient = Constraint.isNotNull(client, "HttpClient cannot be null");
+        executorService = Constraint.isNotNull(executor, "ExecutorService cannot be null");
+    }
+
+    /**
+     * Sets the time in milliseconds to allow for a request, including connecting.
+     *
+     * @param millis Non-zero timeout in milliseconds.
+     */
+    @Duration
+    public void setTimeout(@Duration @Positive final long millis) {
+        timeout = Constraint.isGreaterThan(0, millis, "Timeout must be positive");
+    }
+
+    @Override
+    @Nullable
+    public Result apply(@Nullable final SPSession input) {
+        if (!(input instanceof CASSPSession)) {
+            return null;
+        }
+        final CASSPSession session = (CASSPSession) input;
+        final HttpPost request;
+        try {
+            request = new HttpPost(session.getId());
+        } catch (final IllegalArgumentException e) {
+            log.warn("Back-channel logout to {} failed: {}", session.getId(), e.getMessage());
+            return Result.Failure;
+        }
+        request.setConfig(RequestConfig.custom()
+                .setConnectionRequestTimeout((int) timeout)
+                .setConnectTimeout((int) timeout)
+                .setSocketTimeout((int) timeout)
+                .build());
+        request.setEntity(new UrlEncodedFormEntity(
+                Collections.singletonList(
+                        new BasicNameValuePair(LOGOUT_REQUEST_PARAMETER, buildLogoutRequest(session))),
+                StandardCharsets.UTF_8));
+
+        log.debug("Sending back-channel logout for {} to {}", session.getTicketId(), session.getId());
+        final Future<Result> result;
+        try {
+            result = executorService.submit(() -> send(request, session));
+        } catch (final RejectedExecutionException e) {
+            log.warn("Back-channel logout to {} rejected by executor", session.getId());
+            return Result.Failure;
+        }
+        try {
+            return result.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            log.warn("Back-channel logout to {} was abandoned", session.getId());
+            Thread.currentThread().interrupt();
+        } catch (final TimeoutException e) {
+            log.warn("Back-channel logout to {} timed out", session.getId());
+        } catch (final ExecutionException e) {
+            log.warn("Back-channel logout to {} failed", session.getId(), e.getCause());
+        }
+        request.abort();
+        result.cancel(true);
+        return Result.Failure;
+    }
+
+    /**
+     * Sends a logout request and interprets the response.
+     *
+     * @param request Logout request.
+     * @param session Session being logged out.
+     *
+     * @return Result of the request.
+     */
+    @Nonnull
+    private Result send(@Nonnull final HttpPost request, @Nonnull final CASSPSession session) {
+        try {
+            final HttpResponse response = httpClient.execute(request);
+            try {
+                final int status = response.getStatusLine().getStatusCode();
+                if (status >= 200 && status < 300) {
+                    return Result.Success;
+                }
+                log.warn("Back-channel logout to {} returned HTTP status code {}", session.getId(), status);
+                return Result.Failure;
+            } finally {
+                EntityUtils.consumeQuietly(response.getEntity());
+            }
+        } catch (final IOException e) {
+            if (request.isAborted()) {
+                log.debug("Back-channel logout to {} aborted", session.getId());
+            } else {
+                log.warn("Back-channel logout to {} failed: {}", session.getId(), e.getMessage());
+            }
+            return Result.Failure;
+        }
+    }
+
+    /**
+     * Builds the SAML logout message identifying the session by the ticket that started it.
+     *
+     * @param session CAS SP session to log out.
+     * @return Logout message.
+     */
+    @Nonnull
+    protected String buildLogoutRequest(@Nonnull final CASSPSession session) {
+        return "<samlp:LogoutRequest xmlns:samlp='urn:oasis:names:tc:SAML:2.0:protocol'"
+                + " ID='" + UUID.randomUUID() + "' Version='2.0'"
+                + " IssueInstant='" + ISODateTimeFormat.dateHourMinuteSecond().print(DateTime.now()) + "'>"
+                + "<saml:NameID xmlns:saml='urn:oasis:names:tc:SAML:2.0:assertion'>somebody</saml:NameID>"
+                + "<samlp:SessionIndex>" + XmlEscapers.xmlContentEscaper().escape(session.getTicketId())
+                + "</samlp:SessionIndex>"
+                + "</samlp:LogoutRequest>";
+    }
+}
@@ -18,6 +18,7 @@
 package net.shibboleth.idp.cas.ticket.impl;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -36,10 +37,13 @@ import net.shibboleth.idp.cas.ticket.serialization.impl.ProxyGrantingTicketSeria
 import net.shibboleth.idp.cas.ticket.serialization.impl.ProxyTicketSerializer;
 import net.shibboleth.idp.cas.ticket.serialization.impl.ServiceTicketSerializer;
 import net.shibboleth.utilities.java.support.logic.Constraint;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
 import org.joda.time.Instant;
 import org.opensaml.storage.StorageRecord;
 import org.opensaml.storage.StorageSerializer;
 import org.opensaml.storage.StorageService;
+import org.opensaml.storage.VersionMismatchException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -176,6 +180,62 @@ public abstract class AbstractTicketService implements TicketServiceEx {
         return (StorageSerializer<T>) SERIALIZER_MAP.get(clazz);
     }
 
+    /**
+     * Gets whether tickets of the given type are stored in the context of the IdP session that owns them and
+     * reached through a pointer from the ticket context.
+     *
+     * <p>Proxy-granting tickets live as long as the session and are stored this way. Service and proxy tickets are
+     * short-lived and stored as a single record under the session context, keyed by a ticket ID that encodes the
+     * session ID (see {@link #sessionBoundId(String, String)}), so that validating one takes a single read and
+     * delete. Either way, destroying the session context revokes the session's tickets.</p>
+     *
+     * @param clazz Ticket class.
+     *
+     * @return true iff tickets of the given type are reached through a pointer to the session context
+     */
+    protected static boolean isSessionBound(final Class<? extends Ticket> clazz) {
+        return ProxyGrantingTicket.class.equals(clazz);
+    }
+
+    /**
+     * Gets a ticket ID that encodes the ID of the session owning the ticket, as a final hex-encoded segment.
+     *
+     * @param id Ticket identifier.
+     * @param sessionId ID of the session owning the ticket, or null.
+     *
+     * @return Ticket identifier bound to the session, or the given identifier if there is no session.
+     */
+    @Nonnull
+    protected static String sessionBoundId(@Nonnull final String id, @Nullable final String sessionId) {
+        if (sessionId == null) {
+            return id;
+        }
+        return id + '-' + Hex.encodeHexString(sessionId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Gets the session ID encoded in a ticket ID by {@link #sessionBoundId(String, String)}.
+     *
+     * <p>A ticket ID that was not bound to a session may still end in a segment that decodes; a lookup under the
+     * resulting context then simply finds nothing.</p>
+     *
+     * @param id Ticket identifier.
+     *
+     * @return Session ID, or null if the ticket ID does not end in a hex-encoded segment.
+     */
+    @Nullable
+    protected static String boundSessionId(@Nonnull final String id) {
+        final int pos = id.lastIndexOf('-');
+        if (pos < 0 || pos == id.length() - 1) {
+            return null;
+        }
+        try {
+            return new String(Hex.decodeHex(id.substring(pos + 1).toCharArray()), StandardCharsets.UTF_8);
+        } catch (final DecoderException e) {
+            return null;
+        }
+    }
+
     /**
      * Stores the given ticket in the storage service.
      *
@@ -185,8 +245,18 @@ public abstract class AbstractTicketService implements TicketServiceEx {
     protected <T extends Ticket> void store(final T ticket) {
         final String context = context(ticket.getClass());
         try {
-            final String sessionId = ticket.getSessionId();
             final long expiry = ticket.getExpirationInstant().getMillis();
+            final String sessionId = ticket.getSessionId();
+            if (!isSessionBound(ticket.getClass())) {
+                final String recordContext =
+                        sessionId != null && sessionId.equals(boundSessionId(ticket.getId())) ? sessionId : context;
+                log.debug("Storing {} in context {}", ticket, recordContext);
+                if (!storageService.create(
+                        recordContext, ticket.getId(), ticket, serializer(ticket.getClass()), expiry)) {
+                    throw new RuntimeException("Failed to store ticket " + ticket);
+                }
+                return;
+            }
             log.debug("Storing mapping of {} to {} in context {}", ticket, sessionId, context);
             if (!storageService.create(context, ticket.getId(), sessionId, expiry)) {
                 throw new RuntimeException("Failed to store ticket " + ticket);
@@ -211,57 +281,141 @@ public abstract class AbstractTicketService implements TicketServiceEx {
      */
     protected <T extends Ticket> T read(final String id, final Class<T> clazz) {
         log.debug("Reading {}", id);
-        final T ticket;
         try {
-            final String context = context(clazz);
-            final StorageRecord<T> sessionRecord = storageService.read(context, id);
-            if (sessionRecord == null) {
-                log.debug("{} not found in context {}", id, context);
-                return null;
-            }
-            final String sessionId = sessionRecord.getValue();
-            final StorageRecord<T> ticketRecord = storageService.read(sessionId, id);
-            if (ticketRecord == null) {
-                log.debug("{} not found in context {}", id, sessionId);
-                return null;
-            }
-            ticket = ticketRecord.getValue(serializer(clazz), sessionId, id);
+            return readRecord(context(clazz), id, clazz);
         } catch (final IOException e) {
             throw new RuntimeException("Error reading ticket.");
         }
-        return ticket;
     }
 
     /**
      * Retrieves a ticket by ID from the storage service and then deletes it.
      *
+     * <p>The ticket record is removed with a delete conditioned on the version that was read, and the ticket is
+     * only returned if that delete succeeds, so of any number of concurrent calls for the same ticket at most one
+     * returns it.</p>
+     *
+     * <p>A service or proxy ticket whose ID is bound to a session is looked up directly under the session context.
+     * Tickets not found there are looked up under the ticket context, where tickets without a session and those
+     * issued before tickets were bound to sessions are stored.</p>
+     *
      * @param id Ticket identifier.
      * @param <T> Type of ticket.
      * @param clazz Ticket class
      *
-     * @return Deleted ticket or null if ticket not found.
+     * @return Deleted ticket or null if ticket not found or deleted concurrently.
      */
     protected <T extends Ticket> T delete(final String id, final Class<T> clazz) {
-        final T ticket = read(id, clazz);
-        if (ticket == null) {
-            return null;
-        }
+        final String context = context(clazz);
         try {
-            final String context = context(clazz);
-            log.debug("Attempting to delete {} from context {}", id, context);
-            if (!storageService.delete(context, id)) {
-                log.info("Failed deleting {} from context {}.", id, context);
+            final String boundSessionId = isSessionBound(clazz) ? null : boundSessionId(id);
+            if (boundSessionId != null) {
+                final StorageRecord<T> record = storageService.read(boundSessionId, id);
+                if (record != null) {
+                    final T ticket = record.getValue(serializer(clazz), boundSessionId, id);
+                    return deleteRecord(record, boundSessionId, id) ? ticket : null;
+                }
+            }
+            final StorageRecord<T> record = storageService.read(context, id);
+            if (record == null) {
+                log.debug("{} not found in context {}", id, context);
+                return null;
+            }
+            final T ticket = readRecord(record, context, id, clazz);
+            if (!deleteRecord(record, context, id) || ticket == null) {
+                return null;
             }
             final String sessionId = ticket.getSessionId();
-            log.debug("Attempting to delete {} from context {}", id, sessionId);
-            if (!storageService.delete(sessionId, id)) {
-                log.info("Failed deleting {} from context {}.", id, sessionId);
+            if (!record.getValue().startsWith("{") && sessionId != null) {
+                log.debug("Attempting to delete {} from context {}", id, sessionId);
+                if (!storageService.delete(sessionId, id)) {
+                    log.info("Failed deleting {} from context {}.", id, sessionId);
+                }
             }
+            return ticket;
         } catch (final IOException e) {
             throw new RuntimeException("Error deleting ticket " + id, e);
         }
-        return ticket;
     }
 
+    /**
+     * Deletes a ticket record, conditioned on the version that was read.
+     *
+     * @param record Ticket record.
+     * @param context Context of the record.
+     * @param id Ticket identifier.
+     *
+     * @return true iff the record was deleted, false if it was deleted or modified concurrently
+     *
+     * @throws IOException if an error occurs deleting the record
+     */
+    private boolean deleteRecord(@Nonnull final StorageRecord<?> record, @Nonnull final String context,
+            @Nonnull final String id) throws IOException {
+        log.debug("Attempting to delete {} from context {}", id, context);
+        try {
+            if (!storageService.deleteWithVersion(record.getVersion(), context, id)) {
+                log.info("{} was deleted from context {} concurrently", id, context);
+                return false;
+            }
+        } catch (final VersionMismatchException e) {
+            log.info("{} was modified in context {} concurrently", id, context);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads a ticket, following the pointer to the session context if the ticket record is one.
+     *
+     * <p>Service and proxy tickets stored before they were kept in a single record are still stored as a
+     * pointer, so either form is accepted for any ticket type. A session ID never begins with the JSON
+     * object delimiter that begins a serialized ticket.</p>
+     *
+     * @param context Ticket context.
+     * @param id Ticket identifier.
+     * @param clazz Ticket type.
+     * @param <T> Type of ticket.
+     *
+     * @return Ticket or null if ticket not found.
+     *
+     * @throws IOException if an error occurs reading or deserializing the ticket
+     */
+    @Nullable private <T extends Ticket> T readRecord(@Nonnull final String context, @Nonnull final String id,
+            @Nonnull final Class<T> clazz) throws IOException {
+        final StorageRecord<T> record = storageService.read(context, id);
+        if (record == null) {
+            log.debug("{} not found in context {}", id, context);
+            return null;
+        }
+        return readRecord(record, context, id, clazz);
+    }
+
+    /**
+     * Gets the ticket from a ticket record, following the pointer to the session context if the record is one.
+     *
+     * @param record Ticket record.
+     * @param context Ticket context.
+     * @param id Ticket identifier.
+     * @param clazz Ticket type.
+     * @param <T> Type of ticket.
+     *
+     * @return Ticket or null if ticket not found.
+     *
+     * @throws IOException if an error occurs reading or deserializing the ticket
+     */
+    @Nullable private <T extends Ticket> T readRecord(@Nonnull final StorageRecord<T> record,
+            @Nonnull final String context, @Nonnull final String id, @Nonnull final Class<T> clazz)
+                    throws IOException {
+        if (record.getValue().startsWith("{")) {
+            return record.getValue(serializer(clazz), context, id);
+        }
+        final String sessionId = record.getValue();
+        final StorageRecord<T> ticketRecord = storageService.read(sessionId, id);
+        if (ticketRecord == null) {
+            log.debug("{} not found in context {}", id, sessionId);
+            return null;
+        }
+        return ticketRecord.getValue(serializer(clazz), sessionId, id);
+    }
 
 }
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.cas.ticket.impl;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.idp.cas.ticket.ProxyTicket;
+import net.shibboleth.idp.cas.ticket.ServiceTicket;
+import net.shibboleth.idp.cas.ticket.Ticket;
+import net.shibboleth.idp.cas.ticket.TicketState;
+import net.shibboleth.idp.persistence.CompactDataInput;
+import net.shibboleth.idp.persistence.CompactDataOutput;
+import net.shibboleth.idp.security.CompactDataSealer;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.security.DataExpiredException;
+import net.shibboleth.utilities.java.support.security.DataSealerException;
+import net.shibboleth.utilities.java.support.security.DataSealerKeyStrategy;
+import org.apache.commons.codec.binary.Base32;
+import org.joda.time.Instant;
+
+/**
+ * Compact binary encoding of service and proxy tickets, sealed with the keys of a {@link DataSealerKeyStrategy}.
+ *
+ * <p>The opaque part of a compact ticket ID is a marker character, which never occurs in the base-32 output of
+ * the {@link net.shibboleth.utilities.java.support.security.DataSealer}, followed by the base-32 encoding of a
+ * {@link CompactDataSealer} envelope bound to CAS tickets. The sealed ticket is a type byte, the expiration, a
+ * flags byte, and the service, proxy-granting ticket ID and ticket state fields.</p>
+ *
+ * <p>Base-32 with '-' as the padding character is used, as for sealed tickets, because ticket IDs are restricted
+ * to alphanumerics and the hyphen.</p>
+ */
+final class CompactTicketCodec {
+
+    /** Marker beginning the opaque part of a compact ticket ID. */
+    static final char MARKER = '0';
+
+    /** Label binding envelopes to CAS tickets. */
+    @Nonnull @NotEmpty private static final String PURPOSE = "CASTicket";
+
+    /** Type of a service ticket. */
+    private static final byte TYPE_ST = 1;
+
+    /** Type of a proxy ticket. */
+    private static final byte TYPE_PT = 2;
+
+    /** Flag for service tickets issued on forced authentication. */
+    private static final int FLAG_RENEW = 1;
+
+    /** Flag for tickets carrying ticket state. */
+    private static final int FLAG_STATE = 2;
+
+    /** Base-32 codec. */
+    @Nonnull private static final Base32 CODEC = new Base32(0, null, false, (byte) '-');
+
+    /** Sealer for the ticket. */
+    @Nonnull private final CompactDataSealer sealer;
+
+    /**
+     * Constructor.
+     *
+     * @param strategy source of keys
+     */
+    CompactTicketCodec(@Nonnull final DataSealerKeyStrategy strategy) {
+        sealer = new CompactDataSealer(strategy, PURPOSE);
+    }
+
+    /**
+     * Get whether the opaque part of a ticket ID is in the compact format.
+     *
+     * @param opaque opaque part of a ticket ID
+     *
+     * @return true iff the value is a compact ticket
+     */
+    static boolean isCompact(@Nullable final String opaque) {
+        return opaque != null && opaque.length() > 1 && opaque.charAt(0) == MARKER;
+    }
+
+    /**
+     * Encode and seal a service or proxy ticket.
+     *
+     * @param ticket ticket to encode
+     *
+     * @return opaque part of the ticket ID
+     *
+     * @throws DataSealerException if the ticket cannot be sealed
+     */
+    @Nonnull String encode(@Nonnull final Ticket ticket) throws DataSealerException {
+        final byte type;
+        int flags = 0;
+        if (ticket instanceof ServiceTicket) {
+            type = TYPE_ST;
+            if (((ServiceTicket) ticket).isRenew()) {
+                flags |= FLAG_RENEW;
+            }
+        } else if (ticket instanceof ProxyTicket) {
+            type = TYPE_PT;
+        } else {
+            throw new DataSealerException("Unsupported ticket type " + ticket.getClass().getName());
+        }
+        final TicketState state = ticket.getTicketState();
+        if (state != null) {
+            flags |= FLAG_STATE;
+        }
+
+        final CompactDataOutput out = new CompactDataOutput()
+                .writeByte(type)
+                .writeVarLong(ticket.getExpirationInstant().getMillis())
+                .writeByte(flags)
+                .writeString(ticket.getService());
+        if (type == TYPE_PT) {
+            out.writeString(((ProxyTicket) ticket).getPgtId());
+        }
+        if (state != null) {
+            out.writeString(state.getSessionId())
+                .writeString(state.getPrincipalName())
+                .writeVarLong(state.getAuthenticationInstant().getMillis())
+                .writeString(state.getAuthenticationMethod());
+        }
+
+        return MARKER + CODEC.encodeToString(sealer.seal(out.toByteArray()));
+    }
+
+    /**
+     * Unseal and decode a service or proxy ticket.
+     *
+     * @param ticketClass expected type of ticket
+     * @param id full ticket ID
+     * @param opaque opaque part of the ticket ID
+     * @param <T> type of ticket
+     *
+     * @return the ticket
+     *
+     * @throws DataExpiredException if the ticket has expired
+     * @throws DataSealerException if the ticket cannot be unsealed or is not of the expected type
+     */
+    @Nonnull <T extends Ticket> T decode(@Nonnull final Class<T> ticketClass, @Nonnull final String id,
+            @Nonnull final String opaque) throws DataSealerException {
+        final CompactDataInput in = new CompactDataInput(sealer.unseal(CODEC.decode(opaque.substring(1))));
+        try {
+            final int type = in.readByte();
+            final long expiration = in.readVarLong();
+            if (expiration < System.currentTimeMillis()) {
+                throw new DataExpiredException("Ticket has expired");
+            }
+            final int flags = in.readByte();
+            final String service = in.readString();
+            final Ticket ticket;
+            if (type == TYPE_ST && ticketClass.equals(ServiceTicket.class)) {
+                ticket = new ServiceTicket(id, service, new Instant(expiration), (flags & FLAG_RENEW) != 0);
+            } else if (type == TYPE_PT && ticketClass.equals(ProxyTicket.class)) {
+                ticket = new ProxyTicket(id, service, new Instant(expiration), in.readString());
+            } else {
+                throw new DataSealerException("Ticket is not of type " + ticketClass.getSimpleName());
+            }
+            if ((flags & FLAG_STATE) != 0) {
+                final String sessionId = in.readString();
+                final String principal = in.readString();
+                final long authnInstant = in.readVarLong();
+                ticket.setTicketState(
+                        new TicketState(sessionId, principal, new Instant(authnInstant), in.readString()));
+            }
+            return ticketClass.cast(ticket);
+        } catch (final IOException e) {
+            throw new DataSealerException("Malformed ticket", e);
+        }
+    }
+
+}
@@ -29,6 +29,7 @@ import net.shibboleth.utilities.java.support.annotation.ParameterName;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.shibboleth.utilities.java.support.security.DataSealer;
+import net.shibboleth.utilities.java.support.security.DataSealerKeyStrategy;
 
 import org.joda.time.Instant;
 import org.opensaml.storage.StorageService;
@@ -54,6 +55,10 @@ import org.slf4j.LoggerFactory;
  *     <li>The {@link DataSealer} key used to encrypt data is revoked.</li>
  * </ol>
  *
+ * <p>Optionally, service and proxy tickets can instead be sealed in a compact binary form directly with the keys of
+ * the sealer's {@link DataSealerKeyStrategy}, which produces shorter ticket IDs with far less work. Either form is
+ * accepted for validation once a key strategy is set.</p>
+ *
  * @author Marvin S. Addison
  * @since 3.3.0
  */
@@ -83,6 +88,13 @@ public class EncodingTicketService extends AbstractTicketService {
     @NotEmpty
     private String proxyTicketPrefix = PROXY_TICKET_PREFIX;
 
+    /** Codec for compact tickets, if a key strategy is set. */
+    @Nullable
+    private CompactTicketCodec compactCodec;
+
+    /** Whether to produce compact tickets. */
+    private boolean compact;
+
 
     /**
      * Creates a new instance.
@@ -114,6 +126,26 @@ public class EncodingTicketService extends AbstractTicketService {
         proxyTicketPrefix = Constraint.isNotEmpty(prefix, "Prefix cannot be null or empty");
     }
 
+    /**
+     * Sets the key strategy used to seal compact tickets, normally that of the data sealer.
+     *
+     * <p>Compact tickets are rejected if this is not set.</p>
+     *
+     * @param strategy key strategy
+     */
+    public void setKeyStrategy(@Nullable final DataSealerKeyStrategy strategy) {
+        compactCodec = strategy != null ? new CompactTicketCodec(strategy) : null;
+    }
+
+    /**
+     * Sets whether to produce compact service and proxy tickets, which requires a key strategy. Default is false.
+     *
+     * @param flag flag to set
+     */
+    public void setCompact(final boolean flag) {
+        compact = flag;
+    }
+
     @Override
     @Nonnull
     public ServiceTicket createServiceTicket(
@@ -175,8 +207,13 @@ public class EncodingTicketService extends AbstractTicketService {
     private <T extends Ticket> T encode(final Class<T> ticketClass, final T ticket, final String prefix) {
         final String opaque;
         try {
-            opaque = dataSealer.wrap(
-                    serializer(ticketClass).serialize(ticket), ticket.getExpirationInstant().getMillis());
+            if (compact) {
+                opaque = Constraint.isNotNull(compactCodec, "Compact tickets require a DataSealerKeyStrategy")
+                        .encode(ticket);
+            } else {
+                opaque = dataSealer.wrap(
+                        serializer(ticketClass).serialize(ticket), ticket.getExpirationInstant().getMillis());
+            }
         } catch (final Exception e) {
             throw new RuntimeException("Ticket encoding failed", e);
         }
@@ -195,7 +232,11 @@ public class EncodingTicketService extends AbstractTicketService {
      */
     private <T extends Ticket> T decode(final Class<T> ticketClass, final String id, final String prefix) {
         try {
-            final String decrypted = dataSealer.unwrap(id.substring(prefix.length() + 1));
+            final String opaque = id.substring(prefix.length() + 1);
+            if (compactCodec != null && CompactTicketCodec.isCompact(opaque)) {
+                return compactCodec.decode(ticketClass, id, opaque);
+            }
+            final String decrypted = dataSealer.unwrap(opaque);
             return serializer(ticketClass).deserialize(0, NOT_USED, id, decrypted, 0L);
         } catch (final Exception e) {
             log.warn("Ticket decoding failed with error: " + e.getMessage());
@@ -56,7 +56,7 @@ public class SimpleTicketService extends AbstractTicketService {
             final boolean renew) {
         Constraint.isNotNull(state, "State cannot be null");
         final ServiceTicket st = new ServiceTicket(
-                Constraint.isNotNull(id, "ID cannot be null"),
+                sessionBoundId(Constraint.isNotNull(id, "ID cannot be null"), state.getSessionId()),
                 Constraint.isNotNull(service, "Service cannot be null"),
                 Constraint.isNotNull(expiry, "Expiry cannot be null"),
                 renew);
@@ -81,7 +81,7 @@ public class SimpleTicketService extends AbstractTicketService {
             @Nonnull final String service) {
         Constraint.isNotNull(pgt, "ProxyGrantingTicket cannot be null");
         final ProxyTicket pt = new ProxyTicket(
-                Constraint.isNotNull(id, "ID cannot be null"),
+                sessionBoundId(Constraint.isNotNull(id, "ID cannot be null"), pgt.getSessionId()),
                 Constraint.isNotNull(service, "Service cannot be null"),
                 Constraint.isNotNull(expiry, "Expiry cannot be null"),
                 pgt.getId());
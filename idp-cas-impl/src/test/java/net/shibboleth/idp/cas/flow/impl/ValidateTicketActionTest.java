@@ -75,7 +75,7 @@ public class ValidateTicketActionTest extends AbstractFlowActionTest {
     @Test
     public void testTicketRetrievalError() throws Exception {
         final TicketServiceEx throwingTicketService = mock(TicketServiceEx.class);
-        when(throwingTicketService.removeServiceTicket(any(String.class))).thenThrow(new RuntimeException("Broken"));
+        when(throwingTicketService.consumeServiceTicket(any(String.class))).thenThrow(new RuntimeException("Broken"));
         final RequestContext context = new TestContextBuilder(ValidateConfiguration.PROFILE_ID)
                 .addProtocolContext(new TicketValidationRequest(TEST_SERVICE, "ST-12345"), null)
                 .addRelyingPartyContext(TEST_SERVICE, true, new ValidateConfiguration())
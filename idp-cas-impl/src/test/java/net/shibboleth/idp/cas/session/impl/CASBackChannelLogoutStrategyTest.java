@@ -0,0 +1,172 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.cas.session.impl;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.shibboleth.idp.session.BasicSPSession;
+import net.shibboleth.idp.session.context.LogoutPropagationContext.Result;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * Unit test for {@link CASBackChannelLogoutStrategy} class.
+ */
+public class CASBackChannelLogoutStrategyTest {
+
+    private static final String SERVICE_URL = "http://127.0.0.1:8444/";
+
+    private Server server;
+
+    private RecordingHandler handler;
+
+    private CloseableHttpClient httpClient;
+
+    private ExecutorService executor;
+
+    private CASBackChannelLogoutStrategy strategy;
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        handler = new RecordingHandler();
+        server = new Server();
+        final ServerConnector connector = new ServerConnector(server);
+        connector.setHost("127.0.0.1");
+        connector.setPort(8444);
+        server.addConnector(connector);
+        server.setHandler(handler);
+        server.start();
+        httpClient = HttpClients.createDefault();
+        executor = Executors.newCachedThreadPool();
+        strategy = new CASBackChannelLogoutStrategy(httpClient, executor);
+        strategy.setTimeout(1000);
+    }
+
+    @AfterClass
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        httpClient.close();
+        server.stop();
+    }
+
+    @Test
+    public void testSuccess() throws Exception {
+        handler.status = 200;
+        final long now = System.currentTimeMillis();
+        assertEquals(strategy.apply(new CASSPSession(SERVICE_URL, now, now + 60000, "ST-1-abc")), Result.Success);
+        assertNotNull(handler.logoutRequest);
+        assertTrue(handler.logoutRequest.contains("<samlp:SessionIndex>ST-1-abc</samlp:SessionIndex>"));
+    }
+
+    @Test
+    public void testErrorStatus() throws Exception {
+        handler.status = 500;
+        final long now = System.currentTimeMillis();
+        assertEquals(strategy.apply(new CASSPSession(SERVICE_URL, now, now + 60000, "ST-2-abc")), Result.Failure);
+    }
+
+    @Test
+    public void testUnreachable() throws Exception {
+        final long now = System.currentTimeMillis();
+        assertEquals(
+                strategy.apply(new CASSPSession("http://127.0.0.1:1/", now, now + 60000, "ST-3-abc")),
+                Result.Failure);
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        handler.status = 200;
+        handler.delay = 3000;
+        try {
+            final long now = System.currentTimeMillis();
+            assertEquals(strategy.apply(new CASSPSession(SERVICE_URL, now, now + 60000, "ST-4-abc")),
+                    Result.Failure);
+            assertTrue(System.currentTimeMillis() - now < 2500);
+        } finally {
+            handler.delay = 0;
+        }
+    }
+
+    @Test
+    public void testAbandoned() throws Exception {
+        handler.status = 200;
+        handler.delay = 3000;
+        final ExecutorService caller = Executors.newSingleThreadExecutor();
+        try {
+            final long now = System.currentTimeMillis();
+            final Future<Result> result =
+                    caller.submit(() -> strategy.apply(new CASSPSession(SERVICE_URL, now, now + 60000, "ST-5-abc")));
+            Thread.sleep(200);
+            caller.shutdownNow();
+            assertTrue(caller.awaitTermination(500, TimeUnit.MILLISECONDS));
+            assertEquals(result.get(), Result.Failure);
+        } finally {
+            handler.delay = 0;
+        }
+    }
+
+    @Test
+    public void testOtherSession() throws Exception {
+        final long now = System.currentTimeMillis();
+        assertNull(strategy.apply(new BasicSPSession(SERVICE_URL, now, now + 60000)));
+    }
+
+    private static class RecordingHandler extends AbstractHandler {
+
+        volatile int status;
+
+        volatile String logoutRequest;
+
+        volatile long delay;
+
+        @Override
+        public void handle(
+                final String target,
+                final Request request,
+                final HttpServletRequest servletRequest,
+                final HttpServletResponse servletResponse) throws IOException {
+
+            logoutRequest = servletRequest.getParameter("logoutRequest");
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            servletResponse.setStatus(status);
+            request.setHandled(true);
+        }
+    }
+}
@@ -25,6 +25,8 @@ import net.shibboleth.idp.cas.ticket.ProxyGrantingTicket;
 import net.shibboleth.idp.cas.ticket.ProxyTicket;
 import net.shibboleth.idp.cas.ticket.ServiceTicket;
 import net.shibboleth.idp.cas.ticket.TicketState;
+import net.shibboleth.idp.persistence.CompactDataOutput;
+import net.shibboleth.idp.security.CompactDataSealer;
 import net.shibboleth.utilities.java.support.security.BasicKeystoreKeyStrategy;
 import net.shibboleth.utilities.java.support.security.DataSealer;
 import net.shibboleth.utilities.java.support.security.IdentifierGenerationStrategy;
@@ -47,6 +49,10 @@ public class EncodingTicketServiceTest {
 
     private EncodingTicketService ticketService;
 
+    private EncodingTicketService compactTicketService;
+
+    private BasicKeystoreKeyStrategy keyStrategy;
+
     private IdentifierGenerationStrategy sessionIdGenerator = new RandomIdentifierGenerationStrategy(32);
 
     private IdentifierGenerationStrategy pgtIdGenerator = new TicketIdentifierGenerationStrategy("PGT", 32);
@@ -64,21 +70,24 @@ public class EncodingTicketServiceTest {
 
     @BeforeTest
     public void setUp() throws Exception {
-        final BasicKeystoreKeyStrategy strategy = new BasicKeystoreKeyStrategy();
-        strategy.setKeystoreResource(ResourceHelper.of(new ClassPathResource("credentials/sealer.jks")));
-        strategy.setKeyVersionResource(ResourceHelper.of(new ClassPathResource("credentials/sealer.kver")));
-        strategy.setKeystorePassword("password");
-        strategy.setKeyAlias("secret");
-        strategy.setKeyPassword("password");
-        strategy.initialize();
+        keyStrategy = new BasicKeystoreKeyStrategy();
+        keyStrategy.setKeystoreResource(ResourceHelper.of(new ClassPathResource("credentials/sealer.jks")));
+        keyStrategy.setKeyVersionResource(ResourceHelper.of(new ClassPathResource("credentials/sealer.kver")));
+        keyStrategy.setKeystorePassword("password");
+        keyStrategy.setKeyAlias("secret");
+        keyStrategy.setKeyPassword("password");
+        keyStrategy.initialize();
         final Base32 codec = new Base32(0, null, false, (byte) '-');
         final DataSealer sealer = new DataSealer();
-        sealer.setKeyStrategy(strategy);
+        sealer.setKeyStrategy(keyStrategy);
         sealer.setRandom(secureRandom);
         sealer.setEncoder(codec);
         sealer.setDecoder(codec);
         sealer.initialize();
         ticketService = new EncodingTicketService(new MemoryStorageService(), sealer);
+        compactTicketService = new EncodingTicketService(new MemoryStorageService(), sealer);
+        compactTicketService.setKeyStrategy(keyStrategy);
+        compactTicketService.setCompact(true);
     }
 
     @Test
@@ -163,6 +172,74 @@ public class EncodingTicketServiceTest {
         assertNull(ticketService.removeProxyTicket("PT-123"));
     }
 
+    @Test
+    public void testCompactServiceTicket() throws Exception {
+        final TicketState state = newState("fitzgerald");
+        final String service = "https://www.example.com/s3/";
+        final Instant expiry = new Instant().plus(5000);
+        final String id = String.valueOf(System.currentTimeMillis());
+        final ServiceTicket st1 = compactTicketService.createServiceTicket(id, expiry, service, state, true);
+        assertTrue(st1.getId().matches("ST-0[A-Z2-7]+-*"));
+        assertTrue(st1.getId().length() < ticketService.createServiceTicket(id, expiry, service, state, true)
+                .getId().length());
+        final ServiceTicket st2 = compactTicketService.removeServiceTicket(st1.getId());
+        assertNotNull(st2);
+        assertEquals(st1.getId(), st2.getId());
+        assertEquals(expiry, st2.getExpirationInstant());
+        assertEquals(service, st2.getService());
+        assertTrue(st2.isRenew());
+        assertEquals(state, st2.getTicketState());
+        // Not accepted without the key strategy, nor as a proxy ticket
+        assertNull(ticketService.removeServiceTicket(st1.getId()));
+        assertNull(compactTicketService.removeProxyTicket("PT" + st1.getId().substring(2)));
+    }
+
+    @Test
+    public void testCompactProxyTicket() throws Exception {
+        final ProxyGrantingTicket pgt = newPGT(newState("gwendolyn"), "https://www.example.com/s1/");
+        final String service = "https://www.example.com/s2/";
+        final Instant expiry = new Instant().plus(5000);
+        final String id = String.valueOf(System.currentTimeMillis());
+        final ProxyTicket pt1 = compactTicketService.createProxyTicket(id, expiry, pgt, service);
+        assertTrue(pt1.getId().startsWith("PT-0"));
+        final ProxyTicket pt2 = compactTicketService.removeProxyTicket(pt1.getId());
+        assertNotNull(pt2);
+        assertEquals(pt1.getId(), pt2.getId());
+        assertEquals(expiry, pt2.getExpirationInstant());
+        assertEquals(service, pt2.getService());
+        assertEquals(pgt.getId(), pt2.getPgtId());
+        assertEquals(pgt.getTicketState(), pt2.getTicketState());
+    }
+
+    @Test
+    public void testCompactExpired() throws Exception {
+        final ServiceTicket st = compactTicketService.createServiceTicket(
+                String.valueOf(System.currentTimeMillis()), new Instant().minus(1000), "https://www.example.com/s4/",
+                newState("hildegard"), false);
+        assertNull(compactTicketService.removeServiceTicket(st.getId()));
+    }
+
+    @Test
+    public void testCompactOtherPurpose() throws Exception {
+        final byte[] payload = new CompactDataOutput()
+                .writeByte(1)
+                .writeVarLong(new Instant().plus(5000).getMillis())
+                .writeByte(0)
+                .writeString("https://www.example.com/s6/")
+                .toByteArray();
+        final String id = "ST-" + CompactTicketCodec.MARKER + new Base32(0, null, false, (byte) '-').encodeToString(
+                new CompactDataSealer(keyStrategy, "TransientId").seal(payload));
+        assertNull(compactTicketService.removeServiceTicket(id));
+    }
+
+    @Test
+    public void testSealedTicketAcceptedWhenCompact() throws Exception {
+        final ServiceTicket st = ticketService.createServiceTicket(
+                String.valueOf(System.currentTimeMillis()), new Instant().plus(5000), "https://www.example.com/s5/",
+                newState("ignatius"), false);
+        assertNotNull(compactTicketService.removeServiceTicket(st.getId()));
+    }
+
     private TicketState newState(final String principal) {
         return new TicketState(sessionIdGenerator.generateIdentifier(), principal, new Instant(), "authn/Password");
     }
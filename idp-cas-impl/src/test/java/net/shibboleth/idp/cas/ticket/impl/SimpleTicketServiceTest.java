@@ -17,16 +17,28 @@
 
 package net.shibboleth.idp.cas.ticket.impl;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import net.shibboleth.idp.cas.ticket.ProxyGrantingTicket;
 import net.shibboleth.idp.cas.ticket.ProxyTicket;
 import net.shibboleth.idp.cas.ticket.ServiceTicket;
 import net.shibboleth.idp.cas.ticket.TicketState;
 import org.joda.time.DateTime;
 import org.joda.time.Instant;
+import org.opensaml.storage.StorageRecord;
 import org.opensaml.storage.impl.MemoryStorageService;
 import org.testng.annotations.BeforeTest;
 import org.testng.annotations.Test;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.*;
 import static org.testng.Assert.*;
 
 /**
@@ -40,14 +52,16 @@ public class SimpleTicketServiceTest {
 
     private static final String TEST_SERVICE = "https://example.com/widget";
 
+    private MemoryStorageService storageService;
+
     private SimpleTicketService ticketService;
 
     @BeforeTest
     public void setUp() throws Exception {
-        final MemoryStorageService ss = new MemoryStorageService();
-        ss.setId("shibboleth.StorageService");
-        ss.initialize();
-        ticketService = new SimpleTicketService(ss);
+        storageService = new MemoryStorageService();
+        storageService.setId("shibboleth.StorageService");
+        storageService.initialize();
+        ticketService = new SimpleTicketService(storageService);
     }
 
 
@@ -98,6 +112,101 @@ public class SimpleTicketServiceTest {
         assertNull(ticketService.removeProxyTicket(pt.getId()));
     }
 
+    @Test
+    public void testConsumeServiceTicketConcurrently() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int i = 0; i < 20; i++) {
+                final ServiceTicket st = createServiceTicket();
+                final CountDownLatch start = new CountDownLatch(1);
+                final List<Future<ServiceTicket>> results = new ArrayList<>();
+                for (int j = 0; j < 8; j++) {
+                    results.add(executor.submit(() -> {
+                        start.await();
+                        return ticketService.consumeServiceTicket(st.getId());
+                    }));
+                }
+                start.countDown();
+                int consumed = 0;
+                for (final Future<ServiceTicket> result : results) {
+                    if (result.get(5, TimeUnit.SECONDS) != null) {
+                        consumed++;
+                    }
+                }
+                assertEquals(consumed, 1);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testServiceTicketSingleRecord() throws Exception {
+        final ServiceTicket st = createServiceTicket();
+        assertEquals(AbstractTicketService.boundSessionId(st.getId()), TEST_SESSION_ID);
+        final StorageRecord<?> record = storageService.read(TEST_SESSION_ID, st.getId());
+        assertNotNull(record);
+        assertTrue(record.getValue().startsWith("{"));
+        assertNull(storageService.read(AbstractTicketService.context(ServiceTicket.class), st.getId()));
+        assertEquals(ticketService.removeServiceTicket(st.getId()), st);
+    }
+
+    @Test
+    public void testConsumeServiceTicketStorageCalls() throws Exception {
+        final ServiceTicket st = createServiceTicket();
+        final MemoryStorageService spied = spy(storageService);
+        assertEquals(new SimpleTicketService(spied).consumeServiceTicket(st.getId()), st);
+        verify(spied, times(1)).read(any(String.class), any(String.class));
+        verify(spied, times(1)).deleteWithVersion(anyLong(), any(String.class), any(String.class));
+        verify(spied, never()).delete(any(String.class), any(String.class));
+    }
+
+    @Test
+    public void testServiceTicketRevokedWithSession() throws Exception {
+        final String sessionId = "ATPEN+X5Zk1cwjHXRo42W0==";
+        final ServiceTicket st = ticketService.createServiceTicket(
+                new TicketIdentifierGenerationStrategy("ST", 25).generateIdentifier(),
+                expiry(),
+                TEST_SERVICE,
+                new TicketState(sessionId, "bob", Instant.now(), "Password"),
+                false);
+        storageService.deleteContext(sessionId);
+        assertNull(ticketService.consumeServiceTicket(st.getId()));
+        assertNull(storageService.read(AbstractTicketService.context(ServiceTicket.class), st.getId()));
+    }
+
+    @Test
+    public void testLegacyServiceTicket() throws Exception {
+        final ServiceTicket st = new ServiceTicket(
+                new TicketIdentifierGenerationStrategy("ST", 25).generateIdentifier(),
+                TEST_SERVICE,
+                expiry(),
+                false);
+        st.setTicketState(new TicketState(TEST_SESSION_ID, "bob", Instant.now(), "Password"));
+        final long expiry = st.getExpirationInstant().getMillis();
+        storageService.create(AbstractTicketService.context(ServiceTicket.class), st.getId(), TEST_SESSION_ID, expiry);
+        storageService.create(TEST_SESSION_ID, st.getId(), st,
+                AbstractTicketService.serializer(ServiceTicket.class), expiry);
+        assertEquals(ticketService.removeServiceTicket(st.getId()), st);
+        assertNull(ticketService.removeServiceTicket(st.getId()));
+    }
+
+    @Test
+    public void testProxyGrantingTicketRemovedWithSession() throws Exception {
+        final String sessionId = "W5Zk1cwjHXRo42W0ATPEN+X==";
+        final ServiceTicket st = ticketService.createServiceTicket(
+                new TicketIdentifierGenerationStrategy("ST", 25).generateIdentifier(),
+                expiry(),
+                TEST_SERVICE,
+                new TicketState(sessionId, "bob", Instant.now(), "Password"),
+                false);
+        final ProxyGrantingTicket pgt = ticketService.createProxyGrantingTicket(
+                new TicketIdentifierGenerationStrategy("PGT", 50).generateIdentifier(), expiry(), st);
+        assertNotNull(ticketService.fetchProxyGrantingTicket(pgt.getId()));
+        storageService.deleteContext(sessionId);
+        assertNull(ticketService.fetchProxyGrantingTicket(pgt.getId()));
+    }
+
     private ServiceTicket createServiceTicket() {
         return ticketService.createServiceTicket(
                 new TicketIdentifierGenerationStrategy("ST", 25).generateIdentifier(),
@@ -20,10 +20,11 @@ package net.shibboleth.idp.consent.flow.storage.impl;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -53,6 +54,8 @@ import com.google.common.base.Function;
  * To facilitate lookup of all storage keys for a storage context, an index record is maintained containing the storage
  * keys for the context. Because storage records may expire, the index record may contain keys which no longer exist in
  * the storage service.
+ * 
+ * The index record is read at most once per operation, and only rewritten when the keys it contains change.
  */
 public class AbstractConsentIndexedStorageAction extends AbstractConsentStorageAction {
 
@@ -171,20 +174,72 @@ public class AbstractConsentIndexedStorageAction extends AbstractConsentStorageA
      * @throws IOException if errors occur in the read process
      */
     @Nonnull @NonnullElements protected List<String> getStorageKeysFromIndex() throws IOException {
+        return getStorageKeys(readStorageIndex());
+    }
+
+    /**
+     * Read the storage index record.
+     * 
+     * @return the storage index record, or null if there is none
+     * @throws IOException if errors occur in the read process
+     */
+    @Nullable protected StorageRecord readStorageIndex() throws IOException {
 
         final StorageRecord storageRecord = getStorageService().read(getStorageContext(), getStorageIndexKey());
 
         log.debug("{} Read storage record '{}' with context '{}' and key '{}'", getLogPrefix(), storageRecord,
                 getStorageContext(), getStorageIndexKey());
 
+        return storageRecord;
+    }
+
+    /**
+     * Get the storage keys from a storage index record.
+     * 
+     * @param storageRecord the storage index record, or null
+     * @return a modifiable copy of the storage keys in the record
+     * @throws IOException if the record cannot be deserialized
+     */
+    @Nonnull @NonnullElements protected List<String> getStorageKeys(@Nullable final StorageRecord storageRecord)
+            throws IOException {
+
         if (storageRecord == null) {
-            return Collections.emptyList();
+            return new ArrayList<>();
         }
 
         return new ArrayList<>((Collection<String>) storageRecord.getValue(getStorageKeysSerializer(),
                 getStorageContext(), getStorageIndexKey()));
     }
 
+    /**
+     * Write the storage index record, if and only if the storage keys have changed.
+     * 
+     * @param storageRecord the storage index record as read, or null if there was none
+     * @param originalKeys the storage keys as read
+     * @param keys the storage keys to write
+     * @return true if the storage index record was written, false otherwise
+     * @throws IOException if an error occurs writing to the storage service
+     */
+    protected boolean writeStorageIndex(@Nullable final StorageRecord storageRecord,
+            @Nonnull @NonnullElements final List<String> originalKeys,
+            @Nonnull @NonnullElements final Collection<String> keys) throws IOException {
+
+        if (originalKeys.equals(new ArrayList<>(keys))) {
+            log.debug("{} Storage index unchanged, nothing to do", getLogPrefix());
+            return false;
+        }
+
+        if (storageRecord == null) {
+            log.debug("{} Creating storage index with keys '{}'", getLogPrefix(), keys);
+            return getStorageService().create(getStorageContext(), getStorageIndexKey(), keys, storageKeysSerializer,
+                    null);
+        }
+
+        log.debug("{} Updating storage index with keys '{}'", getLogPrefix(), keys);
+        return getStorageService().update(getStorageContext(), getStorageIndexKey(), keys, storageKeysSerializer,
+                null);
+    }
+
     /**
      * Add a storage key to the index storage record.
      * 
@@ -194,25 +249,16 @@ public class AbstractConsentIndexedStorageAction extends AbstractConsentStorageA
      */
     protected boolean addKeyToStorageIndex(@Nonnull final String keyToAdd) throws IOException {
 
-        final StorageRecord storageRecord = getStorageService().read(getStorageContext(), getStorageIndexKey());
-        log.debug("{} Read storage record '{}' with context '{}' and key '{}'", getLogPrefix(), storageRecord,
-                getStorageContext(), getStorageIndexKey());
-
-        if (storageRecord == null) {
-            log.debug("{} Creating storage index with key '{}'", getLogPrefix(), keyToAdd);
-            return getStorageService().create(getStorageContext(), getStorageIndexKey(),
-                    Collections.singletonList(keyToAdd), storageKeysSerializer, null);
-        } else {
-            final LinkedHashSet<String> keys = new LinkedHashSet<>(getStorageKeysFromIndex());
-            if (keys.add(keyToAdd)) {
-                log.debug("{} Updating storage index by adding key '{}'", getLogPrefix(), keyToAdd);
-                return getStorageService().update(getStorageContext(), getStorageIndexKey(), keys,
-                        storageKeysSerializer, null);
-            } else {
-                log.debug("{} Storage key '{}' already indexed, nothing to do", getLogPrefix(), keyToAdd);
-                return false;
-            }
+        final StorageRecord storageRecord = readStorageIndex();
+        final List<String> keys = getStorageKeys(storageRecord);
+        final LinkedHashSet<String> updatedKeys = new LinkedHashSet<>(keys);
+        if (!updatedKeys.add(keyToAdd)) {
+            log.debug("{} Storage key '{}' already indexed, nothing to do", getLogPrefix(), keyToAdd);
+            return false;
         }
+
+        log.debug("{} Updating storage index by adding key '{}'", getLogPrefix(), keyToAdd);
+        return writeStorageIndex(storageRecord, keys, updatedKeys);
     }
 
     /**
@@ -224,25 +270,42 @@ public class AbstractConsentIndexedStorageAction extends AbstractConsentStorageA
      */
     protected boolean removeKeyFromStorageIndex(@Nonnull final String keyToRemove) throws IOException {
 
-        final StorageRecord storageRecord = getStorageService().read(getStorageContext(), getStorageIndexKey());
-        log.debug("{} Read storage record '{}' with context '{}' and key '{}'", getLogPrefix(), storageRecord,
-                getStorageContext(), getStorageIndexKey());
-
+        final StorageRecord storageRecord = readStorageIndex();
         if (storageRecord == null) {
             log.debug("{} No storage record exists with context '{}' and key '{}', nothing to do", getLogPrefix(),
                     getStorageContext(), getStorageIndexKey());
             return false;
-        } else {
-            final LinkedHashSet<String> keys = new LinkedHashSet<>(getStorageKeysFromIndex());
-            if (keys.remove(keyToRemove)) {
-                log.debug("{} Updating storage index by removing key '{}'", getLogPrefix(), keyToRemove);
-                return getStorageService().update(getStorageContext(), storageIndexKey, keys, storageKeysSerializer,
-                        null);
-            } else {
-                log.debug("{} Storage key '{}' not indexed, nothing to do", getLogPrefix(), keyToRemove);
-                return false;
-            }
         }
+
+        final List<String> keys = getStorageKeys(storageRecord);
+        final LinkedHashSet<String> updatedKeys = new LinkedHashSet<>(keys);
+        if (!updatedKeys.remove(keyToRemove)) {
+            log.debug("{} Storage key '{}' not indexed, nothing to do", getLogPrefix(), keyToRemove);
+            return false;
+        }
+
+        log.debug("{} Updating storage index by removing key '{}'", getLogPrefix(), keyToRemove);
+        return writeStorageIndex(storageRecord, keys, updatedKeys);
+    }
+
+    /**
+     * Prune storage records, reading the storage index and writing it back if any keys are removed.
+     * 
+     * @param profileRequestContext the profile request context
+     * 
+     * @throws IOException if an error occurs writing to the storage service
+     * 
+     * @see #pruneStorageRecords(ProfileRequestContext, List)
+     */
+    protected void pruneStorageRecords(@Nonnull final ProfileRequestContext profileRequestContext) throws IOException {
+
+        final StorageRecord indexRecord = readStorageIndex();
+        final List<String> originalKeys = getStorageKeys(indexRecord);
+        final List<String> keys = new ArrayList<>(originalKeys);
+
+        pruneStorageRecords(profileRequestContext, keys);
+
+        writeStorageIndex(indexRecord, originalKeys, keys);
     }
 
 //CheckStyle: ReturnCount OFF
@@ -255,11 +318,16 @@ public class AbstractConsentIndexedStorageAction extends AbstractConsentStorageA
      * {@link #setStorageKeysStrategy(Function)}. By default, records are deleted on a first-in-first-out basis,
      * meaning the oldest storage records are deleted first.</p>
      * 
+     * <p>The keys of the deleted records are removed from the supplied keys, which the caller is responsible for
+     * writing back to the storage index.</p>
+     * 
      * @param profileRequestContext the profile request context
+     * @param keys the storage keys from the storage index
      * 
      * @throws IOException if an error occurs writing to the storage service
      */
-    protected void pruneStorageRecords(@Nonnull final ProfileRequestContext profileRequestContext) throws IOException {
+    protected void pruneStorageRecords(@Nonnull final ProfileRequestContext profileRequestContext,
+            @Nonnull @NonnullElements final List<String> keys) throws IOException {
 
         final ConsentFlowDescriptor flowDescriptor = getConsentFlowDescriptor();
         int maxStoredRecords = flowDescriptor.getMaximumNumberOfStoredRecords();
@@ -273,42 +341,39 @@ public class AbstractConsentIndexedStorageAction extends AbstractConsentStorageA
             return;
         }
 
-        List<String> keys = getStorageKeysFromIndex();
-
         if (keys.size() < maxStoredRecords) {
             log.debug("{} Will not prune storage records, number of keys '{}' is less than max number of records '{}'",
                     getLogPrefix(), keys.size(), maxStoredRecords);
             return;
         }
 
+        List<String> orderedKeys = keys;
         if (storageKeysStrategy != null) {
-            final List<String> sortedKeys = storageKeysStrategy.apply(new Pair(profileRequestContext, keys));
+            final List<String> sortedKeys =
+                    storageKeysStrategy.apply(new Pair(profileRequestContext, new ArrayList<>(keys)));
             if (sortedKeys != null) {
-                keys = sortedKeys;
+                orderedKeys = sortedKeys;
             }
         }
 
-        int numberOfKeys = keys.size();
+        final Set<String> deletedKeys = new HashSet<>();
+        final Iterator<String> keysIterator = orderedKeys.iterator();
 
-        final Iterator<String> keysIterator = keys.iterator();
-
-        while (keysIterator.hasNext() && numberOfKeys >= maxStoredRecords) {
+        while (keysIterator.hasNext() && keys.size() - deletedKeys.size() >= maxStoredRecords) {
 
             final String keyToDelete = keysIterator.next();
             log.debug("{} Pruning storage record with key '{}'. There are '{}' records of max '{}' ", getLogPrefix(),
-                    keyToDelete, numberOfKeys, maxStoredRecords);
+                    keyToDelete, keys.size() - deletedKeys.size(), maxStoredRecords);
 
             log.debug("{} Deleting storage record with context '{}' and key '{}'", getLogPrefix(), getStorageContext(),
                     keyToDelete);
-            final boolean success = getStorageService().delete(getStorageContext(), keyToDelete);
-
-            if (success) {
-                numberOfKeys--;
+            if (!getStorageService().delete(getStorageContext(), keyToDelete)) {
+                log.debug("{} Storage record with key '{}' no longer exists", getLogPrefix(), keyToDelete);
             }
-
-            log.debug("{} Removing key '{}' from storage index", getLogPrefix(), keyToDelete);
-            removeKeyFromStorageIndex(keyToDelete);
+            deletedKeys.add(keyToDelete);
         }
+
+        keys.removeAll(deletedKeys);
     }
   //CheckStyle: ReturnCount ON
 
@@ -356,10 +421,18 @@ public class AbstractConsentIndexedStorageAction extends AbstractConsentStorageA
     protected void storeResultWithIndex(@Nonnull final ProfileRequestContext profileRequestContext,
             @Nonnull final ProfileInterceptorResult result) throws IOException {
 
-        pruneStorageRecords(profileRequestContext);
+        final StorageRecord indexRecord = readStorageIndex();
+        final List<String> originalKeys = getStorageKeys(indexRecord);
+        final List<String> keys = new ArrayList<>(originalKeys);
+
+        // Replacing an existing record doesn't add to the number stored.
+        if (!keys.contains(result.getStorageKey())) {
+            pruneStorageRecords(profileRequestContext, keys);
+            keys.add(result.getStorageKey());
+        }
 
         storeResult(result);
 
-        addKeyToStorageIndex(result.getStorageKey());
+        writeStorageIndex(indexRecord, originalKeys, keys);
     }
 }
@@ -0,0 +1,194 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.consent.logic.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.idp.attribute.IdPAttributeValue;
+import net.shibboleth.idp.attribute.ScopedStringAttributeValue;
+import net.shibboleth.idp.attribute.XMLObjectAttributeValue;
+import net.shibboleth.utilities.java.support.annotation.constraint.NullableElements;
+import net.shibboleth.utilities.java.support.collection.Pair;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.xml.SerializeSupport;
+
+import org.cryptacular.util.CodecUtil;
+import org.cryptacular.util.HashUtil;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.saml2.core.NameIDType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Function;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.primitives.UnsignedBytes;
+
+/**
+ * Function to calculate the hash of the values of an IdP attribute from cached per-value digests.
+ * 
+ * <p>Each value is reduced to a SHA-256 digest which is cached by value class and value, so an attribute whose values have been
+ * seen before costs a cache lookup per value. The digests are sorted and hashed together, which makes the result
+ * independent of value order but sensitive to duplicates.</p>
+ * 
+ * <p>Returns <code>null</code> for a <code>null</code> input or empty collection of IdP attribute values.
+ * <code>Null</code> IdP attribute values are ignored.</p>
+ * 
+ * <p>The hash returned is the Base64 encoded representation of a SHA-256 digest, but is not comparable with the
+ * output of {@link AttributeValuesHashFunction}, so switching between the two causes stored consent to be
+ * treated as changed.</p>
+ */
+public class CachingAttributeValuesHashFunction implements Function<Collection<IdPAttributeValue<?>>, String> {
+
+    /** Default maximum number of cached value digests. */
+    public static final long DEFAULT_MAXIMUM_SIZE = 10000;
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(CachingAttributeValuesHashFunction.class);
+
+    /**
+     * Cache of value digests, keyed by value class as well as value since value equality is not symmetric across
+     * value types.
+     */
+    @Nonnull private final Cache<Pair<Class<?>,IdPAttributeValue<?>>, byte[]> digestCache;
+
+    /** Constructor. */
+    public CachingAttributeValuesHashFunction() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param maximumSize maximum number of cached value digests, 0 disables caching
+     */
+    public CachingAttributeValuesHashFunction(final long maximumSize) {
+        digestCache = CacheBuilder.newBuilder()
+                .maximumSize(Constraint.isGreaterThanOrEqual(0, maximumSize, "Maximum size cannot be negative"))
+                .build();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable public String apply(@Nullable @NullableElements final Collection<IdPAttributeValue<?>> input) {
+
+        if (input == null || input.isEmpty()) {
+            return null;
+        }
+
+        final byte[][] digests = new byte[input.size()][];
+        int count = 0;
+        for (final IdPAttributeValue<?> value : input) {
+            if (value == null || value.getValue() == null) {
+                continue;
+            }
+            final byte[] digest = digest(value);
+            if (digest == null) {
+                return null;
+            }
+            digests[count++] = digest;
+        }
+
+        if (count == 0) {
+            return null;
+        }
+
+        Arrays.sort(digests, 0, count, UnsignedBytes.lexicographicalComparator());
+        return CodecUtil.b64(HashUtil.sha256((Object[]) Arrays.copyOf(digests, count)));
+    }
+
+    /**
+     * Get the digest of a value, from the cache if possible.
+     * 
+     * <p>{@link XMLObjectAttributeValue} digests are not cached, since the wrapped object is mutable.</p>
+     * 
+     * @param value the value
+     * 
+     * @return the digest, or null if the value cannot be serialized
+     */
+    @Nullable private byte[] digest(@Nonnull final IdPAttributeValue<?> value) {
+        if (value instanceof XMLObjectAttributeValue) {
+            return computeDigest(value);
+        }
+
+        final Pair<Class<?>,IdPAttributeValue<?>> key = new Pair<>(value.getClass(), value);
+        byte[] digest = digestCache.getIfPresent(key);
+        if (digest == null) {
+            digest = computeDigest(value);
+            if (digest != null) {
+                digestCache.put(key, digest);
+            }
+        }
+        return digest;
+    }
+
+    /**
+     * Compute the digest of a value, using the same representation of each value type as
+     * {@link AttributeValuesHashFunction}.
+     * 
+     * @param value the value
+     * 
+     * @return the digest, or null if the value cannot be serialized
+     */
+    @Nullable private byte[] computeDigest(@Nonnull final IdPAttributeValue<?> value) {
+        final Object object;
+        if (value instanceof ScopedStringAttributeValue) {
+            object = ((ScopedStringAttributeValue) value).getValue() + '@'
+                    + ((ScopedStringAttributeValue) value).getScope();
+        } else if (value instanceof XMLObjectAttributeValue) {
+            if (value.getValue() instanceof NameIDType) {
+                object = ((NameIDType) value.getValue()).getValue();
+            } else {
+                try {
+                    object = SerializeSupport.nodeToString(
+                            XMLObjectSupport.marshall(((XMLObjectAttributeValue) value).getValue()));
+                } catch (final MarshallingException e) {
+                    log.error("Error while marshalling XMLObject value", e);
+                    return null;
+                }
+            }
+        } else {
+            object = value.getValue();
+        }
+
+        if (object instanceof String) {
+            return HashUtil.sha256(((String) object).getBytes(StandardCharsets.UTF_8));
+        }
+
+        try {
+            final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            try (final ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream)) {
+                objectOutputStream.writeObject(object);
+            }
+            return HashUtil.sha256(byteArrayOutputStream.toByteArray());
+        } catch (final IOException e) {
+            log.error("Error while converting attribute value into a byte array", e);
+            return null;
+        }
+    }
+
+}
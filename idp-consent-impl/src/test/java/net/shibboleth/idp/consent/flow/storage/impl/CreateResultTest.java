@@ -17,6 +17,7 @@
 
 package net.shibboleth.idp.consent.flow.storage.impl;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -208,4 +209,69 @@ public class CreateResultTest extends AbstractConsentIndexedStorageActionTest {
         }
         Assert.assertEquals(readStorageKeysFromIndex(), keys);
     }
+
+    @Test public void testUpdateExistingKeyDoesNotPrune() throws Exception {
+        descriptor.setExpandedNumberOfStoredRecords(2);
+        descriptor.setMaximumNumberOfStoredRecords(2);
+
+        final ConsentContext consentCtx = prc.getSubcontext(ConsentContext.class);
+        consentCtx.getCurrentConsents().putAll(ConsentTestingSupport.newConsentMap());
+
+        ActionTestingSupport.assertProceedEvent(buildAction("key1").execute(src));
+        ActionTestingSupport.assertProceedEvent(buildAction("key2").execute(src));
+        final long indexVersion = getMemoryStorageService().read("context", "_index").getVersion();
+
+        ActionTestingSupport.assertProceedEvent(buildAction("key2").execute(src));
+
+        Assert.assertEquals(readStorageKeysFromIndex(), Arrays.asList("key1", "key2"));
+        Assert.assertNotNull(getMemoryStorageService().read("context", "key1"));
+        Assert.assertEquals(getMemoryStorageService().read("context", "_index").getVersion(), indexVersion);
+    }
+
+    @Test public void testPruneStaleKeys() throws Exception {
+        descriptor.setExpandedNumberOfStoredRecords(2);
+        descriptor.setMaximumNumberOfStoredRecords(2);
+
+        final ConsentContext consentCtx = prc.getSubcontext(ConsentContext.class);
+        consentCtx.getCurrentConsents().putAll(ConsentTestingSupport.newConsentMap());
+
+        ActionTestingSupport.assertProceedEvent(buildAction("key1").execute(src));
+        getMemoryStorageService().update("context", "_index", Arrays.asList("stale", "key1"),
+                ((AbstractConsentIndexedStorageAction) action).getStorageKeysSerializer(), null);
+
+        ActionTestingSupport.assertProceedEvent(buildAction("key2").execute(src));
+
+        Assert.assertEquals(readStorageKeysFromIndex(), Arrays.asList("key1", "key2"));
+        Assert.assertNotNull(getMemoryStorageService().read("context", "key1"));
+    }
+
+    @Test public void testPruneStorageRecordsUpdatesIndex() throws Exception {
+        descriptor.setExpandedNumberOfStoredRecords(2);
+        descriptor.setMaximumNumberOfStoredRecords(2);
+
+        final ConsentContext consentCtx = prc.getSubcontext(ConsentContext.class);
+        consentCtx.getCurrentConsents().putAll(ConsentTestingSupport.newConsentMap());
+
+        ActionTestingSupport.assertProceedEvent(buildAction("key1").execute(src));
+        ActionTestingSupport.assertProceedEvent(buildAction("key2").execute(src));
+
+        final AbstractConsentIndexedStorageAction pruner = new AbstractConsentIndexedStorageAction() {
+            @Override protected void doExecute(@Nonnull final ProfileRequestContext profileRequestContext,
+                    @Nonnull final ProfileInterceptorContext interceptorContext) {
+                try {
+                    pruneStorageRecords(profileRequestContext);
+                } catch (final IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        pruner.setStorageContextLookupStrategy(FunctionSupport.<ProfileRequestContext, String> constant("context"));
+        pruner.setStorageKeyLookupStrategy(FunctionSupport.<ProfileRequestContext, String> constant("key"));
+        pruner.setStorageIndexKeyLookupStrategy(FunctionSupport.<ProfileRequestContext, String> constant("_index"));
+        pruner.initialize();
+        ActionTestingSupport.assertProceedEvent(pruner.execute(src));
+
+        Assert.assertNull(getMemoryStorageService().read("context", "key1"));
+        Assert.assertEquals(readStorageKeysFromIndex(), Arrays.asList("key2"));
+    }
 }
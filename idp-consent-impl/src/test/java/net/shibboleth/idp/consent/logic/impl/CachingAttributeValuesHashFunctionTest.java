@@ -0,0 +1,112 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.consent.logic.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.shibboleth.idp.attribute.IdPAttributeValue;
+import net.shibboleth.idp.attribute.ScopedStringAttributeValue;
+import net.shibboleth.idp.attribute.StringAttributeValue;
+import net.shibboleth.idp.consent.impl.ConsentTestingSupport;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** {@link CachingAttributeValuesHashFunction} unit test. */
+public class CachingAttributeValuesHashFunctionTest {
+
+    private CachingAttributeValuesHashFunction function;
+
+    @BeforeMethod public void setUp() {
+        function = new CachingAttributeValuesHashFunction();
+    }
+
+    @Test public void testNullInput() {
+        Assert.assertNull(function.apply(null));
+    }
+
+    @Test public void testEmptyInput() {
+        Assert.assertNull(function.apply(Collections.EMPTY_LIST));
+    }
+
+    @Test public void testNullValue() {
+        final List<IdPAttributeValue<?>> values = new ArrayList<>();
+        values.add(null);
+        Assert.assertNull(function.apply(values));
+    }
+
+    @Test public void testSingleValue() {
+        final String hash = function.apply(ConsentTestingSupport.newAttributeMap().get("attribute1").getValues());
+        Assert.assertEquals(hash, "kU1P8bDaEnyNhglWzdTJNHh77khNWSZebBUxufVM2pU=");
+    }
+
+    @Test public void testMultipleValues() {
+        final String hash = function.apply(ConsentTestingSupport.newAttributeMap().get("attribute2").getValues());
+        Assert.assertEquals(hash, "mfSSllISqdx9mQxnFpLVzBaxSEyYvdC4yPstY+LN1CE=");
+
+        // Second call is served from the digest cache.
+        Assert.assertEquals(function.apply(ConsentTestingSupport.newAttributeMap().get("attribute2").getValues()),
+                hash);
+    }
+
+    @Test public void testOrderIndependent() {
+        final IdPAttributeValue<?> value1 = new StringAttributeValue("value1");
+        final IdPAttributeValue<?> value2 = new StringAttributeValue("value2");
+        Assert.assertEquals(function.apply(Arrays.<IdPAttributeValue<?>>asList(value1, value2)),
+                function.apply(Arrays.<IdPAttributeValue<?>>asList(value2, value1)));
+    }
+
+    @Test public void testChangedValues() {
+        final IdPAttributeValue<?> value1 = new StringAttributeValue("value1");
+        final IdPAttributeValue<?> value2 = new StringAttributeValue("value2");
+        final String hash = function.apply(Arrays.<IdPAttributeValue<?>>asList(value1, value2));
+        Assert.assertNotEquals(function.apply(Arrays.<IdPAttributeValue<?>>asList(value1)), hash);
+        Assert.assertNotEquals(function.apply(Arrays.<IdPAttributeValue<?>>asList(value1, value2, value1)), hash);
+        Assert.assertNotEquals(function.apply(Arrays.<IdPAttributeValue<?>>asList(value1,
+                new StringAttributeValue("value3"))), hash);
+        Assert.assertNotEquals(function.apply(Arrays.<IdPAttributeValue<?>>asList(value1,
+                new ScopedStringAttributeValue("value2", "example.org"))), hash);
+    }
+
+    @Test public void testMixedValueTypes() {
+        final IdPAttributeValue<?> plain = new StringAttributeValue("value1");
+        final IdPAttributeValue<?> scoped = new ScopedStringAttributeValue("value1", "example.org");
+        final CachingAttributeValuesHashFunction uncached = new CachingAttributeValuesHashFunction(0);
+        final String plainHash = uncached.apply(Arrays.<IdPAttributeValue<?>>asList(plain));
+        final String scopedHash = uncached.apply(Arrays.<IdPAttributeValue<?>>asList(scoped));
+        Assert.assertNotEquals(plainHash, scopedHash);
+
+        // Each value type must get its own digest whichever is cached first.
+        Assert.assertEquals(function.apply(Arrays.<IdPAttributeValue<?>>asList(plain)), plainHash);
+        Assert.assertEquals(function.apply(Arrays.<IdPAttributeValue<?>>asList(scoped)), scopedHash);
+
+        final CachingAttributeValuesHashFunction reversed = new CachingAttributeValuesHashFunction();
+        Assert.assertEquals(reversed.apply(Arrays.<IdPAttributeValue<?>>asList(scoped)), scopedHash);
+        Assert.assertEquals(reversed.apply(Arrays.<IdPAttributeValue<?>>asList(plain)), plainHash);
+    }
+
+    @Test public void testUncached() {
+        final List<IdPAttributeValue<?>> values = ConsentTestingSupport.newAttributeMap().get("attribute2").getValues();
+        Assert.assertEquals(new CachingAttributeValuesHashFunction(0).apply(values), function.apply(values));
+    }
+
+}
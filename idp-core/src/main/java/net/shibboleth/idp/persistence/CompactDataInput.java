@@ -0,0 +1,119 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.persistence;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Parses a record encoded by {@link CompactDataOutput}.
+ */
+public class CompactDataInput {
+
+    /** The encoded bytes. */
+    @Nonnull private final byte[] bytes;
+
+    /** Read position. */
+    private int pos;
+
+    /**
+     * Constructor.
+     * 
+     * @param encoded the encoded bytes
+     */
+    public CompactDataInput(@Nonnull final byte[] encoded) {
+        bytes = Constraint.isNotNull(encoded, "Encoded bytes cannot be null");
+    }
+
+    /**
+     * Get whether any bytes remain to be read.
+     * 
+     * @return true iff the end of the record has not been reached
+     */
+    public boolean hasRemaining() {
+        return pos < bytes.length;
+    }
+
+    /**
+     * Read a byte.
+     * 
+     * @return the byte
+     * @throws IOException if the record is truncated
+     */
+    public int readByte() throws IOException {
+        if (pos >= bytes.length) {
+            throw new IOException("Truncated compact record");
+        }
+        return bytes[pos++] & 0xFF;
+    }
+
+    /**
+     * Read a non-negative integer in a variable number of bytes.
+     * 
+     * @return the integer
+     * @throws IOException if the record is truncated or malformed
+     */
+    public long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed integer in compact record");
+    }
+
+    /**
+     * Read a length-prefixed string.
+     * 
+     * @return the string
+     * @throws IOException if the record is truncated or malformed
+     */
+    @Nonnull public String readString() throws IOException {
+        final long length = readVarLong();
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IOException("Malformed string length in compact record");
+        } else if (length > bytes.length - pos) {
+            throw new IOException("Truncated compact record");
+        }
+        final String value = new String(bytes, pos, (int) length, StandardCharsets.UTF_8);
+        pos += (int) length;
+        return value;
+    }
+
+    /**
+     * Read a length-prefixed string if a preceding flag bit is set.
+     * 
+     * @param flags the flags
+     * @param bit the bit to check
+     * 
+     * @return the string, or null
+     * @throws IOException if the record is truncated or malformed
+     */
+    @Nullable public String readStringIf(final int flags, final int bit) throws IOException {
+        return (flags & bit) != 0 ? readString() : null;
+    }
+
+}
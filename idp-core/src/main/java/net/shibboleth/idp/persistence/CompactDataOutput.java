@@ -0,0 +1,94 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.persistence;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Builds a compact binary encoding of a record as a sequence of bytes, variable-length integers and
+ * length-prefixed UTF-8 strings, to be read back by {@link CompactDataInput}.
+ * 
+ * <p>Integers are written seven bits at a time, least significant first, with the high bit of each byte set
+ * if more follow.</p>
+ */
+public class CompactDataOutput {
+
+    /** Buffer for the encoded bytes. */
+    @Nonnull private final ByteArrayOutputStream buffer;
+
+    /** Constructor. */
+    public CompactDataOutput() {
+        buffer = new ByteArrayOutputStream(128);
+    }
+
+    /**
+     * Write a byte.
+     * 
+     * @param b the byte
+     * 
+     * @return this object
+     */
+    @Nonnull public CompactDataOutput writeByte(final int b) {
+        buffer.write(b);
+        return this;
+    }
+
+    /**
+     * Write a non-negative integer in a variable number of bytes.
+     * 
+     * @param value the integer
+     * 
+     * @return this object
+     */
+    @Nonnull public CompactDataOutput writeVarLong(final long value) {
+        long v = value;
+        while ((v & ~0x7FL) != 0) {
+            buffer.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buffer.write((int) v);
+        return this;
+    }
+
+    /**
+     * Write a length-prefixed string.
+     * 
+     * @param value the string
+     * 
+     * @return this object
+     */
+    @Nonnull public CompactDataOutput writeString(@Nonnull final String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(bytes.length);
+        buffer.write(bytes, 0, bytes.length);
+        return this;
+    }
+
+    /**
+     * Get the encoded bytes.
+     * 
+     * @return the encoded bytes
+     */
+    @Nonnull public byte[] toByteArray() {
+        return buffer.toByteArray();
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.annotation.Nonnull;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.collection.Pair;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+import net.shibboleth.utilities.java.support.security.DataSealerException;
+import net.shibboleth.utilities.java.support.security.DataSealerKeyStrategy;
+
+/**
+ * Compact binary sealing of small values, using the keys of a {@link DataSealerKeyStrategy} directly rather than
+ * the general-purpose {@link net.shibboleth.utilities.java.support.security.DataSealer} text format.
+ * 
+ * <p>A sealed envelope is a format version byte, the length-prefixed key alias, a GCM nonce and the AES-GCM
+ * encryption of the value. The version and alias are authenticated as associated data, together with a purpose
+ * label that is not itself encoded. Components sharing keys must use distinct labels, so that an envelope sealed
+ * by one of them cannot be unsealed by another.</p>
+ * 
+ * <p>Ciphers are confined to the calling thread and re-initialized for each operation.</p>
+ */
+public final class CompactDataSealer {
+
+    /** Current format version. */
+    private static final byte FORMAT_VERSION = 1;
+
+    /** Length of GCM nonce. */
+    private static final int NONCE_LENGTH = 12;
+
+    /** Length of GCM tag in bits. */
+    private static final int TAG_LENGTH = 128;
+
+    /** Per-thread cipher instances. */
+    @Nonnull private static final ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException("AES/GCM cipher unavailable", e);
+        }
+    });
+
+    /** Source of keys. */
+    @Nonnull private final DataSealerKeyStrategy keyStrategy;
+
+    /** Purpose label authenticated with every envelope. */
+    @Nonnull private final byte[] purpose;
+
+    /** Source of nonces. */
+    @Nonnull private final SecureRandom random;
+
+    /**
+     * Constructor.
+     * 
+     * @param strategy source of keys
+     * @param label purpose label distinguishing this sealer's envelopes from those of others using the same keys
+     */
+    public CompactDataSealer(@Nonnull final DataSealerKeyStrategy strategy, @Nonnull @NotEmpty final String label) {
+        keyStrategy = Constraint.isNotNull(strategy, "DataSealerKeyStrategy cannot be null");
+        purpose = Constraint.isNotNull(StringSupport.trimOrNull(label), "Purpose label cannot be null or empty")
+                .getBytes(StandardCharsets.UTF_8);
+        random = new SecureRandom();
+    }
+
+    /**
+     * Encrypt a value under the default key.
+     * 
+     * @param value the value
+     * 
+     * @return the sealed envelope
+     * 
+     * @throws DataSealerException if the value cannot be sealed
+     */
+    @Nonnull public byte[] seal(@Nonnull final byte[] value) throws DataSealerException {
+        try {
+            final Pair<String,SecretKey> key = keyStrategy.getDefaultKey();
+            final byte[] alias = key.getFirst().getBytes(StandardCharsets.UTF_8);
+            if (alias.length > 0xFF) {
+                throw new DataSealerException("Key alias too long to encode");
+            }
+            final int headerLength = 2 + alias.length;
+
+            final Cipher cipher = CIPHERS.get();
+            final byte[] nonce = new byte[NONCE_LENGTH];
+            random.nextBytes(nonce);
+            cipher.init(Cipher.ENCRYPT_MODE, key.getSecond(), new GCMParameterSpec(TAG_LENGTH, nonce));
+
+            final byte[] out = new byte[headerLength + NONCE_LENGTH + cipher.getOutputSize(value.length)];
+            out[0] = FORMAT_VERSION;
+            out[1] = (byte) alias.length;
+            System.arraycopy(alias, 0, out, 2, alias.length);
+            System.arraycopy(nonce, 0, out, headerLength, NONCE_LENGTH);
+            cipher.updateAAD(out, 0, headerLength);
+            cipher.updateAAD(purpose);
+            cipher.doFinal(value, 0, value.length, out, headerLength + NONCE_LENGTH);
+            return out;
+        } catch (final GeneralSecurityException e) {
+            throw new DataSealerException("Unable to seal value", e);
+        }
+    }
+
+    /**
+     * Decrypt a sealed envelope.
+     * 
+     * @param in the sealed envelope
+     * 
+     * @return the value
+     * 
+     * @throws DataSealerException if the envelope cannot be unsealed
+     */
+    @Nonnull public byte[] unseal(@Nonnull final byte[] in) throws DataSealerException {
+        if (in.length < 2 || in[0] != FORMAT_VERSION) {
+            throw new DataSealerException("Unsupported envelope format");
+        }
+        final int headerLength = 2 + (in[1] & 0xFF);
+        if (in.length < headerLength + NONCE_LENGTH + TAG_LENGTH / 8) {
+            throw new DataSealerException("Truncated envelope");
+        }
+        try {
+            final SecretKey key = keyStrategy.getKey(new String(in, 2, headerLength - 2, StandardCharsets.UTF_8));
+            final Cipher cipher = CIPHERS.get();
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, in, headerLength, NONCE_LENGTH));
+            cipher.updateAAD(in, 0, headerLength);
+            cipher.updateAAD(purpose);
+            return cipher.doFinal(in, headerLength + NONCE_LENGTH, in.length - headerLength - NONCE_LENGTH);
+        } catch (final GeneralSecurityException e) {
+            throw new DataSealerException("Unable to unseal value", e);
+        }
+    }
+
+}
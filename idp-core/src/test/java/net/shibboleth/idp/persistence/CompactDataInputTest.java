@@ -0,0 +1,79 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.persistence;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/** {@link CompactDataInput} unit test. */
+public class CompactDataInputTest {
+
+    @Test public void testRoundTrip() throws IOException {
+        final byte[] encoded = new CompactDataOutput()
+                .writeByte(0x05)
+                .writeVarLong(300)
+                .writeVarLong(Long.MAX_VALUE)
+                .writeString("caf\u00e9")
+                .writeString("")
+                .toByteArray();
+
+        final CompactDataInput input = new CompactDataInput(encoded);
+        Assert.assertEquals(input.readByte(), 0x05);
+        Assert.assertEquals(input.readVarLong(), 300);
+        Assert.assertEquals(input.readVarLong(), Long.MAX_VALUE);
+        Assert.assertEquals(input.readStringIf(0x01, 0x01), "caf\u00e9");
+        Assert.assertNull(input.readStringIf(0x01, 0x02));
+        Assert.assertEquals(input.readString(), "");
+        Assert.assertFalse(input.hasRemaining());
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testTruncatedByte() throws IOException {
+        new CompactDataInput(new byte[0]).readByte();
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testTruncatedString() throws IOException {
+        final byte[] encoded = new CompactDataOutput().writeVarLong(5).writeByte('a').toByteArray();
+        new CompactDataInput(encoded).readString();
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testNegativeStringLength() throws IOException {
+        final byte[] encoded = new CompactDataOutput().writeVarLong(-1).writeByte('a').toByteArray();
+        new CompactDataInput(encoded).readString();
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testOversizedStringLength() throws IOException {
+        final byte[] encoded =
+                new CompactDataOutput().writeVarLong(Integer.MAX_VALUE + 1L).writeByte('a').toByteArray();
+        new CompactDataInput(encoded).readString();
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testOverlongInteger() throws IOException {
+        final byte[] encoded = new byte[11];
+        Arrays.fill(encoded, (byte) 0x80);
+        new CompactDataInput(encoded).readVarLong();
+    }
+
+}
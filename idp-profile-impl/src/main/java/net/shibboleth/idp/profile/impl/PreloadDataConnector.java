@@ -0,0 +1,228 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.profile.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletResponse;
+
+import net.shibboleth.idp.attribute.IdPAttribute;
+import net.shibboleth.idp.attribute.resolver.AttributeResolver;
+import net.shibboleth.idp.attribute.resolver.DataConnector;
+import net.shibboleth.idp.attribute.resolver.ResolutionException;
+import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
+import net.shibboleth.idp.attribute.resolver.context.AttributeResolverWorkContext;
+import net.shibboleth.idp.attribute.resolver.dc.impl.AbstractSearchDataConnector;
+import net.shibboleth.idp.profile.AbstractProfileAction;
+import net.shibboleth.idp.profile.context.SpringRequestContext;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+import net.shibboleth.utilities.java.support.service.ReloadableService;
+import net.shibboleth.utilities.java.support.service.ServiceableComponent;
+
+import org.opensaml.profile.action.ActionSupport;
+import org.opensaml.profile.action.EventIds;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.webflow.execution.RequestContext;
+
+/**
+ * Action that pre-loads the results cache of a search-based data connector for a batch of principals, resolving
+ * them together via {@link AbstractSearchDataConnector#resolveAll(List)}.
+ * 
+ * <p>The data connector is indicated by supplying {@link #CONNECTOR_ID} as a flow variable, and the principals by
+ * supplying {@link #PRINCIPALS} as a flow variable containing an array of names. An optional {@link #REQUESTER}
+ * flow variable supplies the attribute recipient.</p>
+ * 
+ * <p>Each principal is resolved in a context of its own, with no dependencies resolved, so this suits connectors
+ * whose searches depend only on the principal and requester.</p>
+ * 
+ * <p>On success, a 200 HTTP status with a simple response body is returned. On failure, a non-successful
+ * HTTP status is returned.</p>
+ * 
+ * @event {@link EventIds#PROCEED_EVENT_ID}
+ * @event {@link EventIds#INVALID_PROFILE_CTX}
+ * @event {@link EventIds#IO_ERROR}
+ */
+public class PreloadDataConnector extends AbstractProfileAction {
+
+    /** Flow variable indicating ID of data connector to pre-load. */
+    @Nonnull @NotEmpty public static final String CONNECTOR_ID = "connectorId";
+
+    /** Flow variable containing the principals to pre-load. */
+    @Nonnull @NotEmpty public static final String PRINCIPALS = "principals";
+
+    /** Flow variable containing the optional requester. */
+    @Nonnull @NotEmpty public static final String REQUESTER = "requester";
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(PreloadDataConnector.class);
+
+    /** The service that contains the attribute resolver. */
+    @NonnullAfterInit private ReloadableService<AttributeResolver> attributeResolverService;
+
+    /** Identifies the data connector to pre-load. */
+    @Nullable private String id;
+
+    /** The principals to pre-load. */
+    @Nullable private String[] principals;
+
+    /** The attribute recipient. */
+    @Nullable private String requester;
+
+    /**
+     * Set the service that contains the attribute resolver.
+     * 
+     * @param service what to set
+     */
+    public void setAttributeResolver(@Nonnull final ReloadableService<AttributeResolver> service) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        attributeResolverService = Constraint.isNotNull(service, "AttributeResolver service cannot be null");
+    }
+
+    /** {@inheritDoc} */
+    @Override protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+
+        if (attributeResolverService == null) {
+            throw new ComponentInitializationException("AttributeResolver service cannot be null");
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override protected boolean doPreExecute(@Nonnull final ProfileRequestContext profileRequestContext) {
+
+        if (!super.doPreExecute(profileRequestContext)) {
+            return false;
+        } else if (getHttpServletResponse() == null) {
+            log.debug("{} No HttpServletResponse available", getLogPrefix());
+            ActionSupport.buildEvent(profileRequestContext, EventIds.INVALID_PROFILE_CTX);
+            return false;
+        }
+
+        final SpringRequestContext springRequestContext =
+                profileRequestContext.getSubcontext(SpringRequestContext.class);
+        if (springRequestContext == null) {
+            log.warn("{} Spring request context not found in profile request context", getLogPrefix());
+            return false;
+        }
+
+        final RequestContext requestContext = springRequestContext.getRequestContext();
+        if (requestContext == null) {
+            log.warn("{} Web Flow request context not found in Spring request context", getLogPrefix());
+            return false;
+        }
+
+        id = (String) requestContext.getFlowScope().get(CONNECTOR_ID);
+        principals = (String[]) requestContext.getFlowScope().get(PRINCIPALS);
+        requester = (String) requestContext.getFlowScope().get(REQUESTER);
+        if (id == null || principals == null || principals.length == 0) {
+            log.warn("{} No '{}' or '{}' flow variable found", getLogPrefix(), CONNECTOR_ID, PRINCIPALS);
+            try {
+                getHttpServletResponse().sendError(HttpServletResponse.SC_BAD_REQUEST,
+                        "Data connector and principals are required.");
+            } catch (final IOException e) {
+                ActionSupport.buildEvent(profileRequestContext, EventIds.IO_ERROR);
+            }
+            return false;
+        }
+
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override protected void doExecute(@Nonnull final ProfileRequestContext profileRequestContext) {
+        log.debug("{} Pre-loading data connector '{}' for {} principals", getLogPrefix(), id, principals.length);
+
+        final ServiceableComponent<AttributeResolver> component =
+                attributeResolverService.getServiceableComponent();
+        try {
+            final DataConnector connector =
+                    component != null ? component.getComponent().getDataConnectors().get(id) : null;
+            if (!(connector instanceof AbstractSearchDataConnector)) {
+                log.warn("{} Unable to locate search data connector: '{}'", getLogPrefix(), id);
+                getHttpServletResponse().sendError(HttpServletResponse.SC_NOT_FOUND, "Data connector not found.");
+                return;
+            }
+
+            final List<Map<String,IdPAttribute>> results =
+                    ((AbstractSearchDataConnector<?,?>) connector).resolveAll(buildResolutionContexts());
+            int found = 0;
+            for (final Map<String,IdPAttribute> result : results) {
+                if (result != null && !result.isEmpty()) {
+                    found++;
+                }
+            }
+            log.debug("{} Pre-loaded data connector '{}', {} of {} principals found", getLogPrefix(), id, found,
+                    results.size());
+            getHttpServletResponse().setStatus(HttpServletResponse.SC_OK);
+            getHttpServletResponse().getWriter().println("Pre-loaded '" + id + "' for " + found + " of "
+                    + results.size() + " principals");
+
+        } catch (final ResolutionException e) {
+            log.error("{} Error pre-loading data connector: '{}'", getLogPrefix(), id, e);
+            try {
+                getHttpServletResponse().sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+            } catch (final IOException e2) {
+                log.error("{} I/O error responding to request", getLogPrefix(), e2);
+                ActionSupport.buildEvent(profileRequestContext, EventIds.IO_ERROR);
+            }
+        } catch (final IOException e) {
+            log.error("{} I/O error responding to request", getLogPrefix(), e);
+            ActionSupport.buildEvent(profileRequestContext, EventIds.IO_ERROR);
+        } finally {
+            if (null != component) {
+                component.unpinComponent();
+            }
+        }
+    }
+
+    /**
+     * Build a resolution context for each principal, each under a profile request context of its own.
+     * 
+     * @return the resolution contexts
+     */
+    @Nonnull private List<AttributeResolutionContext> buildResolutionContexts() {
+        final List<AttributeResolutionContext> contexts = new ArrayList<>(principals.length);
+        for (final String principal : principals) {
+            final String name = StringSupport.trimOrNull(principal);
+            if (name == null) {
+                continue;
+            }
+            final AttributeResolutionContext resolutionContext =
+                    new ProfileRequestContext<>().getSubcontext(AttributeResolutionContext.class, true);
+            resolutionContext.setPrincipal(name);
+            resolutionContext.setAttributeRecipientID(requester);
+            resolutionContext.getSubcontext(AttributeResolverWorkContext.class, true);
+            contexts.add(resolutionContext);
+        }
+        return contexts;
+    }
+
+}
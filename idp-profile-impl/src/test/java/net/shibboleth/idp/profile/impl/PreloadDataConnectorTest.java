@@ -0,0 +1,205 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.profile.impl;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletResponse;
+
+import net.shibboleth.idp.attribute.IdPAttribute;
+import net.shibboleth.idp.attribute.IdPAttributeValue;
+import net.shibboleth.idp.attribute.StringAttributeValue;
+import net.shibboleth.idp.attribute.resolver.AttributeResolver;
+import net.shibboleth.idp.attribute.resolver.DataConnector;
+import net.shibboleth.idp.attribute.resolver.ResolutionException;
+import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
+import net.shibboleth.idp.attribute.resolver.context.AttributeResolverWorkContext;
+import net.shibboleth.idp.attribute.resolver.dc.MappingStrategy;
+import net.shibboleth.idp.attribute.resolver.dc.ValidationException;
+import net.shibboleth.idp.attribute.resolver.dc.Validator;
+import net.shibboleth.idp.attribute.resolver.dc.impl.AbstractSearchDataConnector;
+import net.shibboleth.idp.attribute.resolver.dc.impl.ExecutableSearch;
+import net.shibboleth.idp.attribute.resolver.dc.impl.ExecutableSearchBuilder;
+import net.shibboleth.idp.attribute.resolver.impl.AttributeResolverImpl;
+import net.shibboleth.idp.attribute.resolver.impl.AttributeResolverImplTest;
+import net.shibboleth.idp.profile.ActionTestingSupport;
+import net.shibboleth.idp.profile.RequestContextBuilder;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.service.AbstractReloadableService;
+import net.shibboleth.utilities.java.support.service.ServiceableComponent;
+
+import org.opensaml.profile.action.EventIds;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.webflow.execution.Event;
+import org.springframework.webflow.execution.RequestContext;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.cache.CacheBuilder;
+
+/** {@link PreloadDataConnector} unit test. */
+public class PreloadDataConnectorTest {
+
+    private RequestContext src;
+
+    private CountingConnector connector;
+
+    private MockHttpServletResponse response;
+
+    private PreloadDataConnector action;
+
+    @BeforeMethod public void setUp() throws ComponentInitializationException {
+        src = new RequestContextBuilder().buildRequestContext();
+
+        connector = new CountingConnector();
+        connector.setId("counting");
+        connector.setExecutableSearchBuilder(new ExecutableSearchBuilder<ExecutableSearch>() {
+            @Nonnull public ExecutableSearch build(@Nonnull final AttributeResolutionContext resolutionContext,
+                    @Nonnull final Map<String, List<IdPAttributeValue<?>>> dependencyAttributes) {
+                final String key = resolutionContext.getPrincipal();
+                return new ExecutableSearch() {
+                    public String getResultCacheKey() {
+                        return key;
+                    }
+                };
+            }
+        });
+        connector.setValidator(new Validator() {
+            public void validate() throws ValidationException {
+            }
+        });
+        connector.setMappingStrategy(new MappingStrategy<Object>() {
+            public Map<String, IdPAttribute> map(@Nonnull final Object results) {
+                return null;
+            }
+        });
+        connector.setResultsCache(CacheBuilder.newBuilder().<String, Map<String, IdPAttribute>> build());
+        connector.initialize();
+
+        final AttributeResolverImpl resolver = AttributeResolverImplTest.newAttributeResolverImpl("resolver",
+                null, Collections.<DataConnector>singletonList(connector));
+        resolver.initialize();
+
+        response = new MockHttpServletResponse();
+        action = new PreloadDataConnector();
+        action.setHttpServletResponse(response);
+        action.setAttributeResolver(new AttributeService(resolver));
+        action.initialize();
+    }
+
+    @Test public void testNoResponse() throws ComponentInitializationException {
+        final PreloadDataConnector noResponse = new PreloadDataConnector();
+        noResponse.setAttributeResolver(new AttributeService(null));
+        noResponse.initialize();
+
+        src.getFlowScope().put(PreloadDataConnector.CONNECTOR_ID, "counting");
+        src.getFlowScope().put(PreloadDataConnector.PRINCIPALS, new String[] {"alice"});
+
+        final Event event = noResponse.execute(src);
+        ActionTestingSupport.assertEvent(event, EventIds.INVALID_PROFILE_CTX);
+    }
+
+    @Test public void testMissingPrincipals() {
+        src.getFlowScope().put(PreloadDataConnector.CONNECTOR_ID, "counting");
+
+        final Event event = action.execute(src);
+        ActionTestingSupport.assertProceedEvent(event);
+
+        Assert.assertEquals(response.getStatus(), HttpServletResponse.SC_BAD_REQUEST);
+        Assert.assertEquals(connector.searches.get(), 0);
+    }
+
+    @Test public void testConnectorNotFound() {
+        src.getFlowScope().put(PreloadDataConnector.CONNECTOR_ID, "missing");
+        src.getFlowScope().put(PreloadDataConnector.PRINCIPALS, new String[] {"alice"});
+
+        final Event event = action.execute(src);
+        ActionTestingSupport.assertProceedEvent(event);
+
+        Assert.assertEquals(response.getStatus(), HttpServletResponse.SC_NOT_FOUND);
+    }
+
+    @Test public void testPreload() throws Exception {
+        src.getFlowScope().put(PreloadDataConnector.CONNECTOR_ID, "counting");
+        src.getFlowScope().put(PreloadDataConnector.PRINCIPALS, new String[] {"alice", "bob", " ", "alice"});
+
+        final Event event = action.execute(src);
+        ActionTestingSupport.assertProceedEvent(event);
+
+        Assert.assertEquals(response.getStatus(), HttpServletResponse.SC_OK);
+        Assert.assertEquals(response.getContentAsString().trim(), "Pre-loaded 'counting' for 3 of 3 principals");
+        Assert.assertEquals(connector.searches.get(), 2);
+
+        // Later resolutions are served from the pre-loaded cache.
+        final AttributeResolutionContext resolutionContext =
+                new ProfileRequestContext<>().getSubcontext(AttributeResolutionContext.class, true);
+        resolutionContext.setPrincipal("bob");
+        resolutionContext.getSubcontext(AttributeResolverWorkContext.class, true);
+        Assert.assertNotNull(connector.resolve(resolutionContext));
+        Assert.assertEquals(connector.searches.get(), 2);
+    }
+
+    /** Connector that counts its searches. */
+    private static class CountingConnector extends AbstractSearchDataConnector<ExecutableSearch, MappingStrategy> {
+
+        private final AtomicInteger searches = new AtomicInteger();
+
+        /** {@inheritDoc} */
+        @Override protected Map<String, IdPAttribute> retrieveAttributes(final ExecutableSearch executable)
+                throws ResolutionException {
+            searches.incrementAndGet();
+            final IdPAttribute attribute = new IdPAttribute("attr");
+            attribute.setValues(Collections.singletonList(new StringAttributeValue("value")));
+            return Collections.singletonMap("attr", attribute);
+        }
+    }
+
+    private static class AttributeService extends AbstractReloadableService<AttributeResolver> {
+
+        private ServiceableComponent<AttributeResolver> component;
+
+        protected AttributeService(final ServiceableComponent<AttributeResolver> what) {
+            component = what;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        @Nullable public ServiceableComponent<AttributeResolver> getServiceableComponent() {
+            if (null == component) {
+                return null;
+            }
+            component.pinComponent();
+            return component;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        protected boolean shouldReload() {
+            return false;
+        }
+
+    }
+
+}
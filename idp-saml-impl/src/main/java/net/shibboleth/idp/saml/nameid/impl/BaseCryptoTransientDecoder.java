@@ -28,6 +28,7 @@ import com.google.common.base.Strings;
 import net.shibboleth.idp.saml.nameid.NameDecoderException;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.collection.Pair;
 import net.shibboleth.utilities.java.support.component.AbstractIdentifiableInitializableComponent;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
@@ -35,6 +36,7 @@ import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.shibboleth.utilities.java.support.security.DataExpiredException;
 import net.shibboleth.utilities.java.support.security.DataSealer;
 import net.shibboleth.utilities.java.support.security.DataSealerException;
+import net.shibboleth.utilities.java.support.security.DataSealerKeyStrategy;
 
 /**
  * An abstract action which contains the logic to do crypto transient decoding matching. This reverses the work done by
@@ -49,6 +51,9 @@ public abstract class BaseCryptoTransientDecoder extends AbstractIdentifiableIni
     /** Object used to protect and encrypt the data. */
     @NonnullAfterInit private DataSealer dataSealer;
 
+    /** Codec for compact identifiers, if a key strategy is supplied. */
+    @Nullable private CompactTransientIdCodec compactCodec;
+
     /** cache for the log prefix - to save multiple recalculations. */
     @Nullable private String logPrefix;
 
@@ -72,6 +77,19 @@ public abstract class BaseCryptoTransientDecoder extends AbstractIdentifiableIni
         dataSealer = Constraint.isNotNull(sealer, "DataSealer cannot be null");
     }
 
+    /**
+     * Set the key strategy used to seal compact identifiers, normally that of the data sealer.
+     * 
+     * <p>Compact identifiers are rejected if this is not set.</p>
+     * 
+     * @param strategy key strategy
+     */
+    public void setKeyStrategy(@Nullable final DataSealerKeyStrategy strategy) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        compactCodec = strategy != null ? new CompactTransientIdCodec(strategy) : null;
+    }
+
     /**
      * Convert the transient Id into the principal.
      * 
@@ -90,6 +108,10 @@ public abstract class BaseCryptoTransientDecoder extends AbstractIdentifiableIni
         } else if (Strings.isNullOrEmpty(requesterId)) {
             throw new NameDecoderException(getLogPrefix() + " Requester ID was null");
         }
+        
+        if (compactCodec != null && CompactTransientIdCodec.isCompact(transientId)) {
+            return decodeCompact(transientId, requesterId);
+        }
 
         final String decodedId;
         try {
@@ -121,6 +143,37 @@ public abstract class BaseCryptoTransientDecoder extends AbstractIdentifiableIni
         return parts[1];
     }
 
+    /**
+     * Convert a compact transient Id into the principal.
+     * 
+     * @param transientId the compact transientID
+     * @param requesterId the requester ID
+     * 
+     * @return the decoded entity.
+     * @throws NameDecoderException if the identifier has expired
+     */
+    @Nullable private String decodeCompact(@Nonnull final String transientId,
+            @Nonnull @NotEmpty final String requesterId) throws NameDecoderException {
+        
+        final Pair<String,String> decoded;
+        try {
+            decoded = compactCodec.decode(transientId);
+        } catch (final DataExpiredException e) {
+            throw new NameDecoderException(getLogPrefix() + " Principal identifier has expired");
+        } catch (final DataSealerException e) {
+            log.debug("{} Caught exception unsealing principal identifier", getLogPrefix(), e);
+            return null;
+        }
+        
+        if (!requesterId.equals(decoded.getFirst())) {
+            log.warn("{} Transient identifier issued to {} but requested by {}", getLogPrefix(), decoded.getFirst(),
+                    requesterId);
+            return null;
+        }
+        
+        return decoded.getSecond();
+    }
+
     /** {@inheritDoc} */
     @Override protected void doInitialize() throws ComponentInitializationException {
         super.doInitialize();
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.nameid.impl;
+
+import java.io.IOException;
+import java.util.Base64;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.idp.persistence.CompactDataInput;
+import net.shibboleth.idp.persistence.CompactDataOutput;
+import net.shibboleth.idp.security.CompactDataSealer;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.collection.Pair;
+import net.shibboleth.utilities.java.support.security.DataExpiredException;
+import net.shibboleth.utilities.java.support.security.DataSealerException;
+import net.shibboleth.utilities.java.support.security.DataSealerKeyStrategy;
+
+/**
+ * Compact sealing of crypto transient identifiers, using the keys of a {@link DataSealerKeyStrategy}
+ * directly rather than the general-purpose {@link net.shibboleth.utilities.java.support.security.DataSealer}
+ * text format.
+ * 
+ * <p>A compact identifier is a prefix character, which cannot occur in the output of a DataSealer, followed
+ * by the unpadded base64url encoding of a {@link CompactDataSealer} envelope bound to transient identifiers.
+ * The sealed payload is the expiration time, the relying party name and the principal name.</p>
+ */
+final class CompactTransientIdCodec {
+
+    /** Prefix of a compact identifier. */
+    static final char PREFIX = '~';
+
+    /** Label binding envelopes to transient identifiers. */
+    @Nonnull @NotEmpty private static final String PURPOSE = "TransientId";
+
+    /** Encoder. */
+    @Nonnull private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    /** Decoder. */
+    @Nonnull private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    /** Sealer for the payload. */
+    @Nonnull private final CompactDataSealer sealer;
+
+    /**
+     * Constructor.
+     * 
+     * @param strategy source of keys
+     */
+    CompactTransientIdCodec(@Nonnull final DataSealerKeyStrategy strategy) {
+        sealer = new CompactDataSealer(strategy, PURPOSE);
+    }
+
+    /**
+     * Get whether a value is in the compact format.
+     * 
+     * @param value value to check
+     * 
+     * @return true iff the value is a compact identifier
+     */
+    static boolean isCompact(@Nullable final String value) {
+        return value != null && value.length() > 1 && value.charAt(0) == PREFIX;
+    }
+
+    /**
+     * Seal an identifier.
+     * 
+     * @param relyingPartyId relying party the identifier is issued to
+     * @param principalName principal name
+     * @param expiration expiration time
+     * 
+     * @return the compact identifier
+     * 
+     * @throws DataSealerException if the identifier cannot be sealed
+     */
+    @Nonnull @NotEmpty String encode(@Nonnull @NotEmpty final String relyingPartyId,
+            @Nonnull @NotEmpty final String principalName, final long expiration) throws DataSealerException {
+
+        final byte[] payload = new CompactDataOutput()
+                .writeVarLong(expiration)
+                .writeString(relyingPartyId)
+                .writeString(principalName)
+                .toByteArray();
+        return PREFIX + ENCODER.encodeToString(sealer.seal(payload));
+    }
+
+    /**
+     * Unseal an identifier.
+     * 
+     * @param value the compact identifier
+     * 
+     * @return the relying party and principal names
+     * 
+     * @throws DataExpiredException if the identifier has expired
+     * @throws DataSealerException if the identifier cannot be unsealed
+     */
+    @Nonnull Pair<String,String> decode(@Nonnull @NotEmpty final String value) throws DataSealerException {
+
+        final byte[] envelope;
+        try {
+            envelope = DECODER.decode(value.substring(1));
+        } catch (final IllegalArgumentException e) {
+            throw new DataSealerException("Malformed transient identifier", e);
+        }
+
+        final CompactDataInput in = new CompactDataInput(sealer.unseal(envelope));
+        try {
+            if (in.readVarLong() < System.currentTimeMillis()) {
+                throw new DataExpiredException("Transient identifier has expired");
+            }
+            final String rp = in.readString();
+            return new Pair<>(rp, in.readString());
+        } catch (final IOException e) {
+            throw new DataSealerException("Malformed transient identifier", e);
+        }
+    }
+
+}
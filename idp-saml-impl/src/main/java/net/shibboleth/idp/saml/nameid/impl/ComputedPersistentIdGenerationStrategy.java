@@ -77,6 +77,9 @@ public class ComputedPersistentIdGenerationStrategy extends AbstractInitializabl
     
     /** Override map to block or re-issue identifiers. */
     @Nonnull private Map<String,Map<String,String>> exceptionMap;
+
+    /** Unused digest instance to clone for each computation, or null if the algorithm is unsupported. */
+    @Nullable private MessageDigest digestPrototype;
     
     /** Constructor. */
     public ComputedPersistentIdGenerationStrategy() {
@@ -216,6 +219,14 @@ public class ComputedPersistentIdGenerationStrategy extends AbstractInitializabl
         if (getSalt().length < 16) {
             throw new ComponentInitializationException("Salt must be at least 16 bytes in size");
         }
+        
+        // Provider lookup is far more expensive than copying a fresh instance, so do it once.
+        try {
+            digestPrototype = MessageDigest.getInstance(algorithm);
+        } catch (final NoSuchAlgorithmException e) {
+            log.error("Digest algorithm {} is not supported", algorithm);
+            digestPrototype = null;
+        }
     }
     
     /** {@inheritDoc} */
@@ -231,7 +242,7 @@ public class ComputedPersistentIdGenerationStrategy extends AbstractInitializabl
         }
         
         try {
-            final MessageDigest md = MessageDigest.getInstance(algorithm);
+            final MessageDigest md = newDigest();
             md.update(relyingPartyId.getBytes());
             md.update((byte) '!');
             md.update(sourceId.getBytes());
@@ -250,6 +261,25 @@ public class ComputedPersistentIdGenerationStrategy extends AbstractInitializabl
         }
     }
     
+    /**
+     * Get a fresh digest instance, cloned from the prototype where possible.
+     * 
+     * @return digest instance
+     * 
+     * @throws NoSuchAlgorithmException if the algorithm is not supported
+     */
+    @Nonnull private MessageDigest newDigest() throws NoSuchAlgorithmException {
+        if (digestPrototype == null) {
+            throw new NoSuchAlgorithmException(algorithm);
+        }
+        
+        try {
+            return (MessageDigest) digestPrototype.clone();
+        } catch (final CloneNotSupportedException e) {
+            return MessageDigest.getInstance(algorithm);
+        }
+    }
+    
     /**
      * Get the effective salt to apply for a particular principal/RP pair, or null to refuse to generate one.
      * 
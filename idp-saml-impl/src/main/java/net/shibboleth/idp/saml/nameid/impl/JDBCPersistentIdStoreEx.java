@@ -28,7 +28,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -41,6 +44,7 @@ import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
 import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
@@ -48,10 +52,16 @@ import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.shibboleth.utilities.java.support.primitive.StringSupport;
 
 import org.joda.time.DateTime;
+import org.opensaml.core.metrics.MetricsSupport;
 import org.opensaml.saml.common.SAMLException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 /**
  * JDBC-based storage management for SAML persistent IDs.
  * 
@@ -72,6 +82,20 @@ import org.slf4j.LoggerFactory;
  *    
  * The first three columns should be defined as the primary key of the table, and the other columns
  * should be indexed.</p>
+ * 
+ * <p>Active identifiers looked up by source ID can optionally be cached locally for a period of time,
+ * since they are effectively immutable until deactivated. Deactivations and attachments made through
+ * this object invalidate the affected entries, but changes made elsewhere are only seen once an entry
+ * expires.</p>
+ * 
+ * <p>Optionally, the first identifier for a pair can be created without a serializable transaction when
+ * a computed ID strategy is in use. The computed value is deterministic, so a concurrent creation of the
+ * same entry fails on the primary key rather than producing a second identifier, and the insert can be
+ * issued as a single auto-committed statement after a plain read.</p>
+ * 
+ * <p>If a metric name is set, per-operation timers and a retry counter are maintained under
+ * "net.shibboleth.idp.persistentId.<em>metricName</em>". They stay registered when the store is destroyed,
+ * so a reloaded store with the same metric name carries on with them.</p>
  */
 public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent implements PersistentIdStoreEx {
 
@@ -138,6 +162,27 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
     /** Parameterized delete statement used to clear dummy rows after verification. */
     @NonnullAfterInit private String deleteSQL;
 
+    /** Time in milliseconds to cache active entries by source ID, or zero for no caching. */
+    @Duration @NonNegative private long cacheTTL;
+
+    /** Maximum number of entries to cache. */
+    @Positive private long cacheSize;
+
+    /** Number of inserts to send per JDBC batch during pre-generation. */
+    @Positive private int batchSize;
+
+    /** Cache of active entries keyed by issuer, recipient, and source ID. */
+    @Nullable private Cache<String,PersistentIdEntry> entryCache;
+
+    /** Count of cache invalidations, used to discard entries read before an invalidation. */
+    @Nonnull private final AtomicLong invalidations = new AtomicLong();
+
+    /** Whether to create the first computed ID for a pair with a single auto-committed insert. */
+    private boolean singleStatementCreate;
+
+    /** Name to include in metric names, or null for no metrics. */
+    @Nullable private String metricName;
+
     /** Constructor. */
     public JDBCPersistentIdStoreEx() {
         transactionRetry = 3;
@@ -154,6 +199,9 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
         peerProvidedIdColumn = "peerProvidedId";
         creationTimeColumn = "creationDate";
         deactivationTimeColumn = "deactivationDate";
+        
+        cacheSize = 10000;
+        batchSize = 100;
     }
     
     /**
@@ -438,6 +486,87 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
         deleteSQL = Constraint.isNotNull(StringSupport.trimOrNull(sql), "SQL statement cannot be null or empty");
     }
     
+    /**
+     * Get the time to cache active entries looked up by source ID.
+     * 
+     * @return the cache lifetime in milliseconds, or zero if caching is disabled
+     */
+    @NonNegative @Duration public long getCacheTTL() {
+        return cacheTTL;
+    }
+
+    /**
+     * Set the time to cache active entries looked up by source ID. Defaults to zero, which disables
+     * the cache.
+     * 
+     * @param ttl the cache lifetime in milliseconds
+     */
+    @Duration public void setCacheTTL(@Duration @NonNegative final long ttl) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        cacheTTL = Constraint.isGreaterThanOrEqual(0, ttl, "Cache TTL must be greater than or equal to 0");
+    }
+
+    /**
+     * Set the maximum number of entries to cache. Defaults to 10000.
+     * 
+     * @param size maximum cache size
+     */
+    public void setCacheSize(@Positive final long size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        cacheSize = Constraint.isGreaterThan(0, size, "Cache size must be greater than 0");
+    }
+
+    /**
+     * Set the number of inserts to send per JDBC batch in {@link #preGenerate(String, Collection, Map,
+     * ComputedPersistentIdGenerationStrategy)}. Defaults to 100.
+     * 
+     * @param size batch size
+     */
+    public void setBatchSize(@Positive final int size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        batchSize = (int) Constraint.isGreaterThan(0, size, "Batch size must be greater than 0");
+    }
+    
+    /**
+     * Get whether to create the first computed ID for a pair with a single auto-committed insert.
+     * 
+     * @return whether to create the first computed ID with a single statement
+     */
+    public boolean isSingleStatementCreate() {
+        return singleStatementCreate;
+    }
+
+    /**
+     * Set whether to create the first computed ID for a pair with a single auto-committed insert,
+     * relying on the primary key to resolve concurrent creation. Defaults to false.
+     * 
+     * <p>Only applies when a computed ID strategy is supplied and no prior entry exists; all other
+     * cases use a serializable transaction.</p>
+     * 
+     * @param flag flag to set
+     */
+    public void setSingleStatementCreate(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        singleStatementCreate = flag;
+    }
+
+    /**
+     * Set a name to include in the names of the metrics maintained by this object.
+     * 
+     * <p>Metrics are not maintained if this is not set.</p>
+     * 
+     * @param name metric name
+     */
+    public void setMetricName(@Nullable final String name) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        metricName = StringSupport.trimOrNull(name);
+    }
+
     /** {@inheritDoc} */
     @Override
     protected void doInitialize() throws ComponentInitializationException {
@@ -490,6 +619,13 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
             deleteSQL = "DELETE FROM " + tableName + " WHERE " + issuerColumn + "= ?";
         }
         
+        if (cacheTTL > 0) {
+            entryCache = CacheBuilder.newBuilder()
+                    .maximumSize(cacheSize)
+                    .expireAfterWrite(cacheTTL, TimeUnit.MILLISECONDS)
+                    .build();
+        }
+        
         try {
             verifyDatabase();
             log.info("{} Data source successfully verified", getLogPrefix());
@@ -519,8 +655,9 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
         log.trace("{} Setting prepared statement parameter {}: {}", getLogPrefix(), 2, spNameQualifier);
         log.trace("{} Setting prepared statement parameter {}: {}", getLogPrefix(), 3, persistentId);
 
-        try (final Connection dbConn = getConnection(true)) {
-            final PreparedStatement statement = dbConn.prepareStatement(getByIssuedSelectSQL);
+        final Timer.Context timer = startTimer("getByIssuedValue");
+        try (final Connection dbConn = getConnection(true);
+                final PreparedStatement statement = dbConn.prepareStatement(getByIssuedSelectSQL)) {
             statement.setQueryTimeout((int) (queryTimeout / 1000));
 
             statement.setString(1, nameQualifier);
@@ -540,6 +677,8 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
             return entries.get(0);
         } catch (final SQLException e) {
             throw new IOException(e);
+        } finally {
+            stopTimer(timer);
         }
     }
 
@@ -552,8 +691,56 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
             @Nullable final ComputedPersistentIdGenerationStrategy computedIdStrategy) throws IOException {
         ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
         
+        final Timer.Context timer = startTimer("getBySourceValue");
+        try {
+            return doGetBySourceValue(nameQualifier, spNameQualifier, sourceId, principal, allowCreate,
+                    computedIdStrategy);
+        } finally {
+            stopTimer(timer);
+        }
+    }
+    
+    /**
+     * Implementation of {@link #getBySourceValue(String, String, String, String, boolean,
+     * ComputedPersistentIdGenerationStrategy)}.
+     * 
+     * @param nameQualifier the issuer's name qualifier
+     * @param spNameQualifier the relying party's name qualifier
+     * @param sourceId the source ID
+     * @param principal the principal name
+     * @param allowCreate whether to create a new entry if none exists
+     * @param computedIdStrategy optional strategy for computing the first ID
+     * 
+     * @return the entry, or null
+     * 
+     * @throws IOException if an error occurs
+     */
+    @Nullable private PersistentIdEntry doGetBySourceValue(@Nonnull @NotEmpty final String nameQualifier,
+            @Nonnull @NotEmpty final String spNameQualifier, @Nonnull @NotEmpty final String sourceId,
+            @Nonnull @NotEmpty final String principal, final boolean allowCreate,
+            @Nullable final ComputedPersistentIdGenerationStrategy computedIdStrategy) throws IOException {
+        
         log.debug("{} Obtaining persistent ID for source ID: {}", getLogPrefix(), sourceId);
 
+        final String cacheKey = entryCache != null ? getCacheKey(nameQualifier, spNameQualifier, sourceId) : null;
+        if (cacheKey != null) {
+            final PersistentIdEntry cached = entryCache.getIfPresent(cacheKey);
+            if (cached != null) {
+                log.debug("{} Returning cached active persistent ID: {}", getLogPrefix(), cached.getPersistentId());
+                return cached;
+            }
+        }
+        final long generation = invalidations.get();
+        
+        if (singleStatementCreate && allowCreate && computedIdStrategy != null) {
+            final PersistentIdEntry entry = createComputed(nameQualifier, spNameQualifier, sourceId, principal,
+                    computedIdStrategy, cacheKey, generation);
+            if (entry != null) {
+                return entry;
+            }
+            log.debug("{} Prior entries exist, creating persistent ID transactionally", getLogPrefix());
+        }
+
         log.trace("{} Prepared statement: {}", getLogPrefix(), getBySourceSelectSQL);
         log.trace("{} Setting prepared statement parameter {}: {}", getLogPrefix(), 1, nameQualifier);
         log.trace("{} Setting prepared statement parameter {}: {}", getLogPrefix(), 2, spNameQualifier);
@@ -564,15 +751,10 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
 
         int retries = transactionRetry;
         while (true) {
-            try (final Connection dbConn = getConnection(false)) {
-                final PreparedStatement statement = dbConn.prepareStatement(getBySourceSelectSQL);
+            try (final Connection dbConn = getConnection(false);
+                    final PreparedStatement statement = dbConn.prepareStatement(getBySourceSelectSQL)) {
                 statement.setQueryTimeout((int) (queryTimeout / 1000));
-                statement.setString(1, nameQualifier);
-                statement.setString(2, spNameQualifier);
-                statement.setString(3, sourceId);
-                statement.setString(4, nameQualifier);
-                statement.setString(5, spNameQualifier);
-                statement.setString(6, sourceId);
+                bindSourceSelect(statement, nameQualifier, spNameQualifier, sourceId);
         
                 log.debug("{} Getting active and/or last inactive persistent Id entry", getLogPrefix());
                 final List<PersistentIdEntry> entries = buildIdentifierEntries(statement.executeQuery());
@@ -581,6 +763,7 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
                     log.debug("{} Returning existing active persistent ID: {}", getLogPrefix(),
                             entries.get(0).getPersistentId());
                     dbConn.commit();
+                    cacheEntry(cacheKey, entries.get(0), generation);
                     return entries.get(0);
                 } else if (!allowCreate) {
                     log.debug("{} No existing persistent ID and creation is not permitted", getLogPrefix());
@@ -588,42 +771,20 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
                     return null;
                 }
 
-                final PersistentIdEntry newEntry = new PersistentIdEntry();
-                newEntry.setIssuerEntityId(nameQualifier);
-                newEntry.setRecipientEntityId(spNameQualifier);
-                newEntry.setSourceId(sourceId);
-                newEntry.setPrincipalName(principal);
-                newEntry.setCreationTime(new Timestamp(System.currentTimeMillis()));
-
-                if ((entries == null || entries.size() == 0) && computedIdStrategy != null) {
-                    log.debug("{} Issuing new computed persistent ID", getLogPrefix());
-                    newEntry.setPersistentId(
-                            computedIdStrategy.generate(nameQualifier, spNameQualifier, principal, sourceId));
-                } else {
-                    log.debug("{} Issuing new random persistent ID", getLogPrefix());
-                    newEntry.setPersistentId(UUID.randomUUID().toString());
-                    if (entries != null && entries.size() > 0) {
-                        newEntry.setPeerProvidedId(entries.get(0).getPeerProvidedId());
-                    }
-                }
+                final PersistentIdEntry newEntry = buildNewEntry(nameQualifier, spNameQualifier, sourceId,
+                        principal, entries, computedIdStrategy);
                 store(newEntry, dbConn);
                 dbConn.commit();
+                cacheEntry(cacheKey, newEntry, generation);
                 return newEntry;
             } catch (final SQLException e) {
-                boolean retry = false;
-                for (final String msg : retryableErrors) {
-                    if (e.getSQLState() != null && e.getSQLState().contains(msg)) {
-                        log.warn("{} Caught retryable SQL exception", getLogPrefix(), e);
-                        retry = true;
-                    }
-                }
-                
-                if (retry) {
+                if (isRetryable(e)) {
                     if (--retries < 0) {
                         log.warn("{} Error retryable, but retry limit exceeded", getLogPrefix());
                         throw new IOException(e);
                     } else {
                         log.info("{} Retrying persistent ID lookup/create operation", getLogPrefix());
+                        countRetry();
                     }
                 } else {
                     throw new IOException(e);
@@ -633,6 +794,68 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
             }
         }
     }
+    
+    /**
+     * Obtain or create the first computed ID for a pair using auto-committed statements.
+     * 
+     * <p>A lost race to insert the same computed value surfaces as a retryable duplicate key error,
+     * after which the winning entry is read back.</p>
+     * 
+     * @param nameQualifier the issuer's name qualifier
+     * @param spNameQualifier the relying party's name qualifier
+     * @param sourceId the source ID
+     * @param principal the principal name
+     * @param computedIdStrategy strategy for computing the ID
+     * @param cacheKey the cache key, or null if caching is disabled
+     * @param generation invalidation count before the entry was read
+     * 
+     * @return the active entry, or null if inactive entries exist and a transaction is required
+     * 
+     * @throws IOException if an error occurs
+     */
+    @Nullable private PersistentIdEntry createComputed(@Nonnull @NotEmpty final String nameQualifier,
+            @Nonnull @NotEmpty final String spNameQualifier, @Nonnull @NotEmpty final String sourceId,
+            @Nonnull @NotEmpty final String principal,
+            @Nonnull final ComputedPersistentIdGenerationStrategy computedIdStrategy,
+            @Nullable final String cacheKey, final long generation) throws IOException {
+        
+        int retries = transactionRetry;
+        while (true) {
+            try (final Connection dbConn = getConnection(true);
+                    final PreparedStatement statement = dbConn.prepareStatement(getBySourceSelectSQL)) {
+                statement.setQueryTimeout((int) (queryTimeout / 1000));
+                bindSourceSelect(statement, nameQualifier, spNameQualifier, sourceId);
+                
+                final List<PersistentIdEntry> entries = buildIdentifierEntries(statement.executeQuery());
+                if (entries.size() > 0 && (entries.get(0).getDeactivationTime() == null
+                        || entries.get(0).getDeactivationTime().getTime() > System.currentTimeMillis())) {
+                    log.debug("{} Returning existing active persistent ID: {}", getLogPrefix(),
+                            entries.get(0).getPersistentId());
+                    cacheEntry(cacheKey, entries.get(0), generation);
+                    return entries.get(0);
+                } else if (entries.size() > 0) {
+                    return null;
+                }
+                
+                final PersistentIdEntry newEntry = buildNewEntry(nameQualifier, spNameQualifier, sourceId,
+                        principal, entries, computedIdStrategy);
+                store(newEntry, dbConn);
+                cacheEntry(cacheKey, newEntry, generation);
+                return newEntry;
+            } catch (final SQLException e) {
+                if (!isRetryable(e)) {
+                    throw new IOException(e);
+                } else if (--retries < 0) {
+                    log.warn("{} Error retryable, but retry limit exceeded", getLogPrefix());
+                    throw new IOException(e);
+                }
+                log.info("{} Persistent ID created concurrently, reading it back", getLogPrefix());
+                countRetry();
+            } catch (final SAMLException e) {
+                throw new IOException(e);
+            }
+        }
+    }
 // Checkstyle: MethodLength|CyclomaticComplexity|ParameterNumber ON
     
     /** {@inheritDoc} */
@@ -657,8 +880,10 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
         log.trace("{} Setting prepared statement parameter {}: {}", getLogPrefix(), 3, spNameQualifier);
         log.trace("{} Setting prepared statement parameter {}: {}", getLogPrefix(), 4, persistentId);
         
-        try (final Connection dbConn = getConnection(true)) {
-            final PreparedStatement statement = dbConn.prepareStatement(deactivateSQL);
+        invalidate(nameQualifier, spNameQualifier, persistentId);
+        final Timer.Context timer = startTimer("deactivate");
+        try (final Connection dbConn = getConnection(true);
+                final PreparedStatement statement = dbConn.prepareStatement(deactivateSQL)) {
             statement.setQueryTimeout((int) (queryTimeout / 1000));
             statement.setTimestamp(1, deactivationTime);
             statement.setString(2, nameQualifier);
@@ -671,6 +896,10 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
             
         } catch (final SQLException e) {
             throw new IOException(e);
+        } finally {
+            // Again once the update is committed, in case a concurrent read cached the prior entry.
+            invalidate(nameQualifier, spNameQualifier, persistentId);
+            stopTimer(timer);
         }
     }
 
@@ -689,8 +918,10 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
         log.trace("{} Setting prepared statement parameter {}: {}", getLogPrefix(), 3, spNameQualifier);
         log.trace("{} Setting prepared statement parameter {}: {}", getLogPrefix(), 4, persistentId);
         
-        try (final Connection dbConn = getConnection(true)) {
-            final PreparedStatement statement = dbConn.prepareStatement(deactivateSQL);
+        invalidate(nameQualifier, spNameQualifier, persistentId);
+        final Timer.Context timer = startTimer("attach");
+        try (final Connection dbConn = getConnection(true);
+                final PreparedStatement statement = dbConn.prepareStatement(deactivateSQL)) {
             statement.setQueryTimeout((int) (queryTimeout / 1000));
             statement.setString(1, spProvidedId);
             statement.setString(2, nameQualifier);
@@ -702,8 +933,131 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
             }
         } catch (final SQLException e) {
             throw new IOException(e);
+        } finally {
+            // Again once the update is committed, in case a concurrent read cached the prior entry.
+            invalidate(nameQualifier, spNameQualifier, persistentId);
+            stopTimer(timer);
         }
     }
+
+// Checkstyle: CyclomaticComplexity OFF
+    /**
+     * Ensure an active persistent ID exists for every combination of a set of sources and relying parties,
+     * inserting any that are missing using JDBC batches.
+     * 
+     * <p>Each relying party is handled in its own transaction, retried as a whole on a retryable error.
+     * Newly created entries are added to the cache, if enabled.</p>
+     * 
+     * @param nameQualifier the issuer's name qualifier
+     * @param spNameQualifiers the relying parties' name qualifiers
+     * @param sources map of source ID to principal name
+     * @param computedIdStrategy optional strategy for computing the first ID for a source/relying party pair
+     * 
+     * @return the number of entries created
+     * 
+     * @throws IOException if an error occurs
+     */
+    public int preGenerate(@Nonnull @NotEmpty final String nameQualifier,
+            @Nonnull @NonnullElements final Collection<String> spNameQualifiers,
+            @Nonnull @NonnullElements final Map<String,String> sources,
+            @Nullable final ComputedPersistentIdGenerationStrategy computedIdStrategy) throws IOException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        
+        final Timer.Context timer = startTimer("preGenerate");
+        int created = 0;
+        try {
+            created = doPreGenerate(nameQualifier, spNameQualifiers, sources, computedIdStrategy);
+        } finally {
+            stopTimer(timer);
+        }
+        
+        log.debug("{} Pre-generated {} persistent ID(s)", getLogPrefix(), created);
+        return created;
+    }
+
+    /**
+     * Implementation of {@link #preGenerate(String, Collection, Map, ComputedPersistentIdGenerationStrategy)}.
+     * 
+     * @param nameQualifier the issuer's name qualifier
+     * @param spNameQualifiers the relying parties' name qualifiers
+     * @param sources map of source ID to principal name
+     * @param computedIdStrategy optional strategy for computing the first ID for a source/relying party pair
+     * 
+     * @return the number of entries created
+     * 
+     * @throws IOException if an error occurs
+     */
+    private int doPreGenerate(@Nonnull @NotEmpty final String nameQualifier,
+            @Nonnull @NonnullElements final Collection<String> spNameQualifiers,
+            @Nonnull @NonnullElements final Map<String,String> sources,
+            @Nullable final ComputedPersistentIdGenerationStrategy computedIdStrategy) throws IOException {
+        
+        int created = 0;
+        for (final String spNameQualifier : spNameQualifiers) {
+            log.debug("{} Pre-generating persistent IDs for {} source(s) for {}", getLogPrefix(), sources.size(),
+                    spNameQualifier);
+            int retries = transactionRetry;
+            while (true) {
+                final long generation = invalidations.get();
+                final List<PersistentIdEntry> newEntries = new ArrayList<>();
+                try (final Connection dbConn = getConnection(false);
+                        final PreparedStatement select = dbConn.prepareStatement(getBySourceSelectSQL);
+                        final PreparedStatement insert = dbConn.prepareStatement(insertSQL)) {
+                    select.setQueryTimeout((int) (queryTimeout / 1000));
+                    insert.setQueryTimeout((int) (queryTimeout / 1000));
+                    
+                    for (final Map.Entry<String,String> source : sources.entrySet()) {
+                        bindSourceSelect(select, nameQualifier, spNameQualifier, source.getKey());
+                        final List<PersistentIdEntry> entries = buildIdentifierEntries(select.executeQuery());
+                        if (entries.size() > 0 && (entries.get(0).getDeactivationTime() == null
+                                || entries.get(0).getDeactivationTime().getTime() > System.currentTimeMillis())) {
+                            continue;
+                        }
+                        
+                        final PersistentIdEntry newEntry = buildNewEntry(nameQualifier, spNameQualifier,
+                                source.getKey(), source.getValue(), entries, computedIdStrategy);
+                        bindInsert(newEntry, insert);
+                        insert.addBatch();
+                        newEntries.add(newEntry);
+                        if (newEntries.size() % batchSize == 0) {
+                            insert.executeBatch();
+                        }
+                    }
+                    
+                    if (newEntries.size() % batchSize != 0) {
+                        insert.executeBatch();
+                    }
+                    dbConn.commit();
+                } catch (final SQLException e) {
+                    if (isRetryable(e)) {
+                        if (--retries < 0) {
+                            log.warn("{} Error retryable, but retry limit exceeded", getLogPrefix());
+                            throw new IOException(e);
+                        }
+                        log.info("{} Retrying persistent ID pre-generation for {}", getLogPrefix(),
+                                spNameQualifier);
+                        countRetry();
+                        continue;
+                    }
+                    throw new IOException(e);
+                } catch (final SAMLException e) {
+                    throw new IOException(e);
+                }
+                
+                for (final PersistentIdEntry entry : newEntries) {
+                    if (entryCache != null) {
+                        cacheEntry(getCacheKey(nameQualifier, spNameQualifier, entry.getSourceId()), entry,
+                                generation);
+                    }
+                }
+                created += newEntries.size();
+                break;
+            }
+        }
+        
+        return created;
+    }
+// Checkstyle: CyclomaticComplexity ON
     
 // Checkstyle: MethodLength|CyclomaticComplexity|ParameterNumber ON
     
@@ -738,9 +1092,44 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
         log.trace("{} Setting prepared statement parameter {}: {}", getLogPrefix(), 7, entry.getCreationTime());
         log.trace("{} Setting prepared statement parameter {}: {}", getLogPrefix(), 8, entry.getDeactivationTime());
         
-        final PreparedStatement statement = dbConn.prepareStatement(insertSQL);
-        statement.setQueryTimeout((int) (queryTimeout / 1000));
-    
+        try (final PreparedStatement statement = dbConn.prepareStatement(insertSQL)) {
+            statement.setQueryTimeout((int) (queryTimeout / 1000));
+            bindInsert(entry, statement);
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Bind the parameters of the select statement for lookup by source ID.
+     * 
+     * @param statement statement prepared from {@link #getBySourceSelectSQL}
+     * @param nameQualifier the issuer's name qualifier
+     * @param spNameQualifier the relying party's name qualifier
+     * @param sourceId the source ID
+     * 
+     * @throws SQLException if an error occurs
+     */
+    private void bindSourceSelect(@Nonnull final PreparedStatement statement,
+            @Nonnull @NotEmpty final String nameQualifier, @Nonnull @NotEmpty final String spNameQualifier,
+            @Nonnull @NotEmpty final String sourceId) throws SQLException {
+        statement.setString(1, nameQualifier);
+        statement.setString(2, spNameQualifier);
+        statement.setString(3, sourceId);
+        statement.setString(4, nameQualifier);
+        statement.setString(5, spNameQualifier);
+        statement.setString(6, sourceId);
+    }
+
+    /**
+     * Bind the values from an entry to the parameters of the insert statement.
+     * 
+     * @param entry entry to bind
+     * @param statement statement prepared from {@link #insertSQL}
+     * 
+     * @throws SQLException if an error occurs
+     */
+    private void bindInsert(@Nonnull final PersistentIdEntry entry, @Nonnull final PreparedStatement statement)
+            throws SQLException {
         statement.setString(1, entry.getIssuerEntityId());
         statement.setString(2, entry.getRecipientEntityId());
         statement.setString(3, entry.getPersistentId());
@@ -757,8 +1146,124 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
         } else {
             statement.setNull(8, Types.TIMESTAMP);
         }
-    
-        statement.executeUpdate();
+    }
+
+// Checkstyle: ParameterNumber OFF
+    /**
+     * Build a new entry to store for a source ID that has no active entry.
+     * 
+     * <p>The first entry for a pair is computed if a strategy is supplied, while later ones are random and
+     * carry over any alias attached to the last one.</p>
+     * 
+     * @param nameQualifier the issuer's name qualifier
+     * @param spNameQualifier the relying party's name qualifier
+     * @param sourceId the source ID
+     * @param principal the principal name
+     * @param entries the existing (inactive) entries, most recent first
+     * @param computedIdStrategy optional strategy for computing the first ID
+     * 
+     * @return the new entry
+     * 
+     * @throws SAMLException if a computed ID cannot be generated
+     */
+    @Nonnull private PersistentIdEntry buildNewEntry(@Nonnull @NotEmpty final String nameQualifier,
+            @Nonnull @NotEmpty final String spNameQualifier, @Nonnull @NotEmpty final String sourceId,
+            @Nonnull @NotEmpty final String principal, @Nullable final List<PersistentIdEntry> entries,
+            @Nullable final ComputedPersistentIdGenerationStrategy computedIdStrategy) throws SAMLException {
+        
+        final PersistentIdEntry newEntry = new PersistentIdEntry();
+        newEntry.setIssuerEntityId(nameQualifier);
+        newEntry.setRecipientEntityId(spNameQualifier);
+        newEntry.setSourceId(sourceId);
+        newEntry.setPrincipalName(principal);
+        newEntry.setCreationTime(new Timestamp(System.currentTimeMillis()));
+
+        if ((entries == null || entries.size() == 0) && computedIdStrategy != null) {
+            log.debug("{} Issuing new computed persistent ID", getLogPrefix());
+            newEntry.setPersistentId(
+                    computedIdStrategy.generate(nameQualifier, spNameQualifier, principal, sourceId));
+        } else {
+            log.debug("{} Issuing new random persistent ID", getLogPrefix());
+            newEntry.setPersistentId(UUID.randomUUID().toString());
+            if (entries != null && entries.size() > 0) {
+                newEntry.setPeerProvidedId(entries.get(0).getPeerProvidedId());
+            }
+        }
+        
+        return newEntry;
+    }
+// Checkstyle: ParameterNumber ON
+
+    /**
+     * Check whether an error is classified as retryable.
+     * 
+     * @param e the error
+     * 
+     * @return true iff the operation should be retried
+     */
+    private boolean isRetryable(@Nonnull final SQLException e) {
+        boolean retry = false;
+        for (final String msg : retryableErrors) {
+            if (e.getSQLState() != null && e.getSQLState().contains(msg)) {
+                log.warn("{} Caught retryable SQL exception", getLogPrefix(), e);
+                retry = true;
+            }
+        }
+        return retry;
+    }
+
+    /**
+     * Get the cache key for an entry.
+     * 
+     * @param nameQualifier the issuer's name qualifier
+     * @param spNameQualifier the relying party's name qualifier
+     * @param sourceId the source ID
+     * 
+     * @return the cache key
+     */
+    @Nonnull @NotEmpty private String getCacheKey(@Nonnull @NotEmpty final String nameQualifier,
+            @Nonnull @NotEmpty final String spNameQualifier, @Nonnull @NotEmpty final String sourceId) {
+        return nameQualifier.length() + ":" + nameQualifier + spNameQualifier.length() + ":" + spNameQualifier
+                + sourceId;
+    }
+
+    /**
+     * Cache an entry if caching is enabled and the entry has no deactivation time.
+     * 
+     * <p>The entry is discarded again if any invalidation happened since it was read, since it may predate
+     * a concurrent deactivation or attachment.</p>
+     * 
+     * @param cacheKey the cache key, or null if caching is disabled
+     * @param entry the entry
+     * @param generation invalidation count before the entry was read
+     */
+    private void cacheEntry(@Nullable final String cacheKey, @Nonnull final PersistentIdEntry entry,
+            final long generation) {
+        if (cacheKey != null && entry.getDeactivationTime() == null) {
+            entryCache.put(cacheKey, entry);
+            if (invalidations.get() != generation) {
+                entryCache.invalidate(cacheKey);
+            }
+        }
+    }
+
+    /**
+     * Remove any cached entry with a given persistent ID.
+     * 
+     * <p>The cache is keyed by source ID, so this requires a scan, but is limited to rare operations.</p>
+     * 
+     * @param nameQualifier the issuer's name qualifier
+     * @param spNameQualifier the relying party's name qualifier
+     * @param persistentId the persistent ID
+     */
+    private void invalidate(@Nonnull @NotEmpty final String nameQualifier,
+            @Nonnull @NotEmpty final String spNameQualifier, @Nonnull @NotEmpty final String persistentId) {
+        if (entryCache != null) {
+            invalidations.incrementAndGet();
+            entryCache.asMap().values().removeIf(entry -> persistentId.equals(entry.getPersistentId())
+                    && nameQualifier.equals(entry.getIssuerEntityId())
+                    && spNameQualifier.equals(entry.getRecipientEntityId()));
+        }
     }
 
     /**
@@ -859,6 +1364,46 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
         return entries;
     }
 
+    /**
+     * Start timing an operation, if metrics are enabled.
+     * 
+     * @param operation operation name
+     * 
+     * @return timer context, or null
+     */
+    @Nullable private Timer.Context startTimer(@Nonnull @NotEmpty final String operation) {
+        return metricName != null ? MetricsSupport.getMetricRegistry().timer(getMetricName(operation)).time() : null;
+    }
+
+    /**
+     * Stop timing an operation.
+     * 
+     * @param timer timer context, or null
+     */
+    private void stopTimer(@Nullable final Timer.Context timer) {
+        if (timer != null) {
+            timer.stop();
+        }
+    }
+
+    /** Count a retried operation, if metrics are enabled. */
+    private void countRetry() {
+        if (metricName != null) {
+            MetricsSupport.getMetricRegistry().counter(getMetricName("retries")).inc();
+        }
+    }
+
+    /**
+     * Get the full name of a metric.
+     * 
+     * @param name metric name suffix
+     * 
+     * @return the full metric name
+     */
+    @Nonnull @NotEmpty private String getMetricName(@Nonnull final String name) {
+        return MetricRegistry.name("net.shibboleth.idp.persistentId", metricName, name);
+    }
+
     /**
      * Return a string which is to be prepended to all log messages.
      * 
@@ -18,6 +18,7 @@
 package net.shibboleth.idp.saml.nameid.impl;
 
 import java.io.IOException;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.List;
 
@@ -31,12 +32,14 @@ import net.shibboleth.idp.attribute.resolver.ResolutionException;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
 import net.shibboleth.idp.authn.SubjectCanonicalizationException;
 import net.shibboleth.idp.authn.context.SubjectCanonicalizationContext;
+import net.shibboleth.idp.persistence.CompactDataOutput;
 import net.shibboleth.idp.saml.attribute.resolver.impl.TransientIdAttributeDefinition;
 import net.shibboleth.idp.saml.attribute.resolver.impl.TransientIdAttributeDefinitionTest;
 import net.shibboleth.idp.saml.authn.principal.NameIDPrincipal;
 import net.shibboleth.idp.saml.impl.TestSources;
 import net.shibboleth.idp.saml.nameid.NameDecoderException;
 import net.shibboleth.idp.saml.nameid.NameIDCanonicalizationFlowDescriptor;
+import net.shibboleth.idp.security.CompactDataSealer;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.security.BasicKeystoreKeyStrategy;
 import net.shibboleth.utilities.java.support.security.DataSealer;
@@ -46,6 +49,7 @@ import org.opensaml.core.OpenSAMLInitBaseTestCase;
 import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
 import org.opensaml.profile.action.ActionTestingSupport;
 import org.opensaml.profile.context.ProfileRequestContext;
+import org.opensaml.saml.common.SAMLException;
 import org.opensaml.saml.common.SAMLObjectBuilder;
 import org.opensaml.saml.saml2.core.NameID;
 import org.springframework.core.io.ClassPathResource;
@@ -68,6 +72,8 @@ public class CryptoTransientNameIDDecoderTest extends OpenSAMLInitBaseTestCase {
 
     private final static String RECIPIENT = "https://sp.example.org/recipient";
 
+    private BasicKeystoreKeyStrategy kstrategy;
+
     private DataSealer dataSealer;
 
     private CryptoTransientNameIDDecoder decoder;
@@ -89,7 +95,7 @@ public class CryptoTransientNameIDDecoderTest extends OpenSAMLInitBaseTestCase {
                 new ClassPathResource("/net/shibboleth/idp/saml/impl/attribute/resolver/SealerKeyStore.kver");
         Assert.assertTrue(version.exists());
 
-        final BasicKeystoreKeyStrategy kstrategy = new BasicKeystoreKeyStrategy();
+        kstrategy = new BasicKeystoreKeyStrategy();
         kstrategy.setKeyAlias("secret");
         kstrategy.setKeyPassword("kpassword");
         kstrategy.setKeystorePassword("password");
@@ -103,6 +109,7 @@ public class CryptoTransientNameIDDecoderTest extends OpenSAMLInitBaseTestCase {
 
         decoder = new CryptoTransientNameIDDecoder();
         decoder.setDataSealer(dataSealer);
+        decoder.setKeyStrategy(kstrategy);
         decoder.setId("Decoder");
         decoder.initialize();
     }
@@ -156,6 +163,52 @@ public class CryptoTransientNameIDDecoderTest extends OpenSAMLInitBaseTestCase {
         Assert.assertNull(decoder.decode(ct, "my" + RECIPIENT));
     }
 
+    @Test public void compact() throws Exception {
+        final CompactTransientIdCodec codec = new CompactTransientIdCodec(kstrategy);
+        final String ct = codec.encode(RECIPIENT, PRINCIPAL, System.currentTimeMillis() + TIMEOUT);
+        Assert.assertTrue(CompactTransientIdCodec.isCompact(ct));
+        Assert.assertTrue(ct.length() < code(PRINCIPAL, ISSUER, RECIPIENT).length());
+
+        Assert.assertEquals(decoder.decode(ct, RECIPIENT), PRINCIPAL);
+        Assert.assertNull(decoder.decode(ct, "my" + RECIPIENT));
+        Assert.assertNull(decoder.decode(ct.substring(0, ct.length() - 2), RECIPIENT));
+    }
+
+    @Test public void compactOtherPurpose() throws Exception {
+        final byte[] payload = new CompactDataOutput()
+                .writeVarLong(System.currentTimeMillis() + TIMEOUT)
+                .writeString(RECIPIENT)
+                .writeString(PRINCIPAL)
+                .toByteArray();
+        final String ct = CompactTransientIdCodec.PREFIX + Base64.getUrlEncoder().withoutPadding().encodeToString(
+                new CompactDataSealer(kstrategy, "Other").seal(payload));
+        Assert.assertTrue(CompactTransientIdCodec.isCompact(ct));
+
+        Assert.assertNull(decoder.decode(ct, RECIPIENT));
+    }
+
+    @Test(expectedExceptions = NameDecoderException.class)
+    public void compactTimeout() throws DataSealerException, NameDecoderException {
+        final CompactTransientIdCodec codec = new CompactTransientIdCodec(kstrategy);
+        final String ct = codec.encode(RECIPIENT, PRINCIPAL, System.currentTimeMillis() - 10);
+
+        decoder.decode(ct, RECIPIENT);
+    }
+
+    @Test public void compactStrategy() throws ComponentInitializationException, SAMLException, NameDecoderException {
+        final CryptoTransientIdGenerationStrategy strategy = new CryptoTransientIdGenerationStrategy();
+        strategy.setDataSealer(dataSealer);
+        strategy.setKeyStrategy(kstrategy);
+        strategy.setCompact(true);
+        strategy.setId("strategy");
+        strategy.setIdLifetime(TIMEOUT);
+        strategy.initialize();
+
+        final String ct = strategy.generate(RECIPIENT, PRINCIPAL);
+        Assert.assertTrue(CompactTransientIdCodec.isCompact(ct));
+        Assert.assertEquals(decoder.decode(ct, RECIPIENT), PRINCIPAL);
+    }
+
     @Test public void decode() throws ComponentInitializationException, ResolutionException, DataSealerException,
             InterruptedException {
         
@@ -22,6 +22,9 @@ import java.io.InputStreamReader;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
 
@@ -34,6 +37,8 @@ import net.shibboleth.utilities.java.support.component.ComponentInitializationEx
 import net.shibboleth.utilities.java.support.component.UninitializedComponentException;
 import net.shibboleth.utilities.java.support.component.UnmodifiableComponentException;
 
+import org.opensaml.core.metrics.MetricsSupport;
+import org.opensaml.saml.common.SAMLException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.Assert;
@@ -41,6 +46,7 @@ import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import com.codahale.metrics.Timer;
 import com.google.common.io.CharStreams;
 
 /** Tests for {@link JDBCPersistentIdStoreEx}. */
@@ -172,4 +178,123 @@ public class DatabaseBackedIDStoreTest {
         Assert.assertTrue(comparePersistentIdEntrys(gotback, id));
     }
     
-}
\ No newline at end of file
+    @Test public void cachedEntry() throws ComponentInitializationException, IOException {
+        final JDBCPersistentIdStoreEx store = new JDBCPersistentIdStoreEx();
+        store.setDataSource(testSource);
+        store.setCacheTTL(60000);
+        store.initialize();
+        
+        final PersistentIdEntry created = store.getBySourceValue(DatabaseTestingSupport.IDP_ENTITY_ID,
+                DatabaseTestingSupport.SP_ENTITY_ID, "localID", DatabaseTestingSupport.PRINCIPAL_ID, true, null);
+        Assert.assertNotNull(created);
+        
+        Assert.assertSame(store.getBySourceValue(DatabaseTestingSupport.IDP_ENTITY_ID,
+                DatabaseTestingSupport.SP_ENTITY_ID, "localID", DatabaseTestingSupport.PRINCIPAL_ID, true, null),
+                created);
+        
+        store.deactivate(DatabaseTestingSupport.IDP_ENTITY_ID, DatabaseTestingSupport.SP_ENTITY_ID,
+                created.getPersistentId(), null);
+        
+        final PersistentIdEntry replaced = store.getBySourceValue(DatabaseTestingSupport.IDP_ENTITY_ID,
+                DatabaseTestingSupport.SP_ENTITY_ID, "localID", DatabaseTestingSupport.PRINCIPAL_ID, true, null);
+        Assert.assertNotNull(replaced);
+        Assert.assertNotEquals(replaced.getPersistentId(), created.getPersistentId());
+    }
+    
+    @Test public void uncachedEntry() throws ComponentInitializationException, IOException {
+        final JDBCPersistentIdStoreEx store = new JDBCPersistentIdStoreEx();
+        store.setDataSource(testSource);
+        store.initialize();
+        
+        final PersistentIdEntry created = store.getBySourceValue(DatabaseTestingSupport.IDP_ENTITY_ID,
+                DatabaseTestingSupport.SP_ENTITY_ID, "localID", DatabaseTestingSupport.PRINCIPAL_ID, true, null);
+        
+        // Without a cache each lookup reads the database.
+        final PersistentIdEntry read = store.getBySourceValue(DatabaseTestingSupport.IDP_ENTITY_ID,
+                DatabaseTestingSupport.SP_ENTITY_ID, "localID", DatabaseTestingSupport.PRINCIPAL_ID, true, null);
+        Assert.assertNotSame(read, created);
+        Assert.assertEquals(read.getPersistentId(), created.getPersistentId());
+    }
+    
+    @Test public void metrics() throws ComponentInitializationException, IOException {
+        final String metricName = "test" + UUID.randomUUID();
+        final JDBCPersistentIdStoreEx store = new JDBCPersistentIdStoreEx();
+        store.setDataSource(testSource);
+        store.setCacheTTL(60000);
+        store.setMetricName(metricName);
+        store.initialize();
+        
+        final PersistentIdEntry created = store.getBySourceValue(DatabaseTestingSupport.IDP_ENTITY_ID,
+                DatabaseTestingSupport.SP_ENTITY_ID, "localID", DatabaseTestingSupport.PRINCIPAL_ID, true, null);
+        store.getBySourceValue(DatabaseTestingSupport.IDP_ENTITY_ID,
+                DatabaseTestingSupport.SP_ENTITY_ID, "localID", DatabaseTestingSupport.PRINCIPAL_ID, true, null);
+        store.deactivate(DatabaseTestingSupport.IDP_ENTITY_ID, DatabaseTestingSupport.SP_ENTITY_ID,
+                created.getPersistentId(), null);
+        
+        final Map<String,Timer> timers = MetricsSupport.getMetricRegistry().getTimers();
+        final String prefix = "net.shibboleth.idp.persistentId." + metricName + ".";
+        Assert.assertEquals(timers.get(prefix + "getBySourceValue").getCount(), 2);
+        Assert.assertEquals(timers.get(prefix + "deactivate").getCount(), 1);
+        
+        // Metrics stay registered for a replacement store.
+        store.destroy();
+        Assert.assertNotNull(MetricsSupport.getMetricRegistry().getTimers().get(prefix + "getBySourceValue"));
+    }
+    
+    @Test public void preGenerate() throws ComponentInitializationException, IOException {
+        final JDBCPersistentIdStoreEx store = new JDBCPersistentIdStoreEx();
+        store.setDataSource(testSource);
+        store.setBatchSize(2);
+        store.initialize();
+        
+        final PersistentIdEntry existing = store.getBySourceValue(DatabaseTestingSupport.IDP_ENTITY_ID,
+                DatabaseTestingSupport.SP_ENTITY_ID, "source1", "principal1", true, null);
+        
+        final Map<String,String> sources = new HashMap<>();
+        for (int i = 1; i <= 5; i++) {
+            sources.put("source" + i, "principal" + i);
+        }
+        
+        Assert.assertEquals(store.preGenerate(DatabaseTestingSupport.IDP_ENTITY_ID,
+                Arrays.asList(DatabaseTestingSupport.SP_ENTITY_ID, DatabaseTestingSupport.SP_ENTITY_ID + "2"),
+                sources, null), 9);
+        Assert.assertEquals(store.preGenerate(DatabaseTestingSupport.IDP_ENTITY_ID,
+                Arrays.asList(DatabaseTestingSupport.SP_ENTITY_ID, DatabaseTestingSupport.SP_ENTITY_ID + "2"),
+                sources, null), 0);
+        
+        Assert.assertEquals(store.getBySourceValue(DatabaseTestingSupport.IDP_ENTITY_ID,
+                DatabaseTestingSupport.SP_ENTITY_ID, "source1", "principal1", false, null).getPersistentId(),
+                existing.getPersistentId());
+        final PersistentIdEntry generated = store.getBySourceValue(DatabaseTestingSupport.IDP_ENTITY_ID,
+                DatabaseTestingSupport.SP_ENTITY_ID + "2", "source5", "principal5", false, null);
+        Assert.assertNotNull(generated);
+        Assert.assertEquals(generated.getPrincipalName(), "principal5");
+    }
+    
+    @Test public void singleStatementCreate() throws ComponentInitializationException, IOException, SAMLException {
+        final ComputedPersistentIdGenerationStrategy strategy = new ComputedPersistentIdGenerationStrategy();
+        strategy.setSalt("thisisaspecialsalt".getBytes());
+        strategy.initialize();
+        
+        final JDBCPersistentIdStoreEx store = new JDBCPersistentIdStoreEx();
+        store.setDataSource(testSource);
+        store.setSingleStatementCreate(true);
+        store.initialize();
+        
+        final PersistentIdEntry created = store.getBySourceValue(DatabaseTestingSupport.IDP_ENTITY_ID,
+                DatabaseTestingSupport.SP_ENTITY_ID, "localID", DatabaseTestingSupport.PRINCIPAL_ID, true, strategy);
+        Assert.assertEquals(created.getPersistentId(), strategy.generate(DatabaseTestingSupport.IDP_ENTITY_ID,
+                DatabaseTestingSupport.SP_ENTITY_ID, DatabaseTestingSupport.PRINCIPAL_ID, "localID"));
+        Assert.assertEquals(store.getBySourceValue(DatabaseTestingSupport.IDP_ENTITY_ID,
+                DatabaseTestingSupport.SP_ENTITY_ID, "localID", DatabaseTestingSupport.PRINCIPAL_ID, true,
+                strategy).getPersistentId(), created.getPersistentId());
+        
+        // Re-issuance after deactivation falls back to a random ID.
+        store.deactivate(DatabaseTestingSupport.IDP_ENTITY_ID, DatabaseTestingSupport.SP_ENTITY_ID,
+                created.getPersistentId(), null);
+        final PersistentIdEntry replaced = store.getBySourceValue(DatabaseTestingSupport.IDP_ENTITY_ID,
+                DatabaseTestingSupport.SP_ENTITY_ID, "localID", DatabaseTestingSupport.PRINCIPAL_ID, true, strategy);
+        Assert.assertNotEquals(replaced.getPersistentId(), created.getPersistentId());
+    }
+    
+}
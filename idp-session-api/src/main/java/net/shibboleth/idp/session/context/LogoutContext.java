@@ -20,10 +20,12 @@ package net.shibboleth.idp.session.context;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nonnull;
 
 import net.shibboleth.idp.session.SPSession;
+import net.shibboleth.idp.session.context.LogoutPropagationContext.Result;
 import net.shibboleth.utilities.java.support.annotation.constraint.Live;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
@@ -45,11 +47,15 @@ public final class LogoutContext extends BaseContext {
 
     /** An index of the session objects by an externally assigned key. */
     @Nonnull @NonnullElements private final Map<String,SPSession> keyedSessionMap;
+
+    /** Results of logout propagation already carried out on the server, by session key. */
+    @Nonnull @NonnullElements private final Map<String,Result> propagationResults;
     
     /** Constructor. */
     public LogoutContext() {
         sessionMap = ArrayListMultimap.create(10, 1);
         keyedSessionMap = new HashMap<>();
+        propagationResults = new ConcurrentHashMap<>();
     }
 
     /**
@@ -72,6 +78,19 @@ public final class LogoutContext extends BaseContext {
         return keyedSessionMap;
     }
 
+    /**
+     * Get a live view of the results of any logout propagation already performed on the server side,
+     * keyed by the same value as {@link #getKeyedSessionMap()}.
+     * 
+     * <p>Sessions with an entry in this map do not require front-channel propagation, and the entry
+     * can be used to report the outcome in a summary view.</p>
+     * 
+     * @return propagation results by session key
+     */
+    @Nonnull @NonnullElements @Live public Map<String,Result> getPropagationResults() {
+        return propagationResults;
+    }
+
     /**
      * Get a live collection of sessions associated with a service.
      * 
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session.impl;
+
+import java.io.IOException;
+import java.util.Base64;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.idp.persistence.CompactDataInput;
+import net.shibboleth.idp.persistence.CompactDataOutput;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+
+import com.google.common.collect.ImmutableBiMap;
+
+/**
+ * Support for the compact, versioned encoding of session records.
+ * 
+ * <p>A compact record is a prefix character, which cannot begin a JSON record, followed by the unpadded
+ * base64url encoding of a format version byte and a {@link CompactDataOutput} encoding of the record. Readers
+ * check the prefix to fall back to the legacy JSON format.</p>
+ * 
+ * <p>This class also maintains short aliases for the class names of the built-in {@link
+ * net.shibboleth.idp.session.SPSession} types, which otherwise prefix every SPSession record.</p>
+ */
+final class CompactSessionFormat {
+
+    /** Prefix of a compact record. */
+    static final char PREFIX = '~';
+
+    /** Current format version. */
+    static final int FORMAT_VERSION = 1;
+
+    /** Aliases for built-in SPSession class names. */
+    @Nonnull private static final ImmutableBiMap<String,String> TYPE_ALIASES = ImmutableBiMap.of(
+            "net.shibboleth.idp.session.BasicSPSession", "~B",
+            "net.shibboleth.idp.saml.session.SAML1SPSession", "~S1",
+            "net.shibboleth.idp.saml.session.SAML2SPSession", "~S2",
+            "net.shibboleth.idp.cas.session.impl.CASSPSession", "~C");
+
+    /** Constructor. */
+    private CompactSessionFormat() {
+    }
+
+    /**
+     * Get whether a record is in the compact format.
+     * 
+     * @param value the record value
+     * 
+     * @return true iff the record is compact
+     */
+    static boolean isCompact(@Nonnull final String value) {
+        return !value.isEmpty() && value.charAt(0) == PREFIX;
+    }
+
+    /**
+     * Get the alias for an SPSession class name, if it has one.
+     * 
+     * @param className the class name
+     * 
+     * @return the alias, or the class name
+     */
+    @Nonnull @NotEmpty static String aliasType(@Nonnull @NotEmpty final String className) {
+        final String alias = TYPE_ALIASES.get(className);
+        return alias != null ? alias : className;
+    }
+
+    /**
+     * Get the SPSession class name for a possible alias.
+     * 
+     * @param aliasOrClassName an alias or class name
+     * 
+     * @return the class name
+     */
+    @Nonnull @NotEmpty static String resolveType(@Nonnull @NotEmpty final String aliasOrClassName) {
+        final String className = TYPE_ALIASES.inverse().get(aliasOrClassName);
+        return className != null ? className : aliasOrClassName;
+    }
+
+    /** Builds a compact record. */
+    static final class Output extends CompactDataOutput {
+
+        /** Constructor. */
+        Output() {
+            writeByte(FORMAT_VERSION);
+        }
+
+        /**
+         * Get the encoded record.
+         * 
+         * @return the record value
+         */
+        @Nonnull @NotEmpty String encode() {
+            return PREFIX + Base64.getUrlEncoder().withoutPadding().encodeToString(toByteArray());
+        }
+    }
+
+    /** Parses a compact record. */
+    static final class Input extends CompactDataInput {
+
+        /**
+         * Constructor.
+         * 
+         * @param value the record value
+         * 
+         * @throws IOException if the record is not compact or is of an unsupported version
+         */
+        Input(@Nonnull final String value) throws IOException {
+            super(decode(value));
+            final int version = readByte();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported compact record version " + version);
+            }
+        }
+
+        /**
+         * Decode the bytes of a record.
+         * 
+         * @param value the record value
+         * 
+         * @return the decoded bytes
+         * 
+         * @throws IOException if the record is not compact
+         */
+        @Nonnull private static byte[] decode(@Nonnull final String value) throws IOException {
+            if (!isCompact(value)) {
+                throw new IOException("Record is not in compact format");
+            }
+            try {
+                return Base64.getUrlDecoder().decode(value.substring(1));
+            } catch (final IllegalArgumentException e) {
+                throw new IOException("Invalid compact record encoding", e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,387 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.idp.profile.AbstractProfileAction;
+import net.shibboleth.idp.session.SPSession;
+import net.shibboleth.idp.session.context.LogoutContext;
+import net.shibboleth.idp.session.context.LogoutPropagationContext.Result;
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.opensaml.messaging.context.navigate.ChildContextLookup;
+import org.opensaml.profile.action.ActionSupport;
+import org.opensaml.profile.action.EventIds;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Function;
+
+/**
+ * Profile action that performs back-channel logout propagation for the sessions in a {@link LogoutContext}
+ * concurrently, ahead of any front-channel propagation.
+ * 
+ * <p>Each session in {@link LogoutContext#getKeyedSessionMap()} is handed to a propagation strategy, which
+ * returns a {@link Result} for sessions it handles and null for any it does not (leaving them to the usual
+ * front-channel machinery). At most a configured number of sessions are propagated at once, each attempt is
+ * abandoned after a per-session timeout, and the action as a whole returns after an overall deadline
+ * regardless of the state of any outstanding attempts.</p>
+ * 
+ * <p>Outcomes are recorded in {@link LogoutContext#getPropagationResults()}. Sessions that time out or
+ * miss the deadline are recorded as failures.</p>
+ * 
+ * <p>The action is a no-op if no propagation strategy is installed.</p>
+ * 
+ * @event {@link EventIds#PROCEED_EVENT_ID}
+ * @event {@link EventIds#INVALID_PROFILE_CTX}
+ * @post {@link LogoutContext#getPropagationResults()} contains an entry for every session attempted.
+ */
+public class PropagateBackChannelLogout extends AbstractProfileAction {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(PropagateBackChannelLogout.class);
+
+    /** Lookup function for {@link LogoutContext}. */
+    @Nonnull private Function<ProfileRequestContext,LogoutContext> logoutContextLookupStrategy;
+
+    /** Strategy function performing propagation for a single session. */
+    @Nullable private Function<SPSession,Result> propagationStrategy;
+
+    /** Executor on which to run propagation attempts. */
+    @NonnullAfterInit private ExecutorService executorService;
+
+    /** Maximum number of sessions to propagate concurrently. */
+    @Positive private int maxConcurrency;
+
+    /** Time in milliseconds to allow for propagation of an individual session. */
+    @Duration @Positive private long sessionTimeout;
+
+    /** Time in milliseconds to allow for propagation of all sessions. */
+    @Duration @Positive private long deadline;
+
+    /** LogoutContext to operate on. */
+    @Nullable private LogoutContext logoutContext;
+
+    /** Constructor. */
+    public PropagateBackChannelLogout() {
+        logoutContextLookupStrategy = new ChildContextLookup<>(LogoutContext.class);
+        maxConcurrency = 4;
+        // Default time limits are 5 and 10 seconds.
+        sessionTimeout = 5000;
+        deadline = 10000;
+    }
+
+    /**
+     * Set the lookup strategy for the {@link LogoutContext} to process.
+     * 
+     * @param strategy lookup strategy
+     */
+    public void setLogoutContextLookupStrategy(
+            @Nonnull final Function<ProfileRequestContext,LogoutContext> strategy) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        logoutContextLookupStrategy = Constraint.isNotNull(strategy, "LogoutContext lookup strategy cannot be null");
+    }
+
+    /**
+     * Set the strategy function that propagates logout for a single session.
+     * 
+     * <p>The function returns null for sessions it does not handle. It may be called concurrently and
+     * should honor thread interruption where it can.</p>
+     * 
+     * @param strategy propagation strategy
+     */
+    public void setPropagationStrategy(@Nullable final Function<SPSession,Result> strategy) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        propagationStrategy = strategy;
+    }
+
+    /**
+     * Set the executor on which to run propagation attempts.
+     * 
+     * @param executor executor service
+     */
+    public void setExecutorService(@Nullable final ExecutorService executor) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        executorService = executor;
+    }
+
+    /**
+     * Set the maximum number of sessions to propagate concurrently.
+     * 
+     * @param max concurrency limit
+     */
+    public void setMaxConcurrency(@Positive final int max) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        maxConcurrency = (int) Constraint.isGreaterThan(0, max, "Concurrency limit must be greater than zero");
+    }
+
+    /**
+     * Set the time in milliseconds to allow for propagation of an individual session.
+     * 
+     * @param timeout per-session timeout
+     */
+    @Duration public void setSessionTimeout(@Duration @Positive final long timeout) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        sessionTimeout = Constraint.isGreaterThan(0, timeout, "Session timeout must be greater than zero");
+    }
+
+    /**
+     * Set the time in milliseconds to allow for propagation of all sessions.
+     * 
+     * @param limit overall deadline
+     */
+    @Duration public void setDeadline(@Duration @Positive final long limit) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        deadline = Constraint.isGreaterThan(0, limit, "Deadline must be greater than zero");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+
+        if (propagationStrategy != null && executorService == null) {
+            throw new ComponentInitializationException("ExecutorService cannot be null");
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected boolean doPreExecute(@Nonnull final ProfileRequestContext profileRequestContext) {
+
+        if (!super.doPreExecute(profileRequestContext) || propagationStrategy == null) {
+            return false;
+        }
+
+        logoutContext = logoutContextLookupStrategy.apply(profileRequestContext);
+        if (logoutContext == null) {
+            log.debug("{} No LogoutContext found", getLogPrefix());
+            ActionSupport.buildEvent(profileRequestContext, EventIds.INVALID_PROFILE_CTX);
+            return false;
+        }
+
+        return !logoutContext.getKeyedSessionMap().isEmpty();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doExecute(@Nonnull final ProfileRequestContext profileRequestContext) {
+
+        final long expiration = System.currentTimeMillis() + deadline;
+        final Semaphore slots = new Semaphore(maxConcurrency);
+        final Map<String,Attempt> attempts = new LinkedHashMap<>();
+
+        try {
+            for (final Map.Entry<String,SPSession> entry : logoutContext.getKeyedSessionMap().entrySet()) {
+                if (logoutContext.getPropagationResults().containsKey(entry.getKey())) {
+                    continue;
+                }
+                if (!acquire(slots, attempts, expiration)) {
+                    log.warn("{} Deadline reached before back-channel logout could be attempted for session {}",
+                            getLogPrefix(), entry.getKey());
+                    logoutContext.getPropagationResults().put(entry.getKey(), Result.Failure);
+                    continue;
+                }
+                final Attempt attempt = new Attempt(entry.getValue(), slots);
+                try {
+                    attempt.future = executorService.submit(attempt);
+                    attempts.put(entry.getKey(), attempt);
+                } catch (final RejectedExecutionException e) {
+                    log.warn("{} Back-channel logout for session {} rejected by executor", getLogPrefix(),
+                            entry.getKey());
+                    attempt.release();
+                    logoutContext.getPropagationResults().put(entry.getKey(), Result.Failure);
+                }
+            }
+
+            for (final Map.Entry<String,Attempt> entry : attempts.entrySet()) {
+                final Result result = collect(entry.getKey(), entry.getValue(), expiration);
+                if (result != null) {
+                    logoutContext.getPropagationResults().put(entry.getKey(), result);
+                }
+            }
+        } catch (final InterruptedException e) {
+            log.warn("{} Interrupted during back-channel logout propagation", getLogPrefix());
+            Thread.currentThread().interrupt();
+            for (final Map.Entry<String,Attempt> entry : attempts.entrySet()) {
+                if (!logoutContext.getPropagationResults().containsKey(entry.getKey())) {
+                    entry.getValue().abandon();
+                    logoutContext.getPropagationResults().put(entry.getKey(), Result.Failure);
+                }
+            }
+        }
+
+        log.debug("{} Back-channel logout propagation recorded {} result(s) for {} session(s)", getLogPrefix(),
+                logoutContext.getPropagationResults().size(), logoutContext.getKeyedSessionMap().size());
+    }
+
+    /**
+     * Wait for a free propagation slot, abandoning any attempts that outlive the per-session timeout
+     * in the meantime.
+     * 
+     * @param slots the semaphore governing concurrency
+     * @param attempts attempts made so far
+     * @param expiration time at which the overall deadline passes
+     * 
+     * @return true iff a slot was acquired before the deadline
+     * 
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    private boolean acquire(@Nonnull final Semaphore slots, @Nonnull final Map<String,Attempt> attempts,
+            final long expiration) throws InterruptedException {
+
+        long now = System.currentTimeMillis();
+        while (now < expiration) {
+            long wait = expiration - now;
+            for (final Attempt attempt : attempts.values()) {
+                if (!attempt.future.isDone()) {
+                    final long remaining = attempt.started + sessionTimeout - now;
+                    if (remaining <= 0) {
+                        attempt.abandon();
+                    } else {
+                        wait = Math.min(wait, remaining);
+                    }
+                }
+            }
+            if (slots.tryAcquire(wait, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+            now = System.currentTimeMillis();
+        }
+
+        return false;
+    }
+
+    /**
+     * Wait for the outcome of a propagation attempt, within the per-session timeout and overall deadline.
+     * 
+     * @param key session key
+     * @param attempt the attempt
+     * @param expiration time at which the overall deadline passes
+     * 
+     * @return the result, or null if the session was not handled by the propagation strategy
+     * 
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    @Nullable private Result collect(@Nonnull final String key, @Nonnull final Attempt attempt,
+            final long expiration) throws InterruptedException {
+
+        final long wait =
+                Math.min(expiration, attempt.started + sessionTimeout) - System.currentTimeMillis();
+        try {
+            return attempt.future.get(Math.max(wait, 0), TimeUnit.MILLISECONDS);
+        } catch (final TimeoutException e) {
+            log.warn("{} Back-channel logout for session {} timed out", getLogPrefix(), key);
+        } catch (final ExecutionException e) {
+            log.warn("{} Back-channel logout for session {} failed", getLogPrefix(), key, e.getCause());
+        } catch (final CancellationException e) {
+            log.warn("{} Back-channel logout for session {} was abandoned", getLogPrefix(), key);
+        }
+        attempt.abandon();
+        return Result.Failure;
+    }
+
+    /** A single propagation attempt, which frees its concurrency slot exactly once. */
+    private final class Attempt implements Callable<Result> {
+
+        /** Session to propagate. */
+        @Nonnull private final SPSession session;
+
+        /** Semaphore governing concurrency. */
+        @Nonnull private final Semaphore slots;
+
+        /** Guards release of the slot. */
+        @Nonnull private final AtomicBoolean released;
+
+        /** Time attempt was submitted. */
+        private final long started;
+
+        /** Pending result. */
+        @Nullable private Future<Result> future;
+
+        /**
+         * Constructor.
+         * 
+         * @param spSession session to propagate
+         * @param semaphore semaphore governing concurrency
+         */
+        Attempt(@Nonnull final SPSession spSession, @Nonnull final Semaphore semaphore) {
+            session = spSession;
+            slots = semaphore;
+            released = new AtomicBoolean();
+            started = System.currentTimeMillis();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public Result call() throws Exception {
+            try {
+                return propagationStrategy.apply(session);
+            } finally {
+                release();
+            }
+        }
+
+        /** Free the concurrency slot if not already freed. */
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                slots.release();
+            }
+        }
+
+        /**
+         * Cancel the attempt and free its slot, whether or not it responds to interruption.
+         * 
+         * <p>An attempt that never started never frees its own slot, so this must be done here.</p>
+         */
+        void abandon() {
+            if (future != null) {
+                future.cancel(true);
+            }
+            release();
+        }
+    }
+
+}
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -63,6 +64,9 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
     
     /** Storage version used to synchronize changes. */
     private long version;
+
+    /** Last activity instants of results as last read from or written to storage, keyed by flow ID. */
+    @Nonnull private final Map<String,Long> storedResultActivity;
     
     /**
      * Constructor.
@@ -80,12 +84,19 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
         sessionManager = Constraint.isNotNull(manager, "SessionManager cannot be null");
         
         version = 1;
+        storedResultActivity = new ConcurrentHashMap<>(5);
     }
     
     /** {@inheritDoc} */
     @Override @Duration public void setLastActivityInstant(@Duration @Positive final long instant) 
             throws SessionException {
         
+        final long granularity = sessionManager.getActivityGranularity();
+        if (granularity > 0 && instant - getLastActivityInstant() < granularity) {
+            log.trace("Skipping update of master record for session {}, within activity granularity", getId());
+            return;
+        }
+        
         final long exp = instant + sessionManager.getSessionTimeout() + sessionManager.getSessionSlop();
         log.debug("Updating expiration of master record for session {} to {}", getId(), new DateTime(exp));
         
@@ -212,6 +223,10 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
     @Nullable public AuthenticationResult addAuthenticationResult(@Nonnull final AuthenticationResult result)
             throws SessionException {
         
+        if (sessionManager.isConsolidateRecords()) {
+            return addConsolidatedAuthenticationResult(result);
+        }
+        
         try {
             // Store the record.
             if (!saveAuthenticationResultToStorage(result) && !sessionManager.isMaskStorageFailure()) {
@@ -250,12 +265,48 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
     @Override
     public void updateAuthenticationResultActivity(@Nonnull final AuthenticationResult result) throws SessionException {
         final String flowId = result.getAuthenticationFlowId();
+        final long granularity = sessionManager.getActivityGranularity();
+        final Long stored = storedResultActivity.get(flowId);
+        if (granularity > 0 && stored != null && result.getLastActivityInstant() - stored < granularity) {
+            log.trace("Skipping update of AuthenticationResult for flow {} in session {}, within activity granularity",
+                    flowId, getId());
+            return;
+        }
+        
         final AuthenticationFlowDescriptor flow = sessionManager.getAuthenticationFlowDescriptor(flowId);
-        if (flow != null) {
+        if (flow != null && sessionManager.isConsolidateRecords()) {
+            // The result's expiration is part of the master record.
             try {
-                if (!sessionManager.getStorageService().updateExpiration(getId(), result.getAuthenticationFlowId(),
+                int attempts = 10;
+                boolean success = writeToStorage();
+                while (!success && attempts-- > 0) {
+                    // The record may have changed underneath, see if we need to reapply the update.
+                    if (getAuthenticationResultMap().containsKey(flowId)) {
+                        doAddAuthenticationResult(result);
+                        success = writeToStorage();
+                    } else {
+                        log.warn("Skipping update, AuthenticationResult for flow {} in session {} has been removed",
+                                flowId, getId());
+                        success = true;
+                    }
+                }
+                if (!success) {
+                    log.error("Exhausted retry attempts updating record for session {}", getId());
+                }
+            } catch (final IOException e) {
+                log.error("Exception updating AuthenticationResult expiration for session {} and flow {}", getId(),
+                        flowId, e);
+                if (!sessionManager.isMaskStorageFailure()) {
+                    throw new SessionException("Exception updating AuthenticationResult expiration in storage", e);
+                }
+            }
+        } else if (flow != null) {
+            try {
+                if (sessionManager.getStorageService().updateExpiration(getId(), result.getAuthenticationFlowId(),
                         result.getLastActivityInstant() + flow.getInactivityTimeout()
                             + AuthenticationFlowDescriptor.STORAGE_EXPIRATION_OFFSET)) {
+                    noteStoredActivity(result);
+                } else {
                     log.warn("Skipping update, AuthenticationResult for flow {} in session {} not found in storage",
                             flowId, getId());
                 }
@@ -275,14 +326,16 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
     @Override
     public boolean removeAuthenticationResult(@Nonnull final AuthenticationResult result) throws SessionException {
         if (super.removeAuthenticationResult(result)) {
-            try {
-                // Remove the separate record.
-                sessionManager.getStorageService().delete(getId(), result.getAuthenticationFlowId());
-            } catch (final IOException e) {
-                log.error("Exception removing AuthenticationResult record for session {} and flow {}", getId(),
-                        result.getAuthenticationFlowId(), e);
-                if (!sessionManager.isMaskStorageFailure()) {
-                    throw new SessionException("Exception removing AuthenticationResult record from storage", e);
+            if (!sessionManager.isConsolidateRecords()) {
+                try {
+                    // Remove the separate record.
+                    sessionManager.getStorageService().delete(getId(), result.getAuthenticationFlowId());
+                } catch (final IOException e) {
+                    log.error("Exception removing AuthenticationResult record for session {} and flow {}", getId(),
+                            result.getAuthenticationFlowId(), e);
+                    if (!sessionManager.isMaskStorageFailure()) {
+                        throw new SessionException("Exception removing AuthenticationResult record from storage", e);
+                    }
                 }
             }
             
@@ -395,12 +448,21 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
                 // we know to remove it.
                 getSPSession(spSession.getId());
 
-                // Store the record.
-                if (!saveSPSessionToStorage(spSession) && !sessionManager.isMaskStorageFailure()) {
-                    throw new SessionException("Unable to save SPSession to storage");
+                final SPSession prev;
+                if (sessionManager.isConsolidateRecords()) {
+                    prev = addConsolidatedSPSession(spSession);
+                } else {
+                    // Store the record.
+                    if (!saveSPSessionToStorage(spSession) && !sessionManager.isMaskStorageFailure()) {
+                        throw new SessionException("Unable to save SPSession to storage");
+                    }
+                    prev = super.addSPSession(spSession);
                 }
-                final SPSession prev = super.addSPSession(spSession);
-                if (prev == null) {
+                if (sessionManager.isConsolidateRecords()) {
+                    if (prev != null) {
+                        sessionManager.unindexSPSession(this, prev, 10);
+                    }
+                } else if (prev == null) {
                     // If no previous record, the add operation changed the master record, requiring an update.
                     int attempts = 10;
                     boolean success = writeToStorage();
@@ -440,14 +502,16 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
     @Override
     public boolean removeSPSession(@Nonnull final SPSession spSession) throws SessionException {
         if (super.removeSPSession(spSession)) {
-            try {
-                // Remove the separate record.
-                sessionManager.getStorageService().delete(getId(), getSPSessionStorageKey(spSession.getId()));
-            } catch (final IOException e) {
-                log.error("Exception removing SPSession record for IdP session {} and service {}", getId(),
-                        spSession.getId(), e);
-                if (!sessionManager.isMaskStorageFailure()) {
-                    throw new SessionException("Exception removing SPSession record from storage", e);
+            if (!sessionManager.isConsolidateRecords()) {
+                try {
+                    // Remove the separate record.
+                    sessionManager.getStorageService().delete(getId(), getSPSessionStorageKey(spSession.getId()));
+                } catch (final IOException e) {
+                    log.error("Exception removing SPSession record for IdP session {} and service {}", getId(),
+                            spSession.getId(), e);
+                    if (!sessionManager.isMaskStorageFailure()) {
+                        throw new SessionException("Exception removing SPSession record from storage", e);
+                    }
                 }
             }
             
@@ -510,6 +574,15 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
         version = ver;
     }
 
+    /**
+     * Record the last activity instant of a result as reflected in storage.
+     * 
+     * @param result the result read from or written to storage
+     */
+    void noteStoredActivity(@Nonnull final AuthenticationResult result) {
+        storedResultActivity.put(result.getAuthenticationFlowId(), result.getLastActivityInstant());
+    }
+
     /** {@inheritDoc} */
     @Override
     @Nonnull @NonnullElements @Live protected Map<String, Optional<AuthenticationResult>> getAuthenticationResultMap() {
@@ -544,7 +617,9 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
         try {
             final StorageRecord<AuthenticationResult> record = sessionManager.getStorageService().read(getId(), flowId);
             if (record != null) {
-                return record.getValue(flow, getId(), flowId);
+                final AuthenticationResult result = record.getValue(flow, getId(), flowId);
+                noteStoredActivity(result);
+                return result;
             } else {
                 log.debug("No AuthenticationResult for flow {} in session {}", flowId, getId());
                 return null;
@@ -555,6 +630,81 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
         }
     }
 
+    /**
+     * Adds an {@link AuthenticationResult} to the master record, for use with the consolidated record layout.
+     * 
+     * @param result the result to add
+     * 
+     * @return a previously existing result replaced by the new one, if any
+     * @throws SessionException if a fatal error occurs
+     */
+    @Nullable private AuthenticationResult addConsolidatedAuthenticationResult(
+            @Nonnull final AuthenticationResult result) throws SessionException {
+        
+        if (sessionManager.getAuthenticationFlowDescriptor(result.getAuthenticationFlowId()) == null) {
+            log.warn("No flow descriptor installed for ID {}, unable to save result to storage",
+                    result.getAuthenticationFlowId());
+            if (!sessionManager.isMaskStorageFailure()) {
+                throw new SessionException("Unable to save AuthenticationResult to storage");
+            }
+            return null;
+        }
+        
+        try {
+            // Any add changes the master record, which holds the result itself.
+            final AuthenticationResult prev = super.addAuthenticationResult(result);
+            int attempts = 10;
+            boolean success = writeToStorage();
+            while (!success && attempts-- > 0) {
+                // The record may have changed underneath, so reapply the add.
+                super.addAuthenticationResult(result);
+                success = writeToStorage();
+            }
+            if (!success) {
+                log.error("Exhausted retry attempts updating record for session {}", getId());
+            }
+            return prev;
+        } catch (final IOException e) {
+            log.error("Exception saving AuthenticationResult for session {} and flow {}", getId(),
+                    result.getAuthenticationFlowId(), e);
+            if (!sessionManager.isMaskStorageFailure()) {
+                throw new SessionException("Exception saving AuthenticationResult to storage", e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Adds an {@link SPSession} to the master record, for use with the consolidated record layout.
+     * 
+     * @param spSession the session to add
+     * 
+     * @return a previously existing session replaced by the new one, if any
+     * @throws IOException if a storage-related error occurs
+     * @throws SessionException if a fatal error occurs
+     */
+    @Nullable private SPSession addConsolidatedSPSession(@Nonnull final SPSession spSession)
+            throws IOException, SessionException {
+        
+        if (sessionManager.getSPSessionSerializerRegistry().lookup(spSession.getClass()) == null) {
+            throw new IOException("No serializer registered for SPSession type " + spSession.getClass().getName());
+        }
+        
+        // Any add changes the master record, which holds the session itself.
+        final SPSession prev = super.addSPSession(spSession);
+        int attempts = 10;
+        boolean success = writeToStorage();
+        while (!success && attempts-- > 0) {
+            // The record may have changed underneath, so reapply the add.
+            super.addSPSession(spSession);
+            success = writeToStorage();
+        }
+        if (!success) {
+            log.error("Exhausted retry attempts updating record for session {}", getId());
+        }
+        return prev;
+    }
+
     /**
      * Saves an {@link AuthenticationResult} record to storage, serializing it using the object
      * attached to the corresponding {@link AuthenticationFlowDescriptor}.
@@ -590,7 +740,9 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
                 }
             } while (!success && attempts-- > 0);
             
-            if (!success) {
+            if (success) {
+                noteStoredActivity(result);
+            } else {
                 log.error("Exhausted retry attempts storing AuthenticationResult for flow {} in session {}",
                         flowId, getId());
             }
@@ -623,32 +775,12 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
                 return null;
             }
             
-            // Parse out the class type.
-            final int pos = record.getValue().indexOf(':');
-            if (pos <= 0) {
-                throw new IOException("No class type found prefixed to record");
-            }
-            
-            final String sessionClassName = record.getValue().substring(0,  pos);
-            
-            // Look up the serializer instance for that class type.
-            final StorageSerializer<? extends SPSession> spSessionSerializer =
-                    sessionManager.getSPSessionSerializerRegistry().lookup(
-                            Class.forName(sessionClassName).asSubclass(SPSession.class));
-            if (spSessionSerializer == null) {
-                throw new IOException("No serializer registered for SPSession type " + sessionClassName);
-            }
-            
-            // Deserializer starting past the colon delimiter.
-            return spSessionSerializer.deserialize(
-                    record.getVersion(), getId(), key, record.getValue().substring(pos + 1), record.getExpiration());
+            return StorageBackedIdPSessionSerializer.deserializeSPSession(sessionManager, record.getVersion(),
+                    getId(), key, record.getValue(), record.getExpiration());
             
         } catch (final IOException e) {
             log.error("IOException loading SPSession for service {} from storage", serviceId, e);
             throw e;
-        } catch (final ClassNotFoundException e) {
-            log.error("ClassNotFoundException loading SPSession for service {} from storage", serviceId, e);
-            throw new IOException(e);
         }
     }
 
@@ -673,19 +805,19 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
         final String key = getSPSessionStorageKey(session.getId());
         
         // Prefix the class name to the serialized data.
-        final StringBuilder builder = new StringBuilder(session.getClass().getName());
-        builder.append(':').append(spSessionSerializer.serialize(session));
+        final String serialized =
+                StorageBackedIdPSessionSerializer.serializeSPSession(sessionManager, spSessionSerializer, session);
         
         try {
             // Create / update loop until we succeed or exhaust attempts.
             int attempts = 10;
             boolean success = false;
             do {
-                success = sessionManager.getStorageService().create(getId(), key, builder.toString(),
+                success = sessionManager.getStorageService().create(getId(), key, serialized,
                         session.getExpirationInstant() + sessionManager.getSessionSlop());
                 if (!success) {
                     // The record already exists, so we need to overwrite via an update.
-                    success = sessionManager.getStorageService().update(getId(), key, builder.toString(),
+                    success = sessionManager.getStorageService().update(getId(), key, serialized,
                             session.getExpirationInstant() + sessionManager.getSessionSlop());
                 }
             } while (!success && attempts-- > 0);
@@ -733,6 +865,13 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
                 throw new IOException("Unable to update session, record disappeared");
             }
             version = ver;
+            if (sessionManager.isConsolidateRecords()) {
+                for (final Optional<AuthenticationResult> result : getAuthenticationResultMap().values()) {
+                    if (result.isPresent()) {
+                        noteStoredActivity(result.get());
+                    }
+                }
+            }
             return true;
         } catch (final VersionMismatchException e) {
             // The record has changed underneath. We need to deserialize the session back into the
@@ -20,6 +20,9 @@ package net.shibboleth.idp.session.impl;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.Nonnull;
@@ -31,9 +34,11 @@ import javax.json.JsonObject;
 import javax.json.JsonReader;
 import javax.json.JsonString;
 import javax.json.JsonStructure;
+import javax.json.JsonValue;
 import javax.json.spi.JsonProvider;
 import javax.json.stream.JsonGenerator;
 
+import net.shibboleth.idp.authn.AuthenticationFlowDescriptor;
 import net.shibboleth.idp.authn.AuthenticationResult;
 import net.shibboleth.idp.session.AbstractIdPSession;
 import net.shibboleth.idp.session.SPSession;
@@ -73,6 +78,27 @@ public class StorageBackedIdPSessionSerializer extends AbstractInitializableComp
     /** Field name of service ID array. */
     @Nonnull @NotEmpty private static final String SERVICE_ID_ARRAY_FIELD = "svcs";
 
+    /** Field name of consolidated result map. */
+    @Nonnull @NotEmpty private static final String RESULT_MAP_FIELD = "res";
+
+    /** Field name of consolidated service session map. */
+    @Nonnull @NotEmpty private static final String SERVICE_MAP_FIELD = "sps";
+
+    /** Field name of expiration of a consolidated entry. */
+    @Nonnull @NotEmpty private static final String EXPIRATION_FIELD = "exp";
+
+    /** Field name of serialized value of a consolidated entry. */
+    @Nonnull @NotEmpty private static final String VALUE_FIELD = "val";
+
+    /** Compact format flag for an IPv4 address. */
+    private static final int IPV4_ADDRESS_FLAG = 0x01;
+
+    /** Compact format flag for an IPv6 address. */
+    private static final int IPV6_ADDRESS_FLAG = 0x02;
+
+    /** Compact format flag for consolidated entries. */
+    private static final int CONSOLIDATED_FLAG = 0x04;
+
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(StorageBackedIdPSessionSerializer.class);
 
@@ -101,6 +127,10 @@ public class StorageBackedIdPSessionSerializer extends AbstractInitializableComp
     @Override @Nonnull @NotEmpty public String serialize(@Nonnull final StorageBackedIdPSession instance)
             throws IOException {
 
+        if (sessionManager.isCompactSerialization()) {
+            return serializeCompact(instance);
+        }
+        
         try {
             final StringWriter sink = new StringWriter(128);
             final JsonGenerator gen = jsonProvider.createGenerator(sink);
@@ -116,7 +146,15 @@ public class StorageBackedIdPSessionSerializer extends AbstractInitializableComp
             }
 
             final Set<AuthenticationResult> results = instance.getAuthenticationResults();
-            if (!results.isEmpty()) {
+            if (sessionManager.isConsolidateRecords()) {
+                if (!results.isEmpty()) {
+                    gen.writeStartObject(RESULT_MAP_FIELD);
+                    for (final AuthenticationResult result : results) {
+                        writeResult(gen, result);
+                    }
+                    gen.writeEnd();
+                }
+            } else if (!results.isEmpty()) {
                 gen.writeStartArray(FLOW_ID_ARRAY_FIELD);
                 for (final AuthenticationResult result : results) {
                     gen.write(result.getAuthenticationFlowId());
@@ -127,7 +165,15 @@ public class StorageBackedIdPSessionSerializer extends AbstractInitializableComp
             if (sessionManager.isTrackSPSessions()) {
                 if (sessionManager.storageServiceMeetsThreshold()) {
                     final Set<SPSession> services = instance.getSPSessions();
-                    if (!services.isEmpty()) {
+                    if (sessionManager.isConsolidateRecords()) {
+                        if (!services.isEmpty()) {
+                            gen.writeStartObject(SERVICE_MAP_FIELD);
+                            for (final SPSession service : services) {
+                                writeSPSession(gen, service);
+                            }
+                            gen.writeEnd();
+                        }
+                    } else if (!services.isEmpty()) {
                         gen.writeStartArray(SERVICE_ID_ARRAY_FIELD);
                         for (final SPSession service : services) {
                             gen.write(service.getId());
@@ -156,6 +202,8 @@ public class StorageBackedIdPSessionSerializer extends AbstractInitializableComp
 
         if (expiration == null) {
             throw new IOException("IdPSession objects must have an expiration");
+        } else if (CompactSessionFormat.isCompact(value)) {
+            return deserializeCompact(version, context, value, expiration);
         }
 
         try {
@@ -185,7 +233,21 @@ public class StorageBackedIdPSessionSerializer extends AbstractInitializableComp
                 objectToPopulate.doBindToAddress(obj.getString(IPV6_ADDRESS_FIELD));
             }
 
+            final long now = System.currentTimeMillis();
+
             objectToPopulate.getAuthenticationResultMap().clear();
+            if (obj.containsKey(RESULT_MAP_FIELD)) {
+                for (final Map.Entry<String,JsonValue> entry : obj.getJsonObject(RESULT_MAP_FIELD).entrySet()) {
+                    final JsonObject entryObj = (JsonObject) entry.getValue();
+                    final AuthenticationResult result = readResult(version, context, entry.getKey(),
+                            entryObj.getJsonNumber(EXPIRATION_FIELD).longValueExact(),
+                            entryObj.getString(VALUE_FIELD), now);
+                    if (result != null) {
+                        objectToPopulate.getAuthenticationResultMap().put(entry.getKey(), Optional.of(result));
+                        objectToPopulate.noteStoredActivity(result);
+                    }
+                }
+            }
             if (obj.containsKey(FLOW_ID_ARRAY_FIELD)) {
                 final JsonArray flowIds = obj.getJsonArray(FLOW_ID_ARRAY_FIELD);
                 if (flowIds != null) {
@@ -198,6 +260,17 @@ public class StorageBackedIdPSessionSerializer extends AbstractInitializableComp
             }
 
             objectToPopulate.getSPSessionMap().clear();
+            if (obj.containsKey(SERVICE_MAP_FIELD)) {
+                for (final Map.Entry<String,JsonValue> entry : obj.getJsonObject(SERVICE_MAP_FIELD).entrySet()) {
+                    final JsonObject entryObj = (JsonObject) entry.getValue();
+                    final SPSession spSession = readSPSession(version, context, entry.getKey(),
+                            entryObj.getJsonNumber(EXPIRATION_FIELD).longValueExact(),
+                            entryObj.getString(VALUE_FIELD), now);
+                    if (spSession != null) {
+                        objectToPopulate.getSPSessionMap().put(entry.getKey(), Optional.of(spSession));
+                    }
+                }
+            }
             if (obj.containsKey(SERVICE_ID_ARRAY_FIELD)) {
                 final JsonArray svcIds = obj.getJsonArray(SERVICE_ID_ARRAY_FIELD);
                 if (svcIds != null) {
@@ -217,4 +290,344 @@ public class StorageBackedIdPSessionSerializer extends AbstractInitializableComp
     }
     // Checkstyle: CyclomaticComplexity ON
 
-}
\ No newline at end of file
+    /**
+     * Serialize a session in the compact format.
+     * 
+     * @param instance the session to serialize
+     * 
+     * @return the compact record
+     * @throws IOException if the session cannot be serialized
+     */
+    @Nonnull @NotEmpty private String serializeCompact(@Nonnull final StorageBackedIdPSession instance)
+            throws IOException {
+        final CompactSessionFormat.Output out = new CompactSessionFormat.Output();
+        
+        final String v4 = instance.getAddress(AbstractIdPSession.AddressFamily.IPV4);
+        final String v6 = instance.getAddress(AbstractIdPSession.AddressFamily.IPV6);
+        final boolean consolidated = sessionManager.isConsolidateRecords();
+        out.writeVarLong(instance.getCreationInstant())
+            .writeString(instance.getPrincipalName())
+            .writeByte((v4 != null ? IPV4_ADDRESS_FLAG : 0) | (v6 != null ? IPV6_ADDRESS_FLAG : 0)
+                    | (consolidated ? CONSOLIDATED_FLAG : 0));
+        if (v4 != null) {
+            out.writeString(v4);
+        }
+        if (v6 != null) {
+            out.writeString(v6);
+        }
+        
+        final List<AuthenticationResult> results = new ArrayList<>();
+        for (final AuthenticationResult result : instance.getAuthenticationResults()) {
+            if (!consolidated || sessionManager.getAuthenticationFlowDescriptor(
+                    result.getAuthenticationFlowId()) != null) {
+                results.add(result);
+            } else {
+                log.warn("No flow descriptor installed for ID {}, unable to serialize result",
+                        result.getAuthenticationFlowId());
+            }
+        }
+        out.writeVarLong(results.size());
+        for (final AuthenticationResult result : results) {
+            out.writeString(result.getAuthenticationFlowId());
+            if (consolidated) {
+                final AuthenticationFlowDescriptor flow =
+                        sessionManager.getAuthenticationFlowDescriptor(result.getAuthenticationFlowId());
+                out.writeVarLong(result.getLastActivityInstant() + flow.getInactivityTimeout()
+                            + AuthenticationFlowDescriptor.STORAGE_EXPIRATION_OFFSET)
+                    .writeString(flow.serialize(result));
+            }
+        }
+        
+        final List<SPSession> services = new ArrayList<>();
+        if (sessionManager.isTrackSPSessions()) {
+            if (sessionManager.storageServiceMeetsThreshold()) {
+                for (final SPSession service : instance.getSPSessions()) {
+                    if (!consolidated
+                            || sessionManager.getSPSessionSerializerRegistry().lookup(service.getClass()) != null) {
+                        services.add(service);
+                    } else {
+                        log.warn("No serializer registered for SPSession type {}, unable to serialize session",
+                                service.getClass().getName());
+                    }
+                }
+            } else {
+                log.debug("Unable to serialize SP session due to to storage service limitations");
+            }
+        }
+        out.writeVarLong(services.size());
+        for (final SPSession service : services) {
+            out.writeString(service.getId());
+            if (consolidated) {
+                out.writeVarLong(service.getExpirationInstant() + sessionManager.getSessionSlop())
+                    .writeString(serializeSPSession(sessionManager,
+                            sessionManager.getSPSessionSerializerRegistry().lookup(service.getClass()), service));
+            }
+        }
+        
+        return out.encode();
+    }
+
+    /**
+     * Deserialize a session from the compact format.
+     * 
+     * @param version version of the record
+     * @param context context of the record
+     * @param value the compact record
+     * @param expiration expiration of the record
+     * 
+     * @return the session
+     * @throws IOException if the record cannot be deserialized
+     */
+    @Nonnull private StorageBackedIdPSession deserializeCompact(final long version,
+            @Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String value, final long expiration)
+                    throws IOException {
+        final CompactSessionFormat.Input in = new CompactSessionFormat.Input(value);
+        
+        final long creation = in.readVarLong();
+        final String principalName = in.readString();
+        final int flags = in.readByte();
+        final String v4 = in.readStringIf(flags, IPV4_ADDRESS_FLAG);
+        final String v6 = in.readStringIf(flags, IPV6_ADDRESS_FLAG);
+        final boolean consolidated = (flags & CONSOLIDATED_FLAG) != 0;
+        
+        // Create new object if necessary.
+        StorageBackedIdPSession objectToPopulate = targetObject;
+        if (objectToPopulate == null) {
+            objectToPopulate = new StorageBackedIdPSession(sessionManager, context, principalName, creation);
+        }
+
+        // Populate fields in-place, bypassing any storage interactions.
+        objectToPopulate.setVersion(version);
+        objectToPopulate.doSetLastActivityInstant(expiration - sessionManager.getSessionTimeout()
+                - sessionManager.getSessionSlop());
+        if (v4 != null) {
+            objectToPopulate.doBindToAddress(v4);
+        }
+        if (v6 != null) {
+            objectToPopulate.doBindToAddress(v6);
+        }
+
+        final long now = System.currentTimeMillis();
+
+        objectToPopulate.getAuthenticationResultMap().clear();
+        for (long count = in.readVarLong(); count > 0; --count) {
+            final String flowId = in.readString();
+            if (consolidated) {
+                final AuthenticationResult result =
+                        readResult(version, context, flowId, in.readVarLong(), in.readString(), now);
+                if (result != null) {
+                    objectToPopulate.getAuthenticationResultMap().put(flowId, Optional.of(result));
+                    objectToPopulate.noteStoredActivity(result);
+                }
+            } else {
+                // An absent mapping is used to signify the existence of a result not yet loaded.
+                objectToPopulate.getAuthenticationResultMap().put(flowId, Optional.<AuthenticationResult> absent());
+            }
+        }
+
+        objectToPopulate.getSPSessionMap().clear();
+        for (long count = in.readVarLong(); count > 0; --count) {
+            final String serviceId = in.readString();
+            if (consolidated) {
+                final SPSession spSession =
+                        readSPSession(version, context, serviceId, in.readVarLong(), in.readString(), now);
+                if (spSession != null) {
+                    objectToPopulate.getSPSessionMap().put(serviceId, Optional.of(spSession));
+                }
+            } else {
+                // An absent mapping is used to signify the existence of a session not yet loaded.
+                objectToPopulate.getSPSessionMap().put(serviceId, Optional.<SPSession> absent());
+            }
+        }
+
+        return objectToPopulate;
+    }
+
+    /**
+     * Serialize an {@link SPSession}, prefixing the data produced by its serializer with its class name,
+     * or an alias for it if compact serialization is enabled.
+     * 
+     * @param manager parent SessionManager instance
+     * @param spSessionSerializer serializer registered for the session's class
+     * @param spSession the session to serialize
+     * 
+     * @return the prefixed data
+     * @throws IOException if the session cannot be serialized
+     */
+    @Nonnull @NotEmpty static String serializeSPSession(@Nonnull final StorageBackedSessionManager manager,
+            @Nonnull final StorageSerializer spSessionSerializer, @Nonnull final SPSession spSession)
+                    throws IOException {
+        final String className = spSession.getClass().getName();
+        final StringBuilder builder = new StringBuilder(
+                manager.isCompactSerialization() ? CompactSessionFormat.aliasType(className) : className);
+        builder.append(':').append(spSessionSerializer.serialize(spSession));
+        return builder.toString();
+    }
+
+    /**
+     * Deserialize an {@link SPSession} stored with its class name prefixed to the data produced by the
+     * serializer registered for that class.
+     * 
+     * @param manager parent SessionManager instance
+     * @param version version of the record holding the data
+     * @param context context of the record holding the data
+     * @param key key of the record holding the data
+     * @param value the prefixed data
+     * @param expiration expiration of the data
+     * 
+     * @return the deserialized session
+     * @throws IOException if the data cannot be deserialized
+     */
+    @Nonnull static SPSession deserializeSPSession(@Nonnull final StorageBackedSessionManager manager,
+            final long version, @Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nonnull @NotEmpty final String value, @Nullable final Long expiration) throws IOException {
+        
+        // Parse out the class type.
+        final int pos = value.indexOf(':');
+        if (pos <= 0) {
+            throw new IOException("No class type found prefixed to record");
+        }
+        
+        final String sessionClassName = CompactSessionFormat.resolveType(value.substring(0,  pos));
+        
+        try {
+            // Look up the serializer instance for that class type.
+            final StorageSerializer<? extends SPSession> spSessionSerializer =
+                    manager.getSPSessionSerializerRegistry().lookup(
+                            Class.forName(sessionClassName).asSubclass(SPSession.class));
+            if (spSessionSerializer == null) {
+                throw new IOException("No serializer registered for SPSession type " + sessionClassName);
+            }
+            
+            // Deserializer starting past the colon delimiter.
+            return spSessionSerializer.deserialize(version, context, key, value.substring(pos + 1), expiration);
+        } catch (final ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Write an {@link AuthenticationResult} into a consolidated result map, using the object attached to the
+     * corresponding {@link AuthenticationFlowDescriptor}.
+     * 
+     * @param gen generator positioned within the map
+     * @param result the result to write
+     * 
+     * @throws IOException if the result cannot be serialized
+     */
+    private void writeResult(@Nonnull final JsonGenerator gen, @Nonnull final AuthenticationResult result)
+            throws IOException {
+        final String flowId = result.getAuthenticationFlowId();
+        final AuthenticationFlowDescriptor flow = sessionManager.getAuthenticationFlowDescriptor(flowId);
+        if (flow == null) {
+            log.warn("No flow descriptor installed for ID {}, unable to serialize result", flowId);
+            return;
+        }
+        
+        gen.writeStartObject(flowId)
+            .write(EXPIRATION_FIELD, result.getLastActivityInstant() + flow.getInactivityTimeout()
+                    + AuthenticationFlowDescriptor.STORAGE_EXPIRATION_OFFSET)
+            .write(VALUE_FIELD, flow.serialize(result))
+            .writeEnd();
+    }
+
+    /**
+     * Write an {@link SPSession} into a consolidated service session map, using the object registered
+     * in the attached {@link net.shibboleth.idp.session.SPSessionSerializerRegistry}.
+     * 
+     * @param gen generator positioned within the map
+     * @param spSession the session to write
+     * 
+     * @throws IOException if the session cannot be serialized
+     */
+    private void writeSPSession(@Nonnull final JsonGenerator gen, @Nonnull final SPSession spSession)
+            throws IOException {
+        final StorageSerializer spSessionSerializer =
+                sessionManager.getSPSessionSerializerRegistry().lookup(spSession.getClass());
+        if (spSessionSerializer == null) {
+            log.warn("No serializer registered for SPSession type {}, unable to serialize session",
+                    spSession.getClass().getName());
+            return;
+        }
+        
+        gen.writeStartObject(spSession.getId())
+            .write(EXPIRATION_FIELD, spSession.getExpirationInstant() + sessionManager.getSessionSlop())
+            .write(VALUE_FIELD, serializeSPSession(sessionManager, spSessionSerializer, spSession))
+            .writeEnd();
+    }
+
+    /**
+     * Read an {@link AuthenticationResult} from a consolidated result map.
+     * 
+     * <p>Expired, unusable, or orphaned entries are skipped, just as the corresponding records would be
+     * absent from storage in the non-consolidated layout.</p>
+     * 
+     * @param version version of the master record
+     * @param context context of the master record
+     * @param flowId ID of result/flow
+     * @param exp expiration of the entry
+     * @param serialized serialized result
+     * @param now current time
+     * 
+     * @return the result, or null
+     */
+    @Nullable private AuthenticationResult readResult(final long version, @Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String flowId, final long exp, @Nonnull @NotEmpty final String serialized,
+            final long now) {
+        
+        if (exp <= now) {
+            log.debug("AuthenticationResult for flow {} in session {} has expired", flowId, context);
+            return null;
+        }
+        
+        final AuthenticationFlowDescriptor flow = sessionManager.getAuthenticationFlowDescriptor(flowId);
+        if (flow == null) {
+            log.warn("No flow descriptor installed for ID {}, unable to load result", flowId);
+            return null;
+        }
+        
+        try {
+            return flow.deserialize(version, context, flowId, serialized, exp);
+        } catch (final IOException e) {
+            log.error("Exception loading AuthenticationResult for flow {} in session {}", flowId, context, e);
+            return null;
+        }
+    }
+
+    /**
+     * Read an {@link SPSession} from a consolidated service session map.
+     * 
+     * <p>Expired or unusable entries are skipped, just as the corresponding records would be absent from
+     * storage in the non-consolidated layout.</p>
+     * 
+     * @param version version of the master record
+     * @param context context of the master record
+     * @param serviceId ID of service
+     * @param exp expiration of the entry
+     * @param serialized serialized session, prefixed by its type
+     * @param now current time
+     * 
+     * @return the session, or null
+     */
+    @Nullable private SPSession readSPSession(final long version, @Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String serviceId, final long exp, @Nonnull @NotEmpty final String serialized,
+            final long now) {
+        
+        if (!sessionManager.isTrackSPSessions() || sessionManager.getSPSessionSerializerRegistry() == null) {
+            return null;
+        }
+        
+        if (exp <= now) {
+            log.debug("SPSession for service {} in session {} has expired", serviceId, context);
+            return null;
+        }
+        
+        try {
+            return deserializeSPSession(sessionManager, version, context, serviceId, serialized, exp);
+        } catch (final IOException e) {
+            log.error("Exception loading SPSession for service {} in session {}", serviceId, context, e);
+            return null;
+        }
+    }
+
+}
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -54,6 +55,7 @@ import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
 import net.shibboleth.utilities.java.support.resolver.ResolverException;
 import net.shibboleth.utilities.java.support.security.IdentifierGenerationStrategy;
 
+import org.opensaml.core.metrics.MetricsSupport;
 import org.opensaml.storage.StorageRecord;
 import org.opensaml.storage.StorageSerializer;
 import org.opensaml.storage.StorageService;
@@ -61,8 +63,12 @@ import org.opensaml.storage.VersionMismatchException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Predicates;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 
@@ -106,6 +112,17 @@ import com.google.common.collect.Iterables;
  * The primary purpose of the secondary list is SAML logout, and is an optional feature that can be disabled. In the
  * case of a SAML 2 session, the secondary key is some form of the NameID issued to the service.
  * </p>
+ * 
+ * <p>
+ * Optionally, the AuthenticationResult and SPSession records can instead be consolidated into the master record
+ * along with their individual expirations, so that the whole session is loaded with a single read and every change
+ * is a single version-checked update. Records written in the separate layout remain readable.
+ * </p>
+ * 
+ * <p>
+ * Records are JSON by default, but may optionally be written in a compact, versioned binary format. Both formats
+ * are always readable.
+ * </p>
  */
 public class StorageBackedSessionManager extends AbstractIdentifiableInitializableComponent implements SessionManager,
         SessionResolver {
@@ -131,6 +148,9 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
     /** Amount of time in milliseconds to defer expiration of records for better handling of logout. */
     @Duration @NonNegative private long sessionSlop;
 
+    /** Amount of time in milliseconds below which activity updates are not written to storage. */
+    @Duration @NonNegative private long activityGranularity;
+
     /** Indicates that storage service failures should be masked as much as possible. */
     private boolean maskStorageFailure;
 
@@ -143,6 +163,27 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
     /** Indicates whether sessions are bound to client addresses. */
     private boolean consistentAddress;
 
+    /** Indicates whether results and SPSessions are stored within the master record. */
+    private boolean consolidateRecords;
+
+    /** Indicates whether records are written in the compact format. */
+    private boolean compactSerialization;
+
+    /** Time in milliseconds to cache secondary index records locally. */
+    @Duration @NonNegative private long serviceIndexCacheTTL;
+
+    /** Maximum number of secondary index records to cache locally. */
+    @Positive private long serviceIndexCacheSize;
+
+    /** Local cache of secondary index records. */
+    @Nullable private Cache<String,StorageRecord> serviceIndexCache;
+
+    /** Count of secondary index lookups answered by the local cache. */
+    @Nullable private Counter serviceIndexCacheHits;
+
+    /** Count of secondary index lookups not answered by the local cache. */
+    @Nullable private Counter serviceIndexCacheMisses;
+
     /** Manages creation of cookies. */
     @NonnullAfterInit private CookieManager cookieManager;
 
@@ -178,6 +219,7 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
         consistentAddress = true;
         cookieName = DEFAULT_COOKIE_NAME;
         storageServiceThreshold = 1024 * 1024;
+        serviceIndexCacheSize = 10000;
     }
 
     /**
@@ -242,6 +284,34 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
         sessionSlop = Constraint.isGreaterThanOrEqual(0, slop, "Slop must be greater than or equal to zero");
     }
 
+    /**
+     * Get the amount of time in milliseconds by which activity must advance before it is written to storage.
+     * 
+     * @return activity update granularity
+     */
+    @Duration @NonNegative public long getActivityGranularity() {
+        return activityGranularity;
+    }
+
+    /**
+     * Set the amount of time in milliseconds by which activity must advance before it is written to storage.
+     * 
+     * <p>
+     * Updates to the last activity time of a session, or of an AuthenticationResult, that fall within this
+     * interval of the time last stored are skipped, so records may expire up to this much earlier than they
+     * otherwise would. Changes to the content of a session are always written. Defaults to zero, which writes
+     * every update. Must be less than the session timeout.
+     * </p>
+     * 
+     * @param granularity the granularity to set
+     */
+    @Duration public void setActivityGranularity(@Duration @NonNegative final long granularity) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        activityGranularity =
+                Constraint.isGreaterThanOrEqual(0, granularity, "Granularity must be greater than or equal to zero");
+    }
+
     /**
      * Get whether to mask StorageService failures where possible.
      * 
@@ -310,6 +380,37 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
         secondaryServiceIndex = flag;
     }
 
+    /**
+     * Set the time in milliseconds to cache secondary index records locally.
+     * 
+     * <p>
+     * The cache saves reading the index record when sessions are looked up by SPSession, as during logout.
+     * Changes made by this instance are reflected immediately, but those made by other instances sharing the
+     * StorageService may go unseen until the cached record expires, so a short value is advisable in a cluster.
+     * Defaults to zero, which disables the cache.
+     * </p>
+     * 
+     * @param ttl time to cache index records
+     */
+    @Duration public void setServiceIndexCacheTTL(@Duration @NonNegative final long ttl) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        serviceIndexCacheTTL = Constraint.isGreaterThanOrEqual(0, ttl, "TTL must be greater than or equal to zero");
+    }
+
+    /**
+     * Set the maximum number of secondary index records to cache locally.
+     * 
+     * <p>Defaults to 10000.</p>
+     * 
+     * @param size maximum number of records
+     */
+    public void setServiceIndexCacheSize(@Positive final long size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        serviceIndexCacheSize = Constraint.isGreaterThan(0, size, "Cache size must be greater than zero");
+    }
+
     /**
      * Get whether sessions are bound to client addresses.
      * 
@@ -330,6 +431,58 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
         consistentAddress = flag;
     }
 
+    /**
+     * Get whether AuthenticationResults and SPSessions are stored within the master session record.
+     * 
+     * @return true iff the master session record holds the entire session
+     */
+    public boolean isConsolidateRecords() {
+        return consolidateRecords;
+    }
+
+    /**
+     * Set whether AuthenticationResults and SPSessions are stored within the master session record.
+     * 
+     * <p>
+     * This trades a larger master record for loading the whole session in one read, which suits a remote
+     * StorageService. A session object then reflects the state of storage when it was loaded or last written,
+     * rather than lazily loading each result or SPSession on first use.
+     * </p>
+     * 
+     * @param flag flag to set
+     */
+    public void setConsolidateRecords(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        consolidateRecords = flag;
+    }
+
+    /**
+     * Get whether session records are written in the compact format.
+     * 
+     * @return true iff session records are written in the compact format
+     */
+    public boolean isCompactSerialization() {
+        return compactSerialization;
+    }
+
+    /**
+     * Set whether session records are written in the compact format.
+     * 
+     * <p>
+     * The compact format is a versioned binary encoding of the master session record, and aliases the class
+     * names of the built-in SPSession types. Records in either format are always readable, so this can be
+     * enabled on a live deployment once every node sharing the StorageService understands the compact format.
+     * </p>
+     * 
+     * @param flag flag to set
+     */
+    public void setCompactSerialization(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        compactSerialization = flag;
+    }
+
     /**
      * Set the cookie name to use for session tracking.
      * 
@@ -486,10 +639,32 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
                     "Initialization of StorageBackedSessionManager requires non-null CookieManager");
         } else if (trackSPSessions && spSessionSerializerRegistry == null) {
             throw new ComponentInitializationException("Tracking SPSessions requires a spSessionSerializerRegistry");
+        } else if (activityGranularity >= sessionTimeout) {
+            throw new ComponentInitializationException("Activity granularity must be less than the session timeout");
         }
 
         // This is our private instance, so we initialize it.
         serializer.initialize();
+        
+        if (secondaryServiceIndex && serviceIndexCacheTTL > 0) {
+            serviceIndexCache = CacheBuilder.newBuilder()
+                    .maximumSize(serviceIndexCacheSize)
+                    .expireAfterWrite(serviceIndexCacheTTL, TimeUnit.MILLISECONDS)
+                    .build();
+            final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+            serviceIndexCacheHits = registry.counter(getServiceIndexCacheMetricName("hits"));
+            serviceIndexCacheMisses = registry.counter(getServiceIndexCacheMetricName("misses"));
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override protected void doDestroy() {
+        if (serviceIndexCache != null) {
+            // The counters stay registered: a reloaded manager with the same id shares their names.
+            serviceIndexCache.invalidateAll();
+        }
+        
+        super.doDestroy();
     }
 
     /** {@inheritDoc} */
@@ -697,6 +872,8 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
             } catch (final VersionMismatchException e) {
                 log.debug("Secondary index record was updated between read/update, retrying");
                 indexBySPSession(idpSession, spSession, attempts - 1);
+            } finally {
+                invalidateServiceIndex(serviceId, serviceKey);
             }
         }
     }
@@ -777,6 +954,8 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
             } catch (final VersionMismatchException e) {
                 log.debug("Secondary index record was updated between read/update/delete, retrying");
                 unindexSPSession(idpSession, spSession, attempts - 1);
+            } finally {
+                invalidateServiceIndex(serviceId, serviceKey);
             }
         }
     }
@@ -843,12 +1022,27 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
 
         StorageRecord sessionList = null;
 
-        try {
-            sessionList = storageService.read(serviceId, serviceKey);
-        } catch (final IOException e) {
-            log.error("Exception while querying based service ID {} and key {}", serviceId, serviceKey, e);
-            if (!maskStorageFailure) {
-                throw new ResolverException("Exception while querying based on SPSession", e);
+        final String cacheKey = serviceIndexCache != null ? getServiceIndexCacheKey(serviceId, serviceKey) : null;
+        if (cacheKey != null) {
+            sessionList = serviceIndexCache.getIfPresent(cacheKey);
+            if (sessionList != null) {
+                serviceIndexCacheHits.inc();
+            } else {
+                serviceIndexCacheMisses.inc();
+            }
+        }
+        
+        if (sessionList == null) {
+            try {
+                sessionList = storageService.read(serviceId, serviceKey);
+                if (sessionList != null && cacheKey != null) {
+                    serviceIndexCache.put(cacheKey, sessionList);
+                }
+            } catch (final IOException e) {
+                log.error("Exception while querying based service ID {} and key {}", serviceId, serviceKey, e);
+                if (!maskStorageFailure) {
+                    throw new ResolverException("Exception while querying based on SPSession", e);
+                }
             }
         }
 
@@ -883,8 +1077,51 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
             log.warn("Ignoring exception while updating secondary index", e);
         } catch (final VersionMismatchException e) {
             log.debug("Ignoring version mismatch while updating secondary index");
+        } finally {
+            if (writeBackSessionList.length() != sessionList.getValue().length()) {
+                invalidateServiceIndex(serviceId, serviceKey);
+            }
         }
 
         return builder.build();
     }
-}
\ No newline at end of file
+
+    /**
+     * Remove a secondary index record from the local cache, if any.
+     * 
+     * @param serviceId the service ID context of the record
+     * @param serviceKey the key of the record
+     */
+    private void invalidateServiceIndex(@Nonnull @NotEmpty final String serviceId,
+            @Nonnull @NotEmpty final String serviceKey) {
+        if (serviceIndexCache != null) {
+            serviceIndexCache.invalidate(getServiceIndexCacheKey(serviceId, serviceKey));
+        }
+    }
+
+    /**
+     * Get the local cache key for a secondary index record.
+     * 
+     * @param serviceId the service ID context of the record
+     * @param serviceKey the key of the record
+     * 
+     * @return the cache key
+     */
+    @Nonnull @NotEmpty private String getServiceIndexCacheKey(@Nonnull @NotEmpty final String serviceId,
+            @Nonnull @NotEmpty final String serviceKey) {
+        // Length-prefix the service ID so that distinct pairs can't collide.
+        return serviceId.length() + ":" + serviceId + serviceKey;
+    }
+
+    /**
+     * Get the name of a secondary index cache metric.
+     * 
+     * @param name name of the metric
+     * 
+     * @return the full metric name
+     */
+    @Nonnull @NotEmpty private String getServiceIndexCacheMetricName(@Nonnull @NotEmpty final String name) {
+        return MetricRegistry.name("net.shibboleth.idp.session", getId(), "serviceIndexCache", name);
+    }
+
+}
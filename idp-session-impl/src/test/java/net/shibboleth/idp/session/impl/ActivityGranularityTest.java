@@ -0,0 +1,113 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session.impl;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import net.shibboleth.idp.authn.AuthenticationFlowDescriptor;
+import net.shibboleth.idp.authn.AuthenticationResult;
+import net.shibboleth.idp.authn.impl.DefaultAuthenticationResultSerializer;
+import net.shibboleth.idp.authn.principal.UsernamePrincipal;
+import net.shibboleth.idp.session.IdPSession;
+import net.shibboleth.idp.session.SessionException;
+import net.shibboleth.idp.session.criterion.SessionIdCriterion;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.net.HttpServletRequestResponseContext;
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+import net.shibboleth.utilities.java.support.resolver.ResolverException;
+
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.StorageSerializer;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/** {@link StorageBackedSessionManager} unit test for coalescing of activity updates. */
+public class ActivityGranularityTest extends SessionManagerBaseTestCase {
+
+    private AuthenticationFlowDescriptor foo;
+    
+    @BeforeClass public void setUp() throws ComponentInitializationException {
+        final StorageSerializer<AuthenticationResult> resultSerializer = new DefaultAuthenticationResultSerializer();
+        resultSerializer.initialize();
+        
+        foo = new AuthenticationFlowDescriptor();
+        foo.setId("AuthenticationFlow/Foo");
+        foo.setLifetime(60 * 1000);
+        foo.setInactivityTimeout(60 * 1000);
+        foo.setResultSerializer(resultSerializer);
+        foo.initialize();
+        
+        super.setUp();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void adjustProperties() {
+        sessionManager.setAuthenticationFlowDescriptors(Collections.singletonList(foo));
+        sessionManager.setActivityGranularity(2000);
+    }
+
+    @Test public void testCoalescing()
+            throws ResolverException, SessionException, IOException, InterruptedException {
+        HttpServletRequestResponseContext.loadCurrent(new MockHttpServletRequest(), new MockHttpServletResponse());
+        
+        final IdPSession session = sessionManager.createSession("joe");
+        final long creation = session.getLastActivityInstant();
+        final long expiration = storageService.read(session.getId(),
+                StorageBackedSessionManager.SESSION_MASTER_KEY).getExpiration();
+        
+        final AuthenticationResult result =
+                new AuthenticationResult("AuthenticationFlow/Foo", new UsernamePrincipal("joe"));
+        session.addAuthenticationResult(result);
+        final StorageRecord record = storageService.read(session.getId(), "AuthenticationFlow/Foo");
+        
+        Thread.sleep(100);
+        
+        // Within the granularity, nothing is written.
+        session.checkTimeout();
+        Assert.assertEquals(session.getLastActivityInstant(), creation);
+        Assert.assertEquals(storageService.read(session.getId(),
+                StorageBackedSessionManager.SESSION_MASTER_KEY).getExpiration().longValue(), expiration);
+        
+        result.setLastActivityInstantToNow();
+        session.updateAuthenticationResultActivity(result);
+        Assert.assertEquals(storageService.read(session.getId(), "AuthenticationFlow/Foo").getExpiration(),
+                record.getExpiration());
+        
+        // Beyond the granularity, updates are written.
+        final IdPSession session2 =
+                sessionManager.resolveSingle(new CriteriaSet(new SessionIdCriterion(session.getId())));
+        session2.setLastActivityInstant(creation + 2000);
+        Assert.assertEquals(session2.getLastActivityInstant(), creation + 2000);
+        Assert.assertEquals(storageService.read(session.getId(),
+                StorageBackedSessionManager.SESSION_MASTER_KEY).getExpiration().longValue(), expiration + 2000);
+        
+        final AuthenticationResult result2 = session2.getAuthenticationResult("AuthenticationFlow/Foo");
+        result2.setLastActivityInstant(result2.getLastActivityInstant() + 2000);
+        session2.updateAuthenticationResultActivity(result2);
+        Assert.assertEquals(storageService.read(session.getId(), "AuthenticationFlow/Foo").getExpiration(),
+                Long.valueOf(record.getExpiration() + 2000));
+        
+        sessionManager.destroySession(session.getId(), true);
+    }
+    
+}
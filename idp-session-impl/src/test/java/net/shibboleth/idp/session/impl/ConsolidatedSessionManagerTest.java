@@ -0,0 +1,141 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session.impl;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.shibboleth.idp.authn.AuthenticationFlowDescriptor;
+import net.shibboleth.idp.authn.AuthenticationResult;
+import net.shibboleth.idp.authn.impl.DefaultAuthenticationResultSerializer;
+import net.shibboleth.idp.authn.principal.TestPrincipal;
+import net.shibboleth.idp.authn.principal.UsernamePrincipal;
+import net.shibboleth.idp.session.BasicSPSession;
+import net.shibboleth.idp.session.IdPSession;
+import net.shibboleth.idp.session.SPSession;
+import net.shibboleth.idp.session.SPSessionSerializerRegistry;
+import net.shibboleth.idp.session.SessionException;
+import net.shibboleth.idp.session.criterion.SessionIdCriterion;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.net.HttpServletRequestResponseContext;
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+import net.shibboleth.utilities.java.support.resolver.ResolverException;
+
+import org.opensaml.storage.StorageSerializer;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/** {@link StorageBackedSessionManager} unit test using the consolidated record layout. */
+public class ConsolidatedSessionManagerTest extends SessionManagerBaseTestCase {
+
+    private static final long sessionSlop = 60 * 5 * 1000;
+    
+    private AuthenticationFlowDescriptor foo;
+    
+    private SPSessionSerializerRegistry serializerRegistry;
+    
+    @BeforeClass public void setUp() throws ComponentInitializationException {
+        serializerRegistry = new SPSessionSerializerRegistry();
+        final Map<Class<? extends SPSession>,StorageSerializer<? extends SPSession>> map = new HashMap<>();
+        map.put(BasicSPSession.class, new BasicSPSessionSerializer(sessionSlop));
+        serializerRegistry.setMappings(map);
+        serializerRegistry.initialize();
+        
+        final StorageSerializer<AuthenticationResult> resultSerializer = new DefaultAuthenticationResultSerializer();
+        resultSerializer.initialize();
+        
+        foo = new AuthenticationFlowDescriptor();
+        foo.setId("AuthenticationFlow/Foo");
+        foo.setLifetime(60 * 1000);
+        foo.setInactivityTimeout(60 * 1000);
+        foo.setResultSerializer(resultSerializer);
+        foo.initialize();
+        
+        super.setUp();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void adjustProperties() {
+        sessionManager.setAuthenticationFlowDescriptors(Arrays.asList(foo));
+        sessionManager.setTrackSPSessions(true);
+        sessionManager.setSecondaryServiceIndex(true);
+        sessionManager.setSessionSlop(sessionSlop);
+        sessionManager.setSPSessionSerializerRegistry(serializerRegistry);
+        sessionManager.setConsolidateRecords(true);
+    }
+
+    @Test public void testSingleRecord() throws ResolverException, SessionException, IOException {
+        HttpServletRequestResponseContext.loadCurrent(new MockHttpServletRequest(), new MockHttpServletResponse());
+        
+        final IdPSession session = sessionManager.createSession("joe");
+        
+        final AuthenticationResult result =
+                new AuthenticationResult("AuthenticationFlow/Foo", new UsernamePrincipal("joe"));
+        result.getSubject().getPrincipals().add(new TestPrincipal("test1"));
+        Assert.assertNull(session.addAuthenticationResult(result));
+        try {
+            session.addAuthenticationResult(
+                    new AuthenticationResult("AuthenticationFlow/Baz", new UsernamePrincipal("joe")));
+            Assert.fail("An unserializable AuthenticationResult should not have worked");
+        } catch (final SessionException e) {
+            
+        }
+        
+        final SPSession spSession = new BasicSPSession("https://sp.example.org/shibboleth",
+                System.currentTimeMillis(), System.currentTimeMillis() + 60 * 60 * 1000);
+        Assert.assertNull(session.addSPSession(spSession));
+        
+        // Nothing but the master record is stored.
+        Assert.assertNull(storageService.read(session.getId(), "AuthenticationFlow/Foo"));
+        Assert.assertNull(storageService.read(session.getId(), "https://sp.example.org/shibboleth"));
+        
+        // Update timestamp.
+        result.setLastActivityInstant(System.currentTimeMillis());
+        session.updateAuthenticationResultActivity(result);
+        
+        final IdPSession session2 =
+                sessionManager.resolveSingle(new CriteriaSet(new SessionIdCriterion(session.getId())));
+        Assert.assertNotNull(session2);
+        Assert.assertEquals(session2.getAuthenticationResults().size(), 1);
+        final AuthenticationResult result2 = session2.getAuthenticationResult("AuthenticationFlow/Foo");
+        Assert.assertNotNull(result2);
+        Assert.assertEquals(result2.getLastActivityInstant(), result.getLastActivityInstant());
+        Assert.assertEquals(result2.getSubject(), result.getSubject());
+        final SPSession spSession2 = session2.getSPSession("https://sp.example.org/shibboleth");
+        Assert.assertNotNull(spSession2);
+        Assert.assertEquals(spSession2.getExpirationInstant(), spSession.getExpirationInstant());
+        
+        // Removal through a stale copy resynchronizes against the current record.
+        Assert.assertTrue(session2.removeSPSession(spSession2));
+        Assert.assertTrue(session.removeAuthenticationResult(result));
+        
+        final IdPSession session3 =
+                sessionManager.resolveSingle(new CriteriaSet(new SessionIdCriterion(session.getId())));
+        Assert.assertTrue(session3.getAuthenticationResults().isEmpty());
+        Assert.assertTrue(session3.getSPSessions().isEmpty());
+        
+        sessionManager.destroySession(session.getId(), true);
+    }
+    
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session.impl;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import net.shibboleth.idp.profile.ActionTestingSupport;
+import net.shibboleth.idp.profile.RequestContextBuilder;
+import net.shibboleth.idp.profile.context.navigate.WebflowRequestContextProfileRequestContextLookup;
+import net.shibboleth.idp.session.BasicSPSession;
+import net.shibboleth.idp.session.SPSession;
+import net.shibboleth.idp.session.context.LogoutContext;
+import net.shibboleth.idp.session.context.LogoutPropagationContext.Result;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.springframework.webflow.execution.Event;
+import org.springframework.webflow.execution.RequestContext;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Function;
+
+/** {@link PropagateBackChannelLogout} unit test. */
+public class PropagateBackChannelLogoutTest {
+
+    private RequestContext src;
+
+    private ProfileRequestContext prc;
+
+    private LogoutContext logoutCtx;
+
+    private ExecutorService executor;
+
+    @BeforeMethod public void setUp() {
+        src = new RequestContextBuilder().buildRequestContext();
+        prc = new WebflowRequestContextProfileRequestContextLookup().apply(src);
+        logoutCtx = prc.getSubcontext(LogoutContext.class, true);
+        executor = Executors.newFixedThreadPool(8);
+
+        final long now = System.currentTimeMillis();
+        for (int i = 1; i <= 6; i++) {
+            final SPSession session = new BasicSPSession("https://sp" + i + ".example.org", now, now + 60000);
+            logoutCtx.getSessionMap().put(session.getId(), session);
+            logoutCtx.getKeyedSessionMap().put("key" + i, session);
+        }
+    }
+
+    @AfterMethod public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private PropagateBackChannelLogout buildAction(@Nullable final Function<SPSession,Result> strategy,
+            final int max, final long timeout, final long deadline) throws ComponentInitializationException {
+        final PropagateBackChannelLogout action = new PropagateBackChannelLogout();
+        action.setPropagationStrategy(strategy);
+        action.setExecutorService(executor);
+        action.setMaxConcurrency(max);
+        action.setSessionTimeout(timeout);
+        action.setDeadline(deadline);
+        action.initialize();
+        return action;
+    }
+
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testNoExecutor() throws ComponentInitializationException {
+        final PropagateBackChannelLogout action = new PropagateBackChannelLogout();
+        action.setPropagationStrategy(session -> Result.Success);
+        action.initialize();
+    }
+
+    @Test public void testNoStrategy() throws ComponentInitializationException {
+        final Event event = buildAction(null, 2, 1000, 2000).execute(src);
+        ActionTestingSupport.assertProceedEvent(event);
+        Assert.assertTrue(logoutCtx.getPropagationResults().isEmpty());
+    }
+
+    @Test public void testBoundedConcurrency() throws ComponentInitializationException {
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+        final Function<SPSession,Result> strategy = session -> {
+            peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(50);
+            } catch (final InterruptedException e) {
+                return Result.Failure;
+            } finally {
+                active.decrementAndGet();
+            }
+            return session.getId().contains("sp3") ? null : Result.Success;
+        };
+
+        final Event event = buildAction(strategy, 2, 1000, 5000).execute(src);
+        ActionTestingSupport.assertProceedEvent(event);
+        Assert.assertTrue(peak.get() <= 2);
+        Assert.assertEquals(logoutCtx.getPropagationResults().size(), 5);
+        Assert.assertFalse(logoutCtx.getPropagationResults().containsKey("key3"));
+        Assert.assertEquals(logoutCtx.getPropagationResults().get("key1"), Result.Success);
+    }
+
+    @Test public void testTimeout() throws ComponentInitializationException {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final Function<SPSession,Result> strategy = session -> {
+            if (session.getId().contains("sp1")) {
+                try {
+                    gate.await(5, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    return Result.Failure;
+                }
+            }
+            return Result.Success;
+        };
+
+        final long start = System.currentTimeMillis();
+        final Event event = buildAction(strategy, 1, 100, 5000).execute(src);
+        gate.countDown();
+        ActionTestingSupport.assertProceedEvent(event);
+        Assert.assertTrue(System.currentTimeMillis() - start < 2000);
+        Assert.assertEquals(logoutCtx.getPropagationResults().size(), 6);
+        Assert.assertEquals(logoutCtx.getPropagationResults().get("key1"), Result.Failure);
+        Assert.assertEquals(logoutCtx.getPropagationResults().get("key6"), Result.Success);
+    }
+
+    @Test public void testDeadline() throws ComponentInitializationException {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final Function<SPSession,Result> strategy = session -> {
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                // Ignore, to simulate I/O that doesn't respond to interruption.
+            }
+            return Result.Success;
+        };
+
+        final long start = System.currentTimeMillis();
+        final Event event = buildAction(strategy, 6, 1000, 200).execute(src);
+        gate.countDown();
+        ActionTestingSupport.assertProceedEvent(event);
+        Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+        Assert.assertEquals(logoutCtx.getPropagationResults().size(), 6);
+        for (final Result result : logoutCtx.getPropagationResults().values()) {
+            Assert.assertEquals(result, Result.Failure);
+        }
+    }
+
+}
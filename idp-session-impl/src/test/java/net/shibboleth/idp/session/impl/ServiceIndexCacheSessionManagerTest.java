@@ -0,0 +1,85 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session.impl;
+
+import net.shibboleth.idp.session.IdPSession;
+import net.shibboleth.idp.session.SPSession;
+import net.shibboleth.idp.session.SessionException;
+import net.shibboleth.idp.session.criterion.SPSessionCriterion;
+import net.shibboleth.utilities.java.support.net.HttpServletRequestResponseContext;
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+import net.shibboleth.utilities.java.support.resolver.ResolverException;
+
+import org.opensaml.core.metrics.MetricsSupport;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Iterables;
+
+/** {@link StorageBackedSessionManager} unit test with the secondary index cache enabled. */
+public class ServiceIndexCacheSessionManagerTest extends StorageBackedSessionManagerTest {
+
+    /** {@inheritDoc} */
+    @Override
+    protected void adjustProperties() {
+        super.adjustProperties();
+        sessionManager.setServiceIndexCacheTTL(60 * 1000);
+    }
+
+    @Test
+    public void testCacheConsistency() throws ResolverException, SessionException {
+        
+        HttpServletRequestResponseContext.loadCurrent(new MockHttpServletRequest(), new MockHttpServletResponse());
+        
+        final String serviceId = "https://sp3.example.org/shibboleth";
+        final CriteriaSet criteria =
+                new CriteriaSet(new SPSessionCriterion(serviceId, ExtendedSPSession.SESSION_KEY));
+        
+        final IdPSession session = sessionManager.createSession("joe");
+        final SPSession foo = new ExtendedSPSession(serviceId,
+                System.currentTimeMillis(), System.currentTimeMillis() + 60 * 60 * 1000);
+        session.addSPSession(foo);
+        
+        final long hits = getCount("hits");
+        final long misses = getCount("misses");
+        
+        Assert.assertEquals(Iterables.size(sessionManager.resolve(criteria)), 1);
+        Assert.assertEquals(Iterables.size(sessionManager.resolve(criteria)), 1);
+        Assert.assertEquals(getCount("misses"), misses + 1);
+        Assert.assertEquals(getCount("hits"), hits + 1);
+        
+        // Index changes through this instance are seen immediately.
+        final IdPSession session2 = sessionManager.createSession("joe2");
+        session2.addSPSession(foo);
+        Assert.assertEquals(Iterables.size(sessionManager.resolve(criteria)), 2);
+        
+        session.removeSPSession(foo);
+        sessionManager.destroySession(session.getId(), true);
+        Assert.assertEquals(Iterables.size(sessionManager.resolve(criteria)), 1);
+        
+        sessionManager.destroySession(session2.getId(), true);
+        Assert.assertEquals(Iterables.size(sessionManager.resolve(criteria)), 0);
+    }
+    
+    private long getCount(final String name) {
+        return MetricsSupport.getMetricRegistry().getCounters().get(
+                "net.shibboleth.idp.session.Test Session Manager.serviceIndexCache." + name).getCount();
+    }
+}
@@ -54,6 +54,14 @@ public class StorageBackedIdPSessionSerializerTest {
     private StorageBackedIdPSessionSerializer serializer;
     
     @BeforeMethod public void setUp() throws ComponentInitializationException {
+        manager = createManager(false);
+
+        serializer = new StorageBackedIdPSessionSerializer(manager, null);
+        serializer.initialize();
+    }
+    
+    private StorageBackedSessionManager createManager(final boolean compact)
+            throws ComponentInitializationException {
         final MemoryStorageService storageService = new MemoryStorageService();
         storageService.setId("TestStorageService");
         storageService.setCleanupInterval(0);
@@ -64,7 +72,7 @@ public class StorageBackedIdPSessionSerializerTest {
         cookieManager.setHttpServletResponse(new ThreadLocalHttpServletResponseProxy());
         cookieManager.initialize();
         
-        manager = new StorageBackedSessionManager();
+        final StorageBackedSessionManager manager = new StorageBackedSessionManager();
         manager.setStorageService(storageService);
         manager.setIDGenerator(new SecureRandomIdentifierGenerationStrategy());
         manager.setHttpServletRequest(new ThreadLocalHttpServletRequestProxy());
@@ -73,10 +81,9 @@ public class StorageBackedIdPSessionSerializerTest {
         manager.setId("Test Session Manager");
         manager.setTrackSPSessions(true);
         manager.setSPSessionSerializerRegistry(new SPSessionSerializerRegistry());
+        manager.setCompactSerialization(compact);
         manager.initialize();
-
-        serializer = new StorageBackedIdPSessionSerializer(manager, null);
-        serializer.initialize();
+        return manager;
     }
 
     @Test public void testInvalid() throws Exception {
@@ -151,6 +158,49 @@ public class StorageBackedIdPSessionSerializerTest {
         Assert.assertEquals(session.getLastActivityInstant(), session2.getLastActivityInstant());
     }
     
+    @Test public void testCompact() throws Exception {
+        long exp = INSTANT + (60 * 60 * 1000);
+        
+        final StorageBackedSessionManager compactManager = createManager(true);
+        final StorageBackedIdPSessionSerializer compactSerializer =
+                new StorageBackedIdPSessionSerializer(compactManager, null);
+        compactSerializer.initialize();
+        
+        StorageBackedIdPSession session = new StorageBackedIdPSession(compactManager, "test", "foo", INSTANT);
+        session.doBindToAddress("127.0.0.1");
+        session.doBindToAddress("::1");
+        session.doAddAuthenticationResult(new AuthenticationResult("a", new UsernamePrincipal("jdoe")));
+        session.doAddAuthenticationResult(new AuthenticationResult("b", new UsernamePrincipal("jdoe")));
+        session.doAddSPSession(new BasicSPSession("bar", INSTANT, exp));
+        
+        String s = compactSerializer.serialize(session);
+        Assert.assertTrue(s.length() < serializer.serialize(session).length());
+        
+        StorageBackedIdPSession session2 = compactSerializer.deserialize(1, "test", KEY, s, exp);
+        Assert.assertEquals(session2.getId(), session.getId());
+        Assert.assertEquals(session2.getPrincipalName(), session.getPrincipalName());
+        Assert.assertEquals(session2.getCreationInstant(), session.getCreationInstant());
+        Assert.assertEquals(session2.getLastActivityInstant(), session.getLastActivityInstant());
+        Assert.assertEquals(session2.getAddress(StorageBackedIdPSession.AddressFamily.IPV4), "127.0.0.1");
+        Assert.assertEquals(session2.getAddress(StorageBackedIdPSession.AddressFamily.IPV6), "::1");
+        Assert.assertEquals(session2.getAuthenticationResultMap().keySet(),
+                session.getAuthenticationResultMap().keySet());
+        Assert.assertEquals(session2.getSPSessionMap().keySet(), session.getSPSessionMap().keySet());
+        
+        // Legacy records remain readable, and compact records are readable without the option.
+        session2 = compactSerializer.deserialize(1, "test", KEY, fileToString(DATAPATH + "basicIdPSession.json"), exp);
+        Assert.assertEquals(session2.getPrincipalName(), "foo");
+        session2 = serializer.deserialize(1, "test", KEY, s, exp);
+        Assert.assertEquals(session2.getPrincipalName(), "foo");
+        
+        try {
+            serializer.deserialize(1, CONTEXT, KEY, s.substring(0, s.length() - 4), exp);
+            Assert.fail();
+        } catch (IOException e) {
+            
+        }
+    }
+    
     private String fileToString(String pathname) throws URISyntaxException, IOException {
         try (FileInputStream stream = new FileInputStream(
                 new File(StorageBackedIdPSessionSerializerTest.class.getResource(pathname).toURI()))) {